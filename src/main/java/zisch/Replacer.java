@@ -4,98 +4,1097 @@
 package zisch;
 
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 
 /**
- * TODO [javadoc]: type Replacer
+ * Replaces all occurrences of a set of strings in a single pass, for example instead of a chain of
+ * {@link String#replace(CharSequence, CharSequence)} calls.
+ * <p>
+ * The keys of the mappings are compiled into a trie by {@link #create(Map)}. The input is scanned from left to right;
+ * at each position the longest key which starts there is replaced, and scanning continues after it (leftmost-longest
+ * matching). Replacements are never scanned again, so unlike chained {@code String.replace} calls the result does not
+ * depend on the order of the mappings.
+ * <p>
+ * The trie carries the failure links of the Aho-Corasick automaton, so all keys are matched in a single pass over the
+ * input instead of a trie walk starting at each position: A match is only emitted once no longer or further left
+ * match can still follow, and then the characters between the end of the emitted match and the current position
+ * (fewer than the {@linkplain #getMaxKeyLength() longest key}) are scanned again. For an input of length {@code n}
+ * with {@code m} matches and a longest key of length {@code k}, at most {@code n + m * (k - 1)} characters are
+ * therefore scanned, independent of the number of keys. This is linear in the length of the input as long as matches
+ * are rarely followed by long partial matches of other keys; the worst case is an input like {@code "aaa...a"} with
+ * the keys {@code "a"} and {@code "aa...ab"}, where each match is followed by a partial match of {@code k - 1}
+ * characters (see {@link ReplacerBenchmark}).
+ * <p>
+ * The compiled trie has one of two {@linkplain Layout layouts}: a graph of node objects, or a few primitive arrays for
+ * the whole trie, which is more compact and faster for large sets of keys.
+ * <p>
+ * Very large inputs may be replaced on several processors by {@link #replaceParallel(CharSequence, int, ForkJoinPool)}.
+ * <p>
+ * Streams are replaced by {@link #wrap(Reader)} and {@link #wrap(Writer)}, which only buffer the characters which may
+ * still be part of a match (at most the longest key) besides a chunk of input.
+ * <p>
+ * Instances are immutable and may be shared by multiple threads.
  * 
  * @author zisch
  */
 public final class Replacer {
 
-  public Replacer create (final Map<? extends CharSequence, ? extends CharSequence> mappings) {
-    // FIXME: mappings must not be empty!
+  /**
+   * The size of the buffers of the streams returned by {@link #wrap(Reader)} and {@link #wrap(Writer)} (unless the
+   * longest key needs more).
+   */
+  private static final int STREAM_BUFFER_SIZE = 8192;
+
+  /**
+   * The layouts of the compiled trie.
+   * 
+   * @author zisch
+   */
+  public enum Layout {
+    /**
+     * One object per node, with an array of its children and an array of their keys.
+     */
+    NODES,
+
+    /**
+     * All nodes in a few primitive arrays: the edges of all nodes in one array of keys and one of targets, indexed by
+     * an array with the offset of the edges of each node, and one array each for the failure links, the depths and
+     * the matches. There are no objects per node, and the edges of a node are adjacent in memory.
+     */
+    ARRAYS
+  }
+
+  /**
+   * Compiles the specified mappings into a {@link Replacer} with the {@link Layout#ARRAYS ARRAYS} layout.
+   * 
+   * @param mappings the replacements by the strings to replace; a key mapped to {@code null} is not replaced
+   * 
+   * @return the replacer
+   * 
+   * @throws IllegalArgumentException if the mappings are empty or contain a {@code null} or empty key
+   */
+  public static Replacer create (final Map<? extends CharSequence, ? extends CharSequence> mappings) {
+    return create(mappings, Layout.ARRAYS);
+  }
+
+  /**
+   * Compiles the specified mappings into a {@link Replacer}.
+   * 
+   * @param mappings the replacements by the strings to replace; a key mapped to {@code null} is not replaced
+   * @param layout the layout of the compiled trie
+   * 
+   * @return the replacer
+   * 
+   * @throws IllegalArgumentException if the mappings are empty or contain a {@code null} or empty key
+   */
+  public static Replacer create (final Map<? extends CharSequence, ? extends CharSequence> mappings,
+          final Layout layout) {
+    if (mappings.isEmpty()) {
+      throw new IllegalArgumentException("mappings must not be empty.");
+    }
     final NodeBuilder root = new NodeBuilder();
     for (final Map.Entry<? extends CharSequence, ? extends CharSequence> e : mappings.entrySet()) {
       root.addSingleMapping(e.getKey(), e.getValue());
     }
-    return null;
+    return root.buildReplacer(layout);
   }
 
   private static final class NodeBuilder {
     private final NavigableMap<Character, NodeBuilder> mNodesByKey = new TreeMap<Character, NodeBuilder>();
 
-    private final List<NodeBuilder> mNodes = new ArrayList<NodeBuilder>();
-
-    private final List<Character> mKeys = new ArrayList<Character>();
-
     private String mReplacement = null;
 
     void addSingleMapping (final CharSequence from, final CharSequence to) {
       if (from == null) {
         throw new IllegalArgumentException("mappings must not contain a null key.");
       }
-      addSingleMapping(from, 0, to);
+      if (from.length() == 0) {
+        throw new IllegalArgumentException("mappings must not contain an empty key.");
+      }
+      // Find or create the intermediate nodes:
+      NodeBuilder n = this;
+      for (int i = 0; i < from.length(); i++) {
+        final Character key = from.charAt(i);
+        NodeBuilder child = n.mNodesByKey.get(key);
+        if (child == null) {
+          child = new NodeBuilder();
+          n.mNodesByKey.put(key, child);
+        }
+        n = child;
+      }
+      // Set the replacement on the leaf node:
+      assert n.mReplacement == null : "Unexpected NodeBuilder state: Replacement for key '" + from
+              + "' already exists with value '" + n.mReplacement + "' but should be reset to "
+              + (to == null ? "null" : "'" + to + "'");
+      n.mReplacement = to == null ? null : to.toString();
     }
 
-    private void addSingleMapping (final CharSequence from, final int fromIdx, final CharSequence to) {
-      if (fromIdx < from.length()) {
-        // Find or create intermediate node and recurse:
-        final Character key = from.charAt(fromIdx);
-        NodeBuilder n = mNodesByKey.get(key);
-        if (n == null) {
-          n = new NodeBuilder();
-          mNodesByKey.put(key, n);
-        }
-        n.addSingleMapping(from, fromIdx + 1, to);
+    Replacer buildReplacer (final Layout layout) {
+      final Node[] nodes = linkFailures(buildNodes());
+      final Trie trie = layout == Layout.NODES ? new NodeTrie(nodes) : new ArrayTrie(nodes);
+      // The nodes are in breadth first order, so the last node is one of the deepest:
+      return new Replacer(trie, layout, nodes[nodes.length - 1].mDepth);
+    }
 
-      } else {
-        // Set the replacement on the leaf node:
-        assert mReplacement == null : "Unexpected NodeBuilder state: Replacement for key '" + from
-                + "' already exists with value '" + mReplacement + "' but should be reset to "
-                + (to == null ? "null" : "'" + to + "'");
-        mReplacement = to == null ? null : to.toString();
+    /**
+     * Builds the nodes of the trie breadth first; like all walks of the trie, without recursion, so that long keys
+     * cannot overflow the stack.
+     */
+    private Node buildNodes () {
+      final Node root = newNode(0);
+      final Deque<NodeBuilder> builders = new ArrayDeque<NodeBuilder>();
+      final Deque<Node> nodes = new ArrayDeque<Node>();
+      builders.add(this);
+      nodes.add(root);
+      while (!builders.isEmpty()) {
+        final NodeBuilder b = builders.remove();
+        final Node n = nodes.remove();
+        int i = 0;
+        for (final NodeBuilder childBuilder : b.mNodesByKey.values()) {
+          final Node child = childBuilder.newNode(n.mDepth + 1);
+          n.mNodes[i++] = child;
+          builders.add(childBuilder);
+          nodes.add(child);
+        }
       }
+      return root;
     }
 
-    Replacer buildReplacer () {
-      return null;
+    /**
+     * Returns a new node with the keys and the replacement of this builder; its children are set by
+     * {@link #buildNodes()}.
+     */
+    private Node newNode (final int depth) {
+      final char[] keys = new char[mNodesByKey.size()];
+      int i = 0;
+      for (final Character key : mNodesByKey.keySet()) {
+        keys[i++] = key.charValue();
+      }
+      return new Node(new Node[keys.length], keys, mReplacement, depth);
     }
 
-    private Node buildNode () {
-      return null;
+    /**
+     * Sets the failure links, the matches and the ids of all nodes, breadth first: The failure link of a node points to
+     * the node of the longest proper suffix of its string which is also in the trie.
+     * 
+     * @return the nodes by their ids, in breadth first order
+     */
+    private static Node[] linkFailures (final Node root) {
+      final List<Node> nodes = new ArrayList<Node>();
+      root.mFailure = root;
+      root.mId = 0;
+      nodes.add(root);
+      final Deque<Node> queue = new ArrayDeque<Node>();
+      for (final Node child : root.mNodes) {
+        child.mFailure = root;
+        child.mMatch = child.mReplacement != null ? child : null;
+        child.mId = nodes.size();
+        nodes.add(child);
+        queue.add(child);
+      }
+      while (!queue.isEmpty()) {
+        final Node n = queue.remove();
+        for (int i = 0; i < n.mKeys.length; i++) {
+          final Node child = n.mNodes[i];
+          child.mFailure = root.transition(n.mFailure, n.mKeys[i]);
+          child.mMatch = child.mReplacement != null ? child : child.mFailure.mMatch;
+          child.mId = nodes.size();
+          nodes.add(child);
+          queue.add(child);
+        }
+      }
+      return nodes.toArray(new Node[nodes.size()]);
     }
   }
 
+  /**
+   * A node of the trie. The children are set by {@link NodeBuilder#buildNodes()} and the failure links, matches and ids
+   * by {@link NodeBuilder#linkFailures(Node)} before the {@link Replacer} is constructed; they are never changed
+   * afterwards, so they are safely published by its final {@link Replacer#mTrie} field.
+   */
   private static final class Node {
     private final Node[] mNodes;
 
+    /**
+     * The keys of {@link #mNodes}, sorted for {@link Arrays#binarySearch(char[], char)}.
+     */
     private final char[] mKeys;
 
     private final String mReplacement;
 
-    private Node (final Node[] nodes, final char[] keys, final String replacement) {
+    /**
+     * The length of the string of this node.
+     */
+    private final int mDepth;
+
+    /**
+     * The node of the longest proper suffix of the string of this node which is in the trie (the root for the root).
+     */
+    private Node mFailure = null;
+
+    /**
+     * The node of the longest key which is a suffix of the string of this node (this node itself if it has a
+     * replacement), or {@code null}.
+     */
+    private Node mMatch = null;
+
+    /**
+     * The number of this node in breadth first order; {@code 0} for the root.
+     */
+    private int mId = -1;
+
+    private Node (final Node[] nodes, final char[] keys, final String replacement, final int depth) {
       mNodes = nodes;
       mKeys = keys;
       mReplacement = replacement;
+      mDepth = depth;
     }
 
     Node childForKey (final char key) {
       final int nodeIdx = Arrays.binarySearch(mKeys, key);
-      return null;
+      return nodeIdx < 0 ? null : mNodes[nodeIdx];
+    }
+
+    /**
+     * Returns the node reached from the specified node with the specified character, following the failure links
+     * as long as there is no child for it; this must be the root.
+     */
+    Node transition (final Node from, final char key) {
+      Node n = from;
+      while (true) {
+        final Node child = n.childForKey(key);
+        if (child != null) {
+          return child;
+        }
+        if (n == this) {
+          return this;
+        }
+        n = n.mFailure;
+      }
+    }
+  }
+
+  /**
+   * The compiled trie; the states of the automaton are the numbers of the nodes in breadth first order, {@code 0} is
+   * the root.
+   */
+  private abstract static class Trie {
+    /**
+     * Returns the state reached from the specified state with the specified character (following the failure links
+     * as long as there is no edge for it).
+     */
+    abstract int transition (int state, char c);
+
+    /**
+     * Returns the length of the string of the specified state.
+     */
+    abstract int depth (int state);
+
+    /**
+     * Returns the state of the longest key which is a suffix of the string of the specified state, or {@code -1}.
+     */
+    abstract int match (int state);
+
+    abstract String replacement (int state);
+
+    /**
+     * Returns the estimated number of bytes used by the trie (with compressed references, without the replacements).
+     */
+    abstract long footprint ();
+
+    static long arrayBytes (final long length, final int elementBytes) {
+      return align(16 + length * elementBytes);
+    }
+
+    static long align (final long bytes) {
+      return (bytes + 7) & ~7L;
+    }
+  }
+
+  /**
+   * The {@link Layout#NODES NODES} layout.
+   */
+  private static final class NodeTrie extends Trie {
+    private final Node[] mNodesById;
+
+    NodeTrie (final Node[] nodesById) {
+      mNodesById = nodesById;
+    }
+
+    @Override
+    int transition (final int state, final char c) {
+      return mNodesById[0].transition(mNodesById[state], c).mId;
+    }
+
+    @Override
+    int depth (final int state) {
+      return mNodesById[state].mDepth;
+    }
+
+    @Override
+    int match (final int state) {
+      final Node match = mNodesById[state].mMatch;
+      return match == null ? -1 : match.mId;
+    }
+
+    @Override
+    String replacement (final int state) {
+      return mNodesById[state].mReplacement;
+    }
+
+    @Override
+    long footprint () {
+      // Per node: the object with 7 fields, the array of children and the array of keys:
+      long bytes = arrayBytes(mNodesById.length, 4);
+      for (final Node n : mNodesById) {
+        bytes += align(12 + 7 * 4) + arrayBytes(n.mNodes.length, 4) + arrayBytes(n.mKeys.length, 2);
+      }
+      return bytes;
+    }
+  }
+
+  /**
+   * The {@link Layout#ARRAYS ARRAYS} layout.
+   */
+  private static final class ArrayTrie extends Trie {
+    /**
+     * The edges of state {@code s} are {@code mEdgeKeys[mEdgeStarts[s]]} to {@code mEdgeKeys[mEdgeStarts[s + 1] - 1]}
+     * (sorted), with the target states in {@link #mEdgeTargets}.
+     */
+    private final int[] mEdgeStarts;
+
+    private final char[] mEdgeKeys;
+
+    private final int[] mEdgeTargets;
+
+    private final int[] mFailures;
+
+    private final int[] mDepths;
+
+    private final int[] mMatches;
+
+    /**
+     * The replacements of the states which have one, ordered by state.
+     */
+    private final String[] mReplacements;
+
+    /**
+     * The states which have a replacement, ordered by state.
+     */
+    private final int[] mReplacementStates;
+
+    ArrayTrie (final Node[] nodesById) {
+      final int stateCount = nodesById.length;
+      mEdgeStarts = new int[stateCount + 1];
+      mEdgeKeys = new char[stateCount - 1];
+      mEdgeTargets = new int[stateCount - 1];
+      mFailures = new int[stateCount];
+      mDepths = new int[stateCount];
+      mMatches = new int[stateCount];
+      int edgeCount = 0;
+      int replacementCount = 0;
+      for (int s = 0; s < stateCount; s++) {
+        final Node n = nodesById[s];
+        mEdgeStarts[s] = edgeCount;
+        for (int i = 0; i < n.mKeys.length; i++) {
+          mEdgeKeys[edgeCount] = n.mKeys[i];
+          mEdgeTargets[edgeCount] = n.mNodes[i].mId;
+          edgeCount++;
+        }
+        mFailures[s] = n.mFailure.mId;
+        mDepths[s] = n.mDepth;
+        mMatches[s] = n.mMatch == null ? -1 : n.mMatch.mId;
+        if (n.mReplacement != null) {
+          replacementCount++;
+        }
+      }
+      mEdgeStarts[stateCount] = edgeCount;
+      mReplacements = new String[replacementCount];
+      mReplacementStates = new int[replacementCount];
+      int r = 0;
+      for (int s = 0; s < stateCount; s++) {
+        if (nodesById[s].mReplacement != null) {
+          mReplacements[r] = nodesById[s].mReplacement;
+          mReplacementStates[r] = s;
+          r++;
+        }
+      }
+    }
+
+    @Override
+    int transition (final int state, final char c) {
+      int s = state;
+      while (true) {
+        // Binary search for the edge:
+        int lo = mEdgeStarts[s];
+        int hi = mEdgeStarts[s + 1] - 1;
+        while (lo <= hi) {
+          final int mid = (lo + hi) >>> 1;
+          final char key = mEdgeKeys[mid];
+          if (key < c) {
+            lo = mid + 1;
+          } else if (key > c) {
+            hi = mid - 1;
+          } else {
+            return mEdgeTargets[mid];
+          }
+        }
+        if (s == 0) {
+          return 0;
+        }
+        s = mFailures[s];
+      }
+    }
+
+    @Override
+    int depth (final int state) {
+      return mDepths[state];
+    }
+
+    @Override
+    int match (final int state) {
+      return mMatches[state];
+    }
+
+    @Override
+    String replacement (final int state) {
+      return mReplacements[Arrays.binarySearch(mReplacementStates, state)];
+    }
+
+    @Override
+    long footprint () {
+      return arrayBytes(mEdgeStarts.length, 4) + arrayBytes(mEdgeKeys.length, 2) + arrayBytes(mEdgeTargets.length, 4)
+              + arrayBytes(mFailures.length, 4) + arrayBytes(mDepths.length, 4) + arrayBytes(mMatches.length, 4)
+              + arrayBytes(mReplacements.length, 4) + arrayBytes(mReplacementStates.length, 4);
     }
   }
 
-  private final Node mRoot;
+  private final Trie mTrie;
+
+  private final Layout mLayout;
 
-  private Replacer (final Node root) {
-    mRoot = root;
+  private final int mMaxKeyLength;
+
+  private Replacer (final Trie trie, final Layout layout, final int maxKeyLength) {
+    mTrie = trie;
+    mLayout = layout;
+    mMaxKeyLength = maxKeyLength;
+  }
+
+  /**
+   * Returns the layout of the compiled trie.
+   * 
+   * @return the layout
+   */
+  public Layout getLayout () {
+    return mLayout;
+  }
+
+  /**
+   * Returns the estimated number of bytes used by the compiled trie, assuming a 64 bit JVM with compressed references
+   * (not counting the replacement strings, which are shared with the mappings).
+   * 
+   * @return the estimated footprint in bytes
+   */
+  public long getFootprint () {
+    return mTrie.footprint();
+  }
+
+  /**
+   * Returns the length of the longest key.
+   * 
+   * @return the maximum number of characters replaced at once
+   */
+  public int getMaxKeyLength () {
+    return mMaxKeyLength;
+  }
+
+  /**
+   * Replaces all occurrences of the keys in the specified string.
+   * 
+   * @param cs the string
+   * 
+   * @return the string with all occurrences of the keys replaced
+   */
+  public String replace (final CharSequence cs) {
+    final StringBuilder sb = new StringBuilder(cs.length() + 16);
+    try {
+      replace(cs, sb);
+    } catch (final IOException exc) {
+      throw new IllegalStateException("Unexpected IOException while writing to StringBuilder: " + exc, exc);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends the specified string with all occurrences of the keys replaced to the specified {@link Appendable}. Runs of
+   * characters which are not replaced are appended with a single {@link Appendable#append(CharSequence, int, int)}
+   * call.
+   * 
+   * @param cs the string
+   * @param out the {@link Appendable} to write to
+   * 
+   * @return the specified {@link Appendable}
+   * 
+   * @throws IOException if thrown by the {@link Appendable}
+   */
+  public Appendable replace (final CharSequence cs, final Appendable out) throws IOException {
+    final int len = cs.length();
+    // The end of the last emitted match (or 0):
+    int start = 0;
+    final Trie trie = mTrie;
+    // The pending match (its state and start, or -1), which is emitted as soon as no match can start at or before its
+    // start:
+    int match = -1;
+    int matchStart = 0;
+    int matchEnd = 0;
+    int state = 0;
+    int i = 0;
+    while (true) {
+      if (i < len) {
+        state = trie.transition(state, cs.charAt(i));
+        i++;
+        if (match < 0 || i - trie.depth(state) <= matchStart) {
+          // Only the longest key ending here can start further left or at the start of the pending match (and then
+          // is longer):
+          final int m = trie.match(state);
+          if (m >= 0 && (match < 0 || i - trie.depth(m) <= matchStart)) {
+            match = m;
+            matchStart = i - trie.depth(m);
+            matchEnd = i;
+          }
+          continue;
+        }
+      } else if (match < 0) {
+        break;
+      }
+      // Emit the pending match and scan again from its end:
+      out.append(cs, start, matchStart).append(trie.replacement(match));
+      start = matchEnd;
+      i = matchEnd;
+      match = -1;
+      state = 0;
+    }
+    return out.append(cs, start, len);
+  }
+
+  /**
+   * Replaces all occurrences of the keys in the specified string in parallel, in one chunk per available processor.
+   * 
+   * @param cs the string
+   * 
+   * @return the string with all occurrences of the keys replaced
+   * 
+   * @see #replaceParallel(CharSequence, int, ForkJoinPool)
+   */
+  public String replaceParallel (final CharSequence cs) {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final ForkJoinPool pool = new ForkJoinPool(processors);
+    try {
+      return replaceParallel(cs, processors, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Replaces all occurrences of the keys in the specified string in parallel: The string is split into
+   * {@code chunkCount} consecutive chunks, in each of which a task of the specified {@link ForkJoinPool} searches the
+   * matches as if the scan started at the start of the chunk (reading up to the longest key beyond its end). The
+   * chunks are then joined in order: Where a match of the previous chunks extends into a chunk, the chunk is scanned
+   * again from the end of that match until its matches agree with the scan, which is usually after the first match.
+   * <p>
+   * The result is therefore identical to that of {@link #replace(CharSequence)}. The compiled trie is shared by all
+   * tasks; the string must not be modified while it is replaced.
+   * 
+   * @param cs the string
+   * @param chunkCount the number of chunks; should be about the parallelism of {@code pool}
+   * @param pool the pool which runs the chunk tasks
+   * 
+   * @return the string with all occurrences of the keys replaced
+   */
+  public String replaceParallel (final CharSequence cs, final int chunkCount, final ForkJoinPool pool) {
+    if (chunkCount < 1) {
+      throw new IllegalArgumentException("chunkCount must be >= 1 but was " + chunkCount);
+    }
+    final int len = cs.length();
+    final int chunkSize = Math.max(1, (int) (((long) len + chunkCount - 1) / chunkCount));
+    final Matches matches = pool.invoke(new ParallelScan(this, cs, 0, len, chunkSize));
+    final StringBuilder sb = new StringBuilder(len + 16);
+    int start = 0;
+    for (int i = 0; i < matches.mCount; i++) {
+      final int state = matches.mStates[i];
+      sb.append(cs, start, matches.mStarts[i]).append(mTrie.replacement(state));
+      start = matches.mStarts[i] + mTrie.depth(state);
+    }
+    return sb.append(cs, start, len).toString();
+  }
+
+  /**
+   * Returns the leftmost-longest match of a scan starting at {@code from} which reads the characters before
+   * {@code end}, as its start in the upper and its state in the lower 32 bits, or {@code -1} if there is none.
+   */
+  private long nextMatch (final CharSequence cs, final int from, final int end) {
+    final Trie trie = mTrie;
+    int match = -1;
+    int matchStart = 0;
+    int state = 0;
+    int i = from;
+    while (i < end) {
+      state = trie.transition(state, cs.charAt(i));
+      i++;
+      if (match >= 0 && i - trie.depth(state) > matchStart) {
+        break;
+      }
+      final int m = trie.match(state);
+      if (m >= 0 && (match < 0 || i - trie.depth(m) <= matchStart)) {
+        match = m;
+        matchStart = i - trie.depth(m);
+      }
+    }
+    return match < 0 ? -1 : ((long) matchStart << 32) | match;
   }
 
+  /**
+   * Adds the matches of a scan starting at {@code from} which start before {@code to} to the specified matches.
+   */
+  private void scanChunk (final CharSequence cs, final int from, final int to, final Matches matches) {
+    final int end = Math.min(cs.length(), to + mMaxKeyLength - 1);
+    int p = from;
+    while (true) {
+      final long m = nextMatch(cs, p, end);
+      if (m < 0 || (int) (m >>> 32) >= to) {
+        return;
+      }
+      matches.add((int) (m >>> 32), (int) m);
+      p = (int) (m >>> 32) + mTrie.depth((int) m);
+    }
+  }
+
+  /**
+   * Appends the matches of the following chunk to the matches of the preceding chunks, scanning the start of the
+   * following chunk again if the last preceding match extends into it.
+   */
+  private void joinChunks (final CharSequence cs, final Matches head, final Matches tail) {
+    final Trie trie = mTrie;
+    int p = head.mCount == 0 ? tail.mFrom : Math.max(tail.mFrom, head.end(trie, head.mCount - 1));
+    int j = 0;
+    while (true) {
+      while (j < tail.mCount && tail.mStarts[j] < p) {
+        j++;
+      }
+      // If the scan of the tail resumed at or before p and its next match starts at or after p, it found the leftmost
+      // match after p as well, and both scans agree from there on:
+      if ((j == 0 ? tail.mFrom : tail.end(trie, j - 1)) <= p) {
+        for (; j < tail.mCount; j++) {
+          head.add(tail.mStarts[j], tail.mStates[j]);
+        }
+        break;
+      }
+      final long m = nextMatch(cs, p, Math.min(cs.length(), tail.mTo + mMaxKeyLength - 1));
+      if (m < 0 || (int) (m >>> 32) >= tail.mTo) {
+        break;
+      }
+      head.add((int) (m >>> 32), (int) m);
+      p = (int) (m >>> 32) + trie.depth((int) m);
+    }
+    head.mTo = tail.mTo;
+  }
+
+  /**
+   * Returns a {@link Reader} which reads the specified {@link Reader} with all occurrences of the keys replaced.
+   * <p>
+   * The input is read in chunks; besides a chunk and its replaced output, only the characters which may still be part
+   * of a match are buffered, so arbitrarily large inputs are replaced with constant memory. The returned reader is not
+   * thread-safe.
+   * 
+   * @param in the reader to read from; closed when the returned reader is closed
+   * 
+   * @return the replacing reader
+   */
+  public Reader wrap (final Reader in) {
+    return new ReplacingReader(in, this);
+  }
+
+  /**
+   * Returns a {@link Writer} which writes to the specified {@link Writer} with all occurrences of the keys replaced.
+   * <p>
+   * Only the characters which may still be part of a match are buffered (besides a chunk of input), so arbitrarily
+   * large outputs are replaced with constant memory. {@link Writer#flush()} writes all characters which can no longer
+   * be part of a match; the rest is only written by {@link Writer#close()}, which must therefore be called at the end.
+   * The returned writer is not thread-safe.
+   * 
+   * @param out the writer to write to; closed when the returned writer is closed
+   * 
+   * @return the replacing writer
+   */
+  public Writer wrap (final Writer out) {
+    return new ReplacingWriter(out, this);
+  }
+
+  /**
+   * The matches in a range of the input, in order: their starts and states.
+   */
+  private static final class Matches {
+    private final int mFrom;
+
+    private int mTo;
+
+    private int[] mStarts = new int[16];
+
+    private int[] mStates = new int[16];
+
+    private int mCount = 0;
+
+    Matches (final int from, final int to) {
+      mFrom = from;
+      mTo = to;
+    }
+
+    void add (final int start, final int state) {
+      if (mCount == mStarts.length) {
+        mStarts = Arrays.copyOf(mStarts, 2 * mCount);
+        mStates = Arrays.copyOf(mStates, 2 * mCount);
+      }
+      mStarts[mCount] = start;
+      mStates[mCount] = state;
+      mCount++;
+    }
+
+    int end (final Trie trie, final int i) {
+      return mStarts[i] + trie.depth(mStates[i]);
+    }
+  }
+
+  /**
+   * {@link RecursiveTask} which finds the matches in a range of the input for
+   * {@link Replacer#replaceParallel(CharSequence, int, ForkJoinPool)}.
+   * <p>
+   * The range is split in halves until it holds no more than the chunk size. Each chunk is scanned independently; the
+   * halves are then joined in order by {@link Replacer#joinChunks(CharSequence, Matches, Matches)}.
+   */
+  private static final class ParallelScan extends RecursiveTask<Matches> {
+    private static final long serialVersionUID = 1L;
+
+    private final Replacer mReplacer;
+
+    private final CharSequence mCs;
+
+    private final int mFrom;
+
+    private final int mTo;
+
+    private final int mChunkSize;
+
+    ParallelScan (final Replacer replacer, final CharSequence cs, final int from, final int to, final int chunkSize) {
+      mReplacer = replacer;
+      mCs = cs;
+      mFrom = from;
+      mTo = to;
+      mChunkSize = chunkSize;
+    }
+
+    @Override
+    protected Matches compute () {
+      final int size = mTo - mFrom;
+      if (size <= mChunkSize) {
+        final Matches matches = new Matches(mFrom, mTo);
+        mReplacer.scanChunk(mCs, mFrom, mTo, matches);
+        return matches;
+      }
+      // Split at a multiple of the chunk size, so that all chunks but the last one are full:
+      final int mid = mFrom + ((size / mChunkSize + 1) / 2) * mChunkSize;
+      final ParallelScan head = new ParallelScan(mReplacer, mCs, mFrom, mid, mChunkSize);
+      final ParallelScan tail = new ParallelScan(mReplacer, mCs, mid, mTo, mChunkSize);
+      tail.fork();
+      final Matches matches = head.compute();
+      mReplacer.joinChunks(mCs, matches, tail.join());
+      return matches;
+    }
+  }
+
+  /**
+   * Replaces the keys in a stream of characters which are written in chunks, with the same loop as
+   * {@link Replacer#replace(CharSequence, Appendable)} on the buffered characters.
+   * <p>
+   * The buffer holds the characters from the end of the last emitted match to the end of the input so far. When it is
+   * full, the characters before both the pending match and the longest suffix which is a prefix of a key are written
+   * and the rest is moved to its start; that rest is never longer than the longest key.
+   */
+  private static final class StreamScanner {
+    private final Trie mTrie;
+
+    private final Writer mOut;
+
+    private final char[] mBuffer;
+
+    /**
+     * The start of the characters which have not been written yet.
+     */
+    private int mStart = 0;
+
+    /**
+     * The end of the buffered input.
+     */
+    private int mLength = 0;
+
+    /**
+     * The end of the scanned input.
+     */
+    private int mPosition = 0;
+
+    private int mState = 0;
+
+    private int mMatch = -1;
+
+    private int mMatchStart = 0;
+
+    private int mMatchEnd = 0;
+
+    StreamScanner (final Replacer replacer, final Writer out) {
+      mTrie = replacer.mTrie;
+      mOut = out;
+      mBuffer = new char[Math.max(STREAM_BUFFER_SIZE, 2 * replacer.mMaxKeyLength)];
+    }
+
+    void write (final int c) throws IOException {
+      if (mLength == mBuffer.length) {
+        compact();
+      }
+      mBuffer[mLength++] = (char) c;
+      scan(false);
+    }
+
+    void write (final char[] cs, final int off, final int len) throws IOException {
+      int o = off;
+      final int end = off + len;
+      while (o < end) {
+        if (mLength == mBuffer.length) {
+          compact();
+        }
+        final int n = Math.min(end - o, mBuffer.length - mLength);
+        System.arraycopy(cs, o, mBuffer, mLength, n);
+        mLength += n;
+        o += n;
+        scan(false);
+      }
+    }
+
+    void write (final String s, final int off, final int len) throws IOException {
+      int o = off;
+      final int end = off + len;
+      while (o < end) {
+        if (mLength == mBuffer.length) {
+          compact();
+        }
+        final int n = Math.min(end - o, mBuffer.length - mLength);
+        s.getChars(o, o + n, mBuffer, mLength);
+        mLength += n;
+        o += n;
+        scan(false);
+      }
+    }
+
+    /**
+     * Writes the characters which can no longer be part of a match and moves the rest to the start of the buffer.
+     */
+    void compact () throws IOException {
+      // A longer match may still start before the pending one:
+      final int unmatched = mPosition - mTrie.depth(mState);
+      final int safe = mMatch >= 0 ? Math.min(mMatchStart, unmatched) : unmatched;
+      mOut.write(mBuffer, mStart, safe - mStart);
+      System.arraycopy(mBuffer, safe, mBuffer, 0, mLength - safe);
+      mStart = 0;
+      mLength -= safe;
+      mPosition -= safe;
+      mMatchStart -= safe;
+      mMatchEnd -= safe;
+    }
+
+    /**
+     * Writes the rest of the input at its end.
+     */
+    void finish () throws IOException {
+      scan(true);
+      mStart = 0;
+      mLength = 0;
+      mPosition = 0;
+      mState = 0;
+    }
+
+    private void scan (final boolean end) throws IOException {
+      final Trie trie = mTrie;
+      final char[] buf = mBuffer;
+      final int len = mLength;
+      int start = mStart;
+      int match = mMatch;
+      int matchStart = mMatchStart;
+      int matchEnd = mMatchEnd;
+      int state = mState;
+      int i = mPosition;
+      while (true) {
+        if (i < len) {
+          state = trie.transition(state, buf[i]);
+          i++;
+          if (match < 0 || i - trie.depth(state) <= matchStart) {
+            final int m = trie.match(state);
+            if (m >= 0 && (match < 0 || i - trie.depth(m) <= matchStart)) {
+              match = m;
+              matchStart = i - trie.depth(m);
+              matchEnd = i;
+            }
+            continue;
+          }
+        } else if (!end) {
+          // Wait for more input:
+          break;
+        } else if (match < 0) {
+          mOut.write(buf, start, len - start);
+          start = len;
+          break;
+        }
+        mOut.write(buf, start, matchStart - start);
+        mOut.write(trie.replacement(match));
+        start = matchEnd;
+        i = matchEnd;
+        match = -1;
+        state = 0;
+      }
+      mStart = start;
+      mMatch = match;
+      mMatchStart = matchStart;
+      mMatchEnd = matchEnd;
+      mState = state;
+      mPosition = i;
+    }
+  }
+
+  /**
+   * The {@link Reader} returned by {@link Replacer#wrap(Reader)}.
+   */
+  private static final class ReplacingReader extends Reader {
+    private final Reader mIn;
+
+    /**
+     * The replaced characters which have not been read yet, from {@link #mOutputPosition}.
+     */
+    private final StringWriter mOutput = new StringWriter();
+
+    private final StreamScanner mScanner;
+
+    private final char[] mChunk = new char[STREAM_BUFFER_SIZE];
+
+    private int mOutputPosition = 0;
+
+    private boolean mEndOfInput = false;
+
+    ReplacingReader (final Reader in, final Replacer replacer) {
+      mIn = in;
+      mScanner = new StreamScanner(replacer, mOutput);
+    }
+
+    @Override
+    public int read (final char[] cbuf, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      final StringBuffer output = mOutput.getBuffer();
+      while (mOutputPosition == output.length()) {
+        if (mEndOfInput) {
+          return -1;
+        }
+        output.setLength(0);
+        mOutputPosition = 0;
+        final int n = mIn.read(mChunk, 0, mChunk.length);
+        if (n < 0) {
+          mEndOfInput = true;
+          mScanner.finish();
+        } else {
+          mScanner.write(mChunk, 0, n);
+        }
+      }
+      final int n = Math.min(len, output.length() - mOutputPosition);
+      output.getChars(mOutputPosition, mOutputPosition + n, cbuf, off);
+      mOutputPosition += n;
+      return n;
+    }
+
+    @Override
+    public void close () throws IOException {
+      mIn.close();
+    }
+  }
+
+  /**
+   * The {@link Writer} returned by {@link Replacer#wrap(Writer)}.
+   */
+  private static final class ReplacingWriter extends Writer {
+    private final Writer mOut;
+
+    private final StreamScanner mScanner;
+
+    private boolean mClosed = false;
+
+    ReplacingWriter (final Writer out, final Replacer replacer) {
+      mOut = out;
+      mScanner = new StreamScanner(replacer, out);
+    }
+
+    @Override
+    public void write (final int c) throws IOException {
+      ensureOpen();
+      mScanner.write(c);
+    }
+
+    @Override
+    public void write (final char[] cbuf, final int off, final int len) throws IOException {
+      ensureOpen();
+      mScanner.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write (final String str, final int off, final int len) throws IOException {
+      ensureOpen();
+      mScanner.write(str, off, len);
+    }
+
+    @Override
+    public void flush () throws IOException {
+      ensureOpen();
+      mScanner.compact();
+      mOut.flush();
+    }
+
+    @Override
+    public void close () throws IOException {
+      if (!mClosed) {
+        mClosed = true;
+        try {
+          mScanner.finish();
+        } finally {
+          mOut.close();
+        }
+      }
+    }
+
+    private void ensureOpen () throws IOException {
+      if (mClosed) {
+        throw new IOException("Stream closed");
+      }
+    }
+  }
 }
@@ -0,0 +1,340 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch;
+
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Simple benchmarks for the {@link Replacer} on a generated text.
+ * <p>
+ * The text consists of words built from random syllables; the keys are random words of the same kind (so many keys
+ * share prefixes with the words of the text, and some of them occur in it).
+ * 
+ * @author zisch
+ */
+public final class ReplacerBenchmark {
+
+  /**
+   * Appended to the replacements of the matching keys of {@link #generateMappings(long, int, int)}, to count the
+   * matches in the output; it does not occur in the text.
+   */
+  private static final char MATCH_MARKER = '|';
+
+  private static final String[] SYLLABLES = new String[] { "an", "ber", "cal", "de", "en", "for", "ga", "hil", "in",
+          "jo", "ka", "lu", "man", "ne", "or", "pa", "qui", "ra", "sto", "ti", "un", "ve", "wa", "xi", "yo", "zu" };
+
+  private ReplacerBenchmark () {
+    throw new AssertionError("not allowed");
+  }
+
+  /**
+   * Main method.
+   * 
+   * @param args command line arguments: the length of the text in characters (optional, default 4000000) and the
+   *          benchmark to run ({@code keys}, {@code partial}, {@code layouts}, {@code streams} or {@code parallel};
+   *          optional, default all)
+   * 
+   * @throws IOException never (the streams read from and write to memory)
+   */
+  public static void main (final String[] args) throws IOException {
+    final int length = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+    final String benchmark = args.length > 1 ? args[1] : null;
+    final String text = generateText(4711L, length);
+    if (benchmark == null || benchmark.equals("keys")) {
+      benchmarkKeyCounts(text);
+    }
+    if (benchmark == null || benchmark.equals("partial")) {
+      benchmarkPartialMatches(length);
+    }
+    if (benchmark == null || benchmark.equals("layouts")) {
+      benchmarkLayouts(text);
+    }
+    if (benchmark == null || benchmark.equals("streams")) {
+      benchmarkStreams(text);
+    }
+    if (benchmark == null || benchmark.equals("parallel")) {
+      benchmarkParallel(text);
+    }
+  }
+
+  /**
+   * Measures the throughput of {@link Replacer#replace(CharSequence)} with 10 to 100'000 keys, and for up to 100 keys
+   * that of the equivalent chain of {@link String#replace(CharSequence, CharSequence)} calls.
+   * <p>
+   * The same 10 keys match in every run; all other keys share prefixes with the words of the text but never match.
+   * The number of matches is therefore the same for all key counts, so the throughput shows the cost of the number of
+   * keys alone.
+   * 
+   * @param text the text to replace the keys in
+   */
+  static void benchmarkKeyCounts (final String text) {
+    for (final int keyCount : new int[] { 10, 100, 1000, 10000, 100000 }) {
+      final Map<String, String> mappings = generateMappings(4711L, keyCount, 10);
+      final Replacer replacer = Replacer.create(mappings);
+      // Warm up:
+      for (int i = 0; i < 3; i++) {
+        replacer.replace(text);
+      }
+      final int runs = 5;
+      String replaced = null;
+      final long start = System.nanoTime();
+      for (int i = 0; i < runs; i++) {
+        replaced = replacer.replace(text);
+      }
+      final long nanos = System.nanoTime() - start;
+      int matches = 0;
+      for (int i = 0; i < replaced.length(); i++) {
+        if (replaced.charAt(i) == MATCH_MARKER) {
+          matches++;
+        }
+      }
+      String chained = "";
+      if (keyCount <= 100) {
+        final long chainStart = System.nanoTime();
+        String s = text;
+        for (final Map.Entry<String, String> e : mappings.entrySet()) {
+          s = s.replace(e.getKey(), e.getValue());
+        }
+        chained = String.format(Locale.ROOT, " | String.replace chain %8.1f MB/s", text.length() * 2e3
+                / (System.nanoTime() - chainStart));
+      }
+      System.out.println(String.format(Locale.ROOT, "%6d keys: Replacer %8.1f MB/s (%d matches)%s", keyCount,
+              (long) runs * text.length() * 2e3 / nanos, matches, chained));
+    }
+  }
+
+  /**
+   * Measures the worst case of {@link Replacer#replace(CharSequence)}: the input {@code "aaa...a"} with the keys
+   * {@code "a"} and <code>"a</code>&times;<code>L + "b"</code>, where each match is followed by a partial match of
+   * {@code L} characters which is scanned again. The time grows with {@code L}.
+   * 
+   * @param length the length of the input; at most 200'000 characters are used
+   */
+  static void benchmarkPartialMatches (final int length) {
+    final int len = Math.min(length, 200000);
+    final StringBuilder sb = new StringBuilder(len);
+    while (sb.length() < len) {
+      sb.append('a');
+    }
+    final String text = sb.toString();
+    for (final int partialLength : new int[] { 10, 100, 1000 }) {
+      final Map<String, String> mappings = new LinkedHashMap<String, String>();
+      mappings.put("a", "A");
+      mappings.put(text.substring(0, partialLength) + "b", "B");
+      final Replacer replacer = Replacer.create(mappings);
+      // Warm up:
+      replacer.replace(text);
+      final long start = System.nanoTime();
+      replacer.replace(text);
+      final long nanos = System.nanoTime() - start;
+      System.out.println(String.format(Locale.ROOT, "partial match of %4d chars after each match: %8.1f MB/s",
+              partialLength, text.length() * 2e3 / nanos));
+    }
+  }
+
+  /**
+   * Compares the footprint and the throughput of the {@linkplain Replacer.Layout layouts} of the {@link Replacer} with
+   * 1000 to 100'000 keys.
+   * 
+   * @param text the text to replace the keys in
+   */
+  static void benchmarkLayouts (final String text) {
+    for (final int keyCount : new int[] { 1000, 10000, 100000 }) {
+      final Map<String, String> mappings = generateMappings(keyCount, keyCount);
+      for (final Replacer.Layout layout : Replacer.Layout.values()) {
+        final Replacer replacer = Replacer.create(mappings, layout);
+        // Warm up:
+        for (int i = 0; i < 3; i++) {
+          replacer.replace(text);
+        }
+        final int runs = 5;
+        final long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+          replacer.replace(text);
+        }
+        final long nanos = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ROOT, "%6d keys, %-6s: %10d bytes %8.1f MB/s", keyCount, layout,
+                replacer.getFootprint(), (long) runs * text.length() * 2e3 / nanos));
+      }
+    }
+  }
+
+  /**
+   * Compares the throughput of {@link Replacer#replace(CharSequence)} with that of {@link Replacer#wrap(Reader)} and
+   * {@link Replacer#wrap(Writer)} (with a discarding {@link Writer}) for 1000 keys.
+   * 
+   * @param text the text to replace the keys in
+   * 
+   * @throws IOException never
+   */
+  static void benchmarkStreams (final String text) throws IOException {
+    final Replacer replacer = Replacer.create(generateMappings(1000, 1000));
+    final char[] cbuf = new char[8192];
+    for (int run = 0; run < 5; run++) {
+      final long start = System.nanoTime();
+      replacer.replace(text);
+      final long replaceNanos = System.nanoTime() - start;
+
+      final long readerStart = System.nanoTime();
+      final Reader r = replacer.wrap(new StringReader(text));
+      while (r.read(cbuf) >= 0) {
+        // discard
+      }
+      r.close();
+      final long readerNanos = System.nanoTime() - readerStart;
+
+      final long writerStart = System.nanoTime();
+      final Writer w = replacer.wrap(new NullWriter());
+      for (int i = 0; i < text.length(); i += cbuf.length) {
+        w.write(text, i, Math.min(cbuf.length, text.length() - i));
+      }
+      w.close();
+      final long writerNanos = System.nanoTime() - writerStart;
+      if (run >= 2) {
+        System.out.println(String.format(Locale.ROOT, "replace %8.1f MB/s | wrap(Reader) %8.1f MB/s | "
+                + "wrap(Writer) %8.1f MB/s", text.length() * 2e3 / replaceNanos, text.length() * 2e3 / readerNanos,
+                text.length() * 2e3 / writerNanos));
+      }
+    }
+  }
+
+  /**
+   * Compares the throughput of {@link Replacer#replace(CharSequence)} with that of
+   * {@link Replacer#replaceParallel(CharSequence, int, ForkJoinPool)} with one chunk per available processor (and four
+   * chunks if there is only one processor, to show the cost of joining the chunks) for 1000 keys.
+   * 
+   * @param text the text to replace the keys in
+   */
+  static void benchmarkParallel (final String text) {
+    final Replacer replacer = Replacer.create(generateMappings(1000, 1000));
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final int chunkCount = processors > 1 ? processors : 4;
+    final ForkJoinPool pool = new ForkJoinPool(processors);
+    try {
+      for (int run = 0; run < 5; run++) {
+        final long start = System.nanoTime();
+        final String expected = replacer.replace(text);
+        final long nanos = System.nanoTime() - start;
+        final long parallelStart = System.nanoTime();
+        final String actual = replacer.replaceParallel(text, chunkCount, pool);
+        final long parallelNanos = System.nanoTime() - parallelStart;
+        if (!actual.equals(expected)) {
+          throw new IllegalStateException("Parallel replacement differs from sequential replacement.");
+        }
+        if (run >= 2) {
+          System.out.println(String.format(Locale.ROOT, "replace %8.1f MB/s | replaceParallel (%d processors, %d "
+                  + "chunks) %8.1f MB/s", text.length() * 2e3 / nanos, processors, chunkCount, text.length() * 2e3
+                  / parallelNanos));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Generates mappings from random words.
+   * 
+   * @param seed the seed for the random numbers
+   * @param count the number of mappings
+   * 
+   * @return the mappings from random words to their upper case form
+   */
+  static Map<String, String> generateMappings (final long seed, final int count) {
+    final Random rnd = new Random(seed);
+    final Map<String, String> mappings = new LinkedHashMap<String, String>();
+    while (mappings.size() < count) {
+      final String word = randomWord(rnd);
+      mappings.put(word, word.toUpperCase(Locale.ROOT));
+    }
+    return mappings;
+  }
+
+  /**
+   * Generates mappings with a fixed number of keys which occur in the text: the first {@code matchingCount} keys are
+   * random words, which are mapped to their upper case form followed by a {@link #MATCH_MARKER}; all other keys are
+   * random words followed by a {@code '#'}, which does not occur in the text.
+   * 
+   * @param seed the seed for the random numbers
+   * @param count the number of mappings
+   * @param matchingCount the number of keys which may occur in the text
+   * 
+   * @return the mappings
+   */
+  static Map<String, String> generateMappings (final long seed, final int count, final int matchingCount) {
+    final Random rnd = new Random(seed);
+    final Map<String, String> mappings = new LinkedHashMap<String, String>();
+    while (mappings.size() < matchingCount) {
+      final String word = randomWord(rnd);
+      mappings.put(word, word.toUpperCase(Locale.ROOT) + MATCH_MARKER);
+    }
+    while (mappings.size() < count) {
+      final String word = randomWord(rnd) + '#';
+      mappings.put(word, word.toUpperCase(Locale.ROOT));
+    }
+    return mappings;
+  }
+
+  /**
+   * Generates a text of random words separated by spaces.
+   * 
+   * @param seed the seed for the random numbers
+   * @param length the length of the text
+   * 
+   * @return the text
+   */
+  static String generateText (final long seed, final int length) {
+    final Random rnd = new Random(seed);
+    final StringBuilder sb = new StringBuilder(length + 32);
+    while (sb.length() < length) {
+      sb.append(randomWord(rnd)).append(rnd.nextInt(10) == 0 ? ". " : " ");
+    }
+    sb.setLength(length);
+    return sb.toString();
+  }
+
+  /**
+   * Discards the output.
+   */
+  private static final class NullWriter extends Writer {
+    @Override
+    public void write (final char[] cbuf, final int off, final int len) {
+      // discard
+    }
+
+    @Override
+    public void write (final String str, final int off, final int len) {
+      // discard
+    }
+
+    @Override
+    public void flush () {
+      // nothing to flush
+    }
+
+    @Override
+    public void close () {
+      // nothing to close
+    }
+  }
+
+  private static String randomWord (final Random rnd) {
+    final StringBuilder sb = new StringBuilder();
+    final int syllables = 1 + rnd.nextInt(4);
+    for (int i = 0; i < syllables; i++) {
+      sb.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+    }
+    return sb.toString();
+  }
+}
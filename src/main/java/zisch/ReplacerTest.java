@@ -0,0 +1,260 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch;
+
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link Replacer}.
+ * 
+ * @author zisch
+ */
+public class ReplacerTest {
+
+  /**
+   * Tests that {@link Replacer#replace(CharSequence)} replaces the leftmost-longest matches and does not rescan
+   * replacements.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testReplace () throws Exception {
+    final Map<String, String> mappings = new HashMap<String, String>();
+    mappings.put("&", "&amp;");
+    mappings.put("<", "&lt;");
+    mappings.put("a", "1");
+    mappings.put("ab", "2");
+    mappings.put("abc", "3");
+    mappings.put("bcd", "4");
+    mappings.put("x", null);
+    for (final Replacer.Layout layout : Replacer.Layout.values()) {
+      final Replacer replacer = Replacer.create(mappings, layout);
+      Assert.assertEquals(layout, replacer.getLayout());
+      Assert.assertEquals(3, replacer.getMaxKeyLength());
+      Assert.assertTrue(replacer.getFootprint() > 0);
+
+      Assert.assertEquals("", replacer.replace(""));
+      Assert.assertEquals("no hit", replacer.replace("no hit"));
+      Assert.assertEquals("&amp;lt; &lt;", replacer.replace("&lt; <"));
+      Assert.assertEquals("3d", replacer.replace("abcd"));
+      Assert.assertEquals("2", replacer.replace("ab"));
+      Assert.assertEquals("24", replacer.replace("abbcd"));
+      Assert.assertEquals("113d", replacer.replace("aaabcd"));
+      Assert.assertEquals("x1xb", replacer.replace("xaxb"));
+      Assert.assertEquals("[3][2][1]", replacer.replace(new StringBuilder("[abc][ab][a]")));
+      Assert.assertEquals("> 1", replacer.replace(" a", new StringBuilder(">")).toString());
+    }
+
+    // A key of 100000 characters (the trie is built without recursion):
+    final StringBuilder longKey = new StringBuilder();
+    while (longKey.length() < 100000) {
+      longKey.append("ab");
+    }
+    final Map<String, String> longMappings = new HashMap<String, String>();
+    longMappings.put(longKey.toString(), "L");
+    longMappings.put("b", "B");
+    for (final Replacer.Layout layout : Replacer.Layout.values()) {
+      final Replacer replacer = Replacer.create(longMappings, layout);
+      Assert.assertEquals(longKey.length(), replacer.getMaxKeyLength());
+      Assert.assertEquals("xLaB", replacer.replace("x" + longKey + "ab"));
+    }
+
+    final Replacer identity = Replacer.create(Collections.singletonMap("a", "a"));
+    Assert.assertEquals("banana", identity.replace("banana"));
+
+    try {
+      Replacer.create(Collections.<String, String> emptyMap());
+      Assert.fail("Created replacer without mappings.");
+    } catch (final IllegalArgumentException exc) {
+      // expected
+    }
+    try {
+      Replacer.create(Collections.singletonMap("", "x"));
+      Assert.fail("Created replacer with empty key.");
+    } catch (final IllegalArgumentException exc) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that the {@link Replacer} finds the same matches as a naive search on random keys and inputs over a small
+   * alphabet (with many overlapping keys), with both layouts.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testRandomReplacements () throws Exception {
+    final Random rnd = new Random(4711L);
+    for (int round = 0; round < 200; round++) {
+      final Map<String, String> mappings = new HashMap<String, String>();
+      final int keyCount = 1 + rnd.nextInt(20);
+      for (int k = 0; k < keyCount; k++) {
+        mappings.put(randomString(rnd, 1 + rnd.nextInt(5)), "<" + k + ">");
+      }
+      final Replacer nodes = Replacer.create(mappings, Replacer.Layout.NODES);
+      final Replacer arrays = Replacer.create(mappings, Replacer.Layout.ARRAYS);
+      for (int i = 0; i < 10; i++) {
+        final String input = randomString(rnd, rnd.nextInt(200));
+        final String expected = naiveReplace(mappings, input);
+        Assert.assertEquals(expected, nodes.replace(input));
+        Assert.assertEquals(expected, arrays.replace(input));
+      }
+    }
+  }
+
+  /**
+   * Tests that the streams of {@link Replacer#wrap(Reader)} and {@link Replacer#wrap(Writer)} replace like
+   * {@link Replacer#replace(CharSequence)}, with inputs longer than their buffers and written or read in chunks of
+   * random sizes.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testStreams () throws Exception {
+    final Random rnd = new Random(4712L);
+    for (int round = 0; round < 50; round++) {
+      final Map<String, String> mappings = new HashMap<String, String>();
+      final int keyCount = 1 + rnd.nextInt(20);
+      for (int k = 0; k < keyCount; k++) {
+        mappings.put(randomString(rnd, 1 + rnd.nextInt(round < 40 ? 5 : 200)), "<" + k + ">");
+      }
+      final Replacer replacer = Replacer.create(mappings);
+      final String input = randomString(rnd, rnd.nextInt(30000));
+      final String expected = replacer.replace(input);
+
+      final StringWriter out = new StringWriter();
+      final Writer w = replacer.wrap(out);
+      int i = 0;
+      while (i < input.length()) {
+        final int n = Math.min(input.length() - i, rnd.nextInt(3) == 0 ? 1 : rnd.nextInt(10000));
+        if (n == 1) {
+          w.write(input.charAt(i));
+        } else if (rnd.nextBoolean()) {
+          w.write(input, i, n);
+        } else {
+          w.write(input.toCharArray(), i, n);
+          w.flush();
+        }
+        i += n;
+      }
+      w.close();
+      Assert.assertEquals(expected, out.toString());
+
+      final Reader r = replacer.wrap(new ChunkedReader(input, rnd));
+      final StringBuilder sb = new StringBuilder();
+      final char[] cbuf = new char[1 + rnd.nextInt(20000)];
+      int n;
+      while ((n = r.read(cbuf, 0, 1 + rnd.nextInt(cbuf.length))) >= 0) {
+        sb.append(cbuf, 0, n);
+      }
+      r.close();
+      Assert.assertEquals(expected, sb.toString());
+    }
+
+    try {
+      final Writer w = Replacer.create(Collections.singletonMap("a", "b")).wrap(new StringWriter());
+      w.close();
+      w.write('a');
+      Assert.fail("Wrote to closed writer.");
+    } catch (final IOException exc) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that {@link Replacer#replaceParallel(CharSequence, int, ForkJoinPool)} replaces like
+   * {@link Replacer#replace(CharSequence)} for any number of chunks, including chunks shorter than the keys.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testReplaceParallel () throws Exception {
+    final Random rnd = new Random(4713L);
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int round = 0; round < 100; round++) {
+        final Map<String, String> mappings = new HashMap<String, String>();
+        final int keyCount = 1 + rnd.nextInt(20);
+        for (int k = 0; k < keyCount; k++) {
+          mappings.put(randomString(rnd, 1 + rnd.nextInt(round < 50 ? 5 : 20)), "<" + k + ">");
+        }
+        final Replacer replacer = Replacer.create(mappings);
+        final String input = randomString(rnd, rnd.nextInt(2000));
+        final String expected = replacer.replace(input);
+        for (final int chunkCount : new int[] { 1, 2, 3, 7, 64, 500, 3000 }) {
+          Assert.assertEquals("chunkCount=" + chunkCount, expected, replacer.replaceParallel(input, chunkCount, pool));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    Assert.assertEquals("b", Replacer.create(Collections.singletonMap("a", "b")).replaceParallel("a"));
+  }
+
+  /**
+   * Reads a string in chunks of random sizes.
+   */
+  private static final class ChunkedReader extends Reader {
+    private final StringReader mIn;
+
+    private final Random mRnd;
+
+    ChunkedReader (final String s, final Random rnd) {
+      mIn = new StringReader(s);
+      mRnd = rnd;
+    }
+
+    @Override
+    public int read (final char[] cbuf, final int off, final int len) throws IOException {
+      return mIn.read(cbuf, off, Math.min(len, 1 + mRnd.nextInt(100)));
+    }
+
+    @Override
+    public void close () {
+      mIn.close();
+    }
+  }
+
+  private static String randomString (final Random rnd, final int length) {
+    final char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = "abcd".charAt(rnd.nextInt(4));
+    }
+    return new String(chars);
+  }
+
+  private static String naiveReplace (final Map<String, String> mappings, final String input) {
+    final StringBuilder sb = new StringBuilder();
+    int i = 0;
+    while (i < input.length()) {
+      String longest = null;
+      for (final String key : mappings.keySet()) {
+        if (input.startsWith(key, i) && (longest == null || key.length() > longest.length())) {
+          longest = key;
+        }
+      }
+      if (longest == null) {
+        sb.append(input.charAt(i++));
+      } else {
+        sb.append(mappings.get(longest));
+        i += longest.length();
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,841 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.htmlparse;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+
+/**
+ * A read-only document tree which is stored in a few primitive arrays instead of one object per node, as an
+ * alternative to a DOM {@link org.w3c.dom.Document} for large documents.
+ * <p>
+ * The nodes are numbered in document order; {@code 0} is the document node. The type, the parent, the first child,
+ * the next sibling and the name of each node are stored in arrays indexed by the node number, the names as ids of a
+ * table of the distinct names. The character data of all text, comment and processing instruction nodes and all
+ * attribute values is stored in one shared {@code char} array. Adjacent text is always stored in a single text node.
+ * <p>
+ * Documents are built from SAX events by a {@link CompactDocumentBuilder}. They can be navigated with the methods of
+ * this class, which take node numbers and return {@link #NONE} where the DOM would return {@code null}, and they can be
+ * read by XSLT and other {@link Source} consumers through {@link #toSource(String)}.
+ * <p>
+ * Instances are not modified after they have been built and may then be shared by multiple threads.
+ * 
+ * @author zisch
+ */
+public final class CompactDocument {
+
+  /**
+   * The node number returned if there is no such node.
+   */
+  public static final int NONE = -1;
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+
+  private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+
+  private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+  // Nodes by node number:
+
+  private byte[] mTypes = new byte[INITIAL_CAPACITY];
+
+  private int[] mParents = new int[INITIAL_CAPACITY];
+
+  private int[] mFirstChildren = new int[INITIAL_CAPACITY];
+
+  private int[] mNextSiblings = new int[INITIAL_CAPACITY];
+
+  private int[] mNames = new int[INITIAL_CAPACITY];
+
+  private int[] mValueOffsets = new int[INITIAL_CAPACITY];
+
+  private int[] mValueLengths = new int[INITIAL_CAPACITY];
+
+  /**
+   * The index of the first attribute of each node in the attribute arrays; the attributes of node {@code n} end at the
+   * first attribute of node {@code n + 1} (or at {@link #mAttributeCount} for the last node).
+   */
+  private int[] mAttributeStarts = new int[INITIAL_CAPACITY];
+
+  private int mNodeCount = 0;
+
+  // Attributes:
+
+  private int[] mAttributeNames = new int[INITIAL_CAPACITY];
+
+  private int[] mAttributeValueOffsets = new int[INITIAL_CAPACITY];
+
+  private int[] mAttributeValueLengths = new int[INITIAL_CAPACITY];
+
+  private int mAttributeCount = 0;
+
+  // Character data:
+
+  private char[] mChars = new char[16 * INITIAL_CAPACITY];
+
+  private int mCharCount = 0;
+
+  // Names by name id:
+
+  private String[] mQNames = new String[INITIAL_CAPACITY];
+
+  private String[] mNamespaceUris = new String[INITIAL_CAPACITY];
+
+  private String[] mLocalNames = new String[INITIAL_CAPACITY];
+
+  private int mNameCount = 0;
+
+  /**
+   * The name ids by namespace URI (with {@code ""} for none) and qualified name; {@code null} once the document has
+   * been built.
+   */
+  private Map<String, Map<String, Integer>> mNameIds = new HashMap<String, Map<String, Integer>>();
+
+  private String mPublicId = null;
+
+  private String mSystemId = null;
+
+  /**
+   * Constructor for the {@link CompactDocumentBuilder}; creates the document node.
+   */
+  CompactDocument () {
+    addNode(Node.DOCUMENT_NODE, NONE, NONE, NONE);
+  }
+
+  /**
+   * Returns the number of nodes, including the document node.
+   * 
+   * @return the number of nodes
+   */
+  public int getNodeCount () {
+    return mNodeCount;
+  }
+
+  /**
+   * Returns the number of distinct names of elements, attributes, processing instructions and document types.
+   * 
+   * @return the number of names
+   */
+  public int getNameCount () {
+    return mNameCount;
+  }
+
+  /**
+   * Returns the document node, which is always {@code 0}.
+   * 
+   * @return the document node
+   */
+  public int getDocumentNode () {
+    return 0;
+  }
+
+  /**
+   * Returns the first element child of the document node.
+   * 
+   * @return the document element or {@link #NONE} if there is none
+   */
+  public int getDocumentElement () {
+    for (int n = mFirstChildren[0]; n != NONE; n = mNextSiblings[n]) {
+      if (mTypes[n] == Node.ELEMENT_NODE) {
+        return n;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Returns the type of the specified node: one of {@link Node#DOCUMENT_NODE}, {@link Node#DOCUMENT_TYPE_NODE},
+   * {@link Node#ELEMENT_NODE}, {@link Node#TEXT_NODE}, {@link Node#COMMENT_NODE} and
+   * {@link Node#PROCESSING_INSTRUCTION_NODE}.
+   * 
+   * @param node the node
+   * 
+   * @return the DOM node type
+   */
+  public short getNodeType (final int node) {
+    checkNode(node);
+    return mTypes[node];
+  }
+
+  /**
+   * Returns the parent of the specified node.
+   * 
+   * @param node the node
+   * 
+   * @return the parent or {@link #NONE} for the document node
+   */
+  public int getParent (final int node) {
+    checkNode(node);
+    return mParents[node];
+  }
+
+  /**
+   * Returns the first child of the specified node.
+   * 
+   * @param node the node
+   * 
+   * @return the first child or {@link #NONE} if the node has no children
+   */
+  public int getFirstChild (final int node) {
+    checkNode(node);
+    return mFirstChildren[node];
+  }
+
+  /**
+   * Returns the next sibling of the specified node.
+   * 
+   * @param node the node
+   * 
+   * @return the next sibling or {@link #NONE} if the node is the last child of its parent
+   */
+  public int getNextSibling (final int node) {
+    checkNode(node);
+    return mNextSiblings[node];
+  }
+
+  /**
+   * Returns the name of the specified node like {@link Node#getNodeName()}: the qualified name of an element, the
+   * target of a processing instruction, the name of a document type and {@code "#document"}, {@code "#text"} or
+   * {@code "#comment"} for the other nodes.
+   * 
+   * @param node the node
+   * 
+   * @return the name of the node
+   */
+  public String getNodeName (final int node) {
+    checkNode(node);
+    switch (mTypes[node]) {
+      case Node.DOCUMENT_NODE:
+        return "#document";
+      case Node.TEXT_NODE:
+        return "#text";
+      case Node.COMMENT_NODE:
+        return "#comment";
+      default:
+        return mQNames[mNames[node]];
+    }
+  }
+
+  /**
+   * Returns the namespace URI of the specified node.
+   * 
+   * @param node the node
+   * 
+   * @return the namespace URI of the element or {@code null} if it has none or the node is no element
+   */
+  public String getNamespaceURI (final int node) {
+    checkNode(node);
+    return mNames[node] == NONE ? null : mNamespaceUris[mNames[node]];
+  }
+
+  /**
+   * Returns the local name of the specified node.
+   * 
+   * @param node the node
+   * 
+   * @return the local name of the element or {@code null} if the parser did not report it or the node is no element
+   */
+  public String getLocalName (final int node) {
+    checkNode(node);
+    return mNames[node] == NONE ? null : mLocalNames[mNames[node]];
+  }
+
+  /**
+   * Returns the value of the specified node like {@link Node#getNodeValue()}: the text of a text or comment node and
+   * the data of a processing instruction.
+   * 
+   * @param node the node
+   * 
+   * @return the value of the node or {@code null} for the other nodes
+   */
+  public String getNodeValue (final int node) {
+    checkNode(node);
+    return mValueOffsets[node] == NONE ? null : new String(mChars, mValueOffsets[node], mValueLengths[node]);
+  }
+
+  /**
+   * Returns the number of attributes of the specified node.
+   * 
+   * @param node the node
+   * 
+   * @return the number of attributes; {@code 0} if the node is no element
+   */
+  public int getAttributeCount (final int node) {
+    checkNode(node);
+    return attributeEnd(node) - mAttributeStarts[node];
+  }
+
+  /**
+   * Returns the qualified name of an attribute of the specified node.
+   * 
+   * @param node the node
+   * @param index the index of the attribute, in the order reported by the parser
+   * 
+   * @return the qualified name of the attribute
+   */
+  public String getAttributeName (final int node, final int index) {
+    return mQNames[mAttributeNames[attribute(node, index)]];
+  }
+
+  /**
+   * Returns the namespace URI of an attribute of the specified node.
+   * 
+   * @param node the node
+   * @param index the index of the attribute, in the order reported by the parser
+   * 
+   * @return the namespace URI of the attribute or {@code null} if it has none
+   */
+  public String getAttributeNamespaceURI (final int node, final int index) {
+    return mNamespaceUris[mAttributeNames[attribute(node, index)]];
+  }
+
+  /**
+   * Returns the local name of an attribute of the specified node.
+   * 
+   * @param node the node
+   * @param index the index of the attribute, in the order reported by the parser
+   * 
+   * @return the local name of the attribute or {@code null} if the parser did not report it
+   */
+  public String getAttributeLocalName (final int node, final int index) {
+    return mLocalNames[mAttributeNames[attribute(node, index)]];
+  }
+
+  /**
+   * Returns the value of an attribute of the specified node.
+   * 
+   * @param node the node
+   * @param index the index of the attribute, in the order reported by the parser
+   * 
+   * @return the value of the attribute
+   */
+  public String getAttributeValue (final int node, final int index) {
+    final int a = attribute(node, index);
+    return new String(mChars, mAttributeValueOffsets[a], mAttributeValueLengths[a]);
+  }
+
+  /**
+   * Returns the value of the attribute with the specified qualified name of the specified node.
+   * 
+   * @param node the node
+   * @param qName the qualified name of the attribute
+   * 
+   * @return the value of the attribute or {@code null} if the node has no such attribute
+   */
+  public String getAttribute (final int node, final String qName) {
+    checkNode(node);
+    for (int a = mAttributeStarts[node]; a < attributeEnd(node); a++) {
+      if (mQNames[mAttributeNames[a]].equals(qName)) {
+        return new String(mChars, mAttributeValueOffsets[a], mAttributeValueLengths[a]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the public id of the document type.
+   * 
+   * @return the public id or {@code null} if the document has no document type or it has no public id
+   */
+  public String getPublicId () {
+    return mPublicId;
+  }
+
+  /**
+   * Returns the system id of the document type.
+   * 
+   * @return the system id or {@code null} if the document has no document type or it has no system id
+   */
+  public String getSystemId () {
+    return mSystemId;
+  }
+
+  /**
+   * Returns a {@link Source} which reports this document as SAX events, for example as the input of an XSLT
+   * transformation instead of a {@link javax.xml.transform.dom.DOMSource}. Text and comments are reported directly
+   * from the shared {@code char} array, without creating {@link String}s.
+   * <p>
+   * The {@link XMLReader} of the source reports namespaces but no prefix mappings (like a DOM built by the
+   * {@link Sax2DomHandler}) and reports comments and the document type to a {@link LexicalHandler} set as the
+   * {@code http://xml.org/sax/properties/lexical-handler} property.
+   * 
+   * @param systemId the system id of the document, used to resolve relative URIs; may be {@code null}
+   * 
+   * @return the source
+   */
+  public Source toSource (final String systemId) {
+    final InputSource input = new InputSource(systemId);
+    return new SAXSource(new SourceReader(this), input);
+  }
+
+  // Building (by the CompactDocumentBuilder):
+
+  /**
+   * Adds a node without children.
+   * 
+   * @param type the DOM node type
+   * @param parent the parent or {@link #NONE} for the document node
+   * @param previousSibling the last child of the parent before this node or {@link #NONE}
+   * @param name the name id or {@link #NONE}
+   * 
+   * @return the new node
+   */
+  int addNode (final short type, final int parent, final int previousSibling, final int name) {
+    final int n = mNodeCount;
+    if (n == mTypes.length) {
+      final int capacity = 2 * n;
+      mTypes = Arrays.copyOf(mTypes, capacity);
+      mParents = Arrays.copyOf(mParents, capacity);
+      mFirstChildren = Arrays.copyOf(mFirstChildren, capacity);
+      mNextSiblings = Arrays.copyOf(mNextSiblings, capacity);
+      mNames = Arrays.copyOf(mNames, capacity);
+      mValueOffsets = Arrays.copyOf(mValueOffsets, capacity);
+      mValueLengths = Arrays.copyOf(mValueLengths, capacity);
+      mAttributeStarts = Arrays.copyOf(mAttributeStarts, capacity);
+    }
+    mTypes[n] = (byte) type;
+    mParents[n] = parent;
+    mFirstChildren[n] = NONE;
+    mNextSiblings[n] = NONE;
+    mNames[n] = name;
+    mValueOffsets[n] = NONE;
+    mValueLengths[n] = 0;
+    mAttributeStarts[n] = mAttributeCount;
+    if (previousSibling != NONE) {
+      mNextSiblings[previousSibling] = n;
+    } else if (parent != NONE) {
+      mFirstChildren[parent] = n;
+    }
+    mNodeCount++;
+    return n;
+  }
+
+  /**
+   * Sets the value of the specified node to the specified characters.
+   */
+  void setValue (final int node, final char[] ch, final int start, final int length) {
+    mValueOffsets[node] = mCharCount;
+    mValueLengths[node] = length;
+    appendChars(ch, start, length);
+  }
+
+  /**
+   * Sets the value of the specified node to the specified string.
+   */
+  void setValue (final int node, final String value) {
+    mValueOffsets[node] = mCharCount;
+    mValueLengths[node] = value.length();
+    appendChars(value);
+  }
+
+  /**
+   * Appends the specified characters to the value of the specified node if its value ends with the last stored
+   * characters.
+   * 
+   * @return whether the characters have been appended
+   */
+  boolean appendValue (final int node, final char[] ch, final int start, final int length) {
+    if (mValueOffsets[node] == NONE || mValueOffsets[node] + mValueLengths[node] != mCharCount) {
+      return false;
+    }
+    mValueLengths[node] += length;
+    appendChars(ch, start, length);
+    return true;
+  }
+
+  /**
+   * Adds an attribute to the last added node.
+   */
+  void addAttribute (final int name, final String value) {
+    final int a = mAttributeCount;
+    if (a == mAttributeNames.length) {
+      final int capacity = 2 * a;
+      mAttributeNames = Arrays.copyOf(mAttributeNames, capacity);
+      mAttributeValueOffsets = Arrays.copyOf(mAttributeValueOffsets, capacity);
+      mAttributeValueLengths = Arrays.copyOf(mAttributeValueLengths, capacity);
+    }
+    mAttributeNames[a] = name;
+    mAttributeValueOffsets[a] = mCharCount;
+    mAttributeValueLengths[a] = value.length();
+    appendChars(value);
+    mAttributeCount++;
+  }
+
+  /**
+   * Shrinks all arrays to their used lengths and drops the tables only needed for building.
+   */
+  void trim () {
+    mTypes = Arrays.copyOf(mTypes, mNodeCount);
+    mParents = Arrays.copyOf(mParents, mNodeCount);
+    mFirstChildren = Arrays.copyOf(mFirstChildren, mNodeCount);
+    mNextSiblings = Arrays.copyOf(mNextSiblings, mNodeCount);
+    mNames = Arrays.copyOf(mNames, mNodeCount);
+    mValueOffsets = Arrays.copyOf(mValueOffsets, mNodeCount);
+    mValueLengths = Arrays.copyOf(mValueLengths, mNodeCount);
+    mAttributeStarts = Arrays.copyOf(mAttributeStarts, mNodeCount);
+    mAttributeNames = Arrays.copyOf(mAttributeNames, mAttributeCount);
+    mAttributeValueOffsets = Arrays.copyOf(mAttributeValueOffsets, mAttributeCount);
+    mAttributeValueLengths = Arrays.copyOf(mAttributeValueLengths, mAttributeCount);
+    mChars = Arrays.copyOf(mChars, mCharCount);
+    mQNames = Arrays.copyOf(mQNames, mNameCount);
+    mNamespaceUris = Arrays.copyOf(mNamespaceUris, mNameCount);
+    mLocalNames = Arrays.copyOf(mLocalNames, mNameCount);
+    mNameIds = null;
+  }
+
+  void setDocumentType (final String publicId, final String systemId) {
+    mPublicId = publicId;
+    mSystemId = systemId;
+  }
+
+  /**
+   * Returns the id of the specified name, adding it if it is new.
+   * 
+   * @param namespaceUri the namespace URI; {@code null} or {@code ""} for none
+   * @param localName the local name; {@code null} or {@code ""} if unknown
+   * @param qName the qualified name
+   * 
+   * @return the name id
+   */
+  int name (final String namespaceUri, final String localName, final String qName) {
+    final String uri = namespaceUri == null ? "" : namespaceUri;
+    Map<String, Integer> ids = mNameIds.get(uri);
+    if (ids == null) {
+      ids = new HashMap<String, Integer>();
+      mNameIds.put(uri, ids);
+    }
+    final Integer id = ids.get(qName);
+    if (id != null) {
+      return id.intValue();
+    }
+    final int n = mNameCount;
+    if (n == mQNames.length) {
+      mQNames = Arrays.copyOf(mQNames, 2 * n);
+      mNamespaceUris = Arrays.copyOf(mNamespaceUris, 2 * n);
+      mLocalNames = Arrays.copyOf(mLocalNames, 2 * n);
+    }
+    mQNames[n] = qName;
+    mNamespaceUris[n] = uri.isEmpty() ? null : uri;
+    mLocalNames[n] = localName == null || localName.isEmpty() ? null : localName;
+    ids.put(qName, Integer.valueOf(n));
+    mNameCount++;
+    return n;
+  }
+
+  private void appendChars (final char[] ch, final int start, final int length) {
+    ensureCharCapacity(length);
+    System.arraycopy(ch, start, mChars, mCharCount, length);
+    mCharCount += length;
+  }
+
+  private void appendChars (final String s) {
+    ensureCharCapacity(s.length());
+    s.getChars(0, s.length(), mChars, mCharCount);
+    mCharCount += s.length();
+  }
+
+  private void ensureCharCapacity (final int length) {
+    if (mCharCount + length > mChars.length) {
+      mChars = Arrays.copyOf(mChars, Math.max(2 * mChars.length, mCharCount + length));
+    }
+  }
+
+  private void checkNode (final int node) {
+    if (node < 0 || node >= mNodeCount) {
+      throw new IllegalArgumentException("Invalid node " + node + "; the document has " + mNodeCount + " nodes.");
+    }
+  }
+
+  private int attributeEnd (final int node) {
+    return node + 1 < mNodeCount ? mAttributeStarts[node + 1] : mAttributeCount;
+  }
+
+  private int attribute (final int node, final int index) {
+    checkNode(node);
+    final int a = mAttributeStarts[node] + index;
+    if (index < 0 || a >= attributeEnd(node)) {
+      throw new IllegalArgumentException("Invalid attribute index " + index + " of node " + node + ".");
+    }
+    return a;
+  }
+
+  /**
+   * The {@link XMLReader} of {@link CompactDocument#toSource(String)}, which ignores its input and reports the events
+   * of the document.
+   */
+  private static final class SourceReader implements XMLReader {
+    private final CompactDocument mDoc;
+
+    private final NodeAttributes mAttributes;
+
+    private ContentHandler mContentHandler = null;
+
+    private LexicalHandler mLexicalHandler = null;
+
+    private DTDHandler mDtdHandler = null;
+
+    private EntityResolver mEntityResolver = null;
+
+    private ErrorHandler mErrorHandler = null;
+
+    SourceReader (final CompactDocument doc) {
+      mDoc = doc;
+      mAttributes = new NodeAttributes(doc);
+    }
+
+    @Override
+    public boolean getFeature (final String name) throws SAXNotRecognizedException {
+      if (NAMESPACES_FEATURE.equals(name)) {
+        return true;
+      } else if (NAMESPACE_PREFIXES_FEATURE.equals(name)) {
+        return false;
+      }
+      throw new SAXNotRecognizedException("Feature '" + name + "' is not recognized.");
+    }
+
+    @Override
+    public void setFeature (final String name, final boolean value) throws SAXNotRecognizedException,
+            SAXNotSupportedException {
+      if (getFeature(name) != value) {
+        throw new SAXNotSupportedException("Feature '" + name + "' cannot be set to " + value + ".");
+      }
+    }
+
+    @Override
+    public Object getProperty (final String name) throws SAXNotRecognizedException {
+      if (LEXICAL_HANDLER_PROPERTY.equals(name)) {
+        return mLexicalHandler;
+      }
+      throw new SAXNotRecognizedException("Property '" + name + "' is not recognized.");
+    }
+
+    @Override
+    public void setProperty (final String name, final Object value) throws SAXNotRecognizedException,
+            SAXNotSupportedException {
+      if (!LEXICAL_HANDLER_PROPERTY.equals(name)) {
+        throw new SAXNotRecognizedException("Property '" + name + "' is not recognized.");
+      }
+      if (value != null && !(value instanceof LexicalHandler)) {
+        throw new SAXNotSupportedException("Property '" + name + "' must be a LexicalHandler.");
+      }
+      mLexicalHandler = (LexicalHandler) value;
+    }
+
+    @Override
+    public void setEntityResolver (final EntityResolver resolver) {
+      mEntityResolver = resolver;
+    }
+
+    @Override
+    public EntityResolver getEntityResolver () {
+      return mEntityResolver;
+    }
+
+    @Override
+    public void setDTDHandler (final DTDHandler handler) {
+      mDtdHandler = handler;
+    }
+
+    @Override
+    public DTDHandler getDTDHandler () {
+      return mDtdHandler;
+    }
+
+    @Override
+    public void setContentHandler (final ContentHandler handler) {
+      mContentHandler = handler;
+    }
+
+    @Override
+    public ContentHandler getContentHandler () {
+      return mContentHandler;
+    }
+
+    @Override
+    public void setErrorHandler (final ErrorHandler handler) {
+      mErrorHandler = handler;
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler () {
+      return mErrorHandler;
+    }
+
+    @Override
+    public void parse (final InputSource input) throws SAXException {
+      parse();
+    }
+
+    @Override
+    public void parse (final String systemId) throws SAXException {
+      parse();
+    }
+
+    private void parse () throws SAXException {
+      if (mContentHandler == null) {
+        throw new IllegalStateException("No ContentHandler has been set.");
+      }
+      mContentHandler.startDocument();
+      reportChildren(0);
+      mContentHandler.endDocument();
+    }
+
+    private void reportChildren (final int parent) throws SAXException {
+      final CompactDocument d = mDoc;
+      for (int n = d.mFirstChildren[parent]; n != NONE; n = d.mNextSiblings[n]) {
+        switch (d.mTypes[n]) {
+          case Node.ELEMENT_NODE: {
+            final int name = d.mNames[n];
+            final String uri = d.mNamespaceUris[name] == null ? "" : d.mNamespaceUris[name];
+            final String localName = d.mLocalNames[name] == null ? "" : d.mLocalNames[name];
+            mAttributes.mNode = n;
+            mContentHandler.startElement(uri, localName, d.mQNames[name], mAttributes);
+            reportChildren(n);
+            mContentHandler.endElement(uri, localName, d.mQNames[name]);
+            break;
+          }
+          case Node.TEXT_NODE:
+            mContentHandler.characters(d.mChars, d.mValueOffsets[n], d.mValueLengths[n]);
+            break;
+
+          case Node.COMMENT_NODE:
+            if (mLexicalHandler != null) {
+              mLexicalHandler.comment(d.mChars, d.mValueOffsets[n], d.mValueLengths[n]);
+            }
+            break;
+
+          case Node.PROCESSING_INSTRUCTION_NODE:
+            mContentHandler.processingInstruction(d.mQNames[d.mNames[n]], d.getNodeValue(n));
+            break;
+
+          case Node.DOCUMENT_TYPE_NODE:
+            if (mLexicalHandler != null) {
+              mLexicalHandler.startDTD(d.mQNames[d.mNames[n]], d.mPublicId, d.mSystemId);
+              mLexicalHandler.endDTD();
+            }
+            break;
+
+          default:
+            throw new IllegalStateException("Unexpected node type: " + d.mTypes[n]);
+        }
+      }
+    }
+  }
+
+  /**
+   * The {@link Attributes} of the current element of a {@link SourceReader}.
+   */
+  private static final class NodeAttributes implements Attributes {
+    private final CompactDocument mDoc;
+
+    private int mNode = 0;
+
+    NodeAttributes (final CompactDocument doc) {
+      mDoc = doc;
+    }
+
+    @Override
+    public int getLength () {
+      return mDoc.getAttributeCount(mNode);
+    }
+
+    @Override
+    public String getURI (final int index) {
+      if (!valid(index)) {
+        return null;
+      }
+      final String uri = mDoc.getAttributeNamespaceURI(mNode, index);
+      return uri == null ? "" : uri;
+    }
+
+    @Override
+    public String getLocalName (final int index) {
+      if (!valid(index)) {
+        return null;
+      }
+      final String localName = mDoc.getAttributeLocalName(mNode, index);
+      return localName == null ? "" : localName;
+    }
+
+    @Override
+    public String getQName (final int index) {
+      return valid(index) ? mDoc.getAttributeName(mNode, index) : null;
+    }
+
+    @Override
+    public String getType (final int index) {
+      return valid(index) ? "CDATA" : null;
+    }
+
+    @Override
+    public String getValue (final int index) {
+      return valid(index) ? mDoc.getAttributeValue(mNode, index) : null;
+    }
+
+    @Override
+    public int getIndex (final String uri, final String localName) {
+      for (int i = 0; i < getLength(); i++) {
+        if (getURI(i).equals(uri) && getLocalName(i).equals(localName)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public int getIndex (final String qName) {
+      for (int i = 0; i < getLength(); i++) {
+        if (getQName(i).equals(qName)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public String getType (final String uri, final String localName) {
+      return getType(getIndex(uri, localName));
+    }
+
+    @Override
+    public String getType (final String qName) {
+      return getType(getIndex(qName));
+    }
+
+    @Override
+    public String getValue (final String uri, final String localName) {
+      return getValue(getIndex(uri, localName));
+    }
+
+    @Override
+    public String getValue (final String qName) {
+      return getValue(getIndex(qName));
+    }
+
+    private boolean valid (final int index) {
+      return index >= 0 && index < getLength();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.htmlparse;
+
+
+import java.util.Arrays;
+
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.LexicalHandler;
+
+
+/**
+ * Builds a {@link CompactDocument} from SAX events, like the {@link Sax2DomHandler} builds a DOM
+ * {@link org.w3c.dom.Document}: Text outside of the document element is ignored, and comments and the document type are
+ * only added if the builder is also registered as {@link LexicalHandler}.
+ * <p>
+ * Adjacent {@link #characters(char[], int, int)} events are stored in a single text node.
+ * 
+ * @author zisch
+ */
+public class CompactDocumentBuilder extends DefaultHandler2 implements ContentHandler, LexicalHandler {
+
+  private final CompactDocument mDocument = new CompactDocument();
+
+  private final SymbolTable mSymbols;
+
+  /**
+   * The open nodes from the document node to the current node.
+   */
+  private int[] mOpenNodes = new int[64];
+
+  /**
+   * The last child of each open node or {@link CompactDocument#NONE}.
+   */
+  private int[] mLastChildren = new int[64];
+
+  /**
+   * The number of open nodes; {@code 0} before {@link #startDocument()} and after {@link #endDocument()}.
+   */
+  private int mDepth = 0;
+
+  /**
+   * Default constructor.
+   * <p>
+   * This is a shortcut for {@link #CompactDocumentBuilder(SymbolTable) CompactDocumentBuilder(new SymbolTable())}.
+   */
+  public CompactDocumentBuilder () {
+    this(new SymbolTable());
+  }
+
+  /**
+   * Constructor which uses the specified {@link SymbolTable} for the names and namespace URIs of the elements and
+   * attributes. A table may be shared by the builders of a processing run (on one thread), so that all their documents
+   * share the instances.
+   * 
+   * @param symbols the table which canonicalizes the names
+   */
+  public CompactDocumentBuilder (final SymbolTable symbols) {
+    mSymbols = symbols;
+  }
+
+  /**
+   * Returns the built document, which is complete once {@link #endDocument()} has been called.
+   * 
+   * @return the document
+   */
+  public CompactDocument getDocument () {
+    return mDocument;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void characters (final char[] ch, final int start, final int length) {
+    final int parent = peekNode();
+    // No text nodes can be children of the document node:
+    if (parent != 0 && length > 0) {
+      final int last = mLastChildren[mDepth - 1];
+      if (last == CompactDocument.NONE || mDocument.getNodeType(last) != Node.TEXT_NODE
+              || !mDocument.appendValue(last, ch, start, length)) {
+        mDocument.setValue(addNode(Node.TEXT_NODE, CompactDocument.NONE), ch, start, length);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void startDocument () {
+    if (mDepth != 0) {
+      throw new IllegalStateException("The document has already been started!");
+    }
+    mOpenNodes[0] = 0;
+    mLastChildren[0] = CompactDocument.NONE;
+    mDepth = 1;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void endDocument () {
+    popNode();
+    mDocument.trim();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void startElement (final String namespace, final String localName, final String qName,
+          final Attributes attrs) {
+    final int element = addNode(Node.ELEMENT_NODE, name(namespace, localName, qName));
+    final int nattrs = attrs.getLength();
+    for (int i = 0; i < nattrs; i++) {
+      mDocument.addAttribute(name(attrs.getURI(i), attrs.getLocalName(i), attrs.getQName(i)), attrs.getValue(i));
+    }
+    pushNode(element);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void endElement (final String namespace, final String localName, final String qName) {
+    popNode();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void processingInstruction (final String target, final String data) {
+    mDocument.setValue(addNode(Node.PROCESSING_INSTRUCTION_NODE, name(null, null, target)), data);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void comment (final char[] ch, final int start, final int length) {
+    mDocument.setValue(addNode(Node.COMMENT_NODE, CompactDocument.NONE), ch, start, length);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void startDTD (final String name, final String publicId, final String systemId) {
+    // The content of the DTD is ignored, like by the Sax2DomHandler:
+    mDocument.setDocumentType(publicId, systemId);
+    pushNode(addNode(Node.DOCUMENT_TYPE_NODE, name(null, null, name)));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void endDTD () {
+    popNode();
+  }
+
+  private int name (final String namespaceUri, final String localName, final String qName) {
+    return mDocument.name(mSymbols.intern(namespaceUri), mSymbols.intern(localName), mSymbols.intern(qName));
+  }
+
+  /**
+   * Adds a node as the last child of the current node.
+   */
+  private int addNode (final short type, final int name) {
+    final int parent = peekNode();
+    final int node = mDocument.addNode(type, parent, mLastChildren[mDepth - 1], name);
+    mLastChildren[mDepth - 1] = node;
+    return node;
+  }
+
+  private void pushNode (final int node) {
+    if (mDepth == mOpenNodes.length) {
+      mOpenNodes = Arrays.copyOf(mOpenNodes, 2 * mDepth);
+      mLastChildren = Arrays.copyOf(mLastChildren, 2 * mDepth);
+    }
+    mOpenNodes[mDepth] = node;
+    mLastChildren[mDepth] = CompactDocument.NONE;
+    mDepth++;
+  }
+
+  private void popNode () {
+    if (mDepth == 0) {
+      throw new IllegalStateException("No more nodes to pop!");
+    }
+    mDepth--;
+  }
+
+  private int peekNode () {
+    if (mDepth == 0) {
+      throw new IllegalStateException("No nodes to peek!");
+    }
+    return mOpenNodes[mDepth - 1];
+  }
+}
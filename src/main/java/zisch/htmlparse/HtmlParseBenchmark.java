@@ -0,0 +1,118 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.htmlparse;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.w3c.dom.Node;
+import org.xml.sax.ext.DefaultHandler2;
+
+
+/**
+ * Simple benchmark comparing the {@link Sax2DomHandler} with the {@link CompactDocumentBuilder} on
+ * {@code javadoc1.html} and the pages of the {@code testsite}: the parse time, the number of nodes and the heap used
+ * by the parsed documents. All pages of a run share one {@link SymbolTable} for the names; the
+ * {@link Sax2DomHandler} also canonicalizes short values with a second table per run.
+ * 
+ * @author zisch
+ */
+public final class HtmlParseBenchmark {
+
+  private static final String FACTORY_CLASS = "org.ccil.cowan.tagsoup.jaxp.SAXFactoryImpl";
+
+  private HtmlParseBenchmark () {
+    throw new AssertionError("not allowed");
+  }
+
+  /**
+   * Main method.
+   * 
+   * @param args command line arguments: the number of copies of the pages to parse and keep (optional, default 20)
+   * 
+   * @throws Exception in case of errors
+   */
+  public static void main (final String[] args) throws Exception {
+    final int copies = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    final List<File> javadoc1 = new ArrayList<File>();
+    javadoc1.add(new File(HtmlParseBenchmark.class.getResource("javadoc1.html").toURI()));
+    final List<File> testsite = new ArrayList<File>();
+    collectPages(new File(HtmlParseBenchmark.class.getResource("testsite/index.html").toURI()).getParentFile(),
+            testsite);
+    for (int run = 0; run < 5; run++) {
+      for (final String builder : new String[] { "Sax2DomHandler", "CompactDocumentBuilder" }) {
+        benchmark(builder, "javadoc1.html", javadoc1, 10 * copies, run >= 2);
+        benchmark(builder, "testsite", testsite, copies, run >= 2);
+      }
+    }
+  }
+
+  private static void benchmark (final String builder, final String pagesName, final List<File> pages,
+          final int copies, final boolean print) throws Exception {
+    final SAXParserFactory spf = SAXParserFactory.newInstance(FACTORY_CLASS, null);
+    final List<Object> docs = new ArrayList<Object>();
+    final SymbolTable symbols = new SymbolTable();
+    final SymbolTable values = new SymbolTable();
+    final long heapBefore = usedHeap();
+    final long start = System.nanoTime();
+    long nodes = 0;
+    for (int i = 0; i < copies; i++) {
+      for (final File f : pages) {
+        final DefaultHandler2 handler = builder.equals("Sax2DomHandler") ? new Sax2DomHandler(null, symbols,
+                values)
+                : new CompactDocumentBuilder(symbols);
+        final SAXParser sp = spf.newSAXParser();
+        sp.getXMLReader().setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+        sp.parse(f, handler);
+        if (handler instanceof Sax2DomHandler) {
+          final Node doc = ((Sax2DomHandler) handler).getDocument();
+          nodes += countNodes(doc);
+          docs.add(doc);
+        } else {
+          final CompactDocument doc = ((CompactDocumentBuilder) handler).getDocument();
+          nodes += doc.getNodeCount();
+          docs.add(doc);
+        }
+      }
+    }
+    final long nanos = System.nanoTime() - start;
+    final long heap = usedHeap() - heapBefore;
+    if (print) {
+      System.out.println(String.format(Locale.ROOT, "%-22s %-13s %4d pages: %8.1f ms %8d nodes/page %8.1f MB",
+              builder, pagesName, docs.size(), nanos / 1e6, nodes / docs.size(), heap / 1e6));
+    }
+  }
+
+  private static void collectPages (final File dir, final List<File> files) {
+    for (final File f : dir.listFiles()) {
+      if (f.isDirectory()) {
+        collectPages(f, files);
+      } else if (f.getName().endsWith(".html")) {
+        files.add(f);
+      }
+    }
+  }
+
+  private static long countNodes (final Node node) {
+    long count = 1;
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      count += countNodes(child);
+    }
+    return count;
+  }
+
+  private static long usedHeap () {
+    final Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
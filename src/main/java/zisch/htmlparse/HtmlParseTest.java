@@ -10,12 +10,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.Map;
 import java.util.TreeMap;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -41,6 +49,21 @@ public class HtmlParseTest {
 
   private static final String FACTORY_CLASS = "org.ccil.cowan.tagsoup.jaxp.SAXFactoryImpl";
 
+  /**
+   * Formats the document as text, with the attributes sorted by name (the DOM sorts them, SAX events do not).
+   */
+  private static final String FORMAT_XSLT = "<xsl:stylesheet version='1.0' "
+          + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:h='http://www.w3.org/1999/xhtml'>"
+          + "<xsl:output method='text'/>"
+          + "<xsl:template match='/'><xsl:value-of select='count(//h:a)'/>|"
+          + "<xsl:value-of select='/h:html/h:head/h:title'/>|<xsl:apply-templates/></xsl:template>"
+          + "<xsl:template match='*'>{<xsl:value-of select='namespace-uri()'/>}<xsl:value-of select='name()'/>["
+          + "<xsl:for-each select='@*'><xsl:sort select='name()'/>"
+          + "<xsl:value-of select=\"concat(name(), '=', ., ';')\"/></xsl:for-each>]"
+          + "(<xsl:apply-templates/>)</xsl:template>"
+          + "<xsl:template match='comment()'>&lt;!--<xsl:value-of select='.'/>--&gt;</xsl:template>"
+          + "</xsl:stylesheet>";
+
   /**
    * Tests parsing to SAX. Note: Does not (yet) do any assertions but only executes the parsing process, ignoring the
    * generated events!
@@ -91,6 +114,161 @@ public class HtmlParseTest {
     Assert.assertEquals(expectedDom, actualDom);
   }
 
+  /**
+   * Tests that the {@link CompactDocumentBuilder} builds the same tree as the {@link Sax2DomHandler}, and that an XSLT
+   * transformation of {@link CompactDocument#toSource(String)} produces the same output as that of the DOM.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testParseCompact () throws Exception {
+    final File srcFile = new File(HtmlParseTest.class.getResource("javadoc1.html").toURI());
+    final SAXParserFactory spf = SAXParserFactory.newInstance(FACTORY_CLASS, null);
+
+    final Sax2DomHandler s2d = new Sax2DomHandler();
+    final SAXParser domParser = spf.newSAXParser();
+    domParser.getXMLReader().setProperty("http://xml.org/sax/properties/lexical-handler", s2d);
+    domParser.parse(srcFile, s2d);
+    final Document dom = s2d.getDocument();
+
+    final CompactDocumentBuilder builder = new CompactDocumentBuilder();
+    final SAXParser compactParser = spf.newSAXParser();
+    compactParser.getXMLReader().setProperty("http://xml.org/sax/properties/lexical-handler", builder);
+    compactParser.parse(srcFile, builder);
+    final CompactDocument compact = builder.getDocument();
+
+    final StringWriter sw = new StringWriter();
+    formatCompactNode(sw, compact, compact.getDocumentNode(), "");
+    Assert.assertEquals(documentToString(dom), sw.toString());
+    final int html = compact.getDocumentElement();
+    Assert.assertEquals("html", compact.getLocalName(html));
+    Assert.assertEquals("en", compact.getAttribute(html, "lang"));
+    Assert.assertNull(compact.getAttribute(html, "xml:lang"));
+    Assert.assertEquals(CompactDocument.NONE, compact.getParent(compact.getDocumentNode()));
+
+    final Templates tmpl = TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(
+            FORMAT_XSLT)));
+    final StringWriter fromDom = new StringWriter();
+    tmpl.newTransformer().transform(new DOMSource(dom), new StreamResult(fromDom));
+    final StringWriter fromCompact = new StringWriter();
+    final Source source = compact.toSource(srcFile.toURI().toString());
+    tmpl.newTransformer().transform(source, new StreamResult(fromCompact));
+    Assert.assertEquals(fromDom.toString(), fromCompact.toString());
+    Assert.assertTrue(fromCompact.toString().startsWith("179|ActionEvent (Java Platform SE 7 )|<!-- NewPage -->"
+            + "{http://www.w3.org/1999/xhtml}html[lang=en;]("));
+  }
+
+  /**
+   * Tests that the {@link SymbolTable} returns one instance per distinct string, also for character data and with the
+   * documents of several {@link Sax2DomHandler}s, and that it stops adding strings when it is full. Short values are
+   * only canonicalized with a separate value table.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testSymbolTable () throws Exception {
+    final SymbolTable symbols = new SymbolTable();
+    final String a = new String("navList");
+    Assert.assertSame(a, symbols.intern(a));
+    Assert.assertSame(a, symbols.intern(new String("navList")));
+    Assert.assertSame(a, symbols.intern("xnavListx".toCharArray(), 1, 7));
+    Assert.assertNull(symbols.intern(null));
+    for (int i = 0; i < 10000; i++) {
+      Assert.assertEquals("s" + i, symbols.intern("s" + i));
+    }
+    Assert.assertEquals(10001, symbols.size());
+    Assert.assertSame(a, symbols.intern(new String("navList")));
+
+    final SymbolTable small = new SymbolTable(1);
+    Assert.assertSame(a, small.intern(a));
+    final String b = new String("b");
+    Assert.assertSame(b, small.intern(b));
+    Assert.assertNotSame(b, small.intern(new String("b")));
+    Assert.assertEquals(1, small.size());
+
+    final File srcFile = new File(HtmlParseTest.class.getResource("javadoc1.html").toURI());
+    final SAXParserFactory spf = SAXParserFactory.newInstance(FACTORY_CLASS, null);
+    final SymbolTable values = new SymbolTable();
+    final Document[] docs = new Document[2];
+    for (int i = 0; i < docs.length; i++) {
+      final Sax2DomHandler s2d = new Sax2DomHandler(null, symbols, values);
+      spf.newSAXParser().parse(srcFile, s2d);
+      docs[i] = s2d.getDocument();
+    }
+    final Element link0 = (Element) docs[0].getElementsByTagNameNS("http://www.w3.org/1999/xhtml", "a").item(0);
+    final Element link1 = (Element) docs[1].getElementsByTagNameNS("http://www.w3.org/1999/xhtml", "a").item(0);
+    Assert.assertSame(link0.getTagName(), link1.getTagName());
+    Assert.assertSame(link0.getNamespaceURI(), link1.getNamespaceURI());
+    Assert.assertEquals("rect", link0.getAttribute("shape"));
+    Assert.assertSame(link0.getAttribute("shape"), link1.getAttribute("shape"));
+    final Node text0 = docs[0].getElementsByTagNameNS("http://www.w3.org/1999/xhtml", "body").item(0).getFirstChild();
+    final Node text1 = docs[1].getElementsByTagNameNS("http://www.w3.org/1999/xhtml", "body").item(0).getFirstChild();
+    Assert.assertEquals("\n", text0.getNodeValue());
+    Assert.assertSame(text0.getNodeValue(), text1.getNodeValue());
+    final String rect = new String("rect");
+    Assert.assertSame(rect, symbols.intern(rect));
+
+    // Without a value table, only the names are canonicalized:
+    final SymbolTable names = new SymbolTable();
+    final Sax2DomHandler s2d = new Sax2DomHandler(null, names);
+    spf.newSAXParser().parse(srcFile, s2d);
+    final Element link = (Element) s2d.getDocument().getElementsByTagNameNS("http://www.w3.org/1999/xhtml", "a")
+            .item(0);
+    Assert.assertSame(link.getTagName(), names.intern(new String(link.getTagName())));
+    Assert.assertNotSame(link.getAttribute("shape"), names.intern(new String("rect")));
+  }
+
+  private static void formatCompactNode (final Writer out, final CompactDocument doc, final int node,
+          final String indent) throws IOException {
+    out.write(indent);
+    switch (doc.getNodeType(node)) {
+      case Node.COMMENT_NODE:
+      case Node.TEXT_NODE:
+        out.write(doc.getNodeName(node));
+        out.write(": ");
+        out.write(escapeValue(doc.getNodeValue(node)));
+        break;
+
+      case Node.DOCUMENT_NODE:
+        out.write("#document:");
+        break;
+
+      case Node.ELEMENT_NODE:
+        if (doc.getNamespaceURI(node) != null) {
+          out.write("{" + doc.getNamespaceURI(node) + "}" + doc.getLocalName(node));
+        } else {
+          out.write(doc.getNodeName(node));
+        }
+        out.write(":");
+        final TreeMap<String, String> sortedAttrs = new TreeMap<String, String>();
+        for (int i = 0; i < doc.getAttributeCount(node); i++) {
+          sortedAttrs.put(doc.getAttributeName(node, i), doc.getAttributeValue(node, i));
+        }
+        if (!sortedAttrs.isEmpty()) {
+          out.write(" [ ");
+          String delim = "";
+          for (final Map.Entry<String, String> attr : sortedAttrs.entrySet()) {
+            out.write(delim + attr.getKey() + ": " + escapeValue(attr.getValue()));
+            delim = ", ";
+          }
+          out.write(" ]");
+        }
+        break;
+
+      case Node.DOCUMENT_TYPE_NODE:
+        out.write("#dtd: [ name: " + escapeValue(doc.getNodeName(node)) + ", public: "
+                + escapeValue(doc.getPublicId()) + ", system: " + escapeValue(doc.getSystemId()) + " ]");
+        break;
+
+      default:
+        throw new IllegalStateException("Unexpected node type: " + doc.getNodeType(node));
+    }
+    out.write("\n");
+    for (int child = doc.getFirstChild(node); child != CompactDocument.NONE; child = doc.getNextSibling(child)) {
+      formatCompactNode(out, doc, child, indent + "  ");
+    }
+  }
+
   private static void printDocument (final Document doc) {
     try {
       final Writer sw = new PrintWriter(System.out);
@@ -19,11 +19,9 @@ import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
-import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
 
@@ -63,6 +61,11 @@ public final class JavadocProcessor {
 
   private final Map<String, Templates> mTemplates = new TreeMap<String, Templates>();
 
+  /**
+   * The names of all parsed pages.
+   */
+  private final SymbolTable mSymbols = new SymbolTable();
+
   private JavadocProcessor (final File srcRootDir, final File trgRootDir) {
     mSrcRootDir = srcRootDir;
     mTrgRootDir = trgRootDir;
@@ -94,9 +97,9 @@ public final class JavadocProcessor {
           throws ParserConfigurationException, SAXException, IOException, TransformerException, URISyntaxException {
     final File srcFile = new File(packageDir, "package-summary.html");
     if (srcFile.exists()) {
-      final Document srcDom = parseHtml(srcFile);
+      final CompactDocument srcDoc = parseHtml(srcFile);
       final Templates tmpl = tmpl("package-summary");
-      final Source src = new DOMSource(srcDom, srcFile.toURI().toString());
+      final Source src = srcDoc.toSource(srcFile.toURI().toString());
       final File trgFile = new File(mTrgRootDir, packageName.replace('.', File.separatorChar) + File.separator
               + "package-summary.docml.xml");
       trgFile.getParentFile().mkdirs();
@@ -118,12 +121,13 @@ public final class JavadocProcessor {
     return result;
   }
 
-  private static Document parseHtml (final File f) throws ParserConfigurationException, SAXException, IOException {
+  private CompactDocument parseHtml (final File f) throws ParserConfigurationException, SAXException,
+          IOException {
     final SAXParserFactory spf = SAXParserFactory.newInstance("org.ccil.cowan.tagsoup.jaxp.SAXFactoryImpl", null);
-    final Sax2DomHandler s2d = new Sax2DomHandler();
+    final CompactDocumentBuilder builder = new CompactDocumentBuilder(mSymbols);
     final SAXParser sp = spf.newSAXParser();
-    sp.getXMLReader().setProperty("http://xml.org/sax/properties/lexical-handler", s2d);
-    sp.parse(f, s2d);
-    return s2d.getDocument();
+    sp.getXMLReader().setProperty("http://xml.org/sax/properties/lexical-handler", builder);
+    sp.parse(f, builder);
+    return builder.getDocument();
   }
 }
@@ -4,6 +4,8 @@
 package zisch.htmlparse;
 
 
+import java.util.Arrays;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -32,6 +34,12 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
   // private static final String XMLNS_STRING = "xmlns:";
   // private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
 
+  /**
+   * The maximum length of the attribute values and text nodes which are canonicalized by the value table (like
+   * {@code "rect"}, {@code "navList"} or line breaks, which occur again and again in a document).
+   */
+  private static final int MAX_INTERNED_VALUE_LENGTH = 32;
+
   private final Document mDocument;
 
   // private final List<Node> mNodeStack = new ArrayList<Node>();
@@ -42,20 +50,39 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
 
   private Node mCurrentNode = null;
 
+  private final SymbolTable mSymbols;
+
+  /**
+   * The table for short attribute values and text nodes; {@code null} if they are not canonicalized.
+   */
+  private final SymbolTable mValues;
+
+  /**
+   * The characters of the adjacent {@link #characters(char[], int, int)} events since the last structural event, which
+   * are appended as a single text node by {@link #flushText()}; reused for all text nodes.
+   */
+  private char[] mText = new char[256];
+
+  private int mTextLength = 0;
+
   /**
    * Default constructor.
    * <p>
-   * This is a shortcut for {@link #Sax2DomHandler(Node) Sax2Dom(null)}.
+   * This is a shortcut for {@link #Sax2DomHandler(Node, SymbolTable, SymbolTable) Sax2Dom(null, new SymbolTable(),
+   * null)}.
    * 
    * @throws ParserConfigurationException if the internally used {@link DocumentBuilder} cannot be created for some
    *           reason
    */
   public Sax2DomHandler () throws ParserConfigurationException {
-    this(null);
+    this(null, new SymbolTable(), null);
   }
 
   /**
    * Constructor which uses the specified {@code root} node as root of the document built from the SAX events.
+   * <p>
+   * This is a shortcut for {@link #Sax2DomHandler(Node, SymbolTable, SymbolTable) Sax2Dom(root, new SymbolTable(),
+   * null)}.
    * 
    * @param root the root node of the document to build; may be {@code null} to use a newly created, empty
    *          {@link Document} instance as root
@@ -64,6 +91,48 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
    *           reason
    */
   public Sax2DomHandler (final Node root) throws ParserConfigurationException {
+    this(root, new SymbolTable(), null);
+  }
+
+  /**
+   * Constructor which uses the specified {@code root} node as root of the document built from the SAX events and the
+   * specified {@link SymbolTable} for the names and namespace URIs of the elements and attributes. A table may be
+   * shared by the handlers of a processing run (on one thread), so that all their documents share the instances.
+   * <p>
+   * This is a shortcut for {@link #Sax2DomHandler(Node, SymbolTable, SymbolTable) Sax2Dom(root, symbols, null)}.
+   * 
+   * @param root the root node of the document to build; may be {@code null} to use a newly created, empty
+   *          {@link Document} instance as root
+   * @param symbols the table which canonicalizes the names
+   * 
+   * @throws ParserConfigurationException if the internally used {@link DocumentBuilder} cannot be created for some
+   *           reason
+   */
+  public Sax2DomHandler (final Node root, final SymbolTable symbols) throws ParserConfigurationException {
+    this(root, symbols, null);
+  }
+
+  /**
+   * Constructor which additionally canonicalizes short attribute values and text nodes (such as {@code "rect"} or line
+   * breaks) with a separate {@link SymbolTable}. Values are kept out of the table of the names: content like ids, dates
+   * and numbers would otherwise fill it up, after which new names would no longer be canonicalized.
+   * 
+   * @param root the root node of the document to build; may be {@code null} to use a newly created, empty
+   *          {@link Document} instance as root
+   * @param symbols the table which canonicalizes the names
+   * @param values the table which canonicalizes attribute values and text nodes of up to 32 characters; {@code null}
+   *          to create a new string for each of them
+   * 
+   * @throws ParserConfigurationException if the internally used {@link DocumentBuilder} cannot be created for some
+   *           reason
+   */
+  public Sax2DomHandler (final Node root, final SymbolTable symbols, final SymbolTable values)
+          throws ParserConfigurationException {
+    if (symbols == null) {
+      throw new IllegalArgumentException("symbols must not be null");
+    }
+    mSymbols = symbols;
+    mValues = values;
     if (root == null) {
       final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
       mDocument = factory.newDocumentBuilder().newDocument();
@@ -107,6 +176,9 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
 
   /**
    * {@inheritDoc}
+   * <p>
+   * Parsers like TagSoup report text in many small chunks; the characters are collected until the next structural event
+   * and then appended as a single text node, so there are never adjacent text nodes.
    */
   @Override
   public void characters (final char[] ch, final int start, final int length) {
@@ -117,8 +189,11 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
       // FIXME: Should throw an exception if the text contains any non-whitespace character!
       // FIXME: Shouldn't we only get ignorableWhitespace events outside of the document element!??
     } else {
-      final String text = new String(ch, start, length);
-      last.appendChild(mDocument.createTextNode(text));
+      if (mTextLength + length > mText.length) {
+        mText = Arrays.copyOf(mText, Math.max(2 * mText.length, mTextLength + length));
+      }
+      System.arraycopy(ch, start, mText, mTextLength, length);
+      mTextLength += length;
     }
   }
 
@@ -135,6 +210,7 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
    */
   @Override
   public void endDocument () {
+    flushText();
     popNode();
   }
 
@@ -143,7 +219,8 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
    */
   @Override
   public void startElement (final String namespace, final String localName, final String qName, final Attributes attrs) {
-    final Element tmp = mDocument.createElementNS(namespace, qName);
+    flushText();
+    final Element tmp = mDocument.createElementNS(mSymbols.intern(namespace), mSymbols.intern(qName));
 
     // FIXME: This is most probably wrong; AFAIK DOM nodes should not have any namespace declaration attributes!
     // Note: If I'm wrong and we need this, start/endPrefixMapping must be implemented to keep track of the current
@@ -161,10 +238,13 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
     // Add attributes to element
     final int nattrs = attrs.getLength();
     for (int i = 0; i < nattrs; i++) {
+      final String value = attrs.getValue(i);
+      final String canonicalValue = mValues != null && value.length() <= MAX_INTERNED_VALUE_LENGTH ? mValues
+              .intern(value) : value;
       if (attrs.getLocalName(i) == null) {
-        tmp.setAttribute(attrs.getQName(i), attrs.getValue(i));
+        tmp.setAttribute(mSymbols.intern(attrs.getQName(i)), canonicalValue);
       } else {
-        tmp.setAttributeNS(attrs.getURI(i), attrs.getQName(i), attrs.getValue(i));
+        tmp.setAttributeNS(mSymbols.intern(attrs.getURI(i)), mSymbols.intern(attrs.getQName(i)), canonicalValue);
       }
     }
 
@@ -177,6 +257,7 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
    */
   @Override
   public void endElement (final String namespace, final String localName, final String qName) {
+    flushText();
     popNode();
   }
 
@@ -210,8 +291,9 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
    */
   @Override
   public void processingInstruction (final String target, final String data) {
+    flushText();
     final Node last = peekNode();
-    final ProcessingInstruction pi = mDocument.createProcessingInstruction(target, data);
+    final ProcessingInstruction pi = mDocument.createProcessingInstruction(mSymbols.intern(target), data);
     if (pi != null) {
       last.appendChild(pi);
     }
@@ -238,6 +320,7 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
    */
   @Override
   public void comment (final char[] ch, final int start, final int length) {
+    flushText();
     final Node last = peekNode();
     final Comment comment = mDocument.createComment(new String(ch, start, length));
     if (comment != null) {
@@ -282,6 +365,7 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
    */
   @Override
   public void startDTD (final String name, final String publicId, final String systemId) throws SAXException {
+    flushText();
     // TODO: We currently ignore any actual DTD content (if there is some)!
     final DocumentType dtd = mDocument.getImplementation().createDocumentType(name, publicId, systemId);
     appendNode(dtd);
@@ -295,6 +379,18 @@ public class Sax2DomHandler extends DefaultHandler2 implements ContentHandler, L
     popNode();
   }
 
+  /**
+   * Appends the collected characters as a text node to the current node.
+   */
+  private void flushText () {
+    if (mTextLength > 0) {
+      final String text = mValues != null && mTextLength <= MAX_INTERNED_VALUE_LENGTH ? mValues.intern(mText, 0,
+              mTextLength) : new String(mText, 0, mTextLength);
+      peekNode().appendChild(mDocument.createTextNode(text));
+      mTextLength = 0;
+    }
+  }
+
   private void appendNode (final Node node) {
     peekNode().appendChild(node);
     pushNode(node);
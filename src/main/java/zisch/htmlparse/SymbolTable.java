@@ -0,0 +1,168 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.htmlparse;
+
+
+/**
+ * Canonicalizes strings like {@link String#intern()}, but in a table which belongs to a handler or to a processing run
+ * instead of the JVM: {@link #intern(String)} returns the same instance for all equal strings, so the names of a
+ * document tree (and the trees of a whole site) share one instance each and may be compared by identity.
+ * <p>
+ * {@link #intern(char[], int, int)} looks up character data directly, so no {@link String} is created if it is already
+ * in the table.
+ * <p>
+ * Most SAX parsers (TagSoup and the parser of the JDK included) already report interned names; these are found by the
+ * first identity comparison. The table holds at most a fixed number of strings; once it is full, new strings are
+ * returned as they are.
+ * <p>
+ * Instances are not thread-safe.
+ * 
+ * @author zisch
+ */
+public final class SymbolTable {
+
+  /**
+   * The default maximum number of strings in the table.
+   */
+  public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+  private final int mMaxSize;
+
+  /**
+   * The strings by their (mixed) hash code, with open addressing; at most half full.
+   */
+  private String[] mSymbols = new String[256];
+
+  private int mSize = 0;
+
+  /**
+   * Creates a table for up to {@link #DEFAULT_MAX_SIZE} strings.
+   */
+  public SymbolTable () {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates a table for up to {@code maxSize} strings.
+   * 
+   * @param maxSize the maximum number of strings in the table
+   */
+  public SymbolTable (final int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize must be >= 0 but was " + maxSize);
+    }
+    mMaxSize = maxSize;
+  }
+
+  /**
+   * Returns the number of strings in the table.
+   * 
+   * @return the number of strings
+   */
+  public int size () {
+    return mSize;
+  }
+
+  /**
+   * Returns the canonical instance of the specified string.
+   * 
+   * @param s the string; may be {@code null}
+   * 
+   * @return the instance in the table which is equal to {@code s}, {@code s} itself if it has been added to the table
+   *         or the table is full, or {@code null} if {@code s} is {@code null}
+   */
+  public String intern (final String s) {
+    if (s == null) {
+      return null;
+    }
+    final int hash = s.hashCode();
+    final int mask = mSymbols.length - 1;
+    int i = mix(hash) & mask;
+    String e;
+    while ((e = mSymbols[i]) != null) {
+      if (e == s || (e.hashCode() == hash && e.equals(s))) {
+        return e;
+      }
+      i = (i + 1) & mask;
+    }
+    return add(s, i);
+  }
+
+  /**
+   * Returns the canonical instance of the string of the specified characters.
+   * 
+   * @param ch the characters
+   * @param start the start of the string in {@code ch}
+   * @param length the length of the string
+   * 
+   * @return the instance in the table which is equal to the string, or a new instance if the table did not contain it
+   */
+  public String intern (final char[] ch, final int start, final int length) {
+    // The hash code of the String:
+    int hash = 0;
+    for (int j = start; j < start + length; j++) {
+      hash = 31 * hash + ch[j];
+    }
+    final int mask = mSymbols.length - 1;
+    int i = mix(hash) & mask;
+    String e;
+    while ((e = mSymbols[i]) != null) {
+      if (e.hashCode() == hash && equals(e, ch, start, length)) {
+        return e;
+      }
+      i = (i + 1) & mask;
+    }
+    return add(new String(ch, start, length), i);
+  }
+
+  /**
+   * Adds the specified string at the specified free index, unless the table is full.
+   */
+  private String add (final String s, final int index) {
+    if (mSize >= mMaxSize) {
+      return s;
+    }
+    mSymbols[index] = s;
+    mSize++;
+    if (2 * mSize > mSymbols.length) {
+      rehash();
+    }
+    return s;
+  }
+
+  private void rehash () {
+    final String[] old = mSymbols;
+    mSymbols = new String[2 * old.length];
+    final int mask = mSymbols.length - 1;
+    for (final String e : old) {
+      if (e != null) {
+        int i = mix(e.hashCode()) & mask;
+        while (mSymbols[i] != null) {
+          i = (i + 1) & mask;
+        }
+        mSymbols[i] = e;
+      }
+    }
+  }
+
+  private static boolean equals (final String s, final char[] ch, final int start, final int length) {
+    if (s.length() != length) {
+      return false;
+    }
+    for (int j = 0; j < length; j++) {
+      if (s.charAt(j) != ch[start + j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Spreads the bits of the hash code, so that similar strings are not clustered in the table.
+   */
+  private static int mix (final int hash) {
+    final int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
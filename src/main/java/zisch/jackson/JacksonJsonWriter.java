@@ -0,0 +1,390 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.jackson;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import zisch.json.JsonUtil;
+import zisch.json.JsonWriter;
+
+
+/**
+ * A {@link JsonWriter} which delegates to the streaming Jackson {@link JsonGenerator}, so the fluent
+ * {@link JsonWriter} API can be used with the buffer recycling and the direct UTF-8 byte output of
+ * <em>jackson-core</em> (see {@link JacksonJsonWriterBenchmark} for a comparison with the {@link JsonWriter}
+ * backends).
+ * <p>
+ * The output is equivalent to that of a {@link JsonWriter} with the same target charset: The generator is configured
+ * to escape the characters the target charset cannot represent and the ISO control characters, to separate values at
+ * the root level with newlines, and {@code double} values are formatted with
+ * {@link JsonUtil#appendJsonNumber(Appendable, double)}. Only the spelling of some escapes differs (Jackson writes
+ * uppercase hex digits, and the UTF-8 generator escapes supplementary characters and rejects unpaired surrogates with
+ * an {@link IOException}). Tokens at invalid positions are reported with an {@link IllegalStateException} like by the
+ * {@link JsonWriter} (the generator itself does not check whether a value in an object follows a name).
+ * <p>
+ * Instances of of this class are <strong><em>not</em> threadsafe</strong> and should not be used concurrently by
+ * multiple threads.
+ * 
+ * @author zisch
+ */
+public final class JacksonJsonWriter extends JsonWriter {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private static final SerializableString ROOT_VALUE_SEPARATOR = new SerializedString("\n");
+
+  /**
+   * Escapes {@code DEL} and the C1 control characters in addition to the characters escaped by default, like
+   * {@link JsonUtil#appendJsonString(Appendable, CharSequence, Charset)} does.
+   */
+  private static final CharacterEscapes ISO_CONTROL_ESCAPES = new CharacterEscapes() {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] mAsciiEscapes;
+
+    private final SerializedString[] mControlEscapes = new SerializedString[0xa0 - 0x80];
+
+    {
+      mAsciiEscapes = CharacterEscapes.standardAsciiEscapesForJSON();
+      mAsciiEscapes[0x7f] = CharacterEscapes.ESCAPE_STANDARD;
+      for (int c = 0x80; c < 0xa0; c++) {
+        mControlEscapes[c - 0x80] = new SerializedString(String.format("\\u%04x", Integer.valueOf(c)));
+      }
+    }
+
+    @Override
+    public int[] getEscapeCodesForAscii () {
+      return mAsciiEscapes;
+    }
+
+    @Override
+    public SerializableString getEscapeSequence (final int ch) {
+      return ch >= 0x80 && ch < 0xa0 ? mControlEscapes[ch - 0x80] : null;
+    }
+  };
+
+  private final JsonGenerator mGenerator;
+
+  private int mDepth = 0;
+
+  /**
+   * Whether a name has been written for which the value is still missing.
+   */
+  private boolean mNamePending = false;
+
+  /**
+   * Reused to format {@code double} values.
+   */
+  private final StringBuilder mNumber = new StringBuilder(32);
+
+  /**
+   * Reused to pass the characters of strings which are not {@link String}s and of formatted numbers.
+   */
+  private char[] mChars = new char[64];
+
+  /**
+   * Constructor using {@code US-ASCII} as the default {@linkplain #getTargetCharset() target charset}.
+   * 
+   * @param out the stream to write the UTF-8 encoded JSON to
+   */
+  public JacksonJsonWriter (final OutputStream out) {
+    this(out, Charset.forName("US-ASCII"));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param out the stream to write the encoded JSON to
+   * @param targetCharset the target charset: {@code US-ASCII} or {@code UTF-8}
+   * 
+   * @throws IllegalArgumentException if the charset is not supported
+   */
+  public JacksonJsonWriter (final OutputStream out, final Charset targetCharset) {
+    this(createGenerator(out, targetCharset), targetCharset);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param out the {@link Writer} to write the JSON to
+   * @param targetCharset the target charset: {@code US-ASCII}, {@code ISO-8859-1} or one of the Unicode encodings
+   *          {@code UTF-*}
+   * 
+   * @throws IllegalArgumentException if the charset is not supported
+   */
+  public JacksonJsonWriter (final Writer out, final Charset targetCharset) {
+    this(createGenerator(out), targetCharset);
+  }
+
+  /**
+   * Constructor; configures the escaping and the root value separator of the specified generator.
+   * 
+   * @param generator the generator to write the JSON with
+   * @param targetCharset the target charset: {@code US-ASCII}, {@code ISO-8859-1} or one of the Unicode encodings
+   *          {@code UTF-*}
+   * 
+   * @throws IllegalArgumentException if the charset is not supported
+   */
+  public JacksonJsonWriter (final JsonGenerator generator, final Charset targetCharset) {
+    super(targetCharset);
+    final String name = targetCharset.name();
+    if (name.equals("US-ASCII")) {
+      generator.setHighestNonEscapedChar(0x7f);
+    } else if (name.equals("ISO-8859-1")) {
+      generator.setHighestNonEscapedChar(0xff);
+    } else if (!name.startsWith("UTF-")) {
+      throw new IllegalArgumentException("Unsupported target charset " + name + "; use US-ASCII, ISO-8859-1 or UTF-*.");
+    }
+    generator.setCharacterEscapes(ISO_CONTROL_ESCAPES);
+    generator.setRootValueSeparator(ROOT_VALUE_SEPARATOR);
+    mGenerator = generator;
+  }
+
+  private static JsonGenerator createGenerator (final OutputStream out, final Charset targetCharset) {
+    final String name = targetCharset.name();
+    if (!name.equals("US-ASCII") && !name.equals("UTF-8")) {
+      throw new IllegalArgumentException("Unsupported target charset " + name + " for an OutputStream; use US-ASCII "
+              + "or UTF-8.");
+    }
+    try {
+      return JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+    } catch (final IOException exc) {
+      throw new IllegalStateException("Failed to create JSON generator: " + exc, exc);
+    }
+  }
+
+  private static JsonGenerator createGenerator (final Writer out) {
+    try {
+      return JSON_FACTORY.createGenerator(out);
+    } catch (final IOException exc) {
+      throw new IllegalStateException("Failed to create JSON generator: " + exc, exc);
+    }
+  }
+
+  /**
+   * Returns the underlying generator.
+   * 
+   * @return the generator to which all tokens are written
+   */
+  public JsonGenerator getGenerator () {
+    return mGenerator;
+  }
+
+  /**
+   * Closes the generator (which closes the underlying output if {@link JsonGenerator.Feature#AUTO_CLOSE_TARGET} is
+   * enabled).
+   */
+  @Override
+  public void close () throws IOException {
+    mGenerator.close();
+  }
+
+  @Override
+  public void flush () throws IOException {
+    mGenerator.flush();
+  }
+
+  @Override
+  public int getDepth () {
+    return mDepth;
+  }
+
+  @Override
+  public JsonWriter writeStartObject () throws IOException {
+    beforeValue();
+    try {
+      mGenerator.writeStartObject();
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    mDepth++;
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeEndObject () throws IOException {
+    if (mNamePending) {
+      throw new IllegalStateException("Missing value for name before end of object.");
+    }
+    try {
+      mGenerator.writeEndObject();
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    mDepth--;
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeStartArray () throws IOException {
+    beforeValue();
+    try {
+      mGenerator.writeStartArray();
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    mDepth++;
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeEndArray () throws IOException {
+    try {
+      mGenerator.writeEndArray();
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    mDepth--;
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeName (final CharSequence name) throws IOException {
+    if (mNamePending) {
+      throw new IllegalStateException("Expected a value but found a name.");
+    }
+    try {
+      mGenerator.writeFieldName(name.toString());
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    mNamePending = true;
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeString (final CharSequence value) throws IOException {
+    beforeValue();
+    try {
+      if (value == null) {
+        mGenerator.writeNull();
+      } else if (value instanceof String) {
+        mGenerator.writeString((String) value);
+      } else {
+        final int len = value.length();
+        final char[] chars = chars(len);
+        for (int i = 0; i < len; i++) {
+          chars[i] = value.charAt(i);
+        }
+        mGenerator.writeString(chars, 0, len);
+      }
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeNumber (final long value) throws IOException {
+    beforeValue();
+    try {
+      mGenerator.writeNumber(value);
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a number value formatted like JavaScript would format it (see
+   * {@link JsonUtil#appendJsonNumber(Appendable, double)}), unlike {@link JsonGenerator#writeNumber(double)}.
+   */
+  @Override
+  public JsonWriter writeNumber (final double value) throws IOException {
+    if (value == Math.rint(value) && Math.abs(value) < 1e18) {
+      return writeNumber((long) value);
+    }
+    mNumber.setLength(0);
+    JsonUtil.appendJsonNumber(mNumber, value);
+    final int len = mNumber.length();
+    final char[] chars = chars(len);
+    mNumber.getChars(0, len, chars, 0);
+    beforeValue();
+    try {
+      mGenerator.writeRawValue(chars, 0, len);
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeBoolean (final boolean value) throws IOException {
+    beforeValue();
+    try {
+      mGenerator.writeBoolean(value);
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    return this;
+  }
+
+  @Override
+  public JsonWriter writeNull () throws IOException {
+    beforeValue();
+    try {
+      mGenerator.writeNull();
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    return this;
+  }
+
+  @Override
+  public JsonWriter writePrimitiveValue (final Object value) throws IOException {
+    if (!(value instanceof BigInteger || value instanceof BigDecimal || value instanceof Character)) {
+      return super.writePrimitiveValue(value);
+    }
+    beforeValue();
+    try {
+      if (value instanceof BigInteger) {
+        mGenerator.writeNumber((BigInteger) value);
+      } else if (value instanceof BigDecimal) {
+        mGenerator.writeNumber((BigDecimal) value);
+      } else {
+        mGenerator.writeString(String.valueOf(((Character) value).charValue()));
+      }
+    } catch (final JsonGenerationException exc) {
+      throw invalidState(exc);
+    }
+    return this;
+  }
+
+  /**
+   * Checks that a value may be written at the current position.
+   */
+  private void beforeValue () {
+    if (mGenerator.getOutputContext().inObject()) {
+      if (!mNamePending) {
+        throw new IllegalStateException("Expected a name but found a value.");
+      }
+      mNamePending = false;
+    }
+  }
+
+  private char[] chars (final int length) {
+    if (mChars.length < length) {
+      mChars = new char[Math.max(length, mChars.length * 2)];
+    }
+    return mChars;
+  }
+
+  private static IllegalStateException invalidState (final JsonGenerationException exc) {
+    return new IllegalStateException(exc.getMessage(), exc);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.jackson;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import zisch.json.ByteJsonWriter;
+import zisch.json.JsonUtil;
+import zisch.json.JsonWriter;
+import zisch.json.JsonWriterBenchmark;
+
+
+/**
+ * Simple benchmark comparing the {@link JacksonJsonWriter} with the {@link JsonWriter} backends (an {@link Appendable}
+ * and the {@link ByteJsonWriter}) on the records of the {@link JsonWriterBenchmark}, and the string escaping of
+ * {@link JsonUtil#toJsonString(CharSequence)} with the {@link JsonStringEncoder} of Jackson.
+ * <p>
+ * Each benchmark runs a few times to warm up the JIT before the times are printed; the output is counted and
+ * discarded.
+ * 
+ * @author zisch
+ */
+public final class JacksonJsonWriterBenchmark {
+
+  private static final Charset[] CHARSETS = new Charset[] { Charset.forName("US-ASCII"), Charset.forName("UTF-8") };
+
+  private static final String[] BACKENDS = new String[] { "Appendable", "ByteJsonWriter", "JacksonJsonWriter" };
+
+  private JacksonJsonWriterBenchmark () {
+    throw new AssertionError("not allowed");
+  }
+
+  /**
+   * Main method.
+   * 
+   * @param args command line arguments: the number of records per run (optional, default 200000)
+   * 
+   * @throws IOException never (the output is discarded)
+   */
+  public static void main (final String[] args) throws IOException {
+    final int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    final String[] texts = JsonWriterBenchmark.generateTexts(4711L, 1000);
+    for (int run = 0; run < 5; run++) {
+      final boolean warmUp = run < 2;
+      for (final Charset charset : CHARSETS) {
+        for (final String backend : BACKENDS) {
+          final CountingOutputStream out = new CountingOutputStream();
+          final long start = System.nanoTime();
+          final JsonWriter w = createWriter(backend, out, charset);
+          JsonWriterBenchmark.writeRecords(w, texts, records);
+          w.close();
+          final long nanos = System.nanoTime() - start;
+          if (!warmUp) {
+            System.out.println(String.format(Locale.ROOT, "%-8s %-18s %8.1f ms %7.1f MB/s (%d bytes)", charset,
+                    backend, nanos / 1e6, out.mCount * 1e3 / nanos, out.mCount));
+          }
+        }
+      }
+
+      long length = 0;
+      final long utilStart = System.nanoTime();
+      for (int i = 0; i < records; i++) {
+        length += JsonUtil.toJsonString(texts[i % texts.length]).length();
+      }
+      final long utilNanos = System.nanoTime() - utilStart;
+      final JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+      final long jacksonStart = System.nanoTime();
+      for (int i = 0; i < records; i++) {
+        length += encoder.quoteAsString(texts[i % texts.length]).length;
+      }
+      final long jacksonNanos = System.nanoTime() - jacksonStart;
+      if (!warmUp) {
+        System.out.println(String.format(Locale.ROOT, "Escaping: JsonUtil %8.1f ms | JsonStringEncoder %8.1f ms "
+                + "(%d chars)", utilNanos / 1e6, jacksonNanos / 1e6, length));
+      }
+    }
+  }
+
+  private static JsonWriter createWriter (final String backend, final OutputStream out, final Charset charset) {
+    if (backend.equals("Appendable")) {
+      return new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, charset), 8192), charset);
+    } else if (backend.equals("ByteJsonWriter")) {
+      return new ByteJsonWriter(out, charset);
+    } else {
+      return new JacksonJsonWriter(out, charset);
+    }
+  }
+
+  /**
+   * Discards the output and counts the bytes.
+   */
+  private static final class CountingOutputStream extends OutputStream {
+    private long mCount = 0;
+
+    @Override
+    public void write (final int b) {
+      mCount++;
+    }
+
+    @Override
+    public void write (final byte[] b, final int off, final int len) {
+      mCount += len;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.jackson;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import zisch.json.ByteJsonWriter;
+import zisch.json.JsonReader;
+import zisch.json.JsonReader.Token;
+import zisch.json.JsonWriter;
+
+
+/**
+ * Tests the classes of the {@code zisch.jackson} package which are not covered by {@link zisch.lunr.LunrIndexTest}.
+ * 
+ * @author zisch
+ */
+public class JacksonTest {
+
+  private static final Pattern UNICODE_ESCAPE = Pattern.compile("\\\\u[0-9A-F]{4}");
+
+  /**
+   * Tests that {@link JacksonJsonWriter} writes the same JSON as the {@link JsonWriter} (apart from the case of the
+   * hex digits in escapes) and reports invalid positions like it.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testJacksonJsonWriter () throws Exception {
+    for (final String charsetName : new String[] { "US-ASCII", "UTF-8" }) {
+      final Charset charset = Charset.forName(charsetName);
+      final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      final JsonWriter byteWriter = new ByteJsonWriter(expected, charset);
+      writeSample(byteWriter);
+      byteWriter.close();
+      final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      final JsonWriter jacksonWriter = new JacksonJsonWriter(actual, charset);
+      writeSample(jacksonWriter);
+      Assert.assertEquals(0, jacksonWriter.getDepth());
+      jacksonWriter.close();
+      Assert.assertEquals(new String(expected.toByteArray(), "UTF-8"), lowerCaseEscapes(new String(actual
+              .toByteArray(), "UTF-8")));
+    }
+
+    // The UTF-8 generator escapes supplementary characters:
+    final ByteArrayOutputStream supplementary = new ByteArrayOutputStream();
+    new JacksonJsonWriter(supplementary, Charset.forName("UTF-8")).writeString("😀").close();
+    final JsonReader r = new JsonReader(ByteBuffer.wrap(supplementary.toByteArray()));
+    Assert.assertEquals(Token.STRING, r.next());
+    Assert.assertEquals("😀", r.getString());
+
+    final StringWriter out = new StringWriter();
+    final JsonWriter latin1Writer = new JacksonJsonWriter(out, Charset.forName("ISO-8859-1"));
+    latin1Writer.writeString("ä€").close();
+    Assert.assertEquals("\"ä\\u20ac\"", lowerCaseEscapes(out.toString()));
+
+    try {
+      new JacksonJsonWriter(new StringWriter(), Charset.forName("UTF-8")).writeStartObject().writeNumber(1);
+      Assert.fail("Wrote value without name.");
+    } catch (final IllegalStateException exc) {
+      // expected
+    }
+    try {
+      new JacksonJsonWriter(new StringWriter(), Charset.forName("UTF-8")).writeStartArray().writeEndObject();
+      Assert.fail("Ended array as object.");
+    } catch (final IllegalStateException exc) {
+      // expected
+    }
+    try {
+      new JacksonJsonWriter(new StringWriter(), Charset.forName("UTF-8")).writeStartObject().writeName("a")
+              .writeEndObject();
+      Assert.fail("Ended object without value for name.");
+    } catch (final IllegalStateException exc) {
+      // expected
+    }
+  }
+
+  private static void writeSample (final JsonWriter w) throws Exception {
+    w.writeStartObject();
+    w.writeName("aä").writeString("x\"\\\n\u0001\u007f\u0085 ä€");
+    w.writeName(new StringBuilder("b")).writeString(new StringBuilder("sb"));
+    w.writeStartArrayValue("c").writeNumber(Long.MIN_VALUE).writeNumber(0.1 + 0.2).writeNumber(1e21).writeNumber(
+            Double.NaN).writeNumber(3.0).writeBoolean(false).writeNull().writePrimitiveValue(Character.valueOf('c'))
+            .writePrimitiveValue(new java.math.BigDecimal("1.10")).writeEndArray();
+    w.writeStartObjectValue("d").writePrimitiveObjectValue("e", Integer.valueOf(7)).writeEndObject();
+    w.writeEndObject();
+    w.writeNumber(42);
+    w.writeString("root");
+  }
+
+  private static String lowerCaseEscapes (final String json) {
+    final Matcher m = UNICODE_ESCAPE.matcher(json);
+    final StringBuffer sb = new StringBuffer();
+    while (m.find()) {
+      m.appendReplacement(sb, Matcher.quoteReplacement(m.group().toLowerCase()));
+    }
+    m.appendTail(sb);
+    return sb.toString();
+  }
+}
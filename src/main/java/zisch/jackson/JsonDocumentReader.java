@@ -0,0 +1,248 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.jackson;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import zisch.lunr.LunrIndex;
+import zisch.lunr.LunrIndex.Document;
+
+
+/**
+ * Reads {@link LunrIndex} documents from JSON with the streaming Jackson {@link JsonParser}, one document at a time.
+ * <p>
+ * The input is either a JSON array of document objects or a sequence of document objects at the root level (for
+ * example one object per line). For each object, the property configured as reference becomes the
+ * {@linkplain Document#getId() document reference} (a number, or a string containing a number), and the properties
+ * mapped to fields become the field values. String, number and boolean values are used as text, the values of an array
+ * are joined with spaces; {@code null} is no value. All other properties, and nested objects, are skipped without
+ * being materialized, so only the values of the current document are held in memory, whatever the size of the input.
+ * <p>
+ * Use {@link #addDocuments(LunrIndex, InputStream)} to add all documents of a stream to an index, or pass the reader
+ * as {@link Iterator} to {@link LunrIndex#addDocuments(Iterator, int)}. Since an {@link Iterator} cannot throw an
+ * {@link IOException}, the iterator methods throw an {@link IllegalStateException} with the {@link IOException} as
+ * cause; {@link #addDocuments(LunrIndex, InputStream)} throws the {@link IOException} itself.
+ * 
+ * @author zisch
+ */
+public final class JsonDocumentReader implements Iterator<Document> {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+  private final JsonParser mParser;
+
+  private final String mRefProperty;
+
+  private final Map<String, String> mFieldNamesByProperty;
+
+  /**
+   * Whether the documents are the elements of a root array; {@code null} until the first token has been read.
+   */
+  private Boolean mInArray = null;
+
+  private Document mNext = null;
+
+  private boolean mDone = false;
+
+  private final StringBuilder mText = new StringBuilder();
+
+  /**
+   * Constructor.
+   * 
+   * @param parser the parser to read the documents from; is not closed
+   * @param refProperty the name of the JSON property which contains the document reference
+   * @param fieldNamesByProperty the names of the index fields by the names of the JSON properties which contain their
+   *          values
+   */
+  public JsonDocumentReader (final JsonParser parser, final String refProperty,
+          final Map<String, String> fieldNamesByProperty) {
+    mParser = parser;
+    mRefProperty = refProperty;
+    mFieldNamesByProperty = new HashMap<String, String>(fieldNamesByProperty);
+  }
+
+  /**
+   * Adds all documents in the specified stream to the index, each document as soon as it has been read. The JSON
+   * properties must be named like the {@linkplain LunrIndex#getRefName() reference} and the
+   * {@linkplain LunrIndex#getFields() fields} of the index.
+   * 
+   * @param index the index to add the documents to
+   * @param in the UTF-8, UTF-16 or UTF-32 encoded JSON; is not closed
+   * 
+   * @return the number of documents added
+   * 
+   * @throws IOException if thrown by {@code in} or if the input is not valid JSON
+   * @throws IllegalArgumentException if a document has no valid reference
+   */
+  public static int addDocuments (final LunrIndex index, final InputStream in) throws IOException {
+    final Map<String, String> fieldNamesByProperty = new HashMap<String, String>();
+    for (final String name : index.getFields().keySet()) {
+      fieldNamesByProperty.put(name, name);
+    }
+    return addDocuments(index, in, index.getRefName(), fieldNamesByProperty);
+  }
+
+  /**
+   * Adds all documents in the specified stream to the index, each document as soon as it has been read.
+   * 
+   * @param index the index to add the documents to
+   * @param in the UTF-8, UTF-16 or UTF-32 encoded JSON; is not closed
+   * @param refProperty the name of the JSON property which contains the document reference
+   * @param fieldNamesByProperty the names of the index fields by the names of the JSON properties which contain their
+   *          values
+   * 
+   * @return the number of documents added
+   * 
+   * @throws IOException if thrown by {@code in} or if the input is not valid JSON
+   * @throws IllegalArgumentException if a document has no valid reference or a property is mapped to an unknown field
+   */
+  public static int addDocuments (final LunrIndex index, final InputStream in, final String refProperty,
+          final Map<String, String> fieldNamesByProperty) throws IOException {
+    final JsonParser parser = JSON_FACTORY.createParser(in);
+    try {
+      final JsonDocumentReader reader = new JsonDocumentReader(parser, refProperty, fieldNamesByProperty);
+      int count = 0;
+      Document doc;
+      while ((doc = reader.read()) != null) {
+        index.addDocument(doc.getId(), doc.getFields());
+        count++;
+      }
+      return count;
+    } finally {
+      parser.close();
+    }
+  }
+
+  public boolean hasNext () {
+    if (mNext == null && !mDone) {
+      try {
+        mNext = read();
+      } catch (final IOException exc) {
+        throw new IllegalStateException("Failed to read JSON document: " + exc, exc);
+      }
+    }
+    return mNext != null;
+  }
+
+  public Document next () {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final Document doc = mNext;
+    mNext = null;
+    return doc;
+  }
+
+  public void remove () {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Reads the next document.
+   * 
+   * @return the document, or {@code null} at the end of the input
+   * 
+   * @throws IOException if thrown by the parser
+   */
+  private Document read () throws IOException {
+    if (mDone) {
+      return null;
+    }
+    JsonToken token = mParser.nextToken();
+    if (mInArray == null) {
+      mInArray = Boolean.valueOf(token == JsonToken.START_ARRAY);
+      if (mInArray.booleanValue()) {
+        token = mParser.nextToken();
+      }
+    }
+    if (token == null || token == JsonToken.END_ARRAY && mInArray.booleanValue()) {
+      mDone = true;
+      return null;
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw new IllegalArgumentException("Expected a JSON object for a document but found " + token + " at "
+              + mParser.getCurrentLocation() + ".");
+    }
+
+    Long ref = null;
+    final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+    while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+      final String property = mParser.getCurrentName();
+      final JsonToken value = mParser.nextToken();
+      if (property.equals(mRefProperty)) {
+        ref = readRef(value);
+      } else {
+        final String fieldName = mFieldNamesByProperty.get(property);
+        if (fieldName == null) {
+          mParser.skipChildren();
+        } else {
+          fields.put(fieldName, readText(value));
+        }
+      }
+    }
+    if (ref == null) {
+      throw new IllegalArgumentException("Missing reference property '" + mRefProperty + "' in document before "
+              + mParser.getCurrentLocation() + ".");
+    }
+    return new Document(ref.longValue(), Collections.unmodifiableMap(fields));
+  }
+
+  private Long readRef (final JsonToken value) throws IOException {
+    if (value == JsonToken.VALUE_NUMBER_INT) {
+      return Long.valueOf(mParser.getLongValue());
+    }
+    if (value == JsonToken.VALUE_STRING) {
+      try {
+        return Long.valueOf(mParser.getText().trim());
+      } catch (final NumberFormatException exc) {
+        // handled below
+      }
+    }
+    throw new IllegalArgumentException("Invalid reference property '" + mRefProperty + "' at "
+            + mParser.getCurrentLocation() + "; expected an integer.");
+  }
+
+  /**
+   * Reads a field value as text: scalars as they are, arrays as their scalar values joined by spaces.
+   * 
+   * @return the text, or {@code null} for {@code null}
+   */
+  private String readText (final JsonToken value) throws IOException {
+    if (value == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (value.isScalarValue()) {
+      return mParser.getText();
+    }
+    if (value == JsonToken.START_ARRAY) {
+      mText.setLength(0);
+      JsonToken element;
+      while ((element = mParser.nextToken()) != JsonToken.END_ARRAY) {
+        if (element.isScalarValue() && element != JsonToken.VALUE_NULL) {
+          if (mText.length() > 0) {
+            mText.append(' ');
+          }
+          mText.append(mParser.getText());
+        } else {
+          mParser.skipChildren();
+        }
+      }
+      return mText.toString();
+    }
+    mParser.skipChildren();
+    return null;
+  }
+}
@@ -2,8 +2,11 @@
  * Triggs u Gaeggs.
  */
 /**
- * TODO [javadoc]: type package-info
- *
+ * Utilities built on the streaming API of Jackson ({@code jackson-core}), for example
+ * {@link zisch.jackson.JsonDocumentReader} which streams JSON documents into a {@link zisch.lunr.LunrIndex} and
+ * {@link zisch.jackson.JacksonJsonWriter} which writes through a Jackson generator with the
+ * {@link zisch.json.JsonWriter} API.
+ * 
  * @author zisch
  */
 package zisch.jackson;
\ No newline at end of file
@@ -0,0 +1,176 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.json;
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Recycled {@code char} buffer in which {@link JsonUtil} and {@link JsonWriter} build strings before they are copied
+ * to their destination with a single call.
+ * <p>
+ * Each thread has one cached buffer, which is handed out by {@link #acquire(Writer)} and returned by
+ * {@link #release()}. If the cached buffer is in use (because building a string reentrantly needs another one), a
+ * temporary buffer is created. A buffer with a sink {@link Writer} writes its content to the sink whenever it is full
+ * and therefore never grows; a buffer without a sink grows as needed, but a buffer which has grown beyond
+ * {@link #MAX_CACHED_LENGTH} is not kept for reuse.
+ * <p>
+ * All {@code char} arrays allocated for buffers are counted (see {@link JsonUtil#getBufferAllocationCount()}), so
+ * benchmarks and tests can verify that serialization in the steady state allocates nothing but its results.
+ * 
+ * @author zisch
+ */
+final class JsonBuffer implements Appendable {
+
+  private static final int INITIAL_LENGTH = 1024;
+
+  /**
+   * The maximum length of a buffer which is kept for reuse.
+   */
+  static final int MAX_CACHED_LENGTH = 64 * 1024;
+
+  private static final AtomicLong ALLOCATION_COUNT = new AtomicLong();
+
+  private static final ThreadLocal<JsonBuffer> CACHE = new ThreadLocal<JsonBuffer>() {
+    @Override
+    protected JsonBuffer initialValue () {
+      return new JsonBuffer(true);
+    }
+  };
+
+  private final boolean mCached;
+
+  private boolean mInUse = false;
+
+  private char[] mChars;
+
+  private int mLength = 0;
+
+  private Writer mSink = null;
+
+  private JsonBuffer (final boolean cached) {
+    mCached = cached;
+    mChars = allocate(INITIAL_LENGTH);
+  }
+
+  /**
+   * Returns an empty buffer for the current thread, which must be {@linkplain #release() released} after use.
+   * 
+   * @param sink the {@link Writer} to which the content is written whenever the buffer is full, or {@code null} to
+   *          grow the buffer instead
+   * 
+   * @return an empty buffer
+   */
+  static JsonBuffer acquire (final Writer sink) {
+    JsonBuffer buffer = CACHE.get();
+    if (buffer.mInUse) {
+      buffer = new JsonBuffer(false);
+    }
+    buffer.mInUse = true;
+    buffer.mSink = sink;
+    return buffer;
+  }
+
+  /**
+   * Returns the number of {@code char} arrays allocated for buffers so far (by all threads).
+   * 
+   * @return the number of allocations
+   */
+  static long getAllocationCount () {
+    return ALLOCATION_COUNT.get();
+  }
+
+  /**
+   * Empties this buffer and returns it to the cache of the current thread (or drops its array if it has grown beyond
+   * {@link #MAX_CACHED_LENGTH}).
+   */
+  void release () {
+    mLength = 0;
+    mSink = null;
+    mInUse = false;
+    if (mCached && mChars.length > MAX_CACHED_LENGTH) {
+      mChars = allocate(INITIAL_LENGTH);
+    }
+  }
+
+  /**
+   * Writes the content of this buffer to the sink and empties the buffer.
+   * 
+   * @throws IOException if thrown by the sink
+   */
+  void flushToSink () throws IOException {
+    if (mLength > 0) {
+      mSink.write(mChars, 0, mLength);
+      mLength = 0;
+    }
+  }
+
+  public JsonBuffer append (final char c) throws IOException {
+    if (mLength == mChars.length) {
+      makeRoom(1);
+    }
+    mChars[mLength++] = c;
+    return this;
+  }
+
+  public JsonBuffer append (final CharSequence csq) throws IOException {
+    // Like StringBuilder, null is appended as "null":
+    final CharSequence cs = csq == null ? "null" : csq;
+    return append(cs, 0, cs.length());
+  }
+
+  public JsonBuffer append (final CharSequence csq, final int start, final int end) throws IOException {
+    if (csq == null) {
+      return append("null", start, end);
+    }
+    int from = start;
+    while (from < end) {
+      if (mLength == mChars.length) {
+        makeRoom(end - from);
+      }
+      final int to = Math.min(end, from + mChars.length - mLength);
+      if (csq instanceof String) {
+        ((String) csq).getChars(from, to, mChars, mLength);
+      } else if (csq instanceof StringBuilder) {
+        ((StringBuilder) csq).getChars(from, to, mChars, mLength);
+      } else {
+        for (int i = from; i < to; i++) {
+          mChars[mLength + i - from] = csq.charAt(i);
+        }
+      }
+      mLength += to - from;
+      from = to;
+    }
+    return this;
+  }
+
+  /**
+   * Returns the content of this buffer.
+   */
+  @Override
+  public String toString () {
+    return new String(mChars, 0, mLength);
+  }
+
+  /**
+   * Makes room for at least one more character: writes the content to the sink, if any, or grows the buffer.
+   */
+  private void makeRoom (final int wanted) throws IOException {
+    if (mSink != null) {
+      flushToSink();
+    } else {
+      final char[] chars = allocate(Math.max(mChars.length * 2, mLength + wanted));
+      System.arraycopy(mChars, 0, chars, 0, mLength);
+      mChars = chars;
+    }
+  }
+
+  private static char[] allocate (final int length) {
+    ALLOCATION_COUNT.incrementAndGet();
+    return new char[length];
+  }
+}
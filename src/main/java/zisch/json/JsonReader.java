@@ -0,0 +1,767 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.json;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+
+/**
+ * Pull parser for JSON documents: each call of {@link #next()} reads the next {@link Token} from the input, and the
+ * text of names, strings and numbers is available from {@link #getText()} until the following call.
+ * <p>
+ * The input is read through a fixed buffer, either from a {@link Reader} or by decoding a UTF-8 encoded
+ * {@link ByteBuffer} chunk by chunk, and the text of the current token is collected in a reusable {@link CharBuffer}.
+ * Apart from these buffers (which only grow with the longest string) and a {@code byte} stack with the state of the
+ * nested objects and arrays, reading does not allocate anything, so large documents can be filtered or transformed in
+ * a single pass with bounded memory. {@link #skipValue()} skips the value of a property or a whole object or array
+ * without collecting any text.
+ * <p>
+ * Like the {@link JsonWriter}, the reader accepts several values at the root level, which must be separated by at
+ * least one whitespace character (as in <em>JSON Lines</em>). Invalid JSON is reported with an
+ * {@link IllegalArgumentException} which contains the offset of the offending character.
+ * <p>
+ * Instances of of this class are <strong><em>not</em> threadsafe</strong> and should not be used concurrently by
+ * multiple threads.
+ * 
+ * @author zisch
+ */
+public final class JsonReader implements Closeable {
+
+  /**
+   * The tokens returned by {@link JsonReader#next()}.
+   * 
+   * @author zisch
+   */
+  public enum Token {
+    /**
+     * The start of an object (<code>{</code>).
+     */
+    START_OBJECT,
+
+    /**
+     * The end of an object (<code>}</code>).
+     */
+    END_OBJECT,
+
+    /**
+     * The start of an array ({@code [}).
+     */
+    START_ARRAY,
+
+    /**
+     * The end of an array ({@code ]}).
+     */
+    END_ARRAY,
+
+    /**
+     * The name of a property; the unescaped name is the {@linkplain JsonReader#getText() text}.
+     */
+    NAME,
+
+    /**
+     * A string value; the unescaped string is the {@linkplain JsonReader#getText() text}.
+     */
+    STRING,
+
+    /**
+     * A number value; the number as it appears in the input is the {@linkplain JsonReader#getText() text}.
+     */
+    NUMBER,
+
+    /**
+     * The value {@code true}.
+     */
+    TRUE,
+
+    /**
+     * The value {@code false}.
+     */
+    FALSE,
+
+    /**
+     * The value {@code null}.
+     */
+    NULL,
+
+    /**
+     * The end of the input.
+     */
+    END_DOCUMENT
+  }
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // The states of the contexts on the stack:
+  private static final byte ROOT_EMPTY = 0;
+
+  private static final byte ROOT_VALUE = 1;
+
+  private static final byte OBJECT_EMPTY = 2;
+
+  private static final byte OBJECT_NAME = 3;
+
+  private static final byte OBJECT_VALUE = 4;
+
+  private static final byte ARRAY_EMPTY = 5;
+
+  private static final byte ARRAY_VALUE = 6;
+
+  private final Reader mReader;
+
+  private final ByteBuffer mBytes;
+
+  private final CharsetDecoder mDecoder;
+
+  private final char[] mBuffer = new char[BUFFER_SIZE];
+
+  /**
+   * The buffer wrapped for the decoder.
+   */
+  private final CharBuffer mDecoded;
+
+  private int mPosition = 0;
+
+  private int mLimit = 0;
+
+  /**
+   * The offset of {@code mBuffer[0]} in the input.
+   */
+  private long mOffset = 0;
+
+  private boolean mEndOfInput = false;
+
+  /**
+   * The states of the nested contexts; {@code mStack[0]} is the root context and {@code mStack[mDepth]} the current
+   * one.
+   */
+  private byte[] mStack = new byte[16];
+
+  private int mDepth = 0;
+
+  private Token mToken = null;
+
+  private char[] mText = new char[64];
+
+  private CharBuffer mTextBuffer = CharBuffer.wrap(mText);
+
+  private int mTextLength = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param in the {@link Reader} to read the JSON from
+   */
+  public JsonReader (final Reader in) {
+    if (in == null) {
+      throw new IllegalArgumentException("in must not be null");
+    }
+    mReader = in;
+    mBytes = null;
+    mDecoder = null;
+    mDecoded = null;
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param in the UTF-8 encoded JSON, from its position to its limit; the position is advanced while reading
+   */
+  public JsonReader (final ByteBuffer in) {
+    if (in == null) {
+      throw new IllegalArgumentException("in must not be null");
+    }
+    mReader = null;
+    mBytes = in;
+    mDecoder = Charset.forName("UTF-8").newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    mDecoded = CharBuffer.wrap(mBuffer);
+  }
+
+  /**
+   * Reads the next token.
+   * 
+   * @return the next token; {@link Token#END_DOCUMENT} at the end of the input
+   * 
+   * @throws IOException if thrown by the underlying {@link Reader}
+   * @throws IllegalArgumentException if the input is not valid JSON
+   */
+  public Token next () throws IOException {
+    final long start = mOffset + mPosition;
+    final int c = skipWhitespace();
+    switch (mStack[mDepth]) {
+      case ROOT_EMPTY:
+        if (c < 0) {
+          mToken = Token.END_DOCUMENT;
+        } else {
+          mStack[mDepth] = ROOT_VALUE;
+          mToken = readValue(c);
+        }
+        break;
+
+      case ROOT_VALUE:
+        if (c < 0) {
+          mToken = Token.END_DOCUMENT;
+        } else if (mOffset + mPosition - 1 == start) {
+          // c directly follows the previous value:
+          throw invalid("Expected whitespace between values at the root level but found " + describe(c));
+        } else {
+          mToken = readValue(c);
+        }
+        break;
+
+      case OBJECT_EMPTY:
+        if (c == '}') {
+          mToken = endContainer(Token.END_OBJECT);
+        } else {
+          mToken = readName(c);
+        }
+        break;
+
+      case OBJECT_NAME:
+        expect(':', c);
+        mStack[mDepth] = OBJECT_VALUE;
+        mToken = readValue(skipWhitespace());
+        break;
+
+      case OBJECT_VALUE:
+        if (c == '}') {
+          mToken = endContainer(Token.END_OBJECT);
+        } else {
+          expect(',', c);
+          mToken = readName(skipWhitespace());
+        }
+        break;
+
+      case ARRAY_EMPTY:
+        if (c == ']') {
+          mToken = endContainer(Token.END_ARRAY);
+        } else {
+          mStack[mDepth] = ARRAY_VALUE;
+          mToken = readValue(c);
+        }
+        break;
+
+      case ARRAY_VALUE:
+        if (c == ']') {
+          mToken = endContainer(Token.END_ARRAY);
+        } else {
+          expect(',', c);
+          mToken = readValue(skipWhitespace());
+        }
+        break;
+
+      default:
+        throw new AssertionError("Unknown state " + mStack[mDepth]);
+    }
+    return mToken;
+  }
+
+  /**
+   * Returns the token returned by the last call of {@link #next()}.
+   * 
+   * @return the current token, or {@code null} before the first call of {@link #next()}
+   */
+  public Token getToken () {
+    return mToken;
+  }
+
+  /**
+   * Returns the number of objects and arrays which enclose the current position.
+   * 
+   * @return the nesting depth; {@code 0} at the root level
+   */
+  public int getDepth () {
+    return mDepth;
+  }
+
+  /**
+   * Returns the text of the current {@link Token#NAME NAME}, {@link Token#STRING STRING} or {@link Token#NUMBER
+   * NUMBER} token. The returned buffer is reused for all tokens: its content is only valid until the next call of
+   * {@link #next()} or {@link #skipValue()}, and it must be copied (e.g. with {@link CharBuffer#toString()} or
+   * {@link CharBuffer#get(char[])}) to be kept.
+   * 
+   * @return a buffer with the text of the current token from its position {@code 0} to its limit
+   * 
+   * @throws IllegalStateException if the current token has no text
+   */
+  public CharBuffer getText () {
+    checkText();
+    mTextBuffer.clear();
+    mTextBuffer.limit(mTextLength);
+    return mTextBuffer;
+  }
+
+  /**
+   * Returns the text of the current {@link Token#NAME NAME}, {@link Token#STRING STRING} or {@link Token#NUMBER
+   * NUMBER} token as new {@link String}.
+   * 
+   * @return the text of the current token
+   * 
+   * @throws IllegalStateException if the current token has no text
+   */
+  public String getString () {
+    checkText();
+    return new String(mText, 0, mTextLength);
+  }
+
+  /**
+   * Returns the value of the current {@link Token#NUMBER NUMBER} token as {@code long}, without creating any objects.
+   * 
+   * @return the value of the current token
+   * 
+   * @throws IllegalStateException if the current token is not a number or not an integer in the range of {@code long}
+   */
+  public long getLong () {
+    if (mToken != Token.NUMBER) {
+      throw new IllegalStateException("Current token " + mToken + " is not a NUMBER.");
+    }
+    final boolean negative = mText[0] == '-';
+    long value = 0;
+    for (int i = negative ? 1 : 0; i < mTextLength; i++) {
+      final int digit = mText[i] - '0';
+      if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+        throw new IllegalStateException("The number " + getString() + " is not a long.");
+      }
+      // Accumulate negatively to cover Long.MIN_VALUE:
+      value = value * 10 - digit;
+    }
+    if (!negative && value == Long.MIN_VALUE) {
+      throw new IllegalStateException("The number " + getString() + " is not a long.");
+    }
+    return negative ? value : -value;
+  }
+
+  /**
+   * Returns the value of the current {@link Token#NUMBER NUMBER} token as {@code double}.
+   * 
+   * @return the value of the current token
+   * 
+   * @throws IllegalStateException if the current token is not a number
+   */
+  public double getDouble () {
+    if (mToken != Token.NUMBER) {
+      throw new IllegalStateException("Current token " + mToken + " is not a NUMBER.");
+    }
+    return Double.parseDouble(getString());
+  }
+
+  /**
+   * Skips the value of the current token: For a {@link Token#START_OBJECT START_OBJECT} or
+   * {@link Token#START_ARRAY START_ARRAY} token, the input is skipped up to the matching end, which becomes the
+   * {@linkplain #getToken() current token}; for a {@link Token#NAME NAME} token, the value of the property is read and
+   * skipped like this; for all other tokens, nothing is skipped.
+   * <p>
+   * Skipping an object or array is much faster than reading its tokens: only the brackets and the boundaries of the
+   * strings are looked at, so the skipped part is not fully validated.
+   * 
+   * @throws IOException if thrown by the underlying {@link Reader}
+   * @throws IllegalArgumentException if the input ends before the end of the skipped object or array or the brackets
+   *           do not match
+   */
+  public void skipValue () throws IOException {
+    if (mToken == Token.NAME) {
+      next();
+    }
+    if (mToken != Token.START_OBJECT && mToken != Token.START_ARRAY) {
+      return;
+    }
+    int depth = 1;
+    while (depth > 0) {
+      if (mPosition == mLimit && !fill()) {
+        throw invalid("Unexpected end of input in " + (mToken == Token.START_OBJECT ? "object" : "array"));
+      }
+      final char[] buf = mBuffer;
+      final int limit = mLimit;
+      int pos = mPosition;
+      while (pos < limit) {
+        final char c = buf[pos++];
+        if (c == '"') {
+          mPosition = pos;
+          skipString();
+          pos = mPosition;
+          break;
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          if (--depth == 0) {
+            mPosition = pos;
+            final Token end = c == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+            if ((end == Token.END_OBJECT) != (mToken == Token.START_OBJECT)) {
+              throw invalid("Unexpected '" + c + "' at end of skipped " + (mToken == Token.START_OBJECT ? "object"
+                      : "array"));
+            }
+            mToken = endContainer(end);
+            return;
+          }
+        }
+      }
+      mPosition = pos;
+    }
+  }
+
+  /**
+   * Closes the underlying {@link Reader}, if any.
+   */
+  public void close () throws IOException {
+    if (mReader != null) {
+      mReader.close();
+    }
+  }
+
+  private Token readValue (final int c) throws IOException {
+    switch (c) {
+      case '{':
+        push(OBJECT_EMPTY);
+        return Token.START_OBJECT;
+
+      case '[':
+        push(ARRAY_EMPTY);
+        return Token.START_ARRAY;
+
+      case '"':
+        readString();
+        return Token.STRING;
+
+      case 't':
+        readLiteral("true");
+        return Token.TRUE;
+
+      case 'f':
+        readLiteral("false");
+        return Token.FALSE;
+
+      case 'n':
+        readLiteral("null");
+        return Token.NULL;
+
+      default:
+        if (c == '-' || c >= '0' && c <= '9') {
+          readNumber((char) c);
+          return Token.NUMBER;
+        }
+        throw invalid("Expected a value but found " + describe(c));
+    }
+  }
+
+  private Token readName (final int c) throws IOException {
+    if (c != '"') {
+      throw invalid("Expected a property name but found " + describe(c));
+    }
+    readString();
+    mStack[mDepth] = OBJECT_NAME;
+    return Token.NAME;
+  }
+
+  /**
+   * Reads the string after the opening quote into {@code mText}; the characters up to the next quote, backslash or
+   * control character are copied with a single {@link System#arraycopy(Object, int, Object, int, int)}.
+   */
+  private void readString () throws IOException {
+    mTextLength = 0;
+    while (true) {
+      if (mPosition == mLimit && !fill()) {
+        throw invalid("Unexpected end of input in string");
+      }
+      final char[] buf = mBuffer;
+      final int start = mPosition;
+      final int limit = mLimit;
+      int pos = start;
+      char c = 0;
+      while (pos < limit) {
+        c = buf[pos];
+        if (c == '"' || c == '\\' || c < 0x20) {
+          break;
+        }
+        pos++;
+      }
+      appendText(buf, start, pos - start);
+      mPosition = pos;
+      if (pos == limit) {
+        continue;
+      }
+      mPosition++;
+      if (c == '"') {
+        return;
+      }
+      if (c < 0x20) {
+        mPosition--;
+        throw invalid("Unescaped control character " + describe(c) + " in string");
+      }
+      final int escape = read();
+      switch (escape) {
+        case '"':
+        case '\\':
+        case '/':
+          appendText((char) escape);
+          break;
+
+        case 'b':
+          appendText('\b');
+          break;
+
+        case 'f':
+          appendText('\f');
+          break;
+
+        case 'n':
+          appendText('\n');
+          break;
+
+        case 'r':
+          appendText('\r');
+          break;
+
+        case 't':
+          appendText('\t');
+          break;
+
+        case 'u':
+          int value = 0;
+          for (int i = 0; i < 4; i++) {
+            final int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+              throw invalid("Invalid unicode escape in string");
+            }
+            value = value << 4 | digit;
+          }
+          appendText((char) value);
+          break;
+
+        default:
+          throw invalid("Invalid escape sequence '\\" + (escape < 0 ? "" : String.valueOf((char) escape))
+                  + "' in string");
+      }
+    }
+  }
+
+  /**
+   * Skips the string after the opening quote without collecting its characters.
+   */
+  private void skipString () throws IOException {
+    while (true) {
+      if (mPosition == mLimit && !fill()) {
+        throw invalid("Unexpected end of input in string");
+      }
+      final char[] buf = mBuffer;
+      final int limit = mLimit;
+      int pos = mPosition;
+      while (pos < limit) {
+        final char c = buf[pos++];
+        if (c == '"') {
+          mPosition = pos;
+          return;
+        }
+        if (c == '\\') {
+          if (pos == limit) {
+            mPosition = pos;
+            read();
+            pos = mPosition;
+            break;
+          }
+          pos++;
+        }
+      }
+      mPosition = pos;
+    }
+  }
+
+  private void readNumber (final char first) throws IOException {
+    mTextLength = 0;
+    appendText(first);
+    while (true) {
+      if (mPosition == mLimit && !fill()) {
+        break;
+      }
+      final char c = mBuffer[mPosition];
+      if (c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        appendText(c);
+        mPosition++;
+      } else {
+        break;
+      }
+    }
+    if (!isValidNumber(mText, mTextLength)) {
+      throw invalid("Invalid number '" + new String(mText, 0, mTextLength) + "'");
+    }
+  }
+
+  /**
+   * Checks the number syntax of RFC 8259: {@code -? (0 | [1-9][0-9]*) (\.[0-9]+)? ([eE][+-]?[0-9]+)?}.
+   */
+  private static boolean isValidNumber (final char[] text, final int length) {
+    int i = 0;
+    if (text[i] == '-') {
+      i++;
+    }
+    if (i < length && text[i] == '0') {
+      i++;
+    } else {
+      final int start = i;
+      i = skipDigits(text, i, length);
+      if (i == start) {
+        return false;
+      }
+    }
+    if (i < length && text[i] == '.') {
+      final int start = ++i;
+      i = skipDigits(text, i, length);
+      if (i == start) {
+        return false;
+      }
+    }
+    if (i < length && (text[i] == 'e' || text[i] == 'E')) {
+      i++;
+      if (i < length && (text[i] == '+' || text[i] == '-')) {
+        i++;
+      }
+      final int start = i;
+      i = skipDigits(text, i, length);
+      if (i == start) {
+        return false;
+      }
+    }
+    return i == length;
+  }
+
+  private static int skipDigits (final char[] text, final int start, final int length) {
+    int i = start;
+    while (i < length && text[i] >= '0' && text[i] <= '9') {
+      i++;
+    }
+    return i;
+  }
+
+  private void readLiteral (final String literal) throws IOException {
+    for (int i = 1; i < literal.length(); i++) {
+      if (read() != literal.charAt(i)) {
+        throw invalid("Invalid literal; expected '" + literal + "'");
+      }
+    }
+  }
+
+  private Token endContainer (final Token end) {
+    mDepth--;
+    return end;
+  }
+
+  private void push (final byte state) {
+    if (++mDepth == mStack.length) {
+      final byte[] stack = new byte[mStack.length * 2];
+      System.arraycopy(mStack, 0, stack, 0, mStack.length);
+      mStack = stack;
+    }
+    mStack[mDepth] = state;
+  }
+
+  private void expect (final char expected, final int c) {
+    if (c != expected) {
+      throw invalid("Expected '" + expected + "' but found " + describe(c));
+    }
+  }
+
+  private void checkText () {
+    if (mToken != Token.NAME && mToken != Token.STRING && mToken != Token.NUMBER) {
+      throw new IllegalStateException("Current token " + mToken + " has no text.");
+    }
+  }
+
+  private void appendText (final char c) {
+    if (mTextLength == mText.length) {
+      growText(mTextLength + 1);
+    }
+    mText[mTextLength++] = c;
+  }
+
+  private void appendText (final char[] chars, final int start, final int length) {
+    if (mTextLength + length > mText.length) {
+      growText(mTextLength + length);
+    }
+    System.arraycopy(chars, start, mText, mTextLength, length);
+    mTextLength += length;
+  }
+
+  private void growText (final int minLength) {
+    final char[] text = new char[Math.max(minLength, mText.length * 2)];
+    System.arraycopy(mText, 0, text, 0, mTextLength);
+    mText = text;
+    mTextBuffer = CharBuffer.wrap(text);
+  }
+
+  /**
+   * Returns the next character which is not whitespace, or {@code -1} at the end of the input.
+   */
+  private int skipWhitespace () throws IOException {
+    while (true) {
+      if (mPosition == mLimit && !fill()) {
+        return -1;
+      }
+      final char c = mBuffer[mPosition++];
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return c;
+      }
+    }
+  }
+
+  /**
+   * Returns the next character, or {@code -1} at the end of the input.
+   */
+  private int read () throws IOException {
+    if (mPosition == mLimit && !fill()) {
+      return -1;
+    }
+    return mBuffer[mPosition++];
+  }
+
+  /**
+   * Replaces the content of the buffer with the next characters of the input.
+   * 
+   * @return {@code false} at the end of the input
+   */
+  private boolean fill () throws IOException {
+    if (mEndOfInput) {
+      return false;
+    }
+    mOffset += mLimit;
+    mPosition = 0;
+    mLimit = 0;
+    if (mReader != null) {
+      final int n = mReader.read(mBuffer, 0, mBuffer.length);
+      if (n > 0) {
+        mLimit = n;
+      }
+    } else if (mBytes.hasRemaining()) {
+      mDecoded.clear();
+      final CoderResult result = mDecoder.decode(mBytes, mDecoded, true);
+      if (result.isError()) {
+        throw invalid("Invalid UTF-8 input (" + result + ")");
+      }
+      mLimit = mDecoded.position();
+    }
+    mEndOfInput = mLimit == 0;
+    return !mEndOfInput;
+  }
+
+  private IllegalArgumentException invalid (final String message) {
+    return new IllegalArgumentException("Invalid JSON at offset " + (mOffset + mPosition) + ": " + message + ".");
+  }
+
+  private static String describe (final int c) {
+    if (c < 0) {
+      return "end of input";
+    }
+    if (c < 0x20 || c >= 0x7f) {
+      return String.format("U+%04X", Integer.valueOf(c));
+    }
+    return "'" + (char) c + "'";
+  }
+}
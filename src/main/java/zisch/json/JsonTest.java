@@ -0,0 +1,324 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.json;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import zisch.json.JsonReader.Token;
+
+
+/**
+ * Tests the classes of the {@code zisch.json} package.
+ * 
+ * @author zisch
+ */
+public class JsonTest {
+
+  /**
+   * Tests that {@link JsonWriter} inserts the separators and formats all kinds of values.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testJsonWriter () throws Exception {
+    final StringBuilder sb = new StringBuilder();
+    final JsonWriter w = new JsonWriter(sb);
+    w.writeStartObject();
+    w.writeName("a").writeNumber(1L);
+    w.writePrimitiveObjectValue("b", "x\"y");
+    w.writeStartArrayValue("c").writeNumber(0.5).writeNumber(-1e21).writeBoolean(true).writeNull()
+            .writePrimitiveValue(Integer.valueOf(7)).writePrimitiveValue(new BigDecimal("1.10")).writeStartArray()
+            .writeEndArray().writeStartObject().writeEndObject().writeEndArray();
+    w.writeStartObjectValue("d").writePrimitiveObjectValue("e", null).writeEndObject();
+    w.writeEndObject();
+    Assert.assertEquals(0, w.getDepth());
+    w.writeNumber(Long.MIN_VALUE);
+    Assert.assertEquals("{\"a\":1,\"b\":\"x\\\"y\",\"c\":[0.5,-1e+21,true,null,7,1.10,[],{}],\"d\":{\"e\":null}}\n"
+            + "-9223372036854775808", sb.toString());
+
+    // Deep nesting grows the stack:
+    sb.setLength(0);
+    for (int i = 0; i < 100; i++) {
+      w.writeStartArray();
+    }
+    Assert.assertEquals(100, w.getDepth());
+    for (int i = 0; i < 100; i++) {
+      w.writeEndArray();
+    }
+    Assert.assertEquals(0, w.getDepth());
+
+    try {
+      new JsonWriter(new StringBuilder()).writeStartObject().writeNumber(1);
+      Assert.fail("Wrote value without name.");
+    } catch (final IllegalStateException exc) {
+      // expected
+    }
+    try {
+      new JsonWriter(new StringBuilder()).writeStartArray().writeEndObject();
+      Assert.fail("Ended array as object.");
+    } catch (final IllegalStateException exc) {
+      // expected
+    }
+    try {
+      new JsonWriter(new StringBuilder()).writeStartObject().writeName("a").writeEndObject();
+      Assert.fail("Ended object without value for name.");
+    } catch (final IllegalStateException exc) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that {@link JsonUtil#appendJsonNumber(Appendable, double)} formats numbers like JavaScript.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testJsonNumbers () throws Exception {
+    final double[] values = new double[] { 0, -0.0, 1, -1, 0.1, 0.3, 0.1 + 0.2, 1.0 / 3, 123.456, 1e-6, 1.5e-7, 1e20,
+            1e21, 123456789012345678.0, 2.5e-300, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN,
+            Double.NEGATIVE_INFINITY, 0.000123, 98765.4321 };
+    final String[] expected = new String[] { "0", "0", "1", "-1", "0.1", "0.3", "0.30000000000000004",
+            "0.3333333333333333", "123.456", "0.000001", "1.5e-7", "100000000000000000000", "1e+21",
+            "123456789012345680", "2.5e-300", "1.7976931348623157e+308", "5e-324", "null", "null", "0.000123",
+            "98765.4321" };
+    for (int i = 0; i < values.length; i++) {
+      Assert.assertEquals(expected[i], JsonUtil.appendJsonNumber(new StringBuilder(), values[i]).toString());
+    }
+  }
+
+  /**
+   * Tests that {@link JsonUtil#appendJsonString(Appendable, CharSequence, Charset)} escapes the special characters and
+   * the characters which the target charset cannot encode.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testJsonStrings () throws Exception {
+    final String text = "ab\"c\\\b\f\n\r\t\u0001\u007f\u0085 \u00e4\u20ac\ud83d\ude00\udc00 end";
+    Assert.assertEquals("\"ab\\\"c\\\\\\b\\f\\n\\r\\t\\u0001\\u007f\\u0085 \u00e4\u20ac\ud83d\ude00\udc00 end\"",
+            JsonUtil.toJsonString(text));
+    Assert.assertEquals("\"\\u00e4\\u20ac\\ud83d\\ude00\\udc00 end\"",
+            appendJsonString(text.substring(text.indexOf('\u00e4')), "US-ASCII"));
+    Assert.assertEquals("\"\u00e4\\u20ac\\ud83d\\ude00\\udc00 end\"",
+            appendJsonString(text.substring(text.indexOf('\u00e4')), "ISO-8859-1"));
+    Assert.assertEquals("\"\u00e4\u20ac\\ud83d\\ude00\\udc00 end\"",
+            appendJsonString(text.substring(text.indexOf('\u00e4')), "windows-1252"));
+    Assert.assertEquals("\"\u00e4\u20ac\ud83d\ude00\\udc00 end\"",
+            appendJsonString(text.substring(text.indexOf('\u00e4')), "UTF-8"));
+    Assert.assertEquals("\"\"", JsonUtil.toJsonString(""));
+
+    // The Appendable path produces the same bytes as the ByteJsonWriter:
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    final JsonWriter byteWriter = new ByteJsonWriter(expected);
+    writeSample(byteWriter, text);
+    byteWriter.close();
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    final JsonWriter appendableWriter = new JsonWriter(new OutputStreamWriter(actual, "US-ASCII"));
+    writeSample(appendableWriter, text);
+    appendableWriter.close();
+    Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  private static String appendJsonString (final String text, final String charsetName) throws Exception {
+    return JsonUtil.appendJsonString(new StringBuilder(), text, Charset.forName(charsetName)).toString();
+  }
+
+  /**
+   * Tests that {@link ByteJsonWriter} produces the same bytes as a {@link JsonWriter} with an
+   * {@link OutputStreamWriter} and escapes the characters which the target charset cannot represent.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testByteJsonWriter () throws Exception {
+    final Charset utf8 = Charset.forName("UTF-8");
+    final String text = "a\"b\\c\n\u0001\u007f\u0085 \u00e4\u00e9 \u20ac \ud83d\ude00 \u65e5\u672c";
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    final JsonWriter appendableWriter = new JsonWriter(new OutputStreamWriter(expected, utf8), utf8);
+    writeSample(appendableWriter, text);
+    appendableWriter.close();
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    final JsonWriter byteWriter = new ByteJsonWriter(actual, utf8);
+    writeSample(byteWriter, text);
+    byteWriter.close();
+    Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+    // A small buffer is flushed to the channel in the middle of strings and numbers:
+    final ByteArrayOutputStream small = new ByteArrayOutputStream();
+    final JsonWriter smallWriter = new ByteJsonWriter(Channels.newChannel(small), utf8, 16);
+    writeSample(smallWriter, text);
+    smallWriter.close();
+    Assert.assertArrayEquals(expected.toByteArray(), small.toByteArray());
+
+    final ByteArrayOutputStream ascii = new ByteArrayOutputStream();
+    final JsonWriter asciiWriter = new ByteJsonWriter(ascii);
+    asciiWriter.writeString("\u00e4\ud83d\ude00\ud800");
+    asciiWriter.flush();
+    Assert.assertEquals("\"\\u00e4\\ud83d\\ude00\\ud800\"", new String(ascii.toByteArray(), "US-ASCII"));
+
+    final ByteArrayOutputStream latin1 = new ByteArrayOutputStream();
+    final JsonWriter latin1Writer = new ByteJsonWriter(latin1, Charset.forName("ISO-8859-1"));
+    latin1Writer.writeString("\u00e4\u20ac");
+    latin1Writer.flush();
+    Assert.assertEquals("\"\u00e4\\u20ac\"", new String(latin1.toByteArray(), "ISO-8859-1"));
+  }
+
+  private static void writeSample (final JsonWriter w, final String text) throws Exception {
+    w.writeStartArray();
+    for (int i = 0; i < 20; i++) {
+      w.writeStartObject();
+      w.writeName(text).writeString(text);
+      w.writeName("n").writeNumber(-1234567890123L * i);
+      w.writeName("d").writeNumber(i / 3.0);
+      w.writeEndObject();
+    }
+    w.writeEndArray();
+  }
+
+  /**
+   * Tests that {@link JsonReader} reads the tokens written by {@link JsonWriter}, from a {@link java.io.Reader} and a
+   * UTF-8 encoded {@link ByteBuffer}, skips values and rejects invalid JSON.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testJsonReader () throws Exception {
+    final StringBuilder longText = new StringBuilder();
+    while (longText.length() < 20000) {
+      longText.append("\u00e4\"\\\n\ud83d\ude00 x");
+    }
+    final StringBuilder sb = new StringBuilder();
+    final JsonWriter w = new JsonWriter(sb, Charset.forName("UTF-8"));
+    w.writeStartObject();
+    w.writeName("a").writeNumber(Long.MIN_VALUE);
+    w.writeName("skipped").writeStartArray().writeString("]}").writeStartObject().writeName("x").writeNull()
+            .writeEndObject().writeEndArray();
+    w.writeName(longText).writeString(longText);
+    w.writeStartArrayValue("b").writeNumber(-0.5e-7).writeBoolean(true).writeBoolean(false).writeNull().writeEndArray();
+    w.writeEndObject();
+    w.writeNumber(42);
+
+    final JsonReader[] readers = new JsonReader[] { new JsonReader(new StringReader(sb.toString())),
+        new JsonReader(ByteBuffer.wrap(sb.toString().getBytes("UTF-8"))) };
+    for (final JsonReader r : readers) {
+      Assert.assertEquals(Token.START_OBJECT, r.next());
+      Assert.assertEquals(Token.NAME, r.next());
+      Assert.assertEquals("a", r.getText().toString());
+      Assert.assertEquals(Token.NUMBER, r.next());
+      Assert.assertEquals(Long.MIN_VALUE, r.getLong());
+      Assert.assertEquals(Token.NAME, r.next());
+      Assert.assertEquals("skipped", r.getString());
+      r.skipValue();
+      Assert.assertEquals(Token.END_ARRAY, r.getToken());
+      Assert.assertEquals(1, r.getDepth());
+      Assert.assertEquals(Token.NAME, r.next());
+      Assert.assertEquals(longText.toString(), r.getString());
+      Assert.assertEquals(Token.STRING, r.next());
+      Assert.assertEquals(longText.toString(), r.getText().toString());
+      Assert.assertEquals(Token.NAME, r.next());
+      Assert.assertEquals(Token.START_ARRAY, r.next());
+      Assert.assertEquals(Token.NUMBER, r.next());
+      Assert.assertEquals(-0.5e-7, r.getDouble(), 0);
+      Assert.assertEquals(Token.TRUE, r.next());
+      Assert.assertEquals(Token.FALSE, r.next());
+      Assert.assertEquals(Token.NULL, r.next());
+      Assert.assertEquals(Token.END_ARRAY, r.next());
+      Assert.assertEquals(Token.END_OBJECT, r.next());
+      Assert.assertEquals(Token.NUMBER, r.next());
+      Assert.assertEquals(42, r.getLong());
+      Assert.assertEquals(Token.END_DOCUMENT, r.next());
+      Assert.assertEquals(Token.END_DOCUMENT, r.next());
+      r.close();
+    }
+
+    final String[] invalid = new String[] { "{\"a\" 1}", "[1,]", "{,}", "[1 2]", "01", "1.", "-", "tru",
+        "\"a\\x\"", "\"a\nb\"", "[1}", "{\"a\":[", "\"\\u12g4\"", "truefalse", "[1]2", "{}{}", "1\"a\"" };
+    for (final String json : invalid) {
+      try {
+        final JsonReader r = new JsonReader(new StringReader(json));
+        while (r.next() != Token.END_DOCUMENT) {
+          // read all tokens
+        }
+        Assert.fail("Accepted invalid JSON " + json);
+      } catch (final IllegalArgumentException exc) {
+        // expected
+      }
+    }
+    // Several values at the root level, separated by whitespace:
+    final JsonReader roots = new JsonReader(new StringReader("true\n[1] 2\t{}\r\n\"a\""));
+    for (final Token token : new Token[] { Token.TRUE, Token.START_ARRAY, Token.NUMBER, Token.END_ARRAY,
+        Token.NUMBER, Token.START_OBJECT, Token.END_OBJECT, Token.STRING, Token.END_DOCUMENT }) {
+      Assert.assertEquals(token, roots.next());
+    }
+    for (final String json : new String[] { "[1}", "{\"a\":[1]", "[\"]\"" }) {
+      try {
+        final JsonReader r = new JsonReader(new StringReader(json));
+        r.next();
+        r.skipValue();
+        Assert.fail("Skipped invalid JSON " + json);
+      } catch (final IllegalArgumentException exc) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * Tests that {@link JsonUtil#toJsonString(CharSequence)} and a {@link JsonWriter} writing to a
+   * {@link java.io.Writer} reuse their buffers and drop oversized ones, and that a buffer appends {@code null} like a
+   * {@link StringBuilder}.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testBufferRecycling () throws Exception {
+    final StringBuilder longText = new StringBuilder();
+    while (longText.length() <= JsonBuffer.MAX_CACHED_LENGTH) {
+      longText.append("long \"text\" ");
+    }
+    final String expected = JsonUtil.appendJsonString(new StringBuilder(), longText).toString();
+    final StringWriter out = new StringWriter();
+    final JsonWriter w = new JsonWriter(out);
+    w.writeStartArray().writeString("warm up").writeNumber(1).writeNumber(0.5);
+    Assert.assertEquals("\"warm up\"", JsonUtil.toJsonString("warm up"));
+
+    final long allocations = JsonUtil.getBufferAllocationCount();
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals("\"a\\nb\"", JsonUtil.toJsonString("a\nb"));
+      w.writeString("a\tb").writeNumber(i).writeNumber(i + 0.25);
+    }
+    // Strings for a Writer are written whenever the buffer is full:
+    w.writeString(longText);
+    Assert.assertEquals(allocations, JsonUtil.getBufferAllocationCount());
+    w.writeEndArray();
+    Assert.assertTrue(out.toString().endsWith("," + expected + "]"));
+
+    // Strings longer than the cap grow the buffer, which is dropped after use:
+    Assert.assertEquals(expected, JsonUtil.toJsonString(longText));
+    final long grown = JsonUtil.getBufferAllocationCount();
+    Assert.assertTrue(grown > allocations);
+    JsonUtil.toJsonString("short");
+    Assert.assertEquals(grown, JsonUtil.getBufferAllocationCount());
+
+    // Like StringBuilder, the buffer appends null as "null":
+    final JsonBuffer buffer = JsonBuffer.acquire(null);
+    try {
+      buffer.append(null).append(null, 1, 3);
+      Assert.assertEquals("nullul", buffer.toString());
+    } finally {
+      buffer.release();
+    }
+  }
+}
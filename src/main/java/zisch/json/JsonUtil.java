@@ -5,6 +5,14 @@ package zisch.json;
 
 
 import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -14,12 +22,70 @@ import java.io.IOException;
  */
 public final class JsonUtil {
 
-  public String toJsonString (final CharSequence cs) {
+  private static final double[] POWERS_OF_TEN = new double[] { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+          1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /**
+   * The lowercase hexadecimal digits of <code>&#92;uXXXX</code> escapes; also used by the {@link ByteJsonWriter}.
+   */
+  static final char[] HEX_DIGITS = new char[] { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b',
+          'c', 'd', 'e', 'f' };
+
+  /**
+   * The escape character after the backslash for each ASCII character: {@code 0} if the character is written as it
+   * is, {@code 'u'} for a <code>&#92;uXXXX</code> escape. Also used by the {@link ByteJsonWriter}, so that both writers
+   * escape the same characters.
+   */
+  static final char[] ESCAPES = new char[128];
+
+  static {
+    for (int c = 0; c < 0x20; c++) {
+      ESCAPES[c] = 'u';
+    }
+    ESCAPES['"'] = '"';
+    ESCAPES['\\'] = '\\';
+    ESCAPES['\b'] = 'b';
+    ESCAPES['\f'] = 'f';
+    ESCAPES['\n'] = 'n';
+    ESCAPES['\r'] = 'r';
+    ESCAPES['\t'] = 't';
+    ESCAPES[0x7f] = 'u';
+  }
+
+  /**
+   * Returns the specified string as quoted JSON string. The string is built in a recycled buffer of the current thread
+   * (see {@link #getBufferAllocationCount()}), so the result is the only object created.
+   * 
+   * @param cs the string
+   * 
+   * @return the quoted and escaped string
+   */
+  public static String toJsonString (final CharSequence cs) {
     // TODO: check cs != null
-    return appendJsonString(new StringBuilder(cs.length() + 16), cs).toString();
+    final JsonBuffer buffer = JsonBuffer.acquire(null);
+    try {
+      escapeJsonString(buffer, cs, null);
+      return buffer.toString();
+    } catch (final IOException exc) {
+      throw new IllegalStateException("Unexpected IOException while writing to buffer: " + exc, exc);
+    } finally {
+      buffer.release();
+    }
   }
 
-  public StringBuilder appendJsonString (final StringBuilder out, final CharSequence cs) {
+  /**
+   * Returns the number of {@code char} arrays allocated so far (by all threads) for the recycled buffers in which
+   * {@link #toJsonString(CharSequence)} builds its results and in which the strings for a {@link Writer} are built
+   * before they are written with a single call. Each thread keeps one buffer of up to 64K characters, so in the steady
+   * state this number does not change.
+   * 
+   * @return the number of allocations
+   */
+  public static long getBufferAllocationCount () {
+    return JsonBuffer.getAllocationCount();
+  }
+
+  public static StringBuilder appendJsonString (final StringBuilder out, final CharSequence cs) {
     try {
       appendJsonString((Appendable) out, cs);
     } catch (final IOException exc) {
@@ -28,65 +94,321 @@ public final class JsonUtil {
     return out;
   }
 
-  public Appendable appendJsonString (final Appendable out, final CharSequence cs) throws IOException {
+  public static Appendable appendJsonString (final Appendable out, final CharSequence cs) throws IOException {
+    return appendJsonString(out, cs, null);
+  }
+
+  /**
+   * Appends the specified string as quoted JSON string. Double quotes, backslashes and ISO control characters are
+   * always escaped; all other characters are escaped with <code>&#92;uXXXX</code> if and only if the target charset
+   * cannot encode them.
+   * <p>
+   * Runs of characters which need no escape are appended with a single
+   * {@link Appendable#append(CharSequence, int, int)} call. Whether an ASCII character needs an escape is looked up in
+   * a table; for the other characters, the result of {@link CharsetEncoder#canEncode(char)} is cached per charset, so
+   * the encoder is asked at most once per character. For a {@link Writer} (whose {@code append} methods create a
+   * {@link String} for each run), the escaped string is built in a recycled buffer and written with
+   * {@link Writer#write(char[], int, int)}.
+   * 
+   * @param out the {@link Appendable} to write to
+   * @param cs the string to write
+   * @param targetCharset the target charset, or {@code null} to write all characters but the ones which are always
+   *          escaped as they are
+   * 
+   * @return the specified {@link Appendable}
+   * 
+   * @throws IOException if thrown by the {@link Appendable}
+   */
+  public static Appendable appendJsonString (final Appendable out, final CharSequence cs, final Charset targetCharset)
+          throws IOException {
     // TODO: check out != null, cs != null
+    if (out instanceof Writer) {
+      final JsonBuffer buffer = JsonBuffer.acquire((Writer) out);
+      try {
+        escapeJsonString(buffer, cs, targetCharset);
+        buffer.flushToSink();
+      } finally {
+        buffer.release();
+      }
+      return out;
+    }
+    return escapeJsonString(out, cs, targetCharset);
+  }
+
+  private static Appendable escapeJsonString (final Appendable out, final CharSequence cs, final Charset targetCharset)
+          throws IOException {
+    final Encodability encodability = targetCharset == null ? null : Encodability.forCharset(targetCharset);
     out.append('"');
     final int len = cs.length();
+    int start = 0;
     for (int i = 0; i < len; i++) {
       final char c = cs.charAt(i);
-      switch (c) {
-        case '"':
-          out.append("\\\"");
-          break;
-
-        case '\\':
-          out.append("\\\\");
-          break;
-
-        case '\b':
-          out.append("\\b");
-          break;
-
-        case '\f':
-          out.append("\\f");
-          break;
-
-        case '\n':
-          out.append("\\n");
-          break;
-
-        case '\r':
-          out.append("\\r");
-          break;
-
-        case '\t':
-          out.append("\\t");
-          break;
-
-        default:
-          if (mustEscape(c)) {
-            final String v = Integer.toHexString(c);
-            assert v.length() <= 4;
-            out.append("\\u");
-            final int zeroes = 4 - v.length();
-            for (int j = 0; j < zeroes; j++) {
-              out.append('0');
-            }
-            out.append(v);
-          } else {
-            out.append(c);
-          }
+      final char escape;
+      if (c < 0x80) {
+        escape = ESCAPES[c];
+        if (escape == 0) {
+          continue;
+        }
+      } else if (c <= 0x9f) {
+        // ISO control characters are always escaped:
+        escape = 'u';
+      } else if (encodability == null) {
+        continue;
+      } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(cs.charAt(i + 1))) {
+        if (encodability.canEncode(c, cs.charAt(i + 1))) {
+          i++;
+          continue;
+        }
+        // Escape both characters of the pair:
+        out.append(cs, start, i);
+        appendUnicodeEscape(out, c);
+        appendUnicodeEscape(out, cs.charAt(++i));
+        start = i + 1;
+        continue;
+      } else if (encodability.canEncode(c)) {
+        continue;
+      } else {
+        escape = 'u';
+      }
+      out.append(cs, start, i);
+      if (escape == 'u') {
+        appendUnicodeEscape(out, c);
+      } else {
+        out.append('\\').append(escape);
       }
+      start = i + 1;
     }
+    out.append(cs, start, len);
     out.append('"');
     return out;
   }
 
-  private boolean mustEscape (final char c) {
-    return Character.isISOControl(c); // FIXME: compare with JavaLangUtil and use targetCharset!
+  /**
+   * Appends the specified integer to the specified {@link Appendable} without creating a temporary {@link String}.
+   * 
+   * @param out the {@link Appendable} to write to
+   * @param value the number to write
+   * 
+   * @return the specified {@link Appendable}
+   * 
+   * @throws IOException if thrown by the {@link Appendable}
+   */
+  public static Appendable appendJsonNumber (final Appendable out, final long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      return out.append("-9223372036854775808");
+    }
+    if (value < 0) {
+      out.append('-');
+    }
+    return appendDecimal(out, Math.abs(value), 0);
+  }
+
+  /**
+   * Appends the specified number to the specified {@link Appendable} formatted exactly like the JavaScript
+   * {@code Number.prototype.toString()} (and therefore {@code JSON.stringify}) would format it: integral values are
+   * written without a fraction, all other values with the shortest sequence of digits which uniquely identifies the
+   * {@code double} value, using exponential notation only for very large or small magnitudes. Non-finite values are
+   * written as {@code null} (like {@code JSON.stringify} does).
+   * <p>
+   * Integral values and values with up to 15 significant digits in fixed notation are written digit by digit; only the
+   * others are formatted with {@link BigDecimal}.
+   * 
+   * @param out the {@link Appendable} to write to
+   * @param value the number to write
+   * 
+   * @return the specified {@link Appendable}
+   * 
+   * @throws IOException if thrown by the {@link Appendable}
+   */
+  public static Appendable appendJsonNumber (final Appendable out, final double value) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return out.append("null");
+    }
+    if (value == 0) {
+      return out.append('0');
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e18) {
+      return appendJsonNumber(out, (long) value);
+    }
+    if (appendShortDecimal(out, value)) {
+      return out;
+    }
+
+    // Find the shortest number of significant digits which still maps back to the same double. Rounding to more
+    // digits never moves farther away from the exact value, so this can be done with a binary search:
+    final BigDecimal exact = new BigDecimal(Math.abs(value));
+    int lo = 1;
+    int hi = 17;
+    BigDecimal shortest = exact.round(new MathContext(hi, RoundingMode.HALF_EVEN));
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      final BigDecimal candidate = exact.round(new MathContext(mid, RoundingMode.HALF_EVEN));
+      if (candidate.doubleValue() == Math.abs(value)) {
+        hi = mid;
+        shortest = candidate;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    shortest = shortest.stripTrailingZeros();
+
+    // Format as described in ECMA-262, 9.8.1 (ToString Applied to the Number Type):
+    final String digits = shortest.unscaledValue().toString();
+    final int k = digits.length();
+    final int n = k - shortest.scale();
+    if (value < 0) {
+      out.append('-');
+    }
+    if (k <= n && n <= 21) {
+      out.append(digits);
+      for (int i = k; i < n; i++) {
+        out.append('0');
+      }
+    } else if (0 < n && n <= 21) {
+      out.append(digits, 0, n).append('.').append(digits, n, k);
+    } else if (-6 < n && n <= 0) {
+      out.append("0.");
+      for (int i = n; i < 0; i++) {
+        out.append('0');
+      }
+      out.append(digits);
+    } else {
+      out.append(digits.charAt(0));
+      if (k > 1) {
+        out.append('.').append(digits, 1, k);
+      }
+      final int e = n - 1;
+      out.append('e').append(e < 0 ? '-' : '+').append(Integer.toString(Math.abs(e)));
+    }
+    return out;
+  }
+
+  /**
+   * Appends the specified non-integral number if its shortest representation has at most 15 significant digits and
+   * is written without exponent, without creating any objects: For increasing numbers {@code k} of fraction digits, the
+   * decimals {@code m / 10^k} next to the value are checked with a single (correctly rounded) division, which is exact
+   * for {@code m < 2^53} and {@code k <= 22}. Since two different decimals with at most 15 significant digits never map
+   * to the same {@code double}, the first match is the shortest representation which {@code BigDecimal} would find.
+   * 
+   * @return whether the number has been appended
+   */
+  private static boolean appendShortDecimal (final Appendable out, final double value) throws IOException {
+    final double abs = Math.abs(value);
+    if (abs < 1e-6) {
+      return false;
+    }
+    for (int k = 1; k < POWERS_OF_TEN.length; k++) {
+      final double scaled = abs * POWERS_OF_TEN[k];
+      if (scaled >= 1e15) {
+        return false;
+      }
+      final long m = Math.round(scaled);
+      for (long candidate = Math.max(1, m - 1); candidate <= m + 1; candidate++) {
+        if (candidate / POWERS_OF_TEN[k] == abs) {
+          if (value < 0) {
+            out.append('-');
+          }
+          appendDecimal(out, candidate, k);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Appends the non-negative decimal {@code digits / 10^fractionDigits} digit by digit.
+   */
+  private static Appendable appendDecimal (final Appendable out, final long digits, final int fractionDigits)
+          throws IOException {
+    long p = 1;
+    int remaining = 1;
+    while (p <= digits / 10) {
+      p *= 10;
+      remaining++;
+    }
+    if (remaining <= fractionDigits) {
+      out.append("0.");
+      for (int i = remaining; i < fractionDigits; i++) {
+        out.append('0');
+      }
+    }
+    for (; p > 0; p /= 10) {
+      out.append((char) ('0' + digits / p % 10));
+      remaining--;
+      if (remaining == fractionDigits && p > 1) {
+        out.append('.');
+      }
+    }
+    return out;
+  }
+
+  private static void appendUnicodeEscape (final Appendable out, final char c) throws IOException {
+    out.append('\\').append('u').append(HEX_DIGITS[c >> 12]).append(HEX_DIGITS[c >> 8 & 0xf])
+            .append(HEX_DIGITS[c >> 4 & 0xf]).append(HEX_DIGITS[c & 0xf]);
   }
 
   private JsonUtil () {
     throw new AssertionError("not allowed");
   }
+
+  /**
+   * Caches which characters a charset can encode. The results of {@link CharsetEncoder#canEncode(char)} are stored in
+   * a table with one entry per {@code char}, which is filled as the characters occur; surrogate pairs are checked with
+   * the encoder each time (unless the charset is one of the Unicode encodings, which can encode all of them).
+   */
+  private static final class Encodability {
+    private static final ConcurrentMap<Charset, Encodability> INSTANCES =
+            new ConcurrentHashMap<Charset, Encodability>();
+
+    private static final byte UNKNOWN = 0;
+
+    private static final byte ENCODABLE = 1;
+
+    private static final byte NOT_ENCODABLE = 2;
+
+    private final CharsetEncoder mEncoder;
+
+    private final boolean mUnicode;
+
+    private final byte[] mStates = new byte[Character.MAX_VALUE + 1];
+
+    private Encodability (final Charset charset) {
+      mEncoder = charset.newEncoder();
+      mUnicode = charset.name().startsWith("UTF-");
+    }
+
+    static Encodability forCharset (final Charset charset) {
+      Encodability encodability = INSTANCES.get(charset);
+      if (encodability == null) {
+        encodability = new Encodability(charset);
+        final Encodability existing = INSTANCES.putIfAbsent(charset, encodability);
+        if (existing != null) {
+          encodability = existing;
+        }
+      }
+      return encodability;
+    }
+
+    boolean canEncode (final char c) {
+      byte state = mStates[c];
+      if (state == UNKNOWN) {
+        // Concurrent updates are harmless, since all threads store the same state:
+        synchronized (mEncoder) {
+          state = mEncoder.canEncode(c) ? ENCODABLE : NOT_ENCODABLE;
+        }
+        mStates[c] = state;
+      }
+      return state == ENCODABLE;
+    }
+
+    boolean canEncode (final char high, final char low) {
+      if (mUnicode) {
+        return true;
+      }
+      synchronized (mEncoder) {
+        return mEncoder.canEncode(new String(new char[] { high, low }));
+      }
+    }
+  }
 }
@@ -5,23 +5,52 @@ package zisch.json;
 
 
 import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 
 /**
  * Helper class to format JSON documents.
  * <p>
+ * The writer is a streaming generator: each call writes its token directly to the output, inserting the commas and
+ * colons, and checks that the token is valid at the current position. The nesting is tracked on a {@code byte} stack,
+ * and numbers, booleans and strings are written without boxing or temporary {@link String}s (only {@code double}s
+ * which need more than 15 digits or an exponent are formatted with {@link BigDecimal}), so the memory used while
+ * writing does not depend on the size of the document. Several values at the root level are separated by newlines (as
+ * in <em>JSON Lines</em>).
+ * <p>
+ * If the output is a {@link Writer}, strings and numbers are built in a recycled buffer of the current thread and
+ * written with a single call each (see {@link JsonUtil#getBufferAllocationCount()}).
+ * <p>
+ * To write bytes to an {@link java.io.OutputStream OutputStream} or a channel, {@link ByteJsonWriter} avoids the call
+ * per character and the separate encoding pass of an {@link Appendable} like an {@link java.io.OutputStreamWriter}.
+ * <p>
  * Instances of of this class are <strong><em>not</em> threadsafe</strong> and should not be used concurrently by
  * multiple threads.
  * 
  * @author zisch
  */
-public class JsonWriter implements Closeable {
+public class JsonWriter implements Closeable, Flushable {
 
-  private enum State {
-    VALUE;
-  }
+  // The states of the contexts on the stack:
+  private static final byte ROOT_EMPTY = 0;
+
+  private static final byte ROOT_VALUE = 1;
+
+  private static final byte OBJECT_EMPTY = 2;
+
+  private static final byte OBJECT_NAME = 3;
+
+  private static final byte OBJECT_VALUE = 4;
+
+  private static final byte ARRAY_EMPTY = 5;
+
+  private static final byte ARRAY_VALUE = 6;
 
   private final Appendable mOut;
 
@@ -29,7 +58,13 @@ public class JsonWriter implements Closeable {
 
   private boolean mClosed = false;
 
-  private State mState = null;
+  /**
+   * The states of the nested contexts; {@code mStack[0]} is the root context and {@code mStack[mDepth]} the current
+   * one. Only grows with the nesting depth, never with the length of the document.
+   */
+  private byte[] mStack = new byte[16];
+
+  private int mDepth = 0;
 
   /**
    * Constructor using {@code US-ASCII} as the default {@linkplain #getTargetCharset() target charset}.
@@ -52,10 +87,22 @@ public class JsonWriter implements Closeable {
     mTargetCharset = targetCharset;
   }
 
+  /**
+   * Constructor for subclasses which do not write to an {@link Appendable}; their {@linkplain #getOut() output} is
+   * {@code null}.
+   * 
+   * @param targetCharset the target character set (see {@link #getTargetCharset()})
+   */
+  protected JsonWriter (final Charset targetCharset) {
+    mOut = null;
+    mTargetCharset = targetCharset;
+  }
+
   /**
    * Returns the underlying {@link Appendable} to which the output of this writer is written.
    * 
-   * @return the underlying {@link Appendable} to which the output of this writer is written
+   * @return the underlying {@link Appendable} to which the output of this writer is written; {@code null} for
+   *         subclasses which write elsewhere (such as the {@link ByteJsonWriter})
    */
   public Appendable getOut () {
     return mOut;
@@ -94,42 +141,362 @@ public class JsonWriter implements Closeable {
     }
   }
 
+  /**
+   * Flushes the underlying {@linkplain #getOut() output} if it implements the {@link Flushable} interface.
+   * 
+   * @throws IOException if thrown by the output
+   */
+  public void flush () throws IOException {
+    if (mOut instanceof Flushable) {
+      ((Flushable) mOut).flush();
+    }
+  }
+
+  /**
+   * Returns the nesting depth: {@code 0} outside of any object or array.
+   * 
+   * @return the number of objects and arrays which have been started but not yet ended
+   */
+  public int getDepth () {
+    return mDepth;
+  }
+
+  /**
+   * Starts an object (as a value in the current context).
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   */
   public JsonWriter writeStartObject () throws IOException {
-    mOut.append('{');
+    beforeValue();
+    push(OBJECT_EMPTY);
+    appendRaw('{');
     return this;
   }
 
+  /**
+   * Ends the current object.
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if the current context is not an object or a value is expected for a name
+   */
   public JsonWriter writeEndObject () throws IOException {
-    mOut.append('}');
+    checkState(OBJECT_EMPTY, OBJECT_VALUE);
+    mDepth--;
+    appendRaw('}');
     return this;
   }
 
-  public JsonWriter writePrimitiveObjectValue (final String name, final Object value) {
+  /**
+   * Starts an array (as a value in the current context).
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   */
+  public JsonWriter writeStartArray () throws IOException {
+    beforeValue();
+    push(ARRAY_EMPTY);
+    appendRaw('[');
     return this;
   }
 
-  public JsonWriter writeStartObjectValue (final String name) {
+  /**
+   * Ends the current array.
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if the current context is not an array
+   */
+  public JsonWriter writeEndArray () throws IOException {
+    checkState(ARRAY_EMPTY, ARRAY_VALUE);
+    mDepth--;
+    appendRaw(']');
     return this;
   }
 
-  public JsonWriter writeStartArray () {
+  /**
+   * Writes the name of the next property of the current object.
+   * 
+   * @param name the property name
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if the current context is not an object or a value is expected for a name
+   */
+  public JsonWriter writeName (final CharSequence name) throws IOException {
+    checkState(OBJECT_EMPTY, OBJECT_VALUE);
+    if (mStack[mDepth] == OBJECT_VALUE) {
+      appendRaw(',');
+    }
+    mStack[mDepth] = OBJECT_NAME;
+    appendString(name);
+    appendRaw(':');
     return this;
   }
 
-  public JsonWriter writeEndArray () {
+  /**
+   * Writes a string value.
+   * 
+   * @param value the value; {@code null} is written as {@code null}
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   */
+  public JsonWriter writeString (final CharSequence value) throws IOException {
+    if (value == null) {
+      return writeNull();
+    }
+    beforeValue();
+    appendString(value);
+    return this;
+  }
+
+  /**
+   * Writes an integral number value.
+   * 
+   * @param value the value
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   */
+  public JsonWriter writeNumber (final long value) throws IOException {
+    beforeValue();
+    appendNumber(value);
     return this;
   }
 
-  public JsonWriter writePrimitiveValue (final Object value) {
+  /**
+   * Writes a number value formatted like JavaScript would format it (see
+   * {@link JsonUtil#appendJsonNumber(Appendable, double)}).
+   * 
+   * @param value the value; non-finite values are written as {@code null}
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   */
+  public JsonWriter writeNumber (final double value) throws IOException {
+    beforeValue();
+    appendNumber(value);
     return this;
   }
 
-  private void checkState (final State... expected) {
-    for (final State st : expected) {
-      if (mState == st) {
-        return;
+  /**
+   * Writes a boolean value.
+   * 
+   * @param value the value
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   */
+  public JsonWriter writeBoolean (final boolean value) throws IOException {
+    beforeValue();
+    appendRaw(value ? "true" : "false");
+    return this;
+  }
+
+  /**
+   * Writes {@code null}.
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   */
+  public JsonWriter writeNull () throws IOException {
+    beforeValue();
+    appendRaw("null");
+    return this;
+  }
+
+  /**
+   * Writes a primitive value: {@code null}, a {@link CharSequence} or {@link Character} as string, a {@link Boolean}
+   * or a {@link Number} ({@link Long}, {@link Integer}, {@link Short} and {@link Byte} as integer, {@link BigInteger}
+   * and {@link BigDecimal} exactly, all others as {@code double}).
+   * 
+   * @param value the value
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if a name is expected
+   * @throws IllegalArgumentException if the value is not a primitive value
+   */
+  public JsonWriter writePrimitiveValue (final Object value) throws IOException {
+    if (value == null) {
+      return writeNull();
+    } else if (value instanceof CharSequence) {
+      return writeString((CharSequence) value);
+    } else if (value instanceof Boolean) {
+      return writeBoolean(((Boolean) value).booleanValue());
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return writeNumber(((Number) value).longValue());
+    } else if (value instanceof BigInteger || value instanceof BigDecimal) {
+      beforeValue();
+      appendRaw(value.toString());
+      return this;
+    } else if (value instanceof Number) {
+      return writeNumber(((Number) value).doubleValue());
+    } else if (value instanceof Character) {
+      beforeValue();
+      appendString(String.valueOf(((Character) value).charValue()));
+      return this;
+    }
+    throw new IllegalArgumentException("Not a primitive JSON value (class '" + value.getClass().getName() + "'): "
+            + value);
+  }
+
+  /**
+   * Writes a property of the current object with a primitive value (see {@link #writePrimitiveValue(Object)}).
+   * 
+   * @param name the property name
+   * @param value the value
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if the current context is not an object or a value is expected for a name
+   * @throws IllegalArgumentException if the value is not a primitive value
+   */
+  public JsonWriter writePrimitiveObjectValue (final String name, final Object value) throws IOException {
+    return writeName(name).writePrimitiveValue(value);
+  }
+
+  /**
+   * Writes the name of a property of the current object and starts an object as its value.
+   * 
+   * @param name the property name
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if the current context is not an object or a value is expected for a name
+   */
+  public JsonWriter writeStartObjectValue (final String name) throws IOException {
+    return writeName(name).writeStartObject();
+  }
+
+  /**
+   * Writes the name of a property of the current object and starts an array as its value.
+   * 
+   * @param name the property name
+   * 
+   * @return this writer
+   * 
+   * @throws IOException if thrown by the output
+   * @throws IllegalStateException if the current context is not an object or a value is expected for a name
+   */
+  public JsonWriter writeStartArrayValue (final String name) throws IOException {
+    return writeName(name).writeStartArray();
+  }
+
+  // The output of the tokens, overridden by ByteJsonWriter to encode directly into bytes:
+
+  /**
+   * Appends an ASCII character of the JSON syntax.
+   */
+  void appendRaw (final char c) throws IOException {
+    mOut.append(c);
+  }
+
+  /**
+   * Appends an ASCII string of the JSON syntax (a literal or a number).
+   */
+  void appendRaw (final String s) throws IOException {
+    mOut.append(s);
+  }
+
+  /**
+   * Appends a quoted and escaped string.
+   */
+  void appendString (final CharSequence cs) throws IOException {
+    JsonUtil.appendJsonString(mOut, cs, mTargetCharset);
+  }
+
+  void appendNumber (final long value) throws IOException {
+    if (mOut instanceof Writer) {
+      final JsonBuffer buffer = JsonBuffer.acquire((Writer) mOut);
+      try {
+        JsonUtil.appendJsonNumber(buffer, value);
+        buffer.flushToSink();
+      } finally {
+        buffer.release();
       }
+    } else {
+      JsonUtil.appendJsonNumber(mOut, value);
+    }
+  }
+
+  void appendNumber (final double value) throws IOException {
+    if (mOut instanceof Writer) {
+      final JsonBuffer buffer = JsonBuffer.acquire((Writer) mOut);
+      try {
+        JsonUtil.appendJsonNumber(buffer, value);
+        buffer.flushToSink();
+      } finally {
+        buffer.release();
+      }
+    } else {
+      JsonUtil.appendJsonNumber(mOut, value);
+    }
+  }
+
+  /**
+   * Updates the state of the current context before a value and writes the separator before the value, if any.
+   */
+  private void beforeValue () throws IOException {
+    switch (mStack[mDepth]) {
+      case ROOT_EMPTY:
+        mStack[mDepth] = ROOT_VALUE;
+        break;
+
+      case ROOT_VALUE:
+        appendRaw('\n');
+        break;
+
+      case OBJECT_NAME:
+        mStack[mDepth] = OBJECT_VALUE;
+        break;
+
+      case ARRAY_EMPTY:
+        mStack[mDepth] = ARRAY_VALUE;
+        break;
+
+      case ARRAY_VALUE:
+        appendRaw(',');
+        break;
+
+      default:
+        throw new IllegalStateException("Expected a property name in JSON object but got a value.");
+    }
+  }
+
+  private void push (final byte state) {
+    if (++mDepth == mStack.length) {
+      mStack = Arrays.copyOf(mStack, mStack.length * 2);
+    }
+    mStack[mDepth] = state;
+  }
+
+  private void checkState (final byte expected1, final byte expected2) {
+    final byte state = mStack[mDepth];
+    if (state != expected1 && state != expected2) {
+      throw new IllegalStateException("Unexpected JSON token in state " + state + " at depth " + mDepth + ".");
     }
-    throw new IllegalStateException();
   }
 }
@@ -0,0 +1,140 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.json;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Simple benchmark comparing the output paths of {@link JsonWriter}: an {@link Appendable} (a {@link BufferedWriter}
+ * around an {@link OutputStreamWriter}) and the {@link ByteJsonWriter}, each for the target charsets {@code US-ASCII}
+ * and {@code UTF-8}.
+ * <p>
+ * The generated records have a few short properties, a longer text with some non-ASCII characters and an array of
+ * numbers; the output is counted and discarded.
+ * 
+ * @author zisch
+ */
+public final class JsonWriterBenchmark {
+
+  private static final String[] WORDS = new String[] { "lorem", "ipsum", "dolor", "sit", "amet", "Zürich", "naïve",
+          "\"quoted\"", "tab\there", "line\nbreak", "日本語", "consectetur", "adipiscing", "elit" };
+
+  private static final Charset[] CHARSETS = new Charset[] { Charset.forName("US-ASCII"), Charset.forName("UTF-8") };
+
+  private JsonWriterBenchmark () {
+    throw new AssertionError("not allowed");
+  }
+
+  /**
+   * Main method.
+   * 
+   * @param args command line arguments: the number of records per run (optional, default 200000)
+   * 
+   * @throws IOException never (the output is discarded)
+   */
+  public static void main (final String[] args) throws IOException {
+    final int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    final String[] texts = generateTexts(4711L, 1000);
+    for (int run = 0; run < 5; run++) {
+      final boolean warmUp = run < 2;
+      for (final Charset charset : CHARSETS) {
+        final CountingOutputStream appendableOut = new CountingOutputStream();
+        final long appendableStart = System.nanoTime();
+        final JsonWriter appendableWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(appendableOut,
+                charset), 8192), charset);
+        writeRecords(appendableWriter, texts, records);
+        appendableWriter.close();
+        final long appendableNanos = System.nanoTime() - appendableStart;
+
+        final CountingOutputStream byteOut = new CountingOutputStream();
+        final long byteStart = System.nanoTime();
+        final JsonWriter byteWriter = new ByteJsonWriter(byteOut, charset);
+        writeRecords(byteWriter, texts, records);
+        byteWriter.close();
+        final long byteNanos = System.nanoTime() - byteStart;
+
+        if (!warmUp) {
+          System.out.println(String.format(Locale.ROOT, "%-8s Appendable %8.1f ms %7.1f MB/s | ByteJsonWriter %8.1f ms "
+                  + "%7.1f MB/s (%d bytes)", charset, appendableNanos / 1e6, appendableOut.mCount * 1e3
+                  / appendableNanos, byteNanos / 1e6, byteOut.mCount * 1e3 / byteNanos, byteOut.mCount));
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes an array with the specified number of benchmark records.
+   * 
+   * @param w the writer
+   * @param texts the texts to use for the string values (see {@link #generateTexts(long, int)})
+   * @param records the number of records
+   * 
+   * @throws IOException if thrown by the writer
+   */
+  public static void writeRecords (final JsonWriter w, final String[] texts, final int records) throws IOException {
+    w.writeStartArray();
+    for (int i = 0; i < records; i++) {
+      w.writeStartObject();
+      w.writeName("id").writeNumber(i);
+      w.writeName("title").writeString(texts[i % texts.length].substring(0, 20));
+      w.writeName("active").writeBoolean(i % 3 == 0);
+      w.writeName("score").writeNumber(i / 7.0);
+      w.writeName("text").writeString(texts[(i * 31) % texts.length]);
+      w.writeStartArrayValue("counts");
+      for (int j = 0; j < 5; j++) {
+        w.writeNumber(i * j);
+      }
+      w.writeEndArray();
+      w.writeEndObject();
+    }
+    w.writeEndArray();
+  }
+
+  /**
+   * Generates random texts of about 200 characters from a list of words, some of which contain non-ASCII characters
+   * or characters which must be escaped.
+   * 
+   * @param seed the seed for the random numbers
+   * @param count the number of texts
+   * 
+   * @return the texts
+   */
+  public static String[] generateTexts (final long seed, final int count) {
+    final Random rnd = new Random(seed);
+    final String[] texts = new String[count];
+    for (int i = 0; i < count; i++) {
+      final StringBuilder sb = new StringBuilder();
+      while (sb.length() < 200) {
+        sb.append(WORDS[rnd.nextInt(WORDS.length)]).append(' ');
+      }
+      texts[i] = sb.toString();
+    }
+    return texts;
+  }
+
+  /**
+   * Discards the output and counts the bytes.
+   */
+  private static final class CountingOutputStream extends OutputStream {
+    private long mCount = 0;
+
+    @Override
+    public void write (final int b) {
+      mCount++;
+    }
+
+    @Override
+    public void write (final byte[] b, final int off, final int len) {
+      mCount += len;
+    }
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.util.Arrays;
+
+
+/**
+ * The French Snowball stemmer.
+ * 
+ * @author zisch
+ */
+final class FrenchStemmer extends SnowballStemmer {
+
+  /**
+   * The French Snowball stop words.
+   */
+  static final String[] STOP_WORDS = new String[] { "ai", "aie", "aient", "aies", "ait", "as", "au", "aura",
+          "aurai", "auraient", "aurais", "aurait", "auras", "aurez", "auriez", "aurions", "aurons", "auront", "aux",
+          "avaient", "avais", "avait", "avec", "avez", "aviez", "avions", "avons", "ayant", "ayez", "ayons", "c",
+          "ce", "ceci", "cela", "ces", "cet", "cette", "d", "dans", "de", "des", "du", "elle", "en", "es", "est",
+          "et", "étaient", "étais", "était", "étant", "été", "étiez", "étions", "eu", "eue", "eues", "eûmes", "eurent",
+          "eus", "eusse", "eussent", "eusses", "eussiez", "eussions", "eut", "eût", "eûtes", "eux", "fûmes", "furent",
+          "fus", "fusse", "fussent", "fusses", "fussiez", "fussions", "fut", "fût", "fûtes", "ici", "il", "ils", "j",
+          "je", "l", "la", "le", "les", "leur", "leurs", "lui", "m", "ma", "mais", "me", "même", "mes", "moi", "mon",
+          "n", "ne", "nos", "notre", "nous", "on", "ont", "ou", "par", "pas", "pour", "qu", "que", "quel", "quelle",
+          "quelles", "quels", "qui", "s", "sa", "sans", "se", "sera", "serai", "seraient", "serais", "serait",
+          "seras", "serez", "seriez", "serions", "serons", "seront", "ses", "soi", "soient", "sois", "soit", "sommes",
+          "son", "sont", "soyez", "soyons", "suis", "sur", "t", "ta", "te", "tes", "toi", "ton", "tu", "un", "une",
+          "vos", "votre", "vous", "y", "à" };
+
+  private static final String[] STEP1_SUFFIXES = new String[] { "ance", "iqUe", "isme", "able", "iste", "eux",
+          "ances", "iqUes", "ismes", "ables", "istes", "atrice", "ateur", "ation", "atrices", "ateurs", "ations",
+          "logie", "logies", "usion", "ution", "usions", "utions", "ence", "ences", "ement", "ements", "ité", "ités",
+          "if", "ive", "ifs", "ives", "eaux", "aux", "euse", "euses", "issement", "issements", "amment", "emment",
+          "ment", "ments" };
+
+  private static final String[] EMENT_PREFIXES = new String[] { "iv", "eus", "abl", "iqU", "ièr", "Ièr" };
+
+  private static final String[] ITE_PREFIXES = new String[] { "abil", "ic", "iv" };
+
+  private static final String[] STEP2A_SUFFIXES = new String[] { "îmes", "ît", "îtes", "i", "ie", "ies", "ir", "ira",
+          "irai", "iraIent", "irais", "irait", "iras", "irent", "irez", "iriez", "irions", "irons", "iront", "is",
+          "issaIent", "issais", "issait", "issant", "issante", "issantes", "issants", "isse", "issent", "isses",
+          "issez", "issiez", "issions", "issons", "it" };
+
+  private static final String[] STEP2B_DELETE = new String[] { "é", "ée", "ées", "és", "èrent", "er", "era", "erai",
+          "eraIent", "erais", "erait", "eras", "erez", "eriez", "erions", "erons", "eront", "ez", "iez" };
+
+  private static final String[] STEP2B_DELETE_E = new String[] { "âmes", "ât", "âtes", "a", "ai", "aIent", "ais",
+          "ait", "ant", "ante", "antes", "ants", "as", "asse", "assent", "asses", "assiez", "assions" };
+
+  private static final String[] STEP2B_SUFFIXES = concat(concat(STEP2B_DELETE, STEP2B_DELETE_E),
+          new String[] { "ions" });
+
+  private static final String[] STEP4_SUFFIXES = new String[] { "ion", "ier", "ière", "Ier", "Ière", "e", "ë" };
+
+  private static final String[] STEP5_SUFFIXES = new String[] { "enn", "onn", "ett", "ell", "eill" };
+
+  @Override
+  boolean isVowel (final char c) {
+    return in("aeiouyâàëéêèïîôûù", c);
+  }
+
+  public void stem (final StringBuilder w) {
+    // Prelude: u and i between vowels, y next to a vowel and u after q become upper case (non-vowels):
+    for (int i = 0; i < w.length(); i++) {
+      final char c = w.charAt(i);
+      final boolean vowelBefore = i > 0 && isVowel(w.charAt(i - 1));
+      final boolean vowelAfter = i + 1 < w.length() && isVowel(w.charAt(i + 1));
+      if ((c == 'u' || c == 'i') && vowelBefore && vowelAfter) {
+        w.setCharAt(i, c == 'u' ? 'U' : 'I');
+      } else if (c == 'y' && (vowelBefore || vowelAfter)) {
+        w.setCharAt(i, 'Y');
+      } else if (c == 'u' && i > 0 && w.charAt(i - 1) == 'q') {
+        w.setCharAt(i, 'U');
+      }
+    }
+
+    final int pV = rvStart(w);
+    final int p1 = regionStart(w, 0);
+    final int p2 = regionStart(w, p1);
+
+    if (standardSuffix(w, pV, p1, p2) || iVerbSuffix(w, pV) || verbSuffix(w, pV, p2)) {
+      // Step 3:
+      final int last = w.length() - 1;
+      if (last >= 0 && w.charAt(last) == 'Y') {
+        w.setCharAt(last, 'i');
+      } else if (last >= 0 && w.charAt(last) == 'ç') {
+        w.setCharAt(last, 'c');
+      }
+    } else {
+      residualSuffix(w, pV, p2);
+    }
+
+    // Step 5: undouble
+    if (longestSuffix(w, STEP5_SUFFIXES, 0) != null) {
+      w.setLength(w.length() - 1);
+    }
+
+    // Step 6: un-accent é or è before the final non-vowels
+    int i = w.length();
+    while (i > 0 && !isVowel(w.charAt(i - 1))) {
+      i--;
+    }
+    if (i > 0 && i < w.length() && (w.charAt(i - 1) == 'é' || w.charAt(i - 1) == 'è')) {
+      w.setCharAt(i - 1, 'e');
+    }
+
+    // Postlude:
+    replaceAll(w, 'I', 'i');
+    replaceAll(w, 'U', 'u');
+    replaceAll(w, 'Y', 'y');
+  }
+
+  /**
+   * Removes the standard suffixes (step 1).
+   * 
+   * @return whether a suffix has been removed or replaced; {@code false} also if one of the adverb suffixes
+   *         {@code amment}, {@code emment} or {@code ment} has been, so that the verb suffixes are still removed
+   */
+  private boolean standardSuffix (final StringBuilder w, final int pV, final int p1, final int p2) {
+    final String s = longestSuffix(w, STEP1_SUFFIXES, 0);
+    if (s == null) {
+      return false;
+    }
+    final int start = start(w, s);
+    if (s.equals("atrice") || s.equals("ateur") || s.equals("ation") || s.equals("atrices") || s.equals("ateurs")
+            || s.equals("ations")) {
+      if (start < p2) {
+        return false;
+      }
+      w.setLength(start);
+      if (endsWith(w, w.length(), "ic")) {
+        replaceEnd(w, 2, w.length() - 2 >= p2 ? "" : "iqU");
+      }
+    } else if (s.startsWith("logie")) {
+      if (start < p2) {
+        return false;
+      }
+      replaceEnd(w, s.length(), "log");
+    } else if (s.startsWith("usion") || s.startsWith("ution")) {
+      if (start < p2) {
+        return false;
+      }
+      replaceEnd(w, s.length(), "u");
+    } else if (s.startsWith("ence")) {
+      if (start < p2) {
+        return false;
+      }
+      replaceEnd(w, s.length(), "ent");
+    } else if (s.equals("ement") || s.equals("ements")) {
+      if (start < pV) {
+        return false;
+      }
+      w.setLength(start);
+      final String prefix = longestSuffix(w, EMENT_PREFIXES, 0);
+      if (prefix != null) {
+        final int prefixStart = start(w, prefix);
+        if (prefix.equals("iv")) {
+          if (prefixStart >= p2) {
+            w.setLength(prefixStart);
+            if (endsWith(w, w.length(), "at") && w.length() - 2 >= p2) {
+              w.setLength(w.length() - 2);
+            }
+          }
+        } else if (prefix.equals("eus")) {
+          if (prefixStart >= p2) {
+            w.setLength(prefixStart);
+          } else if (prefixStart >= p1) {
+            replaceEnd(w, 3, "eux");
+          }
+        } else if (prefix.equals("abl") || prefix.equals("iqU")) {
+          if (prefixStart >= p2) {
+            w.setLength(prefixStart);
+          }
+        } else if (prefixStart >= pV) {
+          replaceEnd(w, 3, "i");
+        }
+      }
+    } else if (s.equals("ité") || s.equals("ités")) {
+      if (start < p2) {
+        return false;
+      }
+      w.setLength(start);
+      final String prefix = longestSuffix(w, ITE_PREFIXES, 0);
+      if (prefix != null) {
+        final boolean inR2 = start(w, prefix) >= p2;
+        if (prefix.equals("abil")) {
+          replaceEnd(w, 4, inR2 ? "" : "abl");
+        } else if (prefix.equals("ic")) {
+          replaceEnd(w, 2, inR2 ? "" : "iqU");
+        } else if (inR2) {
+          w.setLength(w.length() - 2);
+        }
+      }
+    } else if (s.equals("if") || s.equals("ive") || s.equals("ifs") || s.equals("ives")) {
+      if (start < p2) {
+        return false;
+      }
+      w.setLength(start);
+      if (endsWith(w, w.length(), "at") && w.length() - 2 >= p2) {
+        w.setLength(w.length() - 2);
+        if (endsWith(w, w.length(), "ic")) {
+          replaceEnd(w, 2, w.length() - 2 >= p2 ? "" : "iqU");
+        }
+      }
+    } else if (s.equals("eaux")) {
+      replaceEnd(w, 4, "eau");
+    } else if (s.equals("aux")) {
+      if (start < p1) {
+        return false;
+      }
+      replaceEnd(w, 3, "al");
+    } else if (s.equals("euse") || s.equals("euses")) {
+      if (start >= p2) {
+        w.setLength(start);
+      } else if (start >= p1) {
+        replaceEnd(w, s.length(), "eux");
+      } else {
+        return false;
+      }
+    } else if (s.startsWith("issement")) {
+      if (start < p1 || !nonVowelBefore(w, start, 0)) {
+        return false;
+      }
+      w.setLength(start);
+    } else if (s.equals("amment") || s.equals("emment")) {
+      if (start < pV) {
+        return false;
+      }
+      replaceEnd(w, s.length(), s.charAt(0) + "nt");
+      return false;
+    } else if (s.equals("ment") || s.equals("ments")) {
+      if (start < pV || !vowelBefore(w, start, pV)) {
+        return false;
+      }
+      w.setLength(start);
+      return false;
+    } else {
+      if (start < p2) {
+        return false;
+      }
+      w.setLength(start);
+    }
+    return true;
+  }
+
+  /**
+   * Removes the verb suffixes beginning with {@code i} after a non-vowel (step 2a).
+   */
+  private boolean iVerbSuffix (final StringBuilder w, final int pV) {
+    final String s = longestSuffix(w, STEP2A_SUFFIXES, pV);
+    if (s == null || !nonVowelBefore(w, start(w, s), pV)) {
+      return false;
+    }
+    w.setLength(start(w, s));
+    return true;
+  }
+
+  /**
+   * Removes the other verb suffixes (step 2b).
+   */
+  private static boolean verbSuffix (final StringBuilder w, final int pV, final int p2) {
+    final String s = longestSuffix(w, STEP2B_SUFFIXES, pV);
+    if (s == null) {
+      return false;
+    }
+    final int start = start(w, s);
+    if (s.equals("ions")) {
+      if (start < p2) {
+        return false;
+      }
+      w.setLength(start);
+    } else {
+      w.setLength(start);
+      // The e is only deleted in RV:
+      if (Arrays.asList(STEP2B_DELETE_E).contains(s) && start - 1 >= pV && endsWith(w, w.length(), "e")) {
+        w.setLength(w.length() - 1);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Removes the residual suffixes (step 4).
+   */
+  private static void residualSuffix (final StringBuilder w, final int pV, final int p2) {
+    if (endsWith(w, w.length(), "s") && w.length() >= 2 && !in("aiouès", w.charAt(w.length() - 2))) {
+      w.setLength(w.length() - 1);
+    }
+    final String s = longestSuffix(w, STEP4_SUFFIXES, pV);
+    if (s == null) {
+      return;
+    }
+    final int start = start(w, s);
+    if (s.equals("ion")) {
+      if (start >= p2 && start - 1 >= pV && in("st", charBefore(w, start))) {
+        w.setLength(start);
+      }
+    } else if (s.equals("e")) {
+      w.setLength(start);
+    } else if (s.equals("ë")) {
+      if (endsWith(w, start, "gu") && start - 2 >= pV) {
+        w.setLength(start);
+      }
+    } else {
+      replaceEnd(w, s.length(), "i");
+    }
+  }
+
+  /**
+   * Returns the start of RV: after the third letter if the word starts with two vowels or with {@code par},
+   * {@code col} or {@code tap}, otherwise after the first vowel which is not the first letter.
+   */
+  private int rvStart (final CharSequence w) {
+    final int length = w.length();
+    if (length >= 3 && isVowel(w.charAt(0)) && isVowel(w.charAt(1))) {
+      return 3;
+    }
+    if (length >= 3 && (startsWith(w, "par") || startsWith(w, "col") || startsWith(w, "tap"))) {
+      return 3;
+    }
+    final int v = nextVowel(w, 1);
+    return v >= 0 ? v + 1 : length;
+  }
+
+  private static boolean startsWith (final CharSequence w, final String s) {
+    return endsWith(w, s.length(), s);
+  }
+
+  private static String[] concat (final String[] a, final String[] b) {
+    final String[] result = new String[a.length + b.length];
+    System.arraycopy(a, 0, result, 0, a.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+/**
+ * The German Snowball stemmer.
+ * 
+ * @author zisch
+ */
+final class GermanStemmer extends SnowballStemmer {
+
+  /**
+   * The German Snowball stop words.
+   */
+  static final String[] STOP_WORDS = new String[] { "aber", "alle", "allem", "allen", "aller", "alles", "als",
+          "also", "am", "an", "ander", "andere", "anderem", "anderen", "anderer", "anderes", "anderm", "andern",
+          "anderr", "anders", "auch", "auf", "aus", "bei", "bin", "bis", "bist", "da", "damit", "dann", "das", "dass",
+          "daß", "dasselbe", "dazu", "dein", "deine", "deinem", "deinen", "deiner", "deines", "dem", "demselben", "den",
+          "denn", "denselben", "der", "derer", "derselbe", "derselben", "des", "desselben", "dessen", "dich", "die",
+          "dies", "diese", "dieselbe", "dieselben", "diesem", "diesen", "dieser", "dieses", "dir", "doch", "dort", "du",
+          "durch", "ein", "eine", "einem", "einen", "einer", "eines", "einig", "einige", "einigem", "einigen",
+          "einiger", "einiges", "einmal", "er", "es", "etwas", "euch", "euer", "eure", "eurem", "euren", "eurer",
+          "eures", "für", "gegen", "gewesen", "hab", "habe", "haben", "hat", "hatte", "hatten", "hier", "hin",
+          "hinter", "ich", "ihm", "ihn", "ihnen", "ihr", "ihre", "ihrem", "ihren", "ihrer", "ihres", "im", "in",
+          "indem", "ins", "ist", "jede", "jedem", "jeden", "jeder", "jedes", "jene", "jenem", "jenen", "jener",
+          "jenes", "jetzt", "kann", "kein", "keine", "keinem", "keinen", "keiner", "keines", "können", "könnte",
+          "machen", "man", "manche", "manchem", "manchen", "mancher", "manches", "mein", "meine", "meinem", "meinen",
+          "meiner", "meines", "mich", "mir", "mit", "muss", "musste", "nach", "nicht", "nichts", "noch", "nun", "nur",
+          "ob", "oder", "ohne", "sehr", "sein", "seine", "seinem", "seinen", "seiner", "seines", "selbst", "sich",
+          "sie", "sind", "so", "solche", "solchem", "solchen", "solcher", "solches", "soll", "sollte", "sondern",
+          "sonst", "über", "um", "und", "uns", "unser", "unsere", "unserem", "unseren", "unserer", "unseres", "unter",
+          "viel", "vom", "von", "vor", "während", "war", "waren", "warst", "was", "weg", "weil", "weiter", "welche",
+          "welchem", "welchen", "welcher", "welches", "wenn", "werde", "werden", "wie", "wieder", "will", "wir", "wird",
+          "wirst", "wo", "wollen", "wollte", "würde", "würden", "zu", "zum", "zur", "zwar", "zwischen" };
+
+  private static final String[] STEP1_SUFFIXES = new String[] { "em", "ern", "er", "e", "en", "es", "s" };
+
+  private static final String[] STEP2_SUFFIXES = new String[] { "en", "er", "est", "st" };
+
+  private static final String[] STEP3_SUFFIXES = new String[] { "end", "ung", "ig", "ik", "isch", "lich", "heit",
+          "keit" };
+
+  private static final String[] KEIT_PREFIXES = new String[] { "lich", "ig" };
+
+  @Override
+  boolean isVowel (final char c) {
+    return in("aeiouyäöü", c);
+  }
+
+  public void stem (final StringBuilder w) {
+    // Prelude: ß becomes ss, u and y between vowels become U and Y (non-vowels):
+    for (int i = 0; i < w.length(); i++) {
+      if (w.charAt(i) == 'ß') {
+        w.replace(i, i + 1, "ss");
+      }
+    }
+    for (int i = 1; i < w.length() - 1; i++) {
+      final char c = w.charAt(i);
+      if ((c == 'u' || c == 'y') && isVowel(w.charAt(i - 1)) && isVowel(w.charAt(i + 1))) {
+        w.setCharAt(i, c == 'u' ? 'U' : 'Y');
+      }
+    }
+
+    // R1 (with at least 3 letters before it) and R2:
+    int p1 = w.length();
+    int p2 = w.length();
+    if (w.length() >= 3) {
+      final int r1 = regionStart(w, 0);
+      p2 = regionStart(w, r1);
+      p1 = Math.max(r1, 3);
+    }
+
+    // Step 1:
+    String s = longestSuffix(w, STEP1_SUFFIXES, 0);
+    if (s != null && start(w, s) >= p1) {
+      if (s.equals("s")) {
+        if (in("bdfghklmnrt", charBefore(w, start(w, s)))) {
+          w.setLength(start(w, s));
+        }
+      } else {
+        w.setLength(start(w, s));
+        if ((s.equals("e") || s.equals("en") || s.equals("es")) && endsWith(w, w.length(), "niss")) {
+          w.setLength(w.length() - 1);
+        }
+      }
+    }
+
+    // Step 2:
+    s = longestSuffix(w, STEP2_SUFFIXES, 0);
+    if (s != null && start(w, s) >= p1) {
+      if (!s.equals("st")) {
+        w.setLength(start(w, s));
+      } else if (start(w, s) - 1 >= 3 && in("bdfghklmnt", charBefore(w, start(w, s)))) {
+        w.setLength(start(w, s));
+      }
+    }
+
+    // Step 3: d-suffixes
+    s = longestSuffix(w, STEP3_SUFFIXES, 0);
+    if (s != null && start(w, s) >= p2) {
+      if (s.equals("end") || s.equals("ung")) {
+        w.setLength(start(w, s));
+        if (endsWith(w, w.length(), "ig") && start(w, "ig") >= p2 && charBefore(w, start(w, "ig")) != 'e') {
+          w.setLength(start(w, "ig"));
+        }
+      } else if (s.equals("ig") || s.equals("ik") || s.equals("isch")) {
+        if (charBefore(w, start(w, s)) != 'e') {
+          w.setLength(start(w, s));
+        }
+      } else if (s.equals("lich") || s.equals("heit")) {
+        w.setLength(start(w, s));
+        if ((endsWith(w, w.length(), "er") || endsWith(w, w.length(), "en")) && w.length() - 2 >= p1) {
+          w.setLength(w.length() - 2);
+        }
+      } else {
+        w.setLength(start(w, s));
+        final String prefix = longestSuffix(w, KEIT_PREFIXES, 0);
+        if (prefix != null && start(w, prefix) >= p2) {
+          w.setLength(start(w, prefix));
+        }
+      }
+    }
+
+    // Postlude:
+    for (int i = 0; i < w.length(); i++) {
+      switch (w.charAt(i)) {
+        case 'U':
+          w.setCharAt(i, 'u');
+          break;
+
+        case 'Y':
+          w.setCharAt(i, 'y');
+          break;
+
+        case 'ä':
+          w.setCharAt(i, 'a');
+          break;
+
+        case 'ö':
+          w.setCharAt(i, 'o');
+          break;
+
+        case 'ü':
+          w.setCharAt(i, 'u');
+          break;
+
+        default:
+          break;
+      }
+    }
+  }
+}
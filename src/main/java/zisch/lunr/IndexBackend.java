@@ -0,0 +1,81 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import zisch.lunr.LunrIndex.Document;
+
+
+/**
+ * Internal interface of the implementations which actually build a {@link LunrIndex}.
+ * <p>
+ * All arguments passed to the methods of this interface have already been validated by {@link LunrIndex}.
+ * 
+ * @author zisch
+ */
+interface IndexBackend {
+
+  /**
+   * Adds a document to the index.
+   * 
+   * @param id the document reference
+   * @param fields the field values by field name; only contains names of fields specified for the index
+   */
+  void addDocument (long id, Map<?, ?> fields);
+
+  /**
+   * Adds a batch of documents to the index, in the order of the list.
+   * 
+   * @param batch the documents to add
+   */
+  void addDocuments (List<Document> batch);
+
+  /**
+   * Replaces a document in the index, like {@code lunr.Index.update}: removes the document (if it is in the index) and
+   * adds it again.
+   * 
+   * @param id the document reference
+   * @param fields the field values by field name; only contains names of fields specified for the index
+   */
+  void updateDocument (long id, Map<?, ?> fields);
+
+  /**
+   * Removes a document from the index, like {@code lunr.Index.remove}. Does nothing if the document is not in the
+   * index.
+   * 
+   * @param id the document reference
+   */
+  void removeDocument (long id);
+
+  /**
+   * Adds the documents to the index, in the order of the list, possibly building parts of the index in parallel. The
+   * resulting index must be the same as after {@link #addDocuments(List)}.
+   * 
+   * @param documents the documents to add
+   * @param shardCount the number of parts into which the documents are split; at least 1
+   * @param pool the pool which runs the parallel tasks
+   */
+  void addDocumentsParallel (List<Document> documents, int shardCount, ForkJoinPool pool);
+
+  /**
+   * Returns the index serialized as a JSON string in the format expected by {@code lunr.Index.load}.
+   * 
+   * @return the serialized index
+   */
+  String serializeIndex ();
+
+  /**
+   * Writes the index serialized as JSON (see {@link #serializeIndex()}) to the specified {@link Appendable}.
+   * 
+   * @param out the {@link Appendable} to write to
+   * 
+   * @throws IOException if thrown by the {@link Appendable}
+   */
+  void writeIndex (Appendable out) throws IOException;
+}
@@ -0,0 +1,285 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import zisch.lunr.LunrIndex.FieldSpec;
+
+
+/**
+ * The binary index file format: a {@link SearchIndex} written section by section, so that it can be opened by mapping
+ * the file into memory with {@link FileChannel#map(FileChannel.MapMode, long, long)} and using views of the mapped
+ * buffer as the arrays of the {@link SearchIndex}; opening an index file does not read or parse its contents.
+ * <p>
+ * All numbers are written in little-endian byte order. The file starts with a header:
+ * <ul>
+ * <li>the magic bytes {@code "lunr-idx"} and the format version ({@code int})</li>
+ * <li>the byte length of the names ({@code int}) and the token store length ({@code long})</li>
+ * <li>the number of fields, terms, documents, references, token characters, postings and document vector entries
+ * (one {@code int} each), padded to 8 bytes</li>
+ * <li>the names: the reference name and the name of each field as UTF-8 preceded by its byte length ({@code int}),
+ * each field name followed by the field boost ({@code int}) and the {@linkplain LunrAnalyzer#getName() name of the
+ * analyzer} of the field (UTF-8 preceded by its byte length)</li>
+ * </ul>
+ * It is followed by the sections, each padded to a multiple of 8 bytes, in this order (see the fields of
+ * {@link SearchIndex}): the term dictionary (the inverse document frequencies, token starts, token characters and
+ * the trie order and positions), the postings blocks (the posting starts, document numbers and term frequencies), the
+ * references and the document vectors (the starts, term numbers, term frequencies and magnitudes).
+ * <p>
+ * Since a {@link ByteBuffer} is limited to {@link Integer#MAX_VALUE} bytes, index files of 2 GB and more are not
+ * supported.
+ * 
+ * @author zisch
+ */
+final class IndexFile {
+
+  private static final byte[] MAGIC = new byte[] { 'l', 'u', 'n', 'r', '-', 'i', 'd', 'x' };
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 56;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private IndexFile () {
+    throw new AssertionError("not allowed");
+  }
+
+  /**
+   * Writes the specified snapshot as index file. The channel is not closed.
+   * 
+   * @param index the snapshot to write
+   * @param out the channel to write to
+   * 
+   * @throws IOException if thrown by {@code out}
+   */
+  static void write (final SearchIndex index, final WritableByteChannel out) throws IOException {
+    write(index, out, BUFFER_SIZE);
+  }
+
+  /**
+   * Writes the specified snapshot as index file through a buffer of (at least) the specified size. The channel is not
+   * closed.
+   * 
+   * @param index the snapshot to write
+   * @param out the channel to write to
+   * @param bufferSize the minimum size of the write buffer; it is enlarged to hold the header and rounded up to a
+   *          multiple of 8 bytes
+   * 
+   * @throws IOException if thrown by {@code out}
+   */
+  static void write (final SearchIndex index, final WritableByteChannel out, final int bufferSize) throws IOException {
+    final byte[][] fieldNames = new byte[index.mFields.length][];
+    final byte[][] analyzerNames = new byte[index.mFields.length][];
+    final byte[] refName = index.mRefName.getBytes(UTF_8);
+    int namesLength = 4 + refName.length;
+    for (int i = 0; i < fieldNames.length; i++) {
+      fieldNames[i] = index.mFields[i].getName().getBytes(UTF_8);
+      analyzerNames[i] = index.mFields[i].getAnalyzer().getName().getBytes(UTF_8);
+      namesLength += 4 + fieldNames[i].length + 4 + 4 + analyzerNames[i].length;
+    }
+
+    final SectionWriter w = new SectionWriter(out, (int) align(Math.max(bufferSize, HEADER_SIZE + namesLength + 8)));
+    final ByteBuffer buf = w.mBuffer;
+    buf.put(MAGIC).putInt(VERSION).putInt(namesLength).putLong(index.mTokenStoreLength);
+    buf.putInt(index.mFields.length).putInt(index.mTermCount).putInt(index.mDocumentCount);
+    buf.putInt(index.mRefs.limit()).putInt(index.mTokenChars.limit()).putInt(index.mPostingDocs.limit());
+    buf.putInt(index.mDocTerms.limit()).putInt(0);
+    buf.putInt(refName.length).put(refName);
+    for (int i = 0; i < fieldNames.length; i++) {
+      buf.putInt(fieldNames[i].length).put(fieldNames[i]).putInt(index.mFields[i].getBoost());
+      buf.putInt(analyzerNames[i].length).put(analyzerNames[i]);
+    }
+    w.pad();
+
+    for (final Buffer section : sections(index)) {
+      if (section instanceof IntBuffer) {
+        final IntBuffer b = (IntBuffer) section;
+        for (int i = 0; i < b.limit(); i++) {
+          w.ensureRemaining(4).putInt(b.get(i));
+        }
+      } else if (section instanceof LongBuffer) {
+        final LongBuffer b = (LongBuffer) section;
+        for (int i = 0; i < b.limit(); i++) {
+          w.ensureRemaining(8).putLong(b.get(i));
+        }
+      } else if (section instanceof DoubleBuffer) {
+        final DoubleBuffer b = (DoubleBuffer) section;
+        for (int i = 0; i < b.limit(); i++) {
+          w.ensureRemaining(8).putDouble(b.get(i));
+        }
+      } else if (section instanceof FloatBuffer) {
+        final FloatBuffer b = (FloatBuffer) section;
+        for (int i = 0; i < b.limit(); i++) {
+          w.ensureRemaining(4).putFloat(b.get(i));
+        }
+      } else {
+        final CharBuffer b = (CharBuffer) section;
+        for (int i = 0; i < b.limit(); i++) {
+          w.ensureRemaining(2).putChar(b.get(i));
+        }
+      }
+      w.pad();
+    }
+    w.flush();
+  }
+
+  private static Buffer[] sections (final SearchIndex index) {
+    return new Buffer[] { index.mIdfs, index.mTokenStarts, index.mTokenChars, index.mTrieOrder, index.mTriePositions,
+            index.mPostingStarts, index.mPostingDocs, index.mPostingTfs, index.mRefs, index.mDocStarts, index.mDocTerms,
+            index.mDocTfs, index.mDocMagnitudes };
+  }
+
+  /**
+   * Writes the index file through a buffer and keeps track of the offset in the file, which the padding of the
+   * sections is relative to: the buffer may be flushed at any position.
+   * 
+   * @author zisch
+   */
+  private static final class SectionWriter {
+    private final WritableByteChannel mOut;
+
+    private final ByteBuffer mBuffer;
+
+    /**
+     * The number of bytes already written to {@link #mOut}.
+     */
+    private long mFlushed = 0;
+
+    SectionWriter (final WritableByteChannel out, final int bufferSize) {
+      mOut = out;
+      mBuffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    ByteBuffer ensureRemaining (final int bytes) throws IOException {
+      if (mBuffer.remaining() < bytes) {
+        flush();
+      }
+      return mBuffer;
+    }
+
+    void flush () throws IOException {
+      mBuffer.flip();
+      while (mBuffer.hasRemaining()) {
+        mFlushed += mOut.write(mBuffer);
+      }
+      mBuffer.clear();
+    }
+
+    /**
+     * Pads the file to the next multiple of 8 bytes.
+     */
+    void pad () throws IOException {
+      while ((mFlushed + mBuffer.position()) % 8 != 0) {
+        ensureRemaining(1).put((byte) 0);
+      }
+    }
+  }
+
+  /**
+   * Opens an index file by mapping it into memory. The mapping stays valid when the channel is closed.
+   * 
+   * @param channel the channel of the index file
+   * 
+   * @return the snapshot which reads from the mapped file
+   * 
+   * @throws IOException if thrown by {@code channel}
+   * @throws IllegalArgumentException if the file is not a valid index file
+   */
+  static SearchIndex open (final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Index files of 2 GB and more are not supported; the file has " + size
+              + " bytes.");
+    }
+    if (size < HEADER_SIZE) {
+      throw new IllegalArgumentException("Not an index file; the file has only " + size + " bytes.");
+    }
+    final ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (file.get(i) != MAGIC[i]) {
+        throw new IllegalArgumentException("Not an index file; the magic bytes are missing.");
+      }
+    }
+    final int version = file.getInt(8);
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported index file version " + version + "; expected " + VERSION + ".");
+    }
+    final int namesLength = file.getInt(12);
+    final long tokenStoreLength = file.getLong(16);
+    final int fieldCount = file.getInt(24);
+    final int termCount = file.getInt(28);
+    final int documentCount = file.getInt(32);
+    final int refCount = file.getInt(36);
+    final int tokenCharCount = file.getInt(40);
+    final int postingCount = file.getInt(44);
+    final int vectorEntryCount = file.getInt(48);
+
+    // Check the size first, so that reading the sections cannot fail:
+    final long[] sectionBytes = new long[] { 8L * termCount, 4L * (termCount + 1), 2L * tokenCharCount,
+            4L * termCount, 4L * termCount, 4L * (termCount + 1), 4L * postingCount, 8L * postingCount, 8L * refCount,
+            4L * (documentCount + 1), 4L * vectorEntryCount, 4L * vectorEntryCount, 8L * documentCount };
+    long expectedSize = align(HEADER_SIZE + (long) namesLength);
+    for (final long bytes : sectionBytes) {
+      expectedSize += align(bytes);
+    }
+    if (fieldCount < 0 || termCount < 0 || documentCount < 0 || refCount < documentCount || tokenCharCount < 0
+            || postingCount < 0 || vectorEntryCount < 0 || namesLength < 4 || expectedSize != size) {
+      throw new IllegalArgumentException("Corrupt index file; expected " + expectedSize + " bytes but the file has "
+              + size + " bytes.");
+    }
+
+    file.position(HEADER_SIZE);
+    final String refName = readName(file);
+    final FieldSpec[] fields = new FieldSpec[fieldCount];
+    for (int i = 0; i < fieldCount; i++) {
+      final String name = readName(file);
+      final int boost = file.getInt();
+      fields[i] = new FieldSpec(name, boost, LunrAnalyzer.forName(readName(file)));
+    }
+
+    int offset = (int) align(HEADER_SIZE + (long) namesLength);
+    final ByteBuffer[] sections = new ByteBuffer[sectionBytes.length];
+    for (int i = 0; i < sections.length; i++) {
+      final ByteBuffer section = file.duplicate();
+      section.limit(offset + (int) sectionBytes[i]).position(offset);
+      sections[i] = section.slice().order(ByteOrder.LITTLE_ENDIAN);
+      offset += (int) align(sectionBytes[i]);
+    }
+    return new SearchIndex(refName, fields, tokenStoreLength, documentCount, sections[1].asIntBuffer(),
+            sections[2].asCharBuffer(), sections[3].asIntBuffer(), sections[4].asIntBuffer(),
+            sections[0].asDoubleBuffer(), sections[5].asIntBuffer(), sections[6].asIntBuffer(),
+            sections[7].asDoubleBuffer(), sections[8].asLongBuffer(), sections[9].asIntBuffer(),
+            sections[10].asIntBuffer(), sections[11].asFloatBuffer(), sections[12].asDoubleBuffer());
+  }
+
+  private static String readName (final ByteBuffer file) {
+    final int length = file.getInt();
+    if (length < 0 || length > file.remaining()) {
+      throw new IllegalArgumentException("Corrupt index file; invalid name length " + length + ".");
+    }
+    final byte[] bytes = new byte[length];
+    file.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static long align (final long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+/**
+ * The Italian Snowball stemmer.
+ * 
+ * @author zisch
+ */
+final class ItalianStemmer extends SnowballStemmer {
+
+  /**
+   * The Italian Snowball stop words.
+   */
+  static final String[] STOP_WORDS = new String[] { "a", "abbia", "abbiamo", "abbiano", "abbiate", "ad", "agl",
+          "agli", "ai", "al", "all", "alla", "alle", "allo", "anche", "avemmo", "avendo", "avesse", "avessero",
+          "avessi", "avessimo", "aveste", "avesti", "avete", "aveva", "avevamo", "avevano", "avevate", "avevi", "avevo",
+          "avrai", "avranno", "avrebbe", "avrebbero", "avrei", "avremmo", "avremo", "avreste", "avresti", "avrete",
+          "avrà", "avrò", "avuta", "avute", "avuti", "avuto", "c", "che", "chi", "ci", "coi", "col", "come", "con",
+          "contro", "cui", "da", "dagl", "dagli", "dai", "dal", "dall", "dalla", "dalle", "dallo", "degl", "degli",
+          "dei", "del", "dell", "della", "delle", "dello", "di", "dov", "dove", "e", "ebbe", "ebbero", "ebbi", "ed",
+          "era", "erano", "eravamo", "eravate", "eri", "ero", "essendo", "faccia", "facciamo", "facciano", "facciate",
+          "faccio", "facemmo", "facendo", "facesse", "facessero", "facessi", "facessimo", "faceste", "facesti",
+          "faceva", "facevamo", "facevano", "facevate", "facevi", "facevo", "fai", "fanno", "farai", "faranno",
+          "farebbe", "farebbero", "farei", "faremmo", "faremo", "fareste", "faresti", "farete", "farà", "farò", "fece",
+          "fecero", "feci", "fosse", "fossero", "fossi", "fossimo", "foste", "fosti", "fu", "fui", "fummo", "furono",
+          "gli", "ha", "hai", "hanno", "ho", "i", "il", "in", "io", "l", "la", "le", "lei", "li", "lo", "loro", "lui",
+          "ma", "mi", "mia", "mie", "miei", "mio", "ne", "negl", "negli", "nei", "nel", "nell", "nella", "nelle",
+          "nello", "noi", "non", "nostra", "nostre", "nostri", "nostro", "o", "per", "perché", "più", "quale",
+          "quanta", "quante", "quanti", "quanto", "quella", "quelle", "quelli", "quello", "questa", "queste", "questi",
+          "questo", "sarai", "saranno", "sarebbe", "sarebbero", "sarei", "saremmo", "saremo", "sareste", "saresti",
+          "sarete", "sarà", "sarò", "se", "sei", "si", "sia", "siamo", "siano", "siate", "siete", "sono", "sta",
+          "stai", "stando", "stanno", "starai", "staranno", "starebbe", "starebbero", "starei", "staremmo", "staremo",
+          "stareste", "staresti", "starete", "starà", "starò", "stava", "stavamo", "stavano", "stavate", "stavi",
+          "stavo", "stemmo", "stesse", "stessero", "stessi", "stessimo", "steste", "stesti", "stette", "stettero",
+          "stetti", "stia", "stiamo", "stiano", "stiate", "sto", "su", "sua", "sue", "sugl", "sugli", "sui", "sul",
+          "sull", "sulla", "sulle", "sullo", "suo", "suoi", "ti", "tra", "tu", "tua", "tue", "tuo", "tuoi", "tutti",
+          "tutto", "un", "una", "uno", "vi", "voi", "vostra", "vostre", "vostri", "vostro", "è" };
+
+  private static final String[] PRONOUNS = new String[] { "ci", "gli", "la", "le", "li", "lo", "mi", "ne", "si",
+          "ti", "vi", "sene", "gliela", "gliele", "glieli", "glielo", "gliene", "mela", "mele", "meli", "melo", "mene",
+          "tela", "tele", "teli", "telo", "tene", "cela", "cele", "celi", "celo", "cene", "vela", "vele", "veli",
+          "velo", "vene" };
+
+  private static final String[] PRONOUN_PREFIXES = new String[] { "ando", "endo", "ar", "er", "ir" };
+
+  private static final String[] STEP1_DELETE_R2 = new String[] { "anza", "anze", "ico", "ici", "ica", "ice", "iche",
+          "ichi", "ismo", "ismi", "abile", "abili", "ibile", "ibili", "ista", "iste", "isti", "istà", "istè", "istì",
+          "oso", "osi", "osa", "ose", "mente", "atrice", "atrici", "ante", "anti" };
+
+  private static final String[] STEP1_SUFFIXES = concat(STEP1_DELETE_R2, new String[] { "azione", "azioni",
+          "atore", "atori", "logia", "logie", "uzione", "uzioni", "usione", "usioni", "enza", "enze", "amento",
+          "amenti", "imento", "imenti", "amente", "ità", "ivo", "ivi", "iva", "ive" });
+
+  private static final String[] AMENTE_PREFIXES = new String[] { "iv", "os", "ic", "abil" };
+
+  private static final String[] ITA_PREFIXES = new String[] { "abil", "ic", "iv" };
+
+  private static final String[] STEP2_SUFFIXES = new String[] { "ammo", "ando", "ano", "are", "arono", "asse",
+          "assero", "assi", "assimo", "ata", "ate", "ati", "ato", "ava", "avamo", "avano", "avate", "avi", "avo",
+          "emmo", "enda", "ende", "endi", "endo", "erà", "erai", "eranno", "ere", "erebbe", "erebbero", "erei",
+          "eremmo", "eremo", "ereste", "eresti", "erete", "erò", "erono", "essero", "ete", "eva", "evamo", "evano",
+          "evate", "evi", "evo", "iamo", "immo", "irà", "irai", "iranno", "ire", "irebbe", "irebbero", "irei",
+          "iremmo", "iremo", "ireste", "iresti", "irete", "irò", "irono", "isca", "iscano", "isce", "isci", "isco",
+          "iscono", "issero", "ita", "ite", "iti", "ito", "iva", "ivamo", "ivano", "ivate", "ivi", "ivo", "ono", "uta",
+          "ute", "uti", "uto", "ar", "ir" };
+
+  @Override
+  boolean isVowel (final char c) {
+    return in("aeiouàèìòù", c);
+  }
+
+  public void stem (final StringBuilder w) {
+    // Prelude: acute accents become grave accents, qu becomes qU and u and i between vowels become U and I:
+    for (int i = 0; i < w.length(); i++) {
+      final int acute = "áéíóú".indexOf(w.charAt(i));
+      if (acute >= 0) {
+        w.setCharAt(i, "àèìòù".charAt(acute));
+      } else if (w.charAt(i) == 'u' && i > 0 && w.charAt(i - 1) == 'q') {
+        w.setCharAt(i, 'U');
+      }
+    }
+    for (int i = 1; i < w.length() - 1; i++) {
+      final char c = w.charAt(i);
+      if ((c == 'u' || c == 'i') && isVowel(w.charAt(i - 1)) && isVowel(w.charAt(i + 1))) {
+        w.setCharAt(i, c == 'u' ? 'U' : 'I');
+      }
+    }
+
+    final int pV = rvStart(w);
+    final int p1 = regionStart(w, 0);
+    final int p2 = regionStart(w, p1);
+
+    // Step 0: attached pronoun after a gerund or infinitive
+    final String pronoun = longestSuffix(w, PRONOUNS, 0);
+    if (pronoun != null) {
+      final int pronounStart = start(w, pronoun);
+      for (final String prefix : PRONOUN_PREFIXES) {
+        if (endsWith(w, pronounStart, prefix) && pronounStart - prefix.length() >= pV) {
+          replaceEnd(w, pronoun.length(), prefix.length() == 4 ? "" : "e");
+          break;
+        }
+      }
+    }
+
+    // Step 1 and, if it did not remove anything, step 2:
+    if (!standardSuffix(w, pV, p1, p2)) {
+      final String s = longestSuffix(w, STEP2_SUFFIXES, pV);
+      if (s != null) {
+        w.setLength(start(w, s));
+      }
+    }
+
+    // Step 3a: final vowel (and a preceding i) in RV
+    if (w.length() - 1 >= pV && w.length() > 0 && in("aeioàèìò", w.charAt(w.length() - 1))) {
+      w.setLength(w.length() - 1);
+      if (w.length() - 1 >= pV && w.length() > 0 && w.charAt(w.length() - 1) == 'i') {
+        w.setLength(w.length() - 1);
+      }
+    }
+    // Step 3b: ch and gh in RV become c and g
+    if ((endsWith(w, w.length(), "ch") || endsWith(w, w.length(), "gh")) && w.length() - 2 >= pV) {
+      w.setLength(w.length() - 1);
+    }
+
+    // Postlude:
+    replaceAll(w, 'I', 'i');
+    replaceAll(w, 'U', 'u');
+  }
+
+  /**
+   * Removes the standard suffixes (step 1).
+   * 
+   * @return whether a suffix has been removed or replaced
+   */
+  private static boolean standardSuffix (final StringBuilder w, final int pV, final int p1, final int p2) {
+    final String s = longestSuffix(w, STEP1_SUFFIXES, 0);
+    if (s == null) {
+      return false;
+    }
+    final int start = start(w, s);
+    if (s.equals("amento") || s.equals("amenti") || s.equals("imento") || s.equals("imenti")) {
+      if (start < pV) {
+        return false;
+      }
+      w.setLength(start);
+    } else if (s.equals("amente")) {
+      if (start < p1) {
+        return false;
+      }
+      w.setLength(start);
+      final String prefix = longestSuffix(w, AMENTE_PREFIXES, 0);
+      if (prefix != null && start(w, prefix) >= p2) {
+        w.setLength(start(w, prefix));
+        if (prefix.equals("iv") && endsWith(w, w.length(), "at") && w.length() - 2 >= p2) {
+          w.setLength(w.length() - 2);
+        }
+      }
+    } else if (start < p2) {
+      return false;
+    } else if (s.equals("azione") || s.equals("azioni") || s.equals("atore") || s.equals("atori")) {
+      w.setLength(start);
+      if (endsWith(w, w.length(), "ic") && w.length() - 2 >= p2) {
+        w.setLength(w.length() - 2);
+      }
+    } else if (s.equals("logia") || s.equals("logie")) {
+      replaceEnd(w, s.length(), "log");
+    } else if (s.startsWith("uzion") || s.startsWith("usion")) {
+      replaceEnd(w, s.length(), "u");
+    } else if (s.equals("enza") || s.equals("enze")) {
+      replaceEnd(w, s.length(), "ente");
+    } else if (s.equals("ità")) {
+      w.setLength(start);
+      final String prefix = longestSuffix(w, ITA_PREFIXES, 0);
+      if (prefix != null && start(w, prefix) >= p2) {
+        w.setLength(start(w, prefix));
+      }
+    } else if (s.equals("ivo") || s.equals("ivi") || s.equals("iva") || s.equals("ive")) {
+      w.setLength(start);
+      if (endsWith(w, w.length(), "at") && w.length() - 2 >= p2) {
+        w.setLength(w.length() - 2);
+        if (endsWith(w, w.length(), "ic") && w.length() - 2 >= p2) {
+          w.setLength(w.length() - 2);
+        }
+      }
+    } else {
+      w.setLength(start);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the start of RV: if the second letter is a consonant, the region after the next following vowel; if the
+   * first two letters are vowels, the region after the next consonant; otherwise the region after the third letter.
+   */
+  private int rvStart (final CharSequence w) {
+    final int length = w.length();
+    if (length < 2) {
+      return length;
+    }
+    if (!isVowel(w.charAt(1))) {
+      final int v = nextVowel(w, 2);
+      if (v >= 0) {
+        return v + 1;
+      }
+    } else if (isVowel(w.charAt(0))) {
+      for (int i = 2; i < length; i++) {
+        if (!isVowel(w.charAt(i))) {
+          return i + 1;
+        }
+      }
+    }
+    if (!isVowel(w.charAt(0)) && isVowel(w.charAt(1))) {
+      return Math.min(3, length);
+    }
+    return length;
+  }
+
+  private static String[] concat (final String[] a, final String[] b) {
+    final String[] result = new String[a.length + b.length];
+    System.arraycopy(a, 0, result, 0, a.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+}
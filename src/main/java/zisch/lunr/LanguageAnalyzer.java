@@ -0,0 +1,118 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * A {@link LunrAnalyzer} which runs a pipeline of tokenizer, lowercaser, stop word filter and stemmer.
+ * <p>
+ * The tokenizer splits the value into the runs of {@linkplain Character#isLetterOrDigit(char) letters and digits}
+ * (so apostrophes split elisions like <em>l'index</em> or <em>dell'anno</em>). Each token is lowercased into a
+ * reusable buffer, checked against the stop words and stemmed in place; no substring is created for a token, only the
+ * {@link LunrAnalyzer.TermSink sink} copies the terms it keeps.
+ * <p>
+ * The pipeline labels are those of the <em>lunr-languages</em> plugins ({@code trimmer-de},
+ * {@code stopWordFilter-de}, {@code stemmer-de} for the name {@code de}), which have to be loaded to search the index
+ * in the browser; the plugins tokenize slightly differently, so a few terms (for example those with apostrophes) may
+ * not be found there.
+ * 
+ * @author zisch
+ */
+public final class LanguageAnalyzer extends LunrAnalyzer {
+
+  /**
+   * A stemmer which reduces a lowercase token to its stem in place.
+   * 
+   * @author zisch
+   */
+  public interface Stemmer {
+    /**
+     * Stems the specified token.
+     * 
+     * @param token the lowercase token; is replaced by its stem
+     */
+    void stem (StringBuilder token);
+  }
+
+  private final String[] mStopWords;
+
+  private final Stemmer mStemmer;
+
+  /**
+   * Constructor.
+   * 
+   * @param name the name of the analyzer, usually the language code (see {@link LunrAnalyzer#getName()})
+   * @param stopWords the lowercase stop words, which are removed before stemming
+   * @param stemmer the stemmer; must be thread-safe
+   */
+  public LanguageAnalyzer (final String name, final Collection<String> stopWords, final Stemmer stemmer) {
+    this(name, stopWords.toArray(new String[stopWords.size()]), stemmer);
+  }
+
+  LanguageAnalyzer (final String name, final String[] stopWords, final Stemmer stemmer) {
+    super(name, Arrays.asList(new String[] { "trimmer-" + name, "stopWordFilter-" + name, "stemmer-" + name }));
+    mStopWords = stopWords.clone();
+    Arrays.sort(mStopWords);
+    mStemmer = stemmer;
+  }
+
+  @Override
+  public void analyze (final CharSequence value, final TermSink sink) {
+    final StringBuilder token = new StringBuilder(32);
+    final int length = value.length();
+    int i = 0;
+    while (i < length) {
+      while (i < length && !Character.isLetterOrDigit(value.charAt(i))) {
+        i++;
+      }
+      if (i == length) {
+        break;
+      }
+      token.setLength(0);
+      while (i < length && Character.isLetterOrDigit(value.charAt(i))) {
+        token.append(Character.toLowerCase(value.charAt(i++)));
+      }
+      if (!isStopWord(token)) {
+        mStemmer.stem(token);
+        sink.addTerm(token);
+      }
+    }
+  }
+
+  /**
+   * Checks whether the token is a stop word by a binary search of the sorted stop words, comparing the characters in
+   * place like {@link String#compareTo(String)}.
+   */
+  private boolean isStopWord (final CharSequence token) {
+    int lo = 0;
+    int hi = mStopWords.length - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int cmp = compare(mStopWords[mid], token);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int compare (final String s, final CharSequence token) {
+    final int n = Math.min(s.length(), token.length());
+    for (int i = 0; i < n; i++) {
+      final char c = s.charAt(i);
+      if (c != token.charAt(i)) {
+        return c - token.charAt(i);
+      }
+    }
+    return s.length() - token.length();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * The text analysis of a field of a {@link LunrIndex}: splits the field values into tokens and normalizes them into the
+ * terms which are added to the index (see {@link LunrIndex.FieldSpec#FieldSpec(String, int, LunrAnalyzer)}).
+ * <p>
+ * The default analyzer {@link #ENGLISH} is the pipeline of <em>lunr.js</em> itself. {@link #GERMAN}, {@link #FRENCH}
+ * and {@link #ITALIAN} are {@link LanguageAnalyzer}s with a Snowball stemmer; further analyzers can be plugged in by
+ * creating a {@link LanguageAnalyzer} with another stemmer or by extending this class.
+ * <p>
+ * Queries are analyzed with the analyzer of the first field. Analyzers must be thread-safe: the same instance is used
+ * for all fields, documents and queries. The analyzers are stored by name in the serialized index and in index files,
+ * so only indexes with built-in analyzers can be loaded or opened again.
+ * 
+ * @author zisch
+ */
+public abstract class LunrAnalyzer {
+
+  /**
+   * The default pipeline of <em>lunr.js</em> 0.5.4 (tokenizer, {@code trimmer}, {@code stopWordFilter} and the Porter
+   * {@code stemmer}); the only analyzer supported by the {@link LunrIndex.Backend#SCRIPT SCRIPT} backend.
+   */
+  public static final LunrAnalyzer ENGLISH = new LunrAnalyzer("en", LunrPipeline.PIPELINE_LABELS) {
+    @Override
+    public void analyze (final CharSequence value, final TermSink sink) {
+      for (final String term : LunrPipeline.run(value)) {
+        sink.addTerm(term);
+      }
+    }
+  };
+
+  /**
+   * German: the German Snowball stemmer and stop words.
+   */
+  public static final LunrAnalyzer GERMAN = new LanguageAnalyzer("de", GermanStemmer.STOP_WORDS, new GermanStemmer());
+
+  /**
+   * French: the French Snowball stemmer and stop words.
+   */
+  public static final LunrAnalyzer FRENCH = new LanguageAnalyzer("fr", FrenchStemmer.STOP_WORDS, new FrenchStemmer());
+
+  /**
+   * Italian: the Italian Snowball stemmer and stop words.
+   */
+  public static final LunrAnalyzer ITALIAN = new LanguageAnalyzer("it", ItalianStemmer.STOP_WORDS,
+          new ItalianStemmer());
+
+  private static final LunrAnalyzer[] BUILT_IN = new LunrAnalyzer[] { ENGLISH, GERMAN, FRENCH, ITALIAN };
+
+  /**
+   * Receives the terms produced by {@link LunrAnalyzer#analyze(CharSequence, TermSink)}.
+   * 
+   * @author zisch
+   */
+  public interface TermSink {
+    /**
+     * Adds the next term of the analyzed value.
+     * 
+     * @param term the term; may be a buffer which the analyzer reuses after this method returns, so it must be copied
+     *          (for example with {@link CharSequence#toString()}) to be kept
+     */
+    void addTerm (CharSequence term);
+  }
+
+  private final String mName;
+
+  private final List<String> mPipelineLabels;
+
+  /**
+   * Constructor.
+   * 
+   * @param name the name of the analyzer, usually the language code; written to the serialized index for the fields
+   *          which do not use {@link #ENGLISH}
+   * @param pipelineLabels the labels of the <em>lunr.js</em> pipeline functions which process queries like this
+   *          analyzer (for example those of the <em>lunr-languages</em> plugins); written to the serialized index if
+   *          the first field uses this analyzer
+   */
+  protected LunrAnalyzer (final String name, final List<String> pipelineLabels) {
+    mName = name;
+    mPipelineLabels = Collections.unmodifiableList(new ArrayList<String>(pipelineLabels));
+  }
+
+  /**
+   * Returns the built-in analyzer with the specified name, ignoring case ({@code en}, {@code de}, {@code fr} or
+   * {@code it}).
+   * 
+   * @param name the name of the analyzer, for example a language code
+   * 
+   * @return the analyzer
+   * 
+   * @throws IllegalArgumentException if there is no built-in analyzer with the name
+   */
+  public static LunrAnalyzer forName (final String name) {
+    final String lowerName = name.toLowerCase(Locale.ROOT);
+    for (final LunrAnalyzer analyzer : BUILT_IN) {
+      if (analyzer.mName.equals(lowerName)) {
+        return analyzer;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported analyzer '" + name + "'.");
+  }
+
+  /**
+   * Returns the built-in analyzer with the specified pipeline labels.
+   * 
+   * @param pipelineLabels the labels of the pipeline of a serialized index
+   * 
+   * @return the analyzer
+   * 
+   * @throws IllegalArgumentException if there is no built-in analyzer with these labels
+   */
+  static LunrAnalyzer forPipeline (final List<String> pipelineLabels) {
+    final List<List<String>> supported = new ArrayList<List<String>>(BUILT_IN.length);
+    for (final LunrAnalyzer analyzer : BUILT_IN) {
+      if (analyzer.mPipelineLabels.equals(pipelineLabels)) {
+        return analyzer;
+      }
+      supported.add(analyzer.mPipelineLabels);
+    }
+    throw new IllegalArgumentException("Unsupported pipeline " + pipelineLabels + " in serialized index; expected one "
+            + "of " + supported + ".");
+  }
+
+  /**
+   * @return the name of this analyzer
+   */
+  public String getName () {
+    return mName;
+  }
+
+  /**
+   * @return the labels of the corresponding <em>lunr.js</em> pipeline functions
+   */
+  public List<String> getPipelineLabels () {
+    return mPipelineLabels;
+  }
+
+  /**
+   * Analyzes a field value (or a query) and passes the resulting terms in order to the sink.
+   * 
+   * @param value the value to analyze
+   * @param sink receives the terms
+   */
+  public abstract void analyze (CharSequence value, TermSink sink);
+
+  /**
+   * Analyzes the string representation of the specified value into a list of terms.
+   * 
+   * @param value the value; may be {@code null} (which yields no terms)
+   * 
+   * @return the terms in order (possibly with duplicates)
+   */
+  final List<String> analyzeToList (final Object value) {
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    final List<String> terms = new ArrayList<String>();
+    analyze(value instanceof CharSequence ? (CharSequence) value : value.toString(), new TermSink() {
+      public void addTerm (final CharSequence term) {
+        terms.add(term.toString());
+      }
+    });
+    return terms;
+  }
+
+  @Override
+  public String toString () {
+    return mName;
+  }
+}
@@ -1,26 +1,55 @@
 package zisch.lunr;
 
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
  * TODO [javadoc]: type LunrIndex
  * <p>
- * <strong>NOTE:</strong> This class needs Java 1.7+ at runtime and will not work in a Java 1.6 engine (because
- * <em>Rhino</em> in Java 1.6 is missing some JavaScript features needed by <em>lunr.js</em>)!
+ * By default the index is built by a pure Java implementation of the <em>lunr.js</em> tokenizer, stop word filter,
+ * stemmer and inverted index ({@link Backend#NATIVE}). The original implementation, which runs <em>lunr.js</em> itself
+ * in a JavaScript {@link javax.script.ScriptEngine ScriptEngine}, is still available as {@link Backend#SCRIPT}; both
+ * produce the same serialized index.
+ * <p>
+ * With the native backend, each field can have its own {@link LunrAnalyzer} (for example {@link LunrAnalyzer#GERMAN})
+ * instead of the English pipeline of <em>lunr.js</em>; see {@link FieldSpec#FieldSpec(String, int, LunrAnalyzer)}.
+ * <p>
+ * <strong>NOTE:</strong> The {@link Backend#SCRIPT SCRIPT} backend needs Java 1.7+ at runtime and will not work in a
+ * Java 1.6 engine (because <em>Rhino</em> in Java 1.6 is missing some JavaScript features needed by <em>lunr.js</em>)!
  * <p>
- * FIXME: GZIP serialized index; use zlib.js do decompress it again when used!
+ * The serialized index can be written compressed with {@link #serializeIndex(OutputStream, Compression)}; use
+ * <em>zlib.js</em> ({@code Zlib.Gunzip} or {@code Zlib.Inflate}) to decompress it again in the browser.
+ * <p>
+ * For searching on the server, the index can also be written as a binary index file with
+ * {@link #writeIndexFile(File)}, which {@link #openIndexFile(File)} maps into memory instead of parsing it. To convert
+ * a serialized index into an index file, {@linkplain #loadIndex(Reader) load} it and write the index file; to convert
+ * an index file back, open it and {@linkplain #serializeIndex(Writer) serialize} it.
  * 
  * @author zisch
  * 
@@ -55,6 +84,34 @@ public final class LunrIndex {
     final String serialized = idx.serializeIndex();
     System.out.println("----");
     System.out.println(serialized);
+    System.out.println("----");
+    mainPrintSerializedSizes(idx);
+  }
+
+  /**
+   * Prints the size of the serialized index and the time needed to serialize it, uncompressed as a {@link String} and
+   * for each {@link Compression}.
+   * 
+   * @param idx the index to serialize
+   */
+  static void mainPrintSerializedSizes (final LunrIndex idx) {
+    final long stringStart = System.nanoTime();
+    final int stringLength = idx.serializeIndex().getBytes(UTF_8).length;
+    final long stringNanos = System.nanoTime() - stringStart;
+    System.out.println(String.format(Locale.ROOT, "%-8s %10d bytes %8.2f ms", "String", stringLength,
+            stringNanos / 1e6));
+    for (final Compression compression : Compression.values()) {
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      final long start = System.nanoTime();
+      try {
+        idx.serializeIndex(bos, compression);
+      } catch (final IOException exc) {
+        throw new IllegalStateException("Unexpected IOException while writing to ByteArrayOutputStream: " + exc, exc);
+      }
+      final long nanos = System.nanoTime() - start;
+      System.out.println(String.format(Locale.ROOT, "%-8s %10d bytes %8.2f ms (%5.1f%%)", compression, bos.size(),
+              nanos / 1e6, 100.0 * bos.size() / stringLength));
+    }
   }
 
   private static void mainAddDoc (final LunrIndex idx, final long id, final String title, final String body) {
@@ -64,6 +121,53 @@ public final class LunrIndex {
     idx.addDocument(id, fields);
   }
 
+  /**
+   * The default number of documents passed to the backend at once by {@link #addDocuments(Iterable)}.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The implementations available to build a {@link LunrIndex}.
+   * 
+   * @author zisch
+   */
+  public enum Backend {
+    /**
+     * Pure Java implementation of the <em>lunr.js</em> text processing pipeline and index structures.
+     */
+    NATIVE,
+
+    /**
+     * Runs <em>lunr.js</em> in a JavaScript {@link javax.script.ScriptEngine ScriptEngine}; supports only fields
+     * with the {@link LunrAnalyzer#ENGLISH ENGLISH} analyzer.
+     */
+    SCRIPT
+  }
+
+  /**
+   * The compression formats for {@link LunrIndex#serializeIndex(OutputStream, Compression)}.
+   * 
+   * @author zisch
+   */
+  public enum Compression {
+    /**
+     * Uncompressed UTF-8.
+     */
+    NONE,
+
+    /**
+     * The <em>zlib</em> format (RFC 1950); decompress with {@code Zlib.Inflate} of <em>zlib.js</em>.
+     */
+    DEFLATE,
+
+    /**
+     * The <em>gzip</em> format (RFC 1952); decompress with {@code Zlib.Gunzip} of <em>zlib.js</em>.
+     */
+    GZIP
+  }
+
   /**
    * TODO [javadoc]: type FieldSpec
    * 
@@ -74,6 +178,8 @@ public final class LunrIndex {
 
     private final int mBoost;
 
+    private final LunrAnalyzer mAnalyzer;
+
     /**
      * TODO [javadoc]: constructor FieldSpec
      * 
@@ -90,9 +196,23 @@ public final class LunrIndex {
      * @param boost TODO
      */
     public FieldSpec (final String name, final int boost) {
+      this(name, boost, LunrAnalyzer.ENGLISH);
+    }
+
+    /**
+     * Constructor for a field which is analyzed by the specified {@link LunrAnalyzer} instead of the default pipeline
+     * of <em>lunr.js</em>.
+     * 
+     * @param name the name of the field, which is also the key of its value in the documents
+     * @param boost the factor by which matches in this field are weighted when searching; at least 1
+     * @param analyzer the analyzer of the field values (queries are analyzed with the analyzer of the first field);
+     *          {@code null} for {@link LunrAnalyzer#ENGLISH}
+     */
+    public FieldSpec (final String name, final int boost, final LunrAnalyzer analyzer) {
       // TODO: check name is valid Java identifier and boost >= 1
       mName = name;
       mBoost = boost;
+      mAnalyzer = analyzer != null ? analyzer : LunrAnalyzer.ENGLISH;
     }
 
     /**
@@ -108,14 +228,106 @@ public final class LunrIndex {
     public int getBoost () {
       return mBoost;
     }
+
+    /**
+     * @return the analyzer of the field values
+     */
+    public LunrAnalyzer getAnalyzer () {
+      return mAnalyzer;
+    }
   }
 
-  private final String mRefName;
+  /**
+   * A document to be added to the index: the document reference together with its field values.
+   * 
+   * @author zisch
+   */
+  public static final class Document {
+    private final long mId;
+
+    private final Map<?, ?> mFields;
+
+    /**
+     * Constructor.
+     * 
+     * @param id the document reference
+     * @param fields the field values by field name (see {@link LunrIndex#addDocument(long, Map)})
+     * 
+     * @throws IllegalArgumentException if {@code fields} is {@code null}
+     */
+    public Document (final long id, final Map<?, ?> fields) {
+      if (fields == null) {
+        throw new IllegalArgumentException("fields must not be null");
+      }
+      mId = id;
+      mFields = fields;
+    }
+
+    /**
+     * @return the document reference
+     */
+    public long getId () {
+      return mId;
+    }
+
+    /**
+     * @return the field values by field name
+     */
+    public Map<?, ?> getFields () {
+      return mFields;
+    }
+  }
+
+  /**
+   * A match of {@link LunrIndex#search(String, int)}.
+   * 
+   * @author zisch
+   */
+  public static final class SearchResult {
+    private final long mRef;
+
+    private final double mScore;
+
+    SearchResult (final long ref, final double score) {
+      mRef = ref;
+      mScore = score;
+    }
+
+    /**
+     * @return the reference of the matching document
+     */
+    public long getRef () {
+      return mRef;
+    }
+
+    /**
+     * @return the similarity of the document and the query; between 0 and 1
+     */
+    public double getScore () {
+      return mScore;
+    }
 
-  private final ScriptEngine mEngine;
+    @Override
+    public String toString () {
+      return mRef + ":" + mScore;
+    }
+  }
+
+  private final String mRefName;
 
   private final Map<String, FieldSpec> mFields;
 
+  /**
+   * The backend; {@code null} for an index opened from an index file until it is needed (see {@link #getBackend()}).
+   */
+  private IndexBackend mBackend;
+
+  /**
+   * Snapshot of the index for {@link #search(String, long[], double[])}; created on demand and discarded whenever the
+   * index is changed.
+   */
+  private volatile SearchIndex mSearchIndex = null;
+
   /**
    * TODO [javadoc]: constructor LunrIndex
    * 
@@ -132,16 +344,152 @@ public final class LunrIndex {
    * @param fields TODO
    */
   public LunrIndex (final String refName, final FieldSpec... fields) {
+    this(Backend.NATIVE, refName, fields);
+  }
+
+  /**
+   * Constructor which allows to choose the {@link Backend} used to build the index.
+   * <p>
+   * Both backends produce the same serialized index. {@link Backend#NATIVE NATIVE} builds it in Java, can build
+   * shards in parallel with {@link #addDocumentsParallel(List)} and supports all {@link LunrAnalyzer analyzers}.
+   * {@link Backend#SCRIPT SCRIPT} runs <em>lunr.js</em> in a pooled {@link javax.script.ScriptEngine ScriptEngine},
+   * which is considerably slower, needs Java 1.7+ at runtime and supports only fields with the
+   * {@link LunrAnalyzer#ENGLISH ENGLISH} analyzer; use it to verify the native backend against the original
+   * implementation.
+   * 
+   * @param backend the backend which builds the index; {@link Backend#NATIVE NATIVE} or {@link Backend#SCRIPT SCRIPT}
+   * @param refName the name of the reference property of the indexed documents (the document id in the serialized
+   *          index and the {@code ref} of the search results in <em>lunr.js</em>); must not be the name of a field
+   * @param fields the fields to index, with their boosts and analyzers
+   * 
+   * @throws IllegalArgumentException if {@code backend} is {@link Backend#SCRIPT SCRIPT} and a field has another
+   *           analyzer than {@link LunrAnalyzer#ENGLISH ENGLISH}
+   */
+  public LunrIndex (final Backend backend, final String refName, final FieldSpec... fields) {
     // TODO: check refName is valid Java identifier
     // TODO: check fields not empty and no nulls
     // TODO: check refName not a name used in fields!
     mRefName = refName;
+    mFields = fieldsByName(fields);
+    switch (backend) {
+      case NATIVE:
+        mBackend = new NativeBackend(mRefName, mFields.values());
+        break;
+
+      case SCRIPT:
+        for (final FieldSpec fs : fields) {
+          if (fs.getAnalyzer() != LunrAnalyzer.ENGLISH) {
+            throw new IllegalArgumentException("The SCRIPT backend does not support the analyzer '"
+                    + fs.getAnalyzer() + "' of field '" + fs.getName() + "'.");
+          }
+        }
+        mBackend = new ScriptBackend(mRefName, mFields.values());
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unsupported backend: " + backend);
+    }
+  }
+
+  private LunrIndex (final NativeBackend backend) {
+    mRefName = backend.getRefName();
+    mFields = fieldsByName(backend.getFields());
+    mBackend = backend;
+  }
+
+  private LunrIndex (final SearchIndex searchIndex) {
+    mRefName = searchIndex.mRefName;
+    mFields = fieldsByName(searchIndex.mFields);
+    mBackend = null;
+    mSearchIndex = searchIndex;
+  }
+
+  private static Map<String, FieldSpec> fieldsByName (final FieldSpec[] fields) {
     final Map<String, FieldSpec> fieldsByName = new LinkedHashMap<String, FieldSpec>();
     for (final FieldSpec fs : fields) {
       fieldsByName.put(fs.getName(), fs);
     }
-    mFields = Collections.unmodifiableMap(fieldsByName);
-    mEngine = loadLunrScript(mRefName, mFields);
+    return Collections.unmodifiableMap(fieldsByName);
+  }
+
+  /**
+   * Loads an index which has been serialized with {@link #serializeIndex()} (or with
+   * {@code JSON.stringify(index.toJSON())} by <em>lunr.js</em>), so that it can be updated incrementally with
+   * {@link #addDocument(long, Map)}, {@link #updateDocument(long, Map)} and {@link #removeDocument(long)} instead of
+   * being rebuilt from scratch.
+   * <p>
+   * The loaded index uses the {@link Backend#NATIVE NATIVE} backend and the reference name and fields of the
+   * serialized index. Serializing it again produces the same output as <em>lunr.js</em> would after
+   * {@code lunr.Index.load} and the same changes. Only integer document references are supported.
+   * <p>
+   * The reader is not closed.
+   * 
+   * @param in the reader to read the serialized index from
+   * 
+   * @return the loaded index
+   * 
+   * @throws IOException if thrown by {@code in} or if the input is not valid JSON
+   * @throws IllegalArgumentException if the input is not a serialized index which can be loaded
+   */
+  public static LunrIndex loadIndex (final Reader in) throws IOException {
+    return new LunrIndex(NativeIndexReader.readIndex(in));
+  }
+
+  /**
+   * Opens an index file written by {@link #writeIndexFile(File)} by mapping it into memory: opening the file costs
+   * almost nothing, and {@linkplain #search(String, int) searches} read directly from the mapped file, using the page
+   * cache of the operating system instead of the heap.
+   * <p>
+   * The index is only read into the heap (as {@link Backend#NATIVE NATIVE} index) when it is serialized or changed
+   * for the first time; the changes are not written to the file.
+   * 
+   * @param file the index file
+   * 
+   * @return the opened index
+   * 
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not a valid index file
+   */
+  public static LunrIndex openIndexFile (final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return openIndexFile(raf.getChannel());
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Opens an index file (see {@link #openIndexFile(File)}) from the specified channel. The channel is not closed; the
+   * index stays usable after closing it.
+   * 
+   * @param channel the channel of the index file
+   * 
+   * @return the opened index
+   * 
+   * @throws IOException if thrown by {@code channel}
+   * @throws IllegalArgumentException if the file is not a valid index file
+   */
+  public static LunrIndex openIndexFile (final FileChannel channel) throws IOException {
+    return new LunrIndex(IndexFile.open(channel));
+  }
+
+  /**
+   * Returns the name of the property which holds the document reference in the serialized index.
+   * 
+   * @return the reference property name
+   */
+  public String getRefName () {
+    return mRefName;
+  }
+
+  /**
+   * Returns the field specifications of this index by field name, in the order in which they have been specified.
+   * 
+   * @return an unmodifiable map of the field specifications
+   */
+  public Map<String, FieldSpec> getFields () {
+    return mFields;
   }
 
   /**
@@ -152,98 +500,386 @@ public final class LunrIndex {
    */
   public void addDocument (final long id, final Map<?, ?> fields) {
     // TODO: check that id >= 0
-    final StringBuilder jsCode = new StringBuilder(128);
-    jsCode.append("index.add({\n");
-    jsCode.append(mRefName).append(": ").append(id);
-    for (final Map.Entry<?, ?> f : fields.entrySet()) {
-      final Object k = f.getKey();
-      if (k == null) {
-        throw new IllegalArgumentException("fields must not contain a null key");
+    checkFields(fields);
+    changeBackend().addDocument(id, fields);
+  }
+
+  /**
+   * Replaces the document with the specified reference, like {@code lunr.Index.update}: the document is removed (see
+   * {@link #removeDocument(long)}) and then added with the new field values. If the index does not contain the
+   * document, it is just added.
+   * 
+   * @param id the document reference
+   * @param fields the new field values by field name (see {@link #addDocument(long, Map)})
+   */
+  public void updateDocument (final long id, final Map<?, ?> fields) {
+    checkFields(fields);
+    changeBackend().updateDocument(id, fields);
+  }
+
+  /**
+   * Removes the document with the specified reference from the index, like {@code lunr.Index.remove}. Does nothing if
+   * the index does not contain the document.
+   * <p>
+   * The cost depends only on the number of tokens of the document. Like in <em>lunr.js</em>, tokens which no longer
+   * occur in any document are kept in the serialized index (with empty postings).
+   * 
+   * @param id the document reference
+   */
+  public void removeDocument (final long id) {
+    changeBackend().removeDocument(id);
+  }
+
+  /**
+   * Adds all specified documents, passing them to the backend in batches of {@link #DEFAULT_BATCH_SIZE} documents.
+   * 
+   * @param documents the documents to add
+   * 
+   * @see #addDocuments(Iterator, int)
+   */
+  public void addDocuments (final Iterable<? extends Document> documents) {
+    addDocuments(documents.iterator(), DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Adds all specified documents, passing them to the backend in batches of {@code batchSize} documents.
+   * 
+   * @param documents the documents to add
+   * @param batchSize the maximum number of documents per batch
+   * 
+   * @see #addDocuments(Iterator, int)
+   */
+  public void addDocuments (final Iterable<? extends Document> documents, final int batchSize) {
+    addDocuments(documents.iterator(), batchSize);
+  }
+
+  /**
+   * Adds all documents returned by the specified {@link Iterator}, passing them to the backend in batches of
+   * {@code batchSize} documents.
+   * <p>
+   * The result is the same as calling {@link #addDocument(long, Map)} for each document, but the {@link Backend#SCRIPT
+   * SCRIPT} backend hands each batch to the script engine with a single function call instead of evaluating generated
+   * code for each document. Only one batch is held in memory at a time.
+   * 
+   * @param documents the documents to add
+   * @param batchSize the maximum number of documents per batch
+   */
+  public void addDocuments (final Iterator<? extends Document> documents, final int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be >= 1 but was " + batchSize);
+    }
+    final IndexBackend backend = changeBackend();
+    final List<Document> batch = new ArrayList<Document>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+    while (documents.hasNext()) {
+      final Document doc = documents.next();
+      checkFields(doc.getFields());
+      batch.add(doc);
+      if (batch.size() == batchSize) {
+        backend.addDocuments(batch);
+        batch.clear();
       }
-      final String kstr = k.toString();
-      if (!mFields.containsKey(kstr)) {
-        throw new IllegalArgumentException("Field '" + kstr
-                + "' found in fields has not been specified fro this index.");
+    }
+    if (!batch.isEmpty()) {
+      backend.addDocuments(batch);
+    }
+  }
+
+  /**
+   * Adds all specified documents, building the index in parallel in one shard per available processor.
+   * 
+   * @param documents the documents to add
+   * 
+   * @see #addDocumentsParallel(List, int, ForkJoinPool)
+   */
+  public void addDocumentsParallel (final List<? extends Document> documents) {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final ForkJoinPool pool = new ForkJoinPool(processors);
+    try {
+      addDocumentsParallel(documents, processors, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Adds all specified documents, building the index in parallel: The documents are split into {@code shardCount}
+   * consecutive ranges, each of which is indexed separately by a task of the specified {@link ForkJoinPool}. The shards
+   * (postings, document store and corpus tokens) are then merged into this index.
+   * <p>
+   * The resulting index is identical to the index built by adding the same documents sequentially with
+   * {@link #addDocuments(Iterable)}, including documents which are added more than once. All shards use the reference
+   * name and fields of this index.
+   * <p>
+   * <strong>NOTE:</strong> Only the {@link Backend#NATIVE NATIVE} backend builds shards in parallel; the
+   * {@link Backend#SCRIPT SCRIPT} backend adds the documents sequentially to its single script engine.
+   * 
+   * @param documents the documents to add
+   * @param shardCount the number of shards; should be about the parallelism of {@code pool}
+   * @param pool the pool which runs the shard tasks
+   */
+  public void addDocumentsParallel (final List<? extends Document> documents, final int shardCount,
+          final ForkJoinPool pool) {
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("shardCount must be >= 1 but was " + shardCount);
+    }
+    final List<Document> docs = new ArrayList<Document>(documents);
+    for (final Document doc : docs) {
+      checkFields(doc.getFields());
+    }
+    if (!docs.isEmpty()) {
+      changeBackend().addDocumentsParallel(docs, shardCount, pool);
+    }
+  }
+
+  /**
+   * Searches the index like {@code lunr.Index.search} does in the browser and returns the best matches.
+   * <p>
+   * Every query token (after running the {@linkplain FieldSpec#getAnalyzer() analyzer} of the first field, like the
+   * pipeline of the serialized index does in the browser) is expanded to all tokens of the index
+   * which start with it; a document matches if it contains an expanded token of each query token. Matches are scored
+   * by the TF-IDF cosine similarity of the query and the document, where the term frequencies of the document include
+   * the {@link FieldSpec#getBoost() field boosts}.
+   * <p>
+   * The first search after a change of the index creates a compact snapshot of the index (with the
+   * {@link Backend#SCRIPT SCRIPT} backend by loading the serialized index); further searches run on this snapshot
+   * and allocate hardly anything but the result. Searches may run concurrently, as long as the index is not changed at
+   * the same time.
+   * 
+   * @param query the query
+   * @param limit the maximum number of results
+   * 
+   * @return the best matches, ordered by descending score
+   */
+  public List<SearchResult> search (final String query, final int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must be >= 0 but was " + limit);
+    }
+    final SearchIndex searchIndex = getSearchIndex();
+    final int size = Math.min(limit, searchIndex.getDocumentCount());
+    final long[] refs = new long[size];
+    final double[] scores = new double[size];
+    final int count = searchIndex.search(query, refs, scores);
+    return SearchIndex.toList(refs, scores, count);
+  }
+
+  /**
+   * Searches the index (see {@link #search(String, int)}) and writes the references and scores of the best matches to
+   * the specified arrays, which allows to reuse the arrays for many searches.
+   * 
+   * @param query the query
+   * @param refs receives the references of the best matches; the length of the array is the maximum number of results
+   * @param scores receives the scores of the best matches; must be at least as long as {@code refs}
+   * 
+   * @return the number of matches written to the arrays, ordered by descending score
+   */
+  public int search (final String query, final long[] refs, final double[] scores) {
+    if (scores.length < refs.length) {
+      throw new IllegalArgumentException("scores must be at least as long as refs (" + refs.length + ") but was "
+              + scores.length);
+    }
+    return getSearchIndex().search(query, refs, scores);
+  }
+
+  private SearchIndex getSearchIndex () {
+    SearchIndex searchIndex = mSearchIndex;
+    if (searchIndex == null) {
+      final IndexBackend backend = getBackend();
+      if (backend instanceof NativeBackend) {
+        searchIndex = new SearchIndex((NativeBackend) backend);
+      } else {
+        try {
+          searchIndex = new SearchIndex(NativeIndexReader.readIndex(new StringReader(backend.serializeIndex())));
+        } catch (final IOException exc) {
+          throw new IllegalStateException("Failed to load serialized index for searching: " + exc, exc);
+        }
       }
-      jsCode.append(",\n").append(k).append(": ");
-      appendJsString(jsCode, f.getValue());
+      mSearchIndex = searchIndex;
+    }
+    return searchIndex;
+  }
+
+  /**
+   * Returns the backend, reading an index opened from an index file into the heap first if necessary.
+   */
+  private synchronized IndexBackend getBackend () {
+    if (mBackend == null) {
+      mBackend = mSearchIndex.toNativeBackend();
+    }
+    return mBackend;
+  }
+
+  /**
+   * Returns the backend for a change of the index and discards the search snapshot.
+   */
+  private IndexBackend changeBackend () {
+    final IndexBackend backend = getBackend();
+    mSearchIndex = null;
+    return backend;
+  }
+
+  /**
+   * Writes the index as binary index file, which can be opened with {@link #openIndexFile(File)}. The file contains
+   * the term dictionary, the postings and the document vectors in the layout used for searching, so it is opened by
+   * mapping it into memory; it can be converted back into the serialized <em>lunr.js</em> index without loss.
+   * <p>
+   * The search snapshot (see {@link #search(String, int)}) is created first, if necessary.
+   * 
+   * @param file the file to write; an existing file is replaced
+   * 
+   * @throws IOException if the file cannot be written
+   */
+  public void writeIndexFile (final File file) throws IOException {
+    final FileOutputStream fos = new FileOutputStream(file);
+    try {
+      writeIndexFile(fos.getChannel());
+    } finally {
+      fos.close();
     }
-    jsCode.append("\n})");
-    evalJs("add document '" + id + "'", mEngine, jsCode);
+  }
+
+  /**
+   * Writes the index as binary index file (see {@link #writeIndexFile(File)}) to the specified channel. The channel is
+   * not closed.
+   * 
+   * @param out the channel to write to
+   * 
+   * @throws IOException if thrown by {@code out}
+   */
+  public void writeIndexFile (final WritableByteChannel out) throws IOException {
+    IndexFile.write(getSearchIndex(), out);
   }
 
   /**
    * TODO [javadoc]: method serializeIndex
+   * <p>
+   * For large indexes prefer {@link #serializeIndex(Writer)} and its variants, which write the index incrementally
+   * instead of holding the whole serialized index in memory.
    * 
    * @return TODO
    */
   public String serializeIndex () {
-    final String jsCode = "JSON.stringify(index.toJSON(), null)";
-    final Object result = evalJs("serialize index", mEngine, jsCode);
-    return (String) result;
-  }
-
-  private static void appendJsString (final StringBuilder jsCode, final Object value) {
-    final String str = value == null ? "" : value.toString();
-    jsCode.append('\'');
-    for (int i = 0; i < str.length(); i++) {
-      final char c = str.charAt(i);
-      switch (c) {
-        case '\'':
-        case '"':
-        case '\\':
-          jsCode.append('\\');
-      }
-      jsCode.append(c);
-    }
-    jsCode.append('\'');
+    return getBackend().serializeIndex();
+  }
+
+  /**
+   * Writes the serialized index (see {@link #serializeIndex()}) incrementally to the specified {@link Writer}: the
+   * document store and the inverted index are walked entry by entry, so the memory needed does not grow with the size
+   * of the serialized index.
+   * <p>
+   * The writer is flushed but not closed.
+   * 
+   * @param out the writer to write to
+   * 
+   * @throws IOException if thrown by {@code out}
+   */
+  public void serializeIndex (final Writer out) throws IOException {
+    final Writer w = out instanceof BufferedWriter ? out : new BufferedWriter(out, 16 * 1024);
+    getBackend().writeIndex(w);
+    w.flush();
+  }
+
+  /**
+   * Writes the serialized index uncompressed to the specified {@link OutputStream}.
+   * 
+   * @param out the stream to write to
+   * 
+   * @throws IOException if thrown by {@code out}
+   * 
+   * @see #serializeIndex(OutputStream, Compression)
+   */
+  public void serializeIndex (final OutputStream out) throws IOException {
+    serializeIndex(out, Compression.NONE);
+  }
+
+  /**
+   * Writes the serialized index, optionally compressed, to the specified {@link WritableByteChannel}.
+   * <p>
+   * The channel is not closed.
+   * 
+   * @param out the channel to write to
+   * @param compression the compression format
+   * 
+   * @throws IOException if thrown by {@code out}
+   * 
+   * @see #serializeIndex(OutputStream, Compression)
+   */
+  public void serializeIndex (final WritableByteChannel out, final Compression compression) throws IOException {
+    serializeIndex(Channels.newOutputStream(out), compression);
   }
 
-  private static ScriptEngine loadLunrScript (final String refName, final Map<String, FieldSpec> fields) {
-    final ScriptEngineManager factory = new ScriptEngineManager();
-    final ScriptEngine engine = factory.getEngineByName("JavaScript");
+  /**
+   * Writes the serialized index (see {@link #serializeIndex()}) encoded as UTF-8 to the specified {@link OutputStream},
+   * optionally compressed.
+   * <p>
+   * The JSON is written to the stream while it is generated, without building the whole serialized index as a
+   * {@link String} first (see {@link #serializeIndex(Writer)}).
+   * <p>
+   * The stream is flushed but not closed.
+   * 
+   * @param out the stream to write to
+   * @param compression the compression format
+   * 
+   * @throws IOException if thrown by {@code out}
+   */
+  public void serializeIndex (final OutputStream out, final Compression compression) throws IOException {
+    // Closing the compressing stream releases its Deflater and writes the trailer, but must not close out:
+    final OutputStream shield = new FilterOutputStream(out) {
+      @Override
+      public void write (final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close () throws IOException {
+        flush();
+      }
+    };
+    final OutputStream os;
+    switch (compression) {
+      case NONE:
+        os = shield;
+        break;
+
+      case DEFLATE:
+        os = new DeflaterOutputStream(shield);
+        break;
 
-    final String scriptName = "lunr.js";
-    final InputStream is = LunrIndex.class.getResourceAsStream(scriptName);
-    if (is == null) {
-      throw new IllegalStateException("Cannot find lunr script '" + scriptName + "' in resources of '"
-              + LunrIndex.class.getName() + "'.");
+      case GZIP:
+        os = new GZIPOutputStream(shield);
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unsupported compression: " + compression);
     }
+    final Writer w = new BufferedWriter(new OutputStreamWriter(os, UTF_8), 16 * 1024);
+    boolean written = false;
     try {
-      final Reader ir = new InputStreamReader(is, "UTF-8");
-      engine.eval(ir);
-    } catch (final IOException exc) {
-      throw new IllegalStateException("Failed to load lunr script '" + scriptName + "' from resources of '"
-              + LunrIndex.class.getName() + "': " + exc, exc);
-    } catch (final ScriptException exc) {
-      throw new IllegalStateException("Failed to load lunr script '" + scriptName + "' from resources of '"
-              + LunrIndex.class.getName() + "': " + exc, exc);
+      serializeIndex(w);
+      written = true;
     } finally {
-      try {
-        is.close();
-      } catch (final IOException exc) {
-        throw new IllegalStateException("Failed to close input stream from lunr script '" + scriptName
-                + "' in resources of '" + LunrIndex.class.getName() + "': " + exc, exc);
+      if (written) {
+        w.close();
+      } else {
+        // Only release the Deflater; an exception from close must not hide the one from writing:
+        try {
+          w.close();
+        } catch (final IOException exc) {
+          // ignore
+        }
       }
     }
-
-    final StringBuilder jsCode = new StringBuilder(128);
-    jsCode.append("var index = lunr(function () {\n");
-    jsCode.append("this.ref('").append(refName).append("')\n");
-    for (final FieldSpec fs : fields.values()) {
-      jsCode.append("this.field('").append(fs.getName()).append("', {boost: ").append(fs.getBoost()).append("})\n");
-    }
-    jsCode.append("})");
-    evalJs("initialize lunr index", engine, jsCode);
-
-    return engine;
   }
 
-  private static Object evalJs (final String actionLabel, final ScriptEngine engine, final CharSequence jsCode) {
-    try {
-      return engine.eval(jsCode.toString());
-    } catch (final ScriptException exc) {
-      throw new IllegalStateException("Failed to " + actionLabel + " with <" + jsCode + ">: " + exc, exc);
+  private void checkFields (final Map<?, ?> fields) {
+    for (final Object k : fields.keySet()) {
+      if (k == null) {
+        throw new IllegalArgumentException("fields must not contain a null key");
+      }
+      final String kstr = k.toString();
+      if (!mFields.containsKey(kstr)) {
+        throw new IllegalArgumentException("Field '" + kstr
+                + "' found in fields has not been specified fro this index.");
+      }
     }
   }
 }
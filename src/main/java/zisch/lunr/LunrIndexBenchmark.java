@@ -0,0 +1,283 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import zisch.lunr.LunrIndex.Backend;
+import zisch.lunr.LunrIndex.Document;
+import zisch.lunr.LunrIndex.FieldSpec;
+
+
+/**
+ * Simple benchmarks for building {@link LunrIndex} instances from a generated corpus.
+ * <p>
+ * The documents consist of words built from random syllables; the words are picked with a skewed distribution so that
+ * the token frequencies roughly resemble natural text.
+ * 
+ * @author zisch
+ */
+public final class LunrIndexBenchmark {
+
+  private static final String[] SYLLABLES = new String[] { "an", "ber", "cal", "de", "en", "for", "ga", "hil", "in",
+          "jo", "ka", "lu", "man", "ne", "or", "pa", "qui", "ra", "sto", "ti", "un", "ve", "wa", "xi", "yo", "zu",
+          "ing", "ed", "tion", "ness", "ly", "al", "er", "s" };
+
+  private static final int VOCABULARY_SIZE = 20000;
+
+  /**
+   * Main method.
+   * 
+   * @param args command line arguments: the number of documents (optional, default 2000) and the benchmark to run
+   *          ({@code batch}, {@code parallel}, {@code compression}, {@code startup} or {@code indexfile}; optional,
+   *          default all)
+   */
+  public static void main (final String[] args) {
+    final int docCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    final String benchmark = args.length > 1 ? args[1] : null;
+    if (benchmark == null || benchmark.equals("batch")) {
+      benchmarkBatchSizes(docCount);
+    }
+    if (benchmark == null || benchmark.equals("parallel")) {
+      benchmarkParallel(docCount);
+    }
+    if (benchmark == null || benchmark.equals("compression")) {
+      benchmarkCompression(docCount);
+    }
+    if (benchmark == null || benchmark.equals("startup")) {
+      benchmarkScriptStartup(50);
+    }
+    if (benchmark == null || benchmark.equals("indexfile")) {
+      benchmarkIndexFile(docCount);
+    }
+  }
+
+  /**
+   * Measures the cost per document of {@link LunrIndex#addDocuments(Iterable, int)} with batches of 1, 100 and 10'000
+   * documents for all backends.
+   * 
+   * @param docCount the number of documents to add per run
+   */
+  static void benchmarkBatchSizes (final int docCount) {
+    final List<Document> docs = generateDocuments(4711L, docCount);
+    final int[] batchSizes = new int[] { 1, 100, 10000 };
+    for (final Backend backend : Backend.values()) {
+      // Warm up:
+      newIndex(backend).addDocuments(docs.subList(0, Math.min(docCount, 1000)));
+      for (final int batchSize : batchSizes) {
+        final LunrIndex idx = newIndex(backend);
+        final long start = System.nanoTime();
+        idx.addDocuments(docs, batchSize);
+        final long nanos = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ROOT, "%-6s batch size %5d: %8.1f us/document (%d documents in %d ms)",
+                backend, batchSize, nanos / 1000.0 / docCount, docCount, nanos / 1000000));
+      }
+    }
+  }
+
+  /**
+   * Measures the time of {@link LunrIndex#addDocumentsParallel(List, int, ForkJoinPool)} (including the merge of the
+   * shards) with 1, 2, 4, ... shards up to the number of available processors, compared to a sequential build.
+   * 
+   * @param docCount the number of documents to add per run
+   */
+  static void benchmarkParallel (final int docCount) {
+    final List<Document> docs = generateDocuments(4711L, docCount);
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final ForkJoinPool pool = new ForkJoinPool(processors);
+    try {
+      // Warm up:
+      newIndex(Backend.NATIVE).addDocumentsParallel(docs.subList(0, Math.min(docCount, 1000)), processors, pool);
+
+      final LunrIndex sequentialIdx = newIndex(Backend.NATIVE);
+      final long sequentialStart = System.nanoTime();
+      sequentialIdx.addDocuments(docs);
+      final long sequentialNanos = System.nanoTime() - sequentialStart;
+      System.out.println(String.format(Locale.ROOT, "sequential:     %6d ms (%d documents)", sequentialNanos / 1000000,
+              docCount));
+      final String expected = sequentialIdx.serializeIndex();
+
+      for (int shardCount = 1; shardCount <= processors; shardCount = shardCount < processors
+              && shardCount * 2 > processors ? processors : shardCount * 2) {
+        final LunrIndex idx = newIndex(Backend.NATIVE);
+        final long start = System.nanoTime();
+        idx.addDocumentsParallel(docs, shardCount, pool);
+        final long nanos = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ROOT, "%3d shard(s):   %6d ms (speedup %.2f)%s", shardCount,
+                nanos / 1000000, (double) sequentialNanos / nanos, expected.equals(idx.serializeIndex()) ? ""
+                        : " RESULT DIFFERS FROM SEQUENTIAL BUILD!"));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Prints the size and serialization time of an index of {@code docCount} documents for all
+   * {@linkplain LunrIndex.Compression compression formats}.
+   * 
+   * @param docCount the number of documents in the index
+   */
+  static void benchmarkCompression (final int docCount) {
+    final LunrIndex idx = newIndex(Backend.NATIVE);
+    idx.addDocuments(generateDocuments(4711L, docCount));
+    // Warm up:
+    LunrIndex.mainPrintSerializedSizes(idx);
+    System.out.println("--");
+    LunrIndex.mainPrintSerializedSizes(idx);
+  }
+
+  /**
+   * Measures the latency of creating a {@link Backend#SCRIPT SCRIPT} index, adding one document and serializing it:
+   * once with a new {@link ScriptEnginePool} per index (which compiles <em>lunr.js</em> for every index) and then with
+   * a shared pool, for the first and the subsequent indexes.
+   * 
+   * @param indexCount the number of indexes to create per run
+   */
+  static void benchmarkScriptStartup (final int indexCount) {
+    final List<FieldSpec> fields = Arrays.asList(new FieldSpec("title", 10), new FieldSpec("body"));
+    final Document doc = generateDocuments(4711L, 1).get(0);
+
+    long freshNanos = 0;
+    for (int i = 0; i < indexCount; i++) {
+      final long start = System.nanoTime();
+      final ScriptBackend backend = new ScriptBackend("id", fields, new ScriptEnginePool(1));
+      backend.addDocument(doc.getId(), doc.getFields());
+      backend.serializeIndex();
+      freshNanos += System.nanoTime() - start;
+    }
+    System.out.println(String.format(Locale.ROOT, "new engine per index:   %8.1f ms/index", freshNanos / 1e6
+            / indexCount));
+
+    final ScriptEnginePool pool = new ScriptEnginePool(1);
+    long pooledNanos = 0;
+    for (int i = 0; i <= indexCount; i++) {
+      final long start = System.nanoTime();
+      final ScriptBackend backend = new ScriptBackend("id", fields, pool);
+      backend.addDocument(doc.getId(), doc.getFields());
+      backend.serializeIndex();
+      final long nanos = System.nanoTime() - start;
+      if (i == 0) {
+        System.out.println(String.format(Locale.ROOT, "pooled, first index:    %8.1f ms", nanos / 1e6));
+      } else {
+        pooledNanos += nanos;
+      }
+    }
+    System.out.println(String.format(Locale.ROOT, "pooled, further indexes:%8.1f ms/index", pooledNanos / 1e6
+            / indexCount));
+  }
+
+  /**
+   * Compares the time until the first search result of an index loaded from its serialized form with
+   * {@link LunrIndex#loadIndex(java.io.Reader)} with the time for an index opened with
+   * {@link LunrIndex#openIndexFile(File)}, and the search throughput of both.
+   * 
+   * @param docCount the number of documents in the index
+   */
+  static void benchmarkIndexFile (final int docCount) {
+    final LunrIndex idx = newIndex(Backend.NATIVE);
+    idx.addDocuments(generateDocuments(4711L, docCount));
+    final String serialized = idx.serializeIndex();
+    final String[] queries = new String[] { "anber", "cal", "de en", "lutionness", "ka", "manne or", "zuing" };
+    try {
+      final File file = File.createTempFile("lunr-benchmark", ".idx");
+      try {
+        idx.writeIndexFile(file);
+        for (int run = 0; run < 3; run++) {
+          final long loadStart = System.nanoTime();
+          final LunrIndex loadedIdx = LunrIndex.loadIndex(new StringReader(serialized));
+          loadedIdx.search(queries[0], 10);
+          final long loadNanos = System.nanoTime() - loadStart;
+          final long openStart = System.nanoTime();
+          final LunrIndex openedIdx = LunrIndex.openIndexFile(file);
+          openedIdx.search(queries[0], 10);
+          final long openNanos = System.nanoTime() - openStart;
+          System.out.println(String.format(Locale.ROOT, "first result: loadIndex %8.1f ms, openIndexFile %8.1f ms "
+                  + "(%d KB JSON, %d KB index file)", loadNanos / 1e6, openNanos / 1e6, serialized.length() / 1024,
+                  file.length() / 1024));
+          System.out.println(String.format(Locale.ROOT, "search:       heap      %8.1f us/query, mapped        %8.1f "
+                  + "us/query", searchMicros(loadedIdx, queries), searchMicros(openedIdx, queries)));
+        }
+      } finally {
+        file.delete();
+      }
+    } catch (final IOException exc) {
+      throw new IllegalStateException("Failed to write or open index file: " + exc, exc);
+    }
+  }
+
+  private static double searchMicros (final LunrIndex idx, final String[] queries) {
+    final long[] refs = new long[10];
+    final double[] scores = new double[10];
+    final int rounds = 200;
+    final long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      for (final String query : queries) {
+        idx.search(query, refs, scores);
+      }
+    }
+    return (System.nanoTime() - start) / 1000.0 / rounds / queries.length;
+  }
+
+  static LunrIndex newIndex (final Backend backend) {
+    return new LunrIndex(backend, "id", new FieldSpec("title", 10), new FieldSpec("body"));
+  }
+
+  /**
+   * Generates a reproducible corpus of documents with a {@code title} and a {@code body} field.
+   * 
+   * @param seed the random seed
+   * @param count the number of documents
+   * 
+   * @return the generated documents with ids {@code 0} to {@code count - 1}
+   */
+  static List<Document> generateDocuments (final long seed, final int count) {
+    final Random rnd = new Random(seed);
+    final String[] vocabulary = new String[VOCABULARY_SIZE];
+    for (int i = 0; i < vocabulary.length; i++) {
+      final StringBuilder sb = new StringBuilder();
+      final int syllables = 1 + rnd.nextInt(4);
+      for (int j = 0; j < syllables; j++) {
+        sb.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+      }
+      vocabulary[i] = sb.toString();
+    }
+
+    final List<Document> docs = new ArrayList<Document>(count);
+    for (int i = 0; i < count; i++) {
+      final Map<String, String> fields = new LinkedHashMap<String, String>();
+      fields.put("title", randomText(rnd, vocabulary, 3 + rnd.nextInt(6)));
+      fields.put("body", randomText(rnd, vocabulary, 50 + rnd.nextInt(150)));
+      docs.add(new Document(i, fields));
+    }
+    return docs;
+  }
+
+  private static String randomText (final Random rnd, final String[] vocabulary, final int words) {
+    final StringBuilder sb = new StringBuilder(words * 8);
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      final double r = rnd.nextDouble();
+      sb.append(vocabulary[(int) (r * r * r * vocabulary.length)]);
+    }
+    return sb.toString();
+  }
+
+  private LunrIndexBenchmark () {
+    throw new AssertionError("not allowed");
+  }
+}
@@ -0,0 +1,685 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import zisch.jackson.JsonDocumentReader;
+import zisch.json.JsonUtil;
+import zisch.lunr.LunrIndex.Backend;
+import zisch.lunr.LunrIndex.Compression;
+import zisch.lunr.LunrIndex.Document;
+import zisch.lunr.LunrIndex.FieldSpec;
+import zisch.lunr.LunrIndex.SearchResult;
+
+
+/**
+ * Tests the {@link LunrIndex}, mainly by comparing the output of the {@link Backend#NATIVE NATIVE} backend with the
+ * output of <em>lunr.js</em> itself.
+ * 
+ * @author zisch
+ */
+public class LunrIndexTest {
+
+  private static final String[] WORDS = new String[] { "Java", "provides", "the", "way", "to", "execute",
+          "JavaScript", "also", "relational", "conditional", "valenci", "hesitanci", "digitizer", "conformabli",
+          "radicalli", "differentli", "vileli", "analogousli", "vietnamization", "predication", "operator",
+          "feudalism", "decisiveness", "hopefulness", "callousness", "formaliti", "sensitiviti", "sensibiliti",
+          "triplicate", "formative", "formalize", "electriciti", "electrical", "hopeful", "goodness", "revival",
+          "allowance", "inference", "airliner", "gyroscopic", "adjustable", "defensible", "irritant", "replacement",
+          "adjustment", "dependent", "adoption", "homologou", "communism", "activate", "angulariti", "homologous",
+          "effective", "bowdlerize", "probate", "rate", "cease", "controll", "roll", "caresses", "ponies", "ties",
+          "cats", "feed", "agreed", "plastered", "bled", "motoring", "sing", "conflated", "troubled", "sized",
+          "hopping", "tanned", "falling", "hissing", "fizzed", "failing", "filing", "happy", "sky", "yellow", "yes",
+          "youth", "Yield", "syzygy", "1.5", "1.96", "15.4", "2013", "2014", "3-D", "e-mail", "--dash--", "(AuM),",
+          "Partnership’s", "bank’s", "naïve", "Zürich", "Straße", "É", "\"quoted\"", "back\\slash", "tab\there",
+          "a_b", "__init__", "...", "x", "of", "i", "0", "00", "007", "9lives", "ÆØÅ", "日本語", "a.b.c", "ship",
+          "shipping", "shipped", "generalizations", "oscillators", "ΣΊΣΥΦΟΣ", "İstanbul" };
+
+  /**
+   * Text with control characters inside its tokens.
+   */
+  private static final String CONTROL_TEXT = "a\u007fb x\u0080\u0001\u0085\u009fy";
+
+  /**
+   * Tests that the native backend produces exactly the serialized index which has been produced with <em>lunr.js</em>
+   * for a small corpus.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testNativeDemoIndex () throws Exception {
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "id", new FieldSpec("title", 10), new FieldSpec("body"));
+    addRandomDocuments(idx, 42L, 20);
+    Assert.assertEquals(loadResource("demo-index.json"), idx.serializeIndex());
+
+    // Like JSON.stringify, only control characters below U+0020 are escaped:
+    final LunrIndex controlIdx = new LunrIndex(Backend.NATIVE, "id", new FieldSpec("body"));
+    controlIdx.addDocument(1, Collections.singletonMap("body", CONTROL_TEXT));
+    final String serialized = controlIdx.serializeIndex();
+    Assert.assertTrue(serialized, serialized.contains("[\"a\u007fb\",\"x\u0080\\u0001\u0085\u009fi\"]"));
+  }
+
+  /**
+   * Tests that the native and the script backend produce the same serialized index. Skipped if no JavaScript engine is
+   * available in the current runtime.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testNativeMatchesScript () throws Exception {
+    Assume.assumeTrue(new ScriptEngineManager().getEngineByName("JavaScript") != null);
+    final FieldSpec[] fields = new FieldSpec[] { new FieldSpec("title", 10), new FieldSpec("tags", 3),
+            new FieldSpec("body") };
+    final LunrIndex nativeIdx = new LunrIndex(Backend.NATIVE, "ref", fields);
+    final LunrIndex scriptIdx = new LunrIndex(Backend.SCRIPT, "ref", fields);
+    addRandomDocuments(nativeIdx, 4711L, 300);
+    addRandomDocuments(scriptIdx, 4711L, 300);
+    final String expected = scriptIdx.serializeIndex();
+    Assert.assertEquals(expected, nativeIdx.serializeIndex());
+    final StringWriter sw = new StringWriter();
+    scriptIdx.serializeIndex(sw);
+    Assert.assertEquals(expected, sw.toString());
+
+    nativeIdx.addDocument(1, Collections.singletonMap("body", CONTROL_TEXT));
+    scriptIdx.addDocument(1, Collections.singletonMap("body", CONTROL_TEXT));
+    Assert.assertEquals(scriptIdx.serializeIndex(), nativeIdx.serializeIndex());
+  }
+
+  /**
+   * Tests that building the index in parallel shards produces exactly the same serialized index as adding the
+   * documents sequentially, for various shard counts and with documents already in the index.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testParallelMatchesSequential () throws Exception {
+    final FieldSpec[] fields = new FieldSpec[] { new FieldSpec("title", 10), new FieldSpec("tags", 3),
+            new FieldSpec("body") };
+    final List<Document> docs = randomDocuments(815L, 500, true);
+    final LunrIndex sequentialIdx = new LunrIndex(Backend.NATIVE, "ref", fields);
+    sequentialIdx.addDocuments(docs);
+    final String expected = sequentialIdx.serializeIndex();
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int shardCount : new int[] { 1, 2, 3, 7, 64, 1000 }) {
+        final LunrIndex parallelIdx = new LunrIndex(Backend.NATIVE, "ref", fields);
+        parallelIdx.addDocumentsParallel(docs, shardCount, pool);
+        Assert.assertEquals("shardCount=" + shardCount, expected, parallelIdx.serializeIndex());
+      }
+      final LunrIndex mixedIdx = new LunrIndex(Backend.NATIVE, "ref", fields);
+      mixedIdx.addDocuments(docs.subList(0, 100));
+      mixedIdx.addDocumentsParallel(docs.subList(100, 400), 5, pool);
+      mixedIdx.addDocuments(docs.subList(400, 450));
+      mixedIdx.addDocumentsParallel(docs.subList(450, docs.size()), 3, pool);
+      Assert.assertEquals(expected, mixedIdx.serializeIndex());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Tests that {@link LunrIndex#serializeIndex(OutputStream, Compression)} writes the serialized index in all
+   * compression formats and reports the first write error.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testCompressedSerialization () throws Exception {
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "id", new FieldSpec("title", 10), new FieldSpec("body"));
+    addRandomDocuments(idx, 42L, 20);
+    final String expected = idx.serializeIndex();
+    for (final Compression compression : Compression.values()) {
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      idx.serializeIndex(bos, compression);
+      InputStream is = new ByteArrayInputStream(bos.toByteArray());
+      if (compression == Compression.DEFLATE) {
+        is = new InflaterInputStream(is);
+      } else if (compression == Compression.GZIP) {
+        is = new GZIPInputStream(is);
+      }
+      Assert.assertEquals(compression.toString(), expected, readFully(is));
+    }
+
+    // The exception from writing is not hidden by the one from closing the compressing stream:
+    final OutputStream failing = new OutputStream() {
+      private int mWrites = 0;
+
+      @Override
+      public void write (final int b) throws IOException {
+        throw new IOException("write " + ++mWrites);
+      }
+    };
+    try {
+      idx.serializeIndex(failing, Compression.DEFLATE);
+      Assert.fail("Serialized index to failing stream.");
+    } catch (final IOException exc) {
+      Assert.assertEquals("write 1", exc.getMessage());
+    }
+  }
+
+  /**
+   * Tests that the streaming variants of {@code serializeIndex} write the same JSON as
+   * {@link LunrIndex#serializeIndex()}.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testStreamingSerialization () throws Exception {
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "id", new FieldSpec("title", 10), new FieldSpec("body"));
+    addRandomDocuments(idx, 42L, 20);
+    final String expected = idx.serializeIndex();
+
+    final StringWriter sw = new StringWriter();
+    idx.serializeIndex(sw);
+    Assert.assertEquals(expected, sw.toString());
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    idx.serializeIndex(bos);
+    Assert.assertEquals(expected, bos.toString("UTF-8"));
+
+    final ByteArrayOutputStream channelBos = new ByteArrayOutputStream();
+    idx.serializeIndex(Channels.newChannel(channelBos), Compression.GZIP);
+    Assert.assertEquals(expected, readFully(new GZIPInputStream(new ByteArrayInputStream(channelBos.toByteArray()))));
+  }
+
+  /**
+   * Tests {@link LunrIndex#updateDocument(long, Map)} and {@link LunrIndex#removeDocument(long)} against
+   * <em>lunr.js</em> (skipped if no JavaScript engine is available), and that an index loaded with
+   * {@link LunrIndex#loadIndex(Reader)} serializes to the same JSON and can be changed like the original index.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testIncrementalUpdates () throws Exception {
+    final FieldSpec[] fields = new FieldSpec[] { new FieldSpec("title", 10), new FieldSpec("tags", 3),
+            new FieldSpec("body") };
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "ref", fields);
+    addRandomDocuments(idx, 4711L, 300);
+
+    final LunrIndex loadedIdx = LunrIndex.loadIndex(new StringReader(idx.serializeIndex()));
+    Assert.assertEquals("ref", loadedIdx.getRefName());
+    Assert.assertEquals(idx.getFields().keySet(), loadedIdx.getFields().keySet());
+    Assert.assertEquals(idx.serializeIndex(), loadedIdx.serializeIndex());
+    Assert.assertEquals(loadResource("demo-index.json"),
+            LunrIndex.loadIndex(new StringReader(loadResource("demo-index.json"))).serializeIndex());
+
+    applyRandomChanges(idx, 17L, 313);
+    applyRandomChanges(loadedIdx, 17L, 313);
+    final String expected = idx.serializeIndex();
+    Assert.assertEquals(expected, loadedIdx.serializeIndex());
+
+    if (new ScriptEngineManager().getEngineByName("JavaScript") != null) {
+      final LunrIndex scriptIdx = new LunrIndex(Backend.SCRIPT, "ref", fields);
+      addRandomDocuments(scriptIdx, 4711L, 300);
+      applyRandomChanges(scriptIdx, 17L, 313);
+      Assert.assertEquals(scriptIdx.serializeIndex(), expected);
+    }
+  }
+
+  /**
+   * Tests that the {@link ScriptEnginePool} binds indexes to different engines while the pool is not full, so they can
+   * be used concurrently, that the indexes built concurrently match the {@link Backend#NATIVE NATIVE} index, and
+   * that further indexes share the existing engines (skipped if no JavaScript engine is available).
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testScriptEnginePool () throws Exception {
+    Assume.assumeTrue(new ScriptEngineManager().getEngineByName("JavaScript") != null);
+    final List<FieldSpec> fields = Arrays.asList(new FieldSpec("title", 10), new FieldSpec("body"));
+    final ScriptEnginePool pool = new ScriptEnginePool(2);
+    // Indexes are typically created one after the other and only used concurrently later:
+    final ScriptBackend[] backends = new ScriptBackend[] { new ScriptBackend("id", fields, pool),
+            new ScriptBackend("id", fields, pool) };
+    final Throwable[] errors = new Throwable[backends.length];
+    final Thread[] threads = new Thread[backends.length];
+    for (int t = 0; t < threads.length; t++) {
+      final int index = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run () {
+          try {
+            for (final Document doc : randomDocuments(index, 100, false)) {
+              backends[index].addDocument(doc.getId(), doc.getFields());
+            }
+          } catch (final Throwable exc) {
+            errors[index] = exc;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (int t = 0; t < threads.length; t++) {
+      threads[t].join();
+      if (errors[t] != null) {
+        throw new AssertionError("Thread " + t + " failed: " + errors[t]);
+      }
+    }
+    final ScriptEnginePool.PooledEngine engine0 = backends[0].getScope().getEngine();
+    final ScriptEnginePool.PooledEngine engine1 = backends[1].getScope().getEngine();
+    Assert.assertNotSame(engine0, engine1);
+    for (int t = 0; t < backends.length; t++) {
+      final LunrIndex idx = new LunrIndex(Backend.NATIVE, "id", fields.toArray(new FieldSpec[fields.size()]));
+      idx.addDocuments(randomDocuments(t, 100, false));
+      Assert.assertEquals(idx.serializeIndex(), backends[t].serializeIndex());
+    }
+
+    final ScriptEnginePool.PooledEngine engine2 = new ScriptBackend("id", fields, pool).getScope().getEngine();
+    Assert.assertTrue(engine2 == engine0 || engine2 == engine1);
+  }
+
+  /**
+   * Tests {@link LunrIndex#search(String, int)}: results are limited and ordered by score, and (if a JavaScript engine
+   * is available) match the results of {@code lunr.Index.search} for the same index.
+   * <p>
+   * Removed documents are only searched on the Java side: <em>lunr.js</em> fails for documents which have been added
+   * more than once and then removed, since their stale postings refer to a document no longer in the document store.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testSearch () throws Exception {
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "ref", new FieldSpec("title", 10), new FieldSpec("tags", 3),
+            new FieldSpec("body"));
+    addRandomDocuments(idx, 4711L, 300);
+
+    final List<String> queries = searchQueries();
+    final ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript");
+    if (engine != null) {
+      engine.eval(loadResource("lunr.js"));
+      engine.put("serializedIndex", idx.serializeIndex());
+      engine.eval("var idx = lunr.Index.load(JSON.parse(serializedIndex))");
+    }
+    int matchingQueries = 0;
+    for (final String query : queries) {
+      final List<SearchResult> results = idx.search(query, Integer.MAX_VALUE);
+      for (int i = 1; i < results.size(); i++) {
+        Assert.assertTrue(query, results.get(i - 1).getScore() >= results.get(i).getScore());
+      }
+      final List<SearchResult> top3 = idx.search(query, 3);
+      Assert.assertEquals(query, Math.min(3, results.size()), top3.size());
+      for (int i = 0; i < top3.size(); i++) {
+        Assert.assertEquals(query, results.get(i).getScore(), top3.get(i).getScore(), 0.0);
+      }
+      if (!results.isEmpty()) {
+        matchingQueries++;
+      }
+
+      if (engine != null) {
+        engine.put("query", query);
+        final String expected = (String) engine.eval("idx.search(query).map(function (r) { "
+                + "return r.ref + ':' + r.score }).join(' ')");
+        final Map<Long, Double> actualScores = new LinkedHashMap<Long, Double>();
+        for (final SearchResult r : results) {
+          actualScores.put(r.getRef(), r.getScore());
+        }
+        final String[] expectedResults = expected.isEmpty() ? new String[0] : expected.split(" ");
+        Assert.assertEquals(query, expectedResults.length, actualScores.size());
+        for (final String r : expectedResults) {
+          final Long ref = Long.valueOf(r.substring(0, r.indexOf(':')));
+          // lunr.js scores documents without tokens with NaN:
+          final String scoreStr = r.substring(r.indexOf(':') + 1);
+          final double score = scoreStr.equals("NaN") ? 0 : Double.parseDouble(scoreStr);
+          Assert.assertTrue(query + ": " + ref, actualScores.containsKey(ref));
+          Assert.assertEquals(query + ": " + ref, score, actualScores.get(ref), 1e-6 * score);
+        }
+      }
+    }
+    Assert.assertTrue(matchingQueries > queries.size() / 2);
+
+    applyRandomChanges(idx, 17L, 313);
+    final long[] refs = new long[10];
+    final double[] scores = new double[10];
+    for (final String query : queries) {
+      final int count = idx.search(query, refs, scores);
+      for (int i = 0; i < count; i++) {
+        Assert.assertTrue(query, scores[i] > 0 && (i == 0 || scores[i - 1] >= scores[i]));
+      }
+    }
+  }
+
+  /**
+   * Tests that an index written with {@link LunrIndex#writeIndexFile(File)} and opened again with
+   * {@link LunrIndex#openIndexFile(File)} returns the same search results and converts back into the same serialized
+   * index, also after further changes.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testIndexFile () throws Exception {
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "ref", new FieldSpec("title", 10), new FieldSpec("tags", 3),
+            new FieldSpec("body"));
+    addRandomDocuments(idx, 4711L, 300);
+    applyRandomChanges(idx, 17L, 313);
+
+    final File file = File.createTempFile("lunr-index", ".idx");
+    try {
+      idx.writeIndexFile(file);
+      final LunrIndex openedIdx = LunrIndex.openIndexFile(file);
+      Assert.assertEquals("ref", openedIdx.getRefName());
+      Assert.assertEquals(idx.getFields().keySet(), openedIdx.getFields().keySet());
+      Assert.assertEquals(10, openedIdx.getFields().get("title").getBoost());
+      for (final String query : searchQueries()) {
+        Assert.assertEquals(query, idx.search(query, 20).toString(), openedIdx.search(query, 20).toString());
+      }
+
+      // The opened index converts back into the serialized index and can be changed like the original index:
+      Assert.assertEquals(idx.serializeIndex(), openedIdx.serializeIndex());
+      applyRandomChanges(idx, 18L, 400);
+      applyRandomChanges(openedIdx, 18L, 400);
+      Assert.assertEquals(idx.serializeIndex(), openedIdx.serializeIndex());
+      Assert.assertEquals(idx.search("hop", 20).toString(), openedIdx.search("hop", 20).toString());
+
+      // Serialized index -> index file -> serialized index:
+      LunrIndex.loadIndex(new StringReader(loadResource("demo-index.json"))).writeIndexFile(file);
+      Assert.assertEquals(loadResource("demo-index.json"), LunrIndex.openIndexFile(file).serializeIndex());
+
+      final FileOutputStream fos = new FileOutputStream(file, true);
+      try {
+        fos.write(0);
+      } finally {
+        fos.close();
+      }
+      try {
+        LunrIndex.openIndexFile(file);
+        Assert.fail("Opened corrupt index file.");
+      } catch (final IllegalArgumentException exc) {
+        // expected
+      }
+    } finally {
+      Assert.assertTrue(file.delete());
+    }
+  }
+
+  /**
+   * Tests that the sections of index files are aligned in the file wherever the write buffer is flushed: the file is
+   * written through buffers of many sizes, so that sections of {@code char}s and {@code int}s end right before the end
+   * of the buffer, and with more than 64K of names, so that the buffer is enlarged for the header.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testIndexFileAlignment () throws Exception {
+    final FieldSpec[] fields = new FieldSpec[] { new FieldSpec("title", 10), new FieldSpec("tags", 3),
+            new FieldSpec("body") };
+    final NativeBackend backend = new NativeBackend("ref", Arrays.asList(fields));
+    backend.addDocuments(randomDocuments(4711L, 50, true));
+    final SearchIndex searchIndex = new SearchIndex(backend);
+    final String expected = backend.serializeIndex();
+
+    final File file = File.createTempFile("lunr-index", ".idx");
+    try {
+      for (int bufferSize = 128; bufferSize <= 512; bufferSize += 8) {
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+          IndexFile.write(searchIndex, fos.getChannel(), bufferSize);
+        } finally {
+          fos.close();
+        }
+        Assert.assertEquals("buffer size " + bufferSize, expected, LunrIndex.openIndexFile(file).serializeIndex());
+      }
+
+      final StringBuilder longName = new StringBuilder("body");
+      while (longName.length() < 70001) {
+        longName.append('x');
+      }
+      final LunrIndex idx = new LunrIndex(Backend.NATIVE, "ref", new FieldSpec("title", 10),
+              new FieldSpec(longName.toString()));
+      for (final Document doc : randomDocuments(4711L, 50, false)) {
+        final Map<Object, Object> docFields = new LinkedHashMap<Object, Object>();
+        for (final Map.Entry<?, ?> f : doc.getFields().entrySet()) {
+          docFields.put(f.getKey().equals("body") ? longName.toString() : f.getKey(), f.getValue());
+        }
+        idx.addDocument(doc.getId(), docFields);
+      }
+      idx.writeIndexFile(file);
+      final LunrIndex openedIdx = LunrIndex.openIndexFile(file);
+      Assert.assertEquals(idx.serializeIndex(), openedIdx.serializeIndex());
+      Assert.assertEquals(idx.search("hop", 20).toString(), openedIdx.search("hop", 20).toString());
+    } finally {
+      Assert.assertTrue(file.delete());
+    }
+  }
+
+  /**
+   * Tests the {@link LunrAnalyzer}s for German, French and Italian and an index with such analyzers, also after
+   * serializing and loading it and after writing and opening it as index file.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testAnalyzers () throws Exception {
+    Assert.assertEquals(Arrays.asList("katz", "haus", "aufeinanderfolg", "kategor"),
+            LunrAnalyzer.GERMAN.analyzeToList("Die Katzen und die Häuser: aufeinanderfolgenden, kategorischen"));
+    Assert.assertEquals(Arrays.asList("continuel", "contraint", "index", "majestu", "malheur"),
+            LunrAnalyzer.FRENCH.analyzeToList("continuellement la contrainte de l'index majestueux, malheureusement"));
+    Assert.assertEquals(Arrays.asList("crocc", "guard", "accomod", "abbandon", "cors", "anno"),
+            LunrAnalyzer.ITALIAN.analyzeToList("crocchi guardandogli accomodarci, abbandonata nel corso dell'anno"));
+    // The e before a verb suffix is only deleted in RV (which starts after the e of "geai"):
+    Assert.assertEquals(Arrays.asList("ge", "mang"), LunrAnalyzer.FRENCH.analyzeToList("geai mangeais"));
+    Assert.assertEquals(LunrPipeline.run("The cats are running"),
+            LunrAnalyzer.ENGLISH.analyzeToList("The cats are running"));
+    Assert.assertSame(LunrAnalyzer.GERMAN, LunrAnalyzer.forName("DE"));
+
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "id", new FieldSpec("titel", 10, LunrAnalyzer.GERMAN),
+            new FieldSpec("inhalt", 1, LunrAnalyzer.GERMAN), new FieldSpec("résumé", 1, LunrAnalyzer.FRENCH));
+    final Map<String, String> fields = new LinkedHashMap<String, String>();
+    fields.put("titel", "Katzen im Haus");
+    fields.put("inhalt", "Die Häuser der Katze");
+    fields.put("résumé", "les maisons");
+    idx.addDocument(1L, fields);
+    fields.put("titel", "Hunde");
+    fields.put("inhalt", "Ein Hund im Garten");
+    fields.put("résumé", "un chien");
+    idx.addDocument(2L, fields);
+    Assert.assertEquals(1, idx.search("katze", 10).size());
+    Assert.assertEquals(1L, idx.search("Häusern", 10).get(0).getRef());
+    Assert.assertEquals(2L, idx.search("hunden", 10).get(0).getRef());
+    Assert.assertEquals(0, idx.search("der die das", 10).size());
+
+    // The analyzers survive serializing and loading the index and the index file:
+    final String serialized = idx.serializeIndex();
+    Assert.assertTrue(serialized, serialized.contains("\"pipeline\":[\"trimmer-de\",\"stopWordFilter-de\","));
+    final LunrIndex loadedIdx = LunrIndex.loadIndex(new StringReader(serialized));
+    Assert.assertSame(LunrAnalyzer.GERMAN, loadedIdx.getFields().get("titel").getAnalyzer());
+    Assert.assertSame(LunrAnalyzer.FRENCH, loadedIdx.getFields().get("résumé").getAnalyzer());
+    Assert.assertEquals(serialized, loadedIdx.serializeIndex());
+    Assert.assertEquals(idx.search("katzen", 10).toString(), loadedIdx.search("katzen", 10).toString());
+    final File file = File.createTempFile("lunr-index", ".idx");
+    try {
+      idx.writeIndexFile(file);
+      final LunrIndex openedIdx = LunrIndex.openIndexFile(file);
+      Assert.assertSame(LunrAnalyzer.FRENCH, openedIdx.getFields().get("résumé").getAnalyzer());
+      Assert.assertEquals(serialized, openedIdx.serializeIndex());
+    } finally {
+      Assert.assertTrue(file.delete());
+    }
+
+    try {
+      new LunrIndex(Backend.SCRIPT, "id", new FieldSpec("titel", 1, LunrAnalyzer.GERMAN));
+      Assert.fail("Created SCRIPT index with German analyzer.");
+    } catch (final IllegalArgumentException exc) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that {@link JsonDocumentReader} streams documents from JSON into the index, with properties mapped to
+   * fields, array values and skipped properties.
+   * 
+   * @throws Exception in case of errors
+   */
+  @Test
+  public void testJsonIngestion () throws Exception {
+    final FieldSpec[] fields = new FieldSpec[] { new FieldSpec("title", 10), new FieldSpec("tags", 3),
+            new FieldSpec("body") };
+    final List<Document> docs = randomDocuments(4711L, 300, true);
+    final LunrIndex expectedIdx = new LunrIndex(Backend.NATIVE, "ref", fields);
+    expectedIdx.addDocuments(docs);
+
+    final StringBuilder json = new StringBuilder("[");
+    for (final Document doc : docs) {
+      json.append(json.length() > 1 ? ",\n" : "").append("{\"meta\":{\"skip\":[1,{\"x\":null}]},\"key\":\"")
+              .append(doc.getId()).append('"');
+      for (final Map.Entry<?, ?> f : doc.getFields().entrySet()) {
+        if (f.getKey().equals("tags")) {
+          json.append(",\"keywords\":[");
+          final String[] tags = f.getValue().toString().split(" ");
+          for (int i = 0; i < tags.length; i++) {
+            JsonUtil.appendJsonString(json.append(i > 0 ? "," : ""), tags[i]);
+          }
+          json.append(']');
+        } else {
+          JsonUtil.appendJsonString(json.append(",\"").append(f.getKey().equals("title") ? "heading" : "text")
+                  .append("\":"), f.getValue().toString());
+        }
+      }
+      json.append('}');
+    }
+    json.append(']');
+
+    final Map<String, String> fieldNamesByProperty = new LinkedHashMap<String, String>();
+    fieldNamesByProperty.put("heading", "title");
+    fieldNamesByProperty.put("keywords", "tags");
+    fieldNamesByProperty.put("text", "body");
+    final LunrIndex idx = new LunrIndex(Backend.NATIVE, "ref", fields);
+    final int count = JsonDocumentReader.addDocuments(idx, new ByteArrayInputStream(json.toString().getBytes("UTF-8")),
+            "key", fieldNamesByProperty);
+    Assert.assertEquals(docs.size(), count);
+    Assert.assertEquals(expectedIdx.serializeIndex(), idx.serializeIndex());
+
+    // Root-level objects without array, with properties named like the fields:
+    final LunrIndex rootIdx = new LunrIndex(Backend.NATIVE, "id", new FieldSpec("title", 10), new FieldSpec("body"));
+    Assert.assertEquals(2, JsonDocumentReader.addDocuments(rootIdx, new ByteArrayInputStream(
+            "{\"id\":1,\"title\":\"Shipping\"}\n{\"body\":\"cats\",\"id\":2,\"extra\":true}".getBytes("UTF-8"))));
+    Assert.assertEquals(1L, rootIdx.search("ship", 10).get(0).getRef());
+    Assert.assertEquals(2L, rootIdx.search("cat", 10).get(0).getRef());
+  }
+
+  private static List<String> searchQueries () {
+    final List<String> queries = new ArrayList<String>();
+    final Random rnd = new Random(42L);
+    for (final String word : WORDS) {
+      queries.add(word);
+      queries.add(word.substring(0, Math.min(word.length(), 1 + rnd.nextInt(3))));
+      queries.add(word + " " + WORDS[rnd.nextInt(WORDS.length)]);
+    }
+    queries.add("the cats ");
+    queries.add("ship ship");
+    queries.add("h ho hop");
+    queries.add("zzz");
+    return queries;
+  }
+
+  private static void applyRandomChanges (final LunrIndex idx, final long seed, final int maxId) {
+    final Random rnd = new Random(seed);
+    final List<Document> changes = randomDocuments(seed, 60, true);
+    for (int i = 0; i < changes.size(); i++) {
+      final long id = rnd.nextInt(maxId);
+      switch (rnd.nextInt(3)) {
+        case 0:
+          idx.removeDocument(id);
+          break;
+        case 1:
+          idx.updateDocument(id, changes.get(i).getFields());
+          break;
+        default:
+          idx.addDocument(maxId + i, changes.get(i).getFields());
+      }
+    }
+  }
+
+  static void addRandomDocuments (final LunrIndex idx, final long seed, final int count) {
+    idx.addDocuments(randomDocuments(seed, count, idx.getFields().containsKey("tags")));
+  }
+
+  static List<Document> randomDocuments (final long seed, final int count, final boolean withTags) {
+    final List<Document> docs = new ArrayList<Document>(count + count / 10);
+    final Random rnd = new Random(seed);
+    for (int i = 0; i < count; i++) {
+      final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+      fields.put("title", randomText(rnd, 1 + rnd.nextInt(6)));
+      if (rnd.nextInt(4) > 0) {
+        fields.put("body", randomText(rnd, rnd.nextInt(80)));
+      }
+      if (rnd.nextBoolean() && withTags) {
+        fields.put("tags", randomText(rnd, rnd.nextInt(4)));
+      }
+      // Add documents out of id order to exercise the ordering of the serialized postings:
+      docs.add(new Document((i * 7919L) % (count + 13), fields));
+    }
+    // Re-adding a document replaces its entry in the document store but (like lunr.js) keeps stale postings:
+    for (int i = 0; i < count / 10; i++) {
+      final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+      fields.put("body", randomText(rnd, rnd.nextInt(10)));
+      docs.add(new Document((i * 7919L) % (count + 13), fields));
+    }
+    return docs;
+  }
+
+  private static String randomText (final Random rnd, final int words) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        sb.append(rnd.nextInt(10) == 0 ? " \t " : (rnd.nextInt(15) == 0 ? "-" : " "));
+      }
+      sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+      if (rnd.nextInt(5) == 0) {
+        sb.append(rnd.nextInt(200));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String loadResource (final String name) throws Exception {
+    final InputStream is = LunrIndexTest.class.getResourceAsStream(name);
+    Assert.assertNotNull("Missing resource '" + name + "'", is);
+    return readFully(is).trim();
+  }
+
+  private static String readFully (final InputStream is) throws Exception {
+    try {
+      final StringBuilder sb = new StringBuilder();
+      final char[] buf = new char[8 * 1024];
+      final Reader r = new InputStreamReader(is, "UTF-8");
+      for (int cnt = r.read(buf); cnt > 0; cnt = r.read(buf)) {
+        sb.append(buf, 0, cnt);
+      }
+      return sb.toString();
+    } finally {
+      is.close();
+    }
+  }
+}
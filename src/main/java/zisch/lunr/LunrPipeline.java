@@ -0,0 +1,364 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+
+/**
+ * Java implementation of the default text processing of <em>lunr.js</em> 0.5.4: the {@code lunr.tokenizer} followed by
+ * the {@code trimmer}, {@code stopWordFilter} and {@code stemmer} pipeline functions.
+ * <p>
+ * The implementation mirrors the JavaScript code (including its quirks) as closely as possible, so that indexes built
+ * by {@link NativeBackend} produce exactly the same tokens as indexes built by <em>lunr.js</em> itself and queries run
+ * in the browser match the indexed tokens.
+ * 
+ * @author zisch
+ */
+final class LunrPipeline {
+
+  /**
+   * The labels of the pipeline functions as they are written to the serialized index.
+   */
+  static final List<String> PIPELINE_LABELS = Collections.unmodifiableList(Arrays.asList(new String[] { "trimmer",
+          "stopWordFilter", "stemmer" }));
+
+  private static final String[] STOP_WORDS = new String[] { "", "a", "able", "about", "across", "after", "all",
+          "almost", "also", "am", "among", "an", "and", "any", "are", "as", "at", "be", "because", "been", "but", "by",
+          "can", "cannot", "could", "dear", "did", "do", "does", "either", "else", "ever", "every", "for", "from",
+          "get", "got", "had", "has", "have", "he", "her", "hers", "him", "his", "how", "however", "i", "if", "in",
+          "into", "is", "it", "its", "just", "least", "let", "like", "likely", "may", "me", "might", "most", "must",
+          "my", "neither", "no", "nor", "not", "of", "off", "often", "on", "only", "or", "other", "our", "own",
+          "rather", "said", "say", "says", "she", "should", "since", "so", "some", "than", "that", "the", "their",
+          "them", "then", "there", "these", "they", "this", "tis", "to", "too", "twas", "us", "wants", "was", "we",
+          "were", "what", "when", "where", "which", "while", "who", "whom", "why", "will", "with", "would", "yet",
+          "you", "your" };
+
+  /**
+   * Runs the complete default pipeline on the string representation of the specified field value.
+   * 
+   * @param value the field value; may be {@code null} (which yields no tokens)
+   * 
+   * @return the list of processed tokens in document order (possibly with duplicates)
+   */
+  static List<String> run (final Object value) {
+    final List<String> tokens = tokenize(value);
+    final List<String> out = new ArrayList<String>(tokens.size());
+    for (final String t : tokens) {
+      final String trimmed = trim(t);
+      if (!isStopWord(trimmed)) {
+        out.add(stem(trimmed));
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Splits the string representation of the specified value into lowercase tokens like {@code lunr.tokenizer}: leading
+   * and trailing whitespace is removed and the rest is split at whitespace runs and at single hyphens.
+   * 
+   * @param value the value to tokenize; may be {@code null} (which yields no tokens)
+   * 
+   * @return the list of tokens; may contain empty strings
+   */
+  static List<String> tokenize (final Object value) {
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    final String str = value.toString();
+    int start = 0;
+    int end = str.length();
+    while (start < end && isWhitespace(str.charAt(start))) {
+      start++;
+    }
+    while (end > start && isWhitespace(str.charAt(end - 1))) {
+      end--;
+    }
+
+    final List<String> tokens = new ArrayList<String>();
+    int tokenStart = start;
+    int i = start;
+    while (i < end) {
+      final char c = str.charAt(i);
+      if (c == '-') {
+        tokens.add(str.substring(tokenStart, i).toLowerCase(Locale.ROOT));
+        i++;
+        tokenStart = i;
+      } else if (isWhitespace(c)) {
+        tokens.add(str.substring(tokenStart, i).toLowerCase(Locale.ROOT));
+        i++;
+        while (i < end && isWhitespace(str.charAt(i))) {
+          i++;
+        }
+        tokenStart = i;
+      } else {
+        i++;
+      }
+    }
+    tokens.add(str.substring(tokenStart, end).toLowerCase(Locale.ROOT));
+    return tokens;
+  }
+
+  /**
+   * Removes all leading and trailing non-word characters (anything but {@code [A-Za-z0-9_]}) like {@code lunr.trimmer}.
+   * 
+   * @param token the token to trim
+   * 
+   * @return the trimmed token
+   */
+  static String trim (final String token) {
+    int start = 0;
+    int end = token.length();
+    while (start < end && !isWordChar(token.charAt(start))) {
+      start++;
+    }
+    while (end > start && !isWordChar(token.charAt(end - 1))) {
+      end--;
+    }
+    return token.substring(start, end);
+  }
+
+  /**
+   * Checks whether the specified token is filtered by {@code lunr.stopWordFilter}. Note that the empty string is a stop
+   * word.
+   * 
+   * @param token the token to check
+   * 
+   * @return {@code true} if the token is a stop word
+   */
+  static boolean isStopWord (final String token) {
+    return Arrays.binarySearch(STOP_WORDS, token) >= 0;
+  }
+
+  /**
+   * Stems the specified token using the Porter stemmer variant of {@code lunr.stemmer}.
+   * 
+   * @param token the token to stem
+   * 
+   * @return the stemmed token
+   */
+  static String stem (final String token) {
+    return PorterStemmer.stem(token);
+  }
+
+  /**
+   * Checks for the characters matched by the JavaScript (ECMAScript 5) regular expression class {@code \s}.
+   */
+  private static boolean isWhitespace (final char c) {
+    switch (c) {
+      case '\t':
+      case '\n':
+      case '\u000B':
+      case '\f':
+      case '\r':
+      case ' ':
+      case '\u00A0':
+      case '\u1680':
+      case '\u180E':
+      case '\u2028':
+      case '\u2029':
+      case '\u202F':
+      case '\u205F':
+      case '\u3000':
+      case '\uFEFF':
+        return true;
+
+      default:
+        return c >= '\u2000' && c <= '\u200A';
+    }
+  }
+
+  /**
+   * Checks for the characters matched by the JavaScript regular expression class {@code \w}.
+   */
+  private static boolean isWordChar (final char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  /**
+   * The Porter stemmer as implemented in {@code lunr.stemmer}.
+   * <p>
+   * The conditions on the measure of the stem use the same regular expressions as <em>lunr.js</em>. The suffix rules of
+   * the form {@code ^(.+?)(suffix1|suffix2|...)$} are evaluated with plain string comparisons instead: the reluctant
+   * prefix group makes such a rule match the longest listed suffix which leaves at least one character for the stem.
+   */
+  private static final class PorterStemmer {
+    private static final String C_CONS = "[^aeiou]";
+
+    private static final String C_VOWEL = "[aeiouy]";
+
+    private static final String C_CONS_SEQ = C_CONS + "[^aeiouy]*";
+
+    private static final String C_VOWEL_SEQ = C_VOWEL + "[aeiou]*";
+
+    private static final Pattern MGR0 = compile("^(" + C_CONS_SEQ + ")?" + C_VOWEL_SEQ + C_CONS_SEQ);
+
+    private static final Pattern MEQ1 = compile("^(" + C_CONS_SEQ + ")?" + C_VOWEL_SEQ + C_CONS_SEQ + "("
+            + C_VOWEL_SEQ + ")?$");
+
+    private static final Pattern MGR1 = compile("^(" + C_CONS_SEQ + ")?" + C_VOWEL_SEQ + C_CONS_SEQ + C_VOWEL_SEQ
+            + C_CONS_SEQ);
+
+    private static final Pattern S_V = compile("^(" + C_CONS_SEQ + ")?" + C_VOWEL);
+
+    private static final Pattern CVC = compile("^" + C_CONS_SEQ + C_VOWEL + "[^aeiouwxy]$");
+
+    private static final String[] STEP1B_SUFFIXES = new String[] { "ed", "ing" };
+
+    private static final String[] STEP2_SUFFIXES = new String[] { "ational", "tional", "enci", "anci", "izer", "bli",
+            "alli", "entli", "eli", "ousli", "ization", "ation", "ator", "alism", "iveness", "fulness", "ousness",
+            "aliti", "iviti", "biliti", "logi" };
+
+    private static final String[] STEP2_REPLACEMENTS = new String[] { "ate", "tion", "ence", "ance", "ize", "ble",
+            "al", "ent", "e", "ous", "ize", "ate", "ate", "al", "ive", "ful", "ous", "al", "ive", "ble", "log" };
+
+    private static final String[] STEP3_SUFFIXES = new String[] { "icate", "ative", "alize", "iciti", "ical", "ful",
+            "ness" };
+
+    private static final String[] STEP3_REPLACEMENTS = new String[] { "ic", "", "al", "ic", "ic", "", "" };
+
+    private static final String[] STEP4_SUFFIXES = new String[] { "al", "ance", "ence", "er", "ic", "able", "ible",
+            "ant", "ement", "ment", "ent", "ou", "ism", "ate", "iti", "ous", "ive", "ize" };
+
+    static String stem (final String token) {
+      if (token.length() < 3) {
+        return token;
+      }
+      String w = token;
+
+      final boolean firstIsY = w.charAt(0) == 'y';
+      if (firstIsY) {
+        w = "Y" + w.substring(1);
+      }
+
+      // Step 1a: ^(.+?)(ss|i)es$ and ^(.+?)([^s])s$
+      int len = w.length();
+      if ((len > 4 && w.endsWith("sses")) || (len > 3 && w.endsWith("ies"))) {
+        w = w.substring(0, len - 2);
+      } else if (len > 2 && w.charAt(len - 1) == 's' && w.charAt(len - 2) != 's') {
+        w = w.substring(0, len - 1);
+      }
+
+      // Step 1b: ^(.+?)eed$ and ^(.+?)(ed|ing)$
+      len = w.length();
+      if (len > 3 && w.endsWith("eed")) {
+        if (MGR0.matcher(w.substring(0, len - 3)).find()) {
+          w = w.substring(0, len - 1);
+        }
+      } else {
+        final int sfx = longestSuffix(w, STEP1B_SUFFIXES);
+        if (sfx >= 0) {
+          final String stem = w.substring(0, len - STEP1B_SUFFIXES[sfx].length());
+          if (S_V.matcher(stem).find()) {
+            w = stem;
+            final int sl = stem.length();
+            final char last = stem.charAt(sl - 1);
+            if (stem.endsWith("at") || stem.endsWith("bl") || stem.endsWith("iz")) {
+              w = stem + "e";
+            } else if (sl > 1 && last == stem.charAt(sl - 2) && "aeiouylsz".indexOf(last) < 0) {
+              w = stem.substring(0, sl - 1);
+            } else if (CVC.matcher(stem).find()) {
+              w = stem + "e";
+            }
+          }
+        }
+      }
+
+      // Step 1c: ^(.+?[^aeiou])y$
+      len = w.length();
+      if (len > 2 && w.charAt(len - 1) == 'y' && "aeiou".indexOf(w.charAt(len - 2)) < 0) {
+        w = w.substring(0, len - 1) + "i";
+      }
+
+      // Step 2
+      int sfx = longestSuffix(w, STEP2_SUFFIXES);
+      if (sfx >= 0) {
+        final String stem = w.substring(0, w.length() - STEP2_SUFFIXES[sfx].length());
+        if (MGR0.matcher(stem).find()) {
+          w = stem + STEP2_REPLACEMENTS[sfx];
+        }
+      }
+
+      // Step 3
+      sfx = longestSuffix(w, STEP3_SUFFIXES);
+      if (sfx >= 0) {
+        final String stem = w.substring(0, w.length() - STEP3_SUFFIXES[sfx].length());
+        if (MGR0.matcher(stem).find()) {
+          w = stem + STEP3_REPLACEMENTS[sfx];
+        }
+      }
+
+      // Step 4: ^(.+?)(al|ance|...|ize)$ and ^(.+?)(s|t)(ion)$
+      sfx = longestSuffix(w, STEP4_SUFFIXES);
+      len = w.length();
+      if (sfx >= 0) {
+        final String stem = w.substring(0, len - STEP4_SUFFIXES[sfx].length());
+        if (MGR1.matcher(stem).find()) {
+          w = stem;
+        }
+      } else if (len > 4 && (w.endsWith("sion") || w.endsWith("tion"))) {
+        final String stem = w.substring(0, len - 3);
+        if (MGR1.matcher(stem).find()) {
+          w = stem;
+        }
+      }
+
+      // Step 5: ^(.+?)e$ and ll$
+      len = w.length();
+      if (len > 1 && w.charAt(len - 1) == 'e') {
+        final String stem = w.substring(0, len - 1);
+        if (MGR1.matcher(stem).find() || (MEQ1.matcher(stem).find() && !CVC.matcher(stem).find())) {
+          w = stem;
+        }
+      }
+      if (w.endsWith("ll") && MGR1.matcher(w).find()) {
+        w = w.substring(0, w.length() - 1);
+      }
+
+      // Turn initial Y back to y:
+      if (firstIsY) {
+        w = "y" + w.substring(1);
+      }
+      return w;
+    }
+
+    /**
+     * Returns the index of the longest of the specified suffixes which the word ends with and which leaves at least one
+     * character in front of it, or {@code -1} if there is no such suffix.
+     */
+    private static int longestSuffix (final String w, final String[] suffixes) {
+      int result = -1;
+      for (int i = 0; i < suffixes.length; i++) {
+        final String s = suffixes[i];
+        if (s.length() < w.length() && w.endsWith(s)
+                && (result < 0 || s.length() > suffixes[result].length())) {
+          result = i;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Compiles with {@link Pattern#DOTALL} and {@link Pattern#UNIX_LINES} since the JavaScript {@code .} and {@code $}
+     * treat all characters which can occur in a token as ordinary characters (whitespace never does).
+     */
+    private static Pattern compile (final String regex) {
+      return Pattern.compile(regex, Pattern.DOTALL | Pattern.UNIX_LINES);
+    }
+
+    private PorterStemmer () {
+      throw new AssertionError("not allowed");
+    }
+  }
+
+  private LunrPipeline () {
+    throw new AssertionError("not allowed");
+  }
+}
@@ -0,0 +1,637 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import zisch.json.JsonUtil;
+import zisch.lunr.LunrIndex.Document;
+import zisch.lunr.LunrIndex.FieldSpec;
+
+
+/**
+ * {@link IndexBackend} which builds the index with a pure Java implementation of the <em>lunr.js</em> data structures.
+ * <p>
+ * The inverted index is kept as a hash map from token to a {@link Term} with a sorted postings list; the token trie of
+ * the <em>lunr.js</em> {@code TokenStore} is only generated when the index is serialized. The serialized form is
+ * identical to the output of {@code JSON.stringify(index.toJSON())} of a <em>lunr.js</em> index which has been fed with
+ * the same documents in the same order, including the order of the object properties.
+ * 
+ * @author zisch
+ */
+final class NativeBackend implements IndexBackend {
+
+  /**
+   * The <em>lunr.js</em> version written to (and expected in) serialized indexes.
+   */
+  static final String LUNR_VERSION = "0.5.4";
+
+  private final String mRefName;
+
+  private final FieldSpec[] mFields;
+
+  private final Map<String, Term> mTerms;
+
+  private final Map<Long, String[]> mDocuments;
+
+  private long mNextOrdinal;
+
+  private long mTokenStoreLength;
+
+  NativeBackend (final String refName, final Collection<FieldSpec> fields) {
+    this(refName, fields.toArray(new FieldSpec[fields.size()]), 0);
+  }
+
+  private NativeBackend (final String refName, final FieldSpec[] fields, final long firstOrdinal) {
+    this(refName, fields, new HashMap<String, Term>(), new HashMap<Long, String[]>(), firstOrdinal, 0);
+  }
+
+  /**
+   * Constructor for an index read from its serialized form (see {@link NativeIndexReader}).
+   * 
+   * @param refName the name of the reference property
+   * @param fields the fields
+   * @param terms the terms by token
+   * @param documents the sorted tokens of the documents by document reference
+   * @param nextOrdinal the ordinal for the next document added; must be greater than the ordinals of all terms
+   * @param tokenStoreLength the length of the <em>lunr.js</em> token store
+   */
+  NativeBackend (final String refName, final FieldSpec[] fields, final Map<String, Term> terms,
+          final Map<Long, String[]> documents, final long nextOrdinal, final long tokenStoreLength) {
+    mRefName = refName;
+    mFields = fields;
+    mTerms = terms;
+    mDocuments = documents;
+    mNextOrdinal = nextOrdinal;
+    mTokenStoreLength = tokenStoreLength;
+  }
+
+  /**
+   * @return the name of the reference property
+   */
+  String getRefName () {
+    return mRefName;
+  }
+
+  /**
+   * @return the fields of this index
+   */
+  FieldSpec[] getFields () {
+    return mFields.clone();
+  }
+
+  /**
+   * @return an unmodifiable view of the sorted tokens of the documents by document reference
+   */
+  Map<Long, String[]> getDocuments () {
+    return Collections.unmodifiableMap(mDocuments);
+  }
+
+  /**
+   * @return the length of the <em>lunr.js</em> token store (which counts every token added for a document)
+   */
+  long getTokenStoreLength () {
+    return mTokenStoreLength;
+  }
+
+  /**
+   * Creates a new, empty index with the same reference name and fields as this index, to be merged into this index
+   * later with {@link #mergeFrom(NativeBackend)}.
+   * 
+   * @param firstOrdinal the ordinal of the first document added to the shard, that is the number of documents which
+   *          will have been added to this index before the first document of the shard
+   * 
+   * @return the new shard
+   */
+  NativeBackend newShard (final long firstOrdinal) {
+    return new NativeBackend(mRefName, mFields, firstOrdinal);
+  }
+
+  public void addDocument (final long id, final Map<?, ?> fields) {
+    final Map<String, Object> valuesByName = new HashMap<String, Object>();
+    for (final Map.Entry<?, ?> f : fields.entrySet()) {
+      valuesByName.put(f.getKey().toString(), f.getValue());
+    }
+
+    // Run the analyzer of each field on its value and count the tokens per field:
+    final int[] fieldLengths = new int[mFields.length];
+    final List<Map<String, int[]>> fieldCounts = new ArrayList<Map<String, int[]>>(mFields.length);
+    final TreeSet<String> allTokens = new TreeSet<String>();
+    for (int i = 0; i < mFields.length; i++) {
+      final List<String> tokens = mFields[i].getAnalyzer().analyzeToList(valuesByName.get(mFields[i].getName()));
+      final Map<String, int[]> counts = new HashMap<String, int[]>();
+      for (final String t : tokens) {
+        final int[] cnt = counts.get(t);
+        if (cnt == null) {
+          counts.put(t, new int[] { 1 });
+        } else {
+          cnt[0]++;
+        }
+      }
+      fieldLengths[i] = tokens.size();
+      fieldCounts.add(counts);
+      allTokens.addAll(tokens);
+    }
+
+    final String[] docTokens = allTokens.toArray(new String[allTokens.size()]);
+    mDocuments.put(id, docTokens);
+
+    // Add the postings in token order like lunr.js does (the order determines the layout of the serialized trie):
+    final long ordinal = mNextOrdinal++;
+    for (final String token : docTokens) {
+      double tf = 0;
+      for (int i = 0; i < mFields.length; i++) {
+        final int[] cnt = fieldCounts.get(i).get(token);
+        if (cnt != null) {
+          tf = tf + ((double) cnt[0] / fieldLengths[i] * mFields[i].getBoost());
+        }
+      }
+      Term term = mTerms.get(token);
+      if (term == null) {
+        term = new Term(token, ordinal);
+        mTerms.put(token, term);
+      }
+      term.putPosting(id, tf);
+      mTokenStoreLength++;
+    }
+  }
+
+  public void addDocuments (final List<Document> batch) {
+    for (final Document doc : batch) {
+      addDocument(doc.getId(), doc.getFields());
+    }
+  }
+
+  public void updateDocument (final long id, final Map<?, ?> fields) {
+    removeDocument(id);
+    addDocument(id, fields);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Like <em>lunr.js</em>, only the postings of the tokens in the document store entry of the document are removed;
+   * the tokens themselves stay in the index (and in the corpus tokens), even if no document contains them anymore.
+   */
+  public void removeDocument (final long id) {
+    final String[] tokens = mDocuments.remove(id);
+    if (tokens != null) {
+      for (final String token : tokens) {
+        final Term term = mTerms.get(token);
+        if (term != null) {
+          term.removePosting(id);
+        }
+      }
+    }
+  }
+
+  public void addDocumentsParallel (final List<Document> documents, final int shardCount, final ForkJoinPool pool) {
+    final int shardSize = (documents.size() + shardCount - 1) / shardCount;
+    final NativeBackend merged = pool.invoke(new ShardedIndexBuild(this, documents, mNextOrdinal, shardSize));
+    mergeFrom(merged);
+  }
+
+  /**
+   * Merges the documents and postings of the specified shard into this index. The result is the same as if the
+   * documents of the shard had been added to this index directly, provided that the shard has been created with
+   * {@link #newShard(long)} and the ordinals of its documents follow the ordinals of all documents added to this index
+   * so far.
+   * <p>
+   * Like re-adding a document, a document of the shard replaces a document with the same reference in this index but
+   * the postings of the replaced document are kept.
+   * 
+   * @param shard the shard to merge; must not be used anymore afterwards
+   */
+  void mergeFrom (final NativeBackend shard) {
+    mDocuments.putAll(shard.mDocuments);
+    for (final Term shardTerm : shard.mTerms.values()) {
+      final Term term = mTerms.get(shardTerm.mToken);
+      if (term == null) {
+        mTerms.put(shardTerm.mToken, shardTerm);
+      } else {
+        term.mergePostings(shardTerm);
+      }
+    }
+    mTokenStoreLength += shard.mTokenStoreLength;
+    mNextOrdinal = Math.max(mNextOrdinal, shard.mNextOrdinal);
+  }
+
+  public String serializeIndex () {
+    final StringBuilder sb = new StringBuilder(1024);
+    try {
+      writeIndex(sb);
+    } catch (final IOException exc) {
+      throw new IllegalStateException("Unexpected IOException while writing to StringBuilder: " + exc, exc);
+    }
+    return sb.toString();
+  }
+
+  public void writeIndex (final Appendable out) throws IOException {
+    out.append("{\"version\":");
+    appendJsonString(out, LUNR_VERSION);
+    out.append(",\"fields\":[");
+    for (int i = 0; i < mFields.length; i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      out.append("{\"name\":");
+      appendJsonString(out, mFields[i].getName());
+      out.append(",\"boost\":").append(Integer.toString(mFields[i].getBoost()));
+      if (mFields[i].getAnalyzer() != LunrAnalyzer.ENGLISH) {
+        // Only written for other analyzers, so that the default index stays identical to the one of lunr.js:
+        out.append(",\"analyzer\":");
+        appendJsonString(out, mFields[i].getAnalyzer().getName());
+      }
+      out.append('}');
+    }
+    out.append("],\"ref\":");
+    appendJsonString(out, mRefName);
+
+    out.append(",\"documentStore\":{\"store\":{");
+    final Long[] ids = mDocuments.keySet().toArray(new Long[mDocuments.size()]);
+    Arrays.sort(ids);
+    for (int i = 0; i < ids.length; i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      out.append('"').append(ids[i].toString()).append("\":[");
+      final String[] tokens = mDocuments.get(ids[i]);
+      for (int j = 0; j < tokens.length; j++) {
+        if (j > 0) {
+          out.append(',');
+        }
+        appendJsonString(out, tokens[j]);
+      }
+      out.append(']');
+    }
+    out.append("},\"length\":").append(Integer.toString(ids.length)).append('}');
+
+    final Term[] terms = sortedTerms();
+    out.append(",\"tokenStore\":{\"root\":");
+    writeTrieNode(out, terms, 0, 0, terms.length);
+    out.append(",\"length\":").append(Long.toString(mTokenStoreLength)).append('}');
+
+    out.append(",\"corpusTokens\":[");
+    for (int i = 0; i < terms.length; i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      appendJsonString(out, terms[i].mToken);
+    }
+    // The pipeline which lunr.js runs on the queries, like SearchIndex, is that of the first field:
+    final List<String> pipeline = (mFields.length > 0 ? mFields[0].getAnalyzer() : LunrAnalyzer.ENGLISH)
+            .getPipelineLabels();
+    out.append("],\"pipeline\":[");
+    for (int i = 0; i < pipeline.size(); i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      appendJsonString(out, pipeline.get(i));
+    }
+    out.append("]}");
+  }
+
+  /**
+   * @return the terms of this index sorted by token
+   */
+  Term[] sortedTerms () {
+    final Term[] terms = mTerms.values().toArray(new Term[mTerms.size()]);
+    Arrays.sort(terms);
+    return terms;
+  }
+
+  /**
+   * Writes the trie node for the common prefix of length {@code depth} of the terms in the range {@code [lo, hi)} of
+   * the sorted {@code terms}.
+   * <p>
+   * <em>lunr.js</em> creates the nodes as nested objects, so the properties of a node are ordered like JavaScript
+   * orders object properties: Child nodes for the digits {@code 0-9} (which are array indexes) come first in ascending
+   * order, followed by the {@code docs} property (which is created with the node) and then all other child nodes in the
+   * order in which they have been created, that is in the order in which their first token has been added.
+   */
+  private static void writeTrieNode (final Appendable out, final Term[] terms, final int depth, final int lo,
+          final int hi) throws IOException {
+    final Term own = lo < hi && terms[lo].mToken.length() == depth ? terms[lo] : null;
+    final int start = own == null ? lo : lo + 1;
+    final int[] groupStarts = new int[hi - start + 1];
+    final int[] order = new int[hi - start];
+    final int groupCount = orderChildGroups(terms, depth, start, hi, groupStarts, order);
+
+    out.append('{');
+    int k = 0;
+    while (k < groupCount && isDigit(terms[groupStarts[order[k]]].mToken.charAt(depth))) {
+      writeTrieChild(out, terms, depth, groupStarts[order[k]], groupStarts[order[k] + 1], k == 0);
+      k++;
+    }
+    if (k > 0) {
+      out.append(',');
+    }
+    out.append("\"docs\":");
+    if (own == null) {
+      out.append("{}");
+    } else {
+      own.writePostings(out);
+    }
+    for (; k < groupCount; k++) {
+      writeTrieChild(out, terms, depth, groupStarts[order[k]], groupStarts[order[k] + 1], false);
+    }
+    out.append('}');
+  }
+
+  /**
+   * Groups the terms in the range {@code [start, hi)} of the sorted {@code terms}, which all share a common prefix of
+   * length {@code depth} and are longer than {@code depth}, by their next character, that is by the child node of the
+   * trie node for the common prefix they belong to.
+   * 
+   * @param groupStarts receives the start indexes of the groups in {@code terms} in ascending order, followed by
+   *          {@code hi}; must have room for {@code hi - start + 1} elements
+   * @param order receives the group numbers in the order of the child nodes in the <em>lunr.js</em> trie node (see
+   *          {@link #writeTrieNode(Appendable, Term[], int, int, int)}): digits first; must have room for
+   *          {@code hi - start} elements
+   * 
+   * @return the number of groups
+   */
+  private static int orderChildGroups (final Term[] terms, final int depth, final int start, final int hi,
+          final int[] groupStarts, final int[] order) {
+    int groupCount = 0;
+    for (int i = start; i < hi; i++) {
+      if (i == start || terms[i].mToken.charAt(depth) != terms[i - 1].mToken.charAt(depth)) {
+        groupStarts[groupCount++] = i;
+      }
+    }
+    groupStarts[groupCount] = hi;
+
+    int digitCount = 0;
+    int otherCount = 0;
+    final int[] others = new int[groupCount];
+    final int[] firstTermIdx = new int[groupCount];
+    for (int g = 0; g < groupCount; g++) {
+      if (isDigit(terms[groupStarts[g]].mToken.charAt(depth))) {
+        order[digitCount++] = g;
+      } else {
+        // Order the other groups by the first added term (ties go to the smaller token):
+        int minIdx = groupStarts[g];
+        for (int i = minIdx + 1; i < groupStarts[g + 1]; i++) {
+          if (terms[i].mFirstOrdinal < terms[minIdx].mFirstOrdinal) {
+            minIdx = i;
+          }
+        }
+        // Insertion sort; the number of children of a node is small:
+        int pos = otherCount++;
+        while (pos > 0 && isAddedBefore(terms, minIdx, firstTermIdx[pos - 1])) {
+          others[pos] = others[pos - 1];
+          firstTermIdx[pos] = firstTermIdx[pos - 1];
+          pos--;
+        }
+        others[pos] = g;
+        firstTermIdx[pos] = minIdx;
+      }
+    }
+    System.arraycopy(others, 0, order, digitCount, otherCount);
+    return groupCount;
+  }
+
+  /**
+   * Collects the indexes of the sorted {@code terms} in the order in which a pre-order traversal of the
+   * <em>lunr.js</em> trie visits them (that is the order of {@code lunr.TokenStore.expand}).
+   * 
+   * @param terms the sorted terms
+   * 
+   * @return the term indexes in trie order
+   */
+  static int[] trieOrder (final Term[] terms) {
+    final int[] result = new int[terms.length];
+    collectTrieOrder(terms, 0, 0, terms.length, result, 0);
+    return result;
+  }
+
+  private static int collectTrieOrder (final Term[] terms, final int depth, final int lo, final int hi,
+          final int[] result, final int pos) {
+    int next = pos;
+    int start = lo;
+    if (lo < hi && terms[lo].mToken.length() == depth) {
+      result[next++] = lo;
+      start++;
+    }
+    final int[] groupStarts = new int[hi - start + 1];
+    final int[] order = new int[hi - start];
+    final int groupCount = orderChildGroups(terms, depth, start, hi, groupStarts, order);
+    for (int k = 0; k < groupCount; k++) {
+      next = collectTrieOrder(terms, depth + 1, groupStarts[order[k]], groupStarts[order[k] + 1], result, next);
+    }
+    return next;
+  }
+
+  private static void writeTrieChild (final Appendable out, final Term[] terms, final int depth, final int lo,
+          final int hi, final boolean first) throws IOException {
+    if (!first) {
+      out.append(',');
+    }
+    appendJsonString(out, terms[lo].mToken.substring(depth, depth + 1));
+    out.append(':');
+    writeTrieNode(out, terms, depth + 1, lo, hi);
+  }
+
+  /**
+   * Appends the specified string as quoted JSON string exactly like {@code JSON.stringify}, which (unlike
+   * {@link JsonUtil#appendJsonString(Appendable, CharSequence)}) does not escape the characters U+007F to U+009F.
+   */
+  private static void appendJsonString (final Appendable out, final String s) throws IOException {
+    final int len = s.length();
+    int start = 0;
+    for (int i = 0; i < len; i++) {
+      final char c = s.charAt(i);
+      if (c >= 0x7f && c <= 0x9f) {
+        if (start == 0) {
+          out.append('"');
+        }
+        // The characters before c cannot contain U+007F to U+009F, so they are escaped by JsonUtil like by lunr.js:
+        final String quoted = JsonUtil.toJsonString(s.substring(start, i));
+        out.append(quoted, 1, quoted.length() - 1).append(c);
+        start = i + 1;
+      }
+    }
+    if (start == 0) {
+      JsonUtil.appendJsonString(out, s);
+    } else {
+      final String quoted = JsonUtil.toJsonString(s.substring(start, len));
+      out.append(quoted, 1, quoted.length());
+    }
+  }
+
+  private static boolean isAddedBefore (final Term[] terms, final int termIdx, final int otherTermIdx) {
+    final long ordinal = terms[termIdx].mFirstOrdinal;
+    final long otherOrdinal = terms[otherTermIdx].mFirstOrdinal;
+    return ordinal < otherOrdinal || (ordinal == otherOrdinal && termIdx < otherTermIdx);
+  }
+
+  private static boolean isDigit (final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * A token of the index with its postings list, ordered by document reference.
+   * <p>
+   * Terms are never removed from the index once they have been added (just like <em>lunr.js</em> never removes tokens
+   * from its corpus).
+   */
+  static final class Term implements Comparable<Term> {
+    private static final int INITIAL_CAPACITY = 4;
+
+    final String mToken;
+
+    /**
+     * The ordinal of the document with which this term has been added to the index. The ordinals increase with every
+     * document added; since the tokens of a single document are added in sorted order, the ordinal together with the
+     * token itself determines the order in which <em>lunr.js</em> would have added the tokens.
+     */
+    long mFirstOrdinal;
+
+    private long[] mRefs = new long[INITIAL_CAPACITY];
+
+    private double[] mTfs = new double[INITIAL_CAPACITY];
+
+    private int mSize = 0;
+
+    Term (final String token, final long firstOrdinal) {
+      mToken = token;
+      mFirstOrdinal = firstOrdinal;
+    }
+
+    void putPosting (final long ref, final double tf) {
+      int idx = mSize > 0 && mRefs[mSize - 1] < ref ? -mSize - 1 : Arrays.binarySearch(mRefs, 0, mSize, ref);
+      if (idx >= 0) {
+        mTfs[idx] = tf;
+      } else {
+        idx = -idx - 1;
+        ensureCapacity(mSize + 1);
+        System.arraycopy(mRefs, idx, mRefs, idx + 1, mSize - idx);
+        System.arraycopy(mTfs, idx, mTfs, idx + 1, mSize - idx);
+        mRefs[idx] = ref;
+        mTfs[idx] = tf;
+        mSize++;
+      }
+    }
+
+    /**
+     * @return the number of postings
+     */
+    int getPostingCount () {
+      return mSize;
+    }
+
+    /**
+     * @param idx the index of the posting, {@code 0 <= idx < getPostingCount()}
+     * 
+     * @return the document reference of the posting
+     */
+    long getPostingRef (final int idx) {
+      return mRefs[idx];
+    }
+
+    /**
+     * @param idx the index of the posting, {@code 0 <= idx < getPostingCount()}
+     * 
+     * @return the term frequency of the posting
+     */
+    double getPostingTf (final int idx) {
+      return mTfs[idx];
+    }
+
+    /**
+     * @param ref the document reference
+     * 
+     * @return the index of the posting for the document, or a negative value if the term has no posting for it
+     */
+    int findPosting (final long ref) {
+      return Arrays.binarySearch(mRefs, 0, mSize, ref);
+    }
+
+    void removePosting (final long ref) {
+      final int idx = Arrays.binarySearch(mRefs, 0, mSize, ref);
+      if (idx >= 0) {
+        System.arraycopy(mRefs, idx + 1, mRefs, idx, mSize - idx - 1);
+        System.arraycopy(mTfs, idx + 1, mTfs, idx, mSize - idx - 1);
+        mSize--;
+      }
+    }
+
+    /**
+     * Merges the postings of the specified term (for the same token) into this term. Postings of {@code later} replace
+     * postings of this term for the same document reference.
+     * 
+     * @param later the term with the postings of documents added after the documents of this term
+     */
+    void mergePostings (final Term later) {
+      mFirstOrdinal = Math.min(mFirstOrdinal, later.mFirstOrdinal);
+      if (later.mSize == 0) {
+        return;
+      }
+      if (mSize == 0 || mRefs[mSize - 1] < later.mRefs[0]) {
+        // Fast path for shards of ascending document references:
+        ensureCapacity(mSize + later.mSize);
+        System.arraycopy(later.mRefs, 0, mRefs, mSize, later.mSize);
+        System.arraycopy(later.mTfs, 0, mTfs, mSize, later.mSize);
+        mSize += later.mSize;
+        return;
+      }
+      final long[] refs = new long[mSize + later.mSize];
+      final double[] tfs = new double[refs.length];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i < mSize || j < later.mSize) {
+        if (j == later.mSize || (i < mSize && mRefs[i] < later.mRefs[j])) {
+          refs[k] = mRefs[i];
+          tfs[k++] = mTfs[i++];
+        } else {
+          if (i < mSize && mRefs[i] == later.mRefs[j]) {
+            i++;
+          }
+          refs[k] = later.mRefs[j];
+          tfs[k++] = later.mTfs[j++];
+        }
+      }
+      mRefs = refs;
+      mTfs = tfs;
+      mSize = k;
+    }
+
+    private void ensureCapacity (final int capacity) {
+      if (capacity > mRefs.length) {
+        final int newCapacity = Math.max(capacity, mRefs.length + (mRefs.length >> 1) + 1);
+        mRefs = Arrays.copyOf(mRefs, newCapacity);
+        mTfs = Arrays.copyOf(mTfs, newCapacity);
+      }
+    }
+
+    void writePostings (final Appendable out) throws IOException {
+      out.append('{');
+      for (int i = 0; i < mSize; i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        final String ref = Long.toString(mRefs[i]);
+        out.append('"').append(ref).append("\":{\"ref\":").append(ref).append(",\"tf\":");
+        JsonUtil.appendJsonNumber(out, mTfs[i]);
+        out.append('}');
+      }
+      out.append('}');
+    }
+
+    public int compareTo (final Term o) {
+      return mToken.compareTo(o.mToken);
+    }
+  }
+}
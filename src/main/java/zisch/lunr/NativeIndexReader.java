@@ -0,0 +1,269 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import zisch.lunr.LunrIndex.FieldSpec;
+import zisch.lunr.NativeBackend.Term;
+
+
+/**
+ * Reads a serialized <em>lunr.js</em> index (as written by {@link NativeBackend#writeIndex(Appendable)} or by
+ * {@code JSON.stringify(index.toJSON())}) into a {@link NativeBackend}, using the streaming Jackson {@link JsonParser}.
+ * <p>
+ * The serialized index does not contain the order in which the tokens have been added, but the token trie lists the
+ * child nodes in this order (apart from the digits). The reader numbers the trie nodes in the order in which they are
+ * read and uses these numbers as the ordinals of the {@link Term terms}, so that serializing the loaded index again
+ * (also after adding or removing documents) produces the same trie as <em>lunr.js</em> would.
+ * 
+ * @author zisch
+ */
+final class NativeIndexReader {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+  private final JsonParser mParser;
+
+  private String mRefName = null;
+
+  private List<String> mFieldNames = null;
+
+  private final List<Integer> mFieldBoosts = new ArrayList<Integer>();
+
+  /**
+   * The analyzer names of the fields; {@code null} for the fields which use the analyzer of the pipeline.
+   */
+  private final List<String> mFieldAnalyzers = new ArrayList<String>();
+
+  private LunrAnalyzer mPipelineAnalyzer = LunrAnalyzer.ENGLISH;
+
+  private final Map<Long, String[]> mDocuments = new HashMap<Long, String[]>();
+
+  private final Map<String, Term> mNodeTerms = new HashMap<String, Term>();
+
+  private long mNodeCount = 0;
+
+  private long mTokenStoreLength = 0;
+
+  private final Set<String> mCorpusTokens = new HashSet<String>();
+
+  private NativeIndexReader (final JsonParser parser) {
+    mParser = parser;
+  }
+
+  /**
+   * Reads a serialized index. The reader is not closed.
+   * 
+   * @param in the reader to read the JSON from
+   * 
+   * @return the index
+   * 
+   * @throws IOException if thrown by {@code in} or if the input is not valid JSON
+   * @throws IllegalArgumentException if the input is not a serialized <em>lunr.js</em> index with the pipeline of a
+   *           built-in {@link LunrAnalyzer}
+   */
+  static NativeBackend readIndex (final Reader in) throws IOException {
+    final JsonParser parser = JSON_FACTORY.createParser(in);
+    try {
+      return new NativeIndexReader(parser).read();
+    } finally {
+      parser.close();
+    }
+  }
+
+  private NativeBackend read () throws IOException {
+    expect(mParser.nextToken(), JsonToken.START_OBJECT, "index");
+    boolean hasDocumentStore = false;
+    boolean hasTokenStore = false;
+    boolean hasCorpusTokens = false;
+    while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = mParser.getCurrentName();
+      final JsonToken value = mParser.nextToken();
+      if (name.equals("fields")) {
+        readFields(value);
+      } else if (name.equals("ref")) {
+        expect(value, JsonToken.VALUE_STRING, "ref");
+        mRefName = mParser.getText();
+      } else if (name.equals("documentStore")) {
+        readDocumentStore(value);
+        hasDocumentStore = true;
+      } else if (name.equals("tokenStore")) {
+        readTokenStore(value);
+        hasTokenStore = true;
+      } else if (name.equals("corpusTokens")) {
+        for (final String token : readStrings(value, "corpusTokens")) {
+          mCorpusTokens.add(token);
+        }
+        hasCorpusTokens = true;
+      } else if (name.equals("pipeline")) {
+        mPipelineAnalyzer = LunrAnalyzer.forPipeline(readStrings(value, "pipeline"));
+      } else {
+        // Ignore unknown properties (and the version: lunr.js only warns about a version mismatch):
+        mParser.skipChildren();
+      }
+    }
+    if (mRefName == null || mFieldNames == null || !hasDocumentStore || !hasTokenStore || !hasCorpusTokens) {
+      throw new IllegalArgumentException("Incomplete serialized index; expected the properties 'ref', 'fields', "
+              + "'documentStore', 'tokenStore' and 'corpusTokens'.");
+    }
+
+    // The fields without an analyzer use the one of the pipeline (which comes last in the serialized index):
+    final FieldSpec[] fields = new FieldSpec[mFieldNames.size()];
+    for (int i = 0; i < fields.length; i++) {
+      final String analyzerName = mFieldAnalyzers.get(i);
+      fields[i] = new FieldSpec(mFieldNames.get(i), mFieldBoosts.get(i).intValue(),
+              analyzerName != null ? LunrAnalyzer.forName(analyzerName) : mPipelineAnalyzer);
+    }
+
+    // Only the nodes of the corpus tokens are terms; the other nodes are the inner nodes of the trie:
+    final Map<String, Term> terms = new HashMap<String, Term>(mCorpusTokens.size() * 4 / 3 + 1);
+    for (final String token : mCorpusTokens) {
+      Term term = mNodeTerms.get(token);
+      if (term == null) {
+        term = new Term(token, mNodeCount++);
+      }
+      terms.put(token, term);
+    }
+    return new NativeBackend(mRefName, fields, terms, mDocuments, mNodeCount, mTokenStoreLength);
+  }
+
+  private void readFields (final JsonToken value) throws IOException {
+    expect(value, JsonToken.START_ARRAY, "fields");
+    mFieldNames = new ArrayList<String>();
+    while (mParser.nextToken() == JsonToken.START_OBJECT) {
+      String name = null;
+      int boost = 1;
+      String analyzer = null;
+      while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+        final String prop = mParser.getCurrentName();
+        final JsonToken propValue = mParser.nextToken();
+        if (prop.equals("name")) {
+          expect(propValue, JsonToken.VALUE_STRING, "fields.name");
+          name = mParser.getText();
+        } else if (prop.equals("boost")) {
+          expect(propValue, JsonToken.VALUE_NUMBER_INT, "fields.boost");
+          boost = mParser.getIntValue();
+        } else if (prop.equals("analyzer")) {
+          expect(propValue, JsonToken.VALUE_STRING, "fields.analyzer");
+          analyzer = mParser.getText();
+        } else {
+          mParser.skipChildren();
+        }
+      }
+      if (name == null) {
+        throw new IllegalArgumentException("Missing field name in serialized index.");
+      }
+      mFieldNames.add(name);
+      mFieldBoosts.add(Integer.valueOf(boost));
+      mFieldAnalyzers.add(analyzer);
+    }
+  }
+
+  private void readDocumentStore (final JsonToken value) throws IOException {
+    expect(value, JsonToken.START_OBJECT, "documentStore");
+    while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = mParser.getCurrentName();
+      final JsonToken storeValue = mParser.nextToken();
+      if (name.equals("store")) {
+        expect(storeValue, JsonToken.START_OBJECT, "documentStore.store");
+        while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+          final long ref = parseRef(mParser.getCurrentName());
+          final List<String> tokens = readStrings(mParser.nextToken(), "documentStore.store");
+          mDocuments.put(ref, tokens.toArray(new String[tokens.size()]));
+        }
+      } else {
+        // The length is the size of the store:
+        mParser.skipChildren();
+      }
+    }
+  }
+
+  private void readTokenStore (final JsonToken value) throws IOException {
+    expect(value, JsonToken.START_OBJECT, "tokenStore");
+    while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = mParser.getCurrentName();
+      final JsonToken storeValue = mParser.nextToken();
+      if (name.equals("root")) {
+        readTrieNode(storeValue, "");
+      } else if (name.equals("length")) {
+        expect(storeValue, JsonToken.VALUE_NUMBER_INT, "tokenStore.length");
+        mTokenStoreLength = mParser.getLongValue();
+      } else {
+        mParser.skipChildren();
+      }
+    }
+  }
+
+  private void readTrieNode (final JsonToken value, final String token) throws IOException {
+    expect(value, JsonToken.START_OBJECT, "tokenStore.root");
+    final Term term = new Term(token, mNodeCount++);
+    mNodeTerms.put(token, term);
+    while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = mParser.getCurrentName();
+      final JsonToken nodeValue = mParser.nextToken();
+      if (name.equals("docs")) {
+        expect(nodeValue, JsonToken.START_OBJECT, "tokenStore docs");
+        while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+          final long ref = parseRef(mParser.getCurrentName());
+          expect(mParser.nextToken(), JsonToken.START_OBJECT, "tokenStore docs");
+          double tf = 0;
+          while (mParser.nextToken() == JsonToken.FIELD_NAME) {
+            final JsonToken docValue = mParser.nextToken();
+            if (mParser.getCurrentName().equals("tf")) {
+              if (!docValue.isNumeric()) {
+                throw new IllegalArgumentException("Expected number for 'tf' in serialized index but found "
+                        + docValue + ".");
+              }
+              tf = mParser.getDoubleValue();
+            } else {
+              mParser.skipChildren();
+            }
+          }
+          term.putPosting(ref, tf);
+        }
+      } else {
+        readTrieNode(nodeValue, token + name);
+      }
+    }
+  }
+
+  private List<String> readStrings (final JsonToken value, final String label) throws IOException {
+    expect(value, JsonToken.START_ARRAY, label);
+    final List<String> strings = new ArrayList<String>();
+    for (JsonToken t = mParser.nextToken(); t != JsonToken.END_ARRAY; t = mParser.nextToken()) {
+      expect(t, JsonToken.VALUE_STRING, label);
+      strings.add(mParser.getText());
+    }
+    return strings;
+  }
+
+  private static long parseRef (final String ref) {
+    try {
+      return Long.parseLong(ref);
+    } catch (final NumberFormatException exc) {
+      throw new IllegalArgumentException("Unsupported document reference '" + ref
+              + "' in serialized index; only integer references are supported.", exc);
+    }
+  }
+
+  private static void expect (final JsonToken actual, final JsonToken expected, final String label) {
+    if (actual != expected) {
+      throw new IllegalArgumentException("Expected " + expected + " for '" + label + "' in serialized index but found "
+              + actual + ".");
+    }
+  }
+}
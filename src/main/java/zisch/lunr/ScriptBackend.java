@@ -0,0 +1,156 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import zisch.lunr.LunrIndex.Document;
+import zisch.lunr.LunrIndex.FieldSpec;
+
+
+/**
+ * {@link IndexBackend} which builds the index by running <em>lunr.js</em> in a JavaScript {@link ScriptEngine}.
+ * <p>
+ * <strong>NOTE:</strong> This backend needs a Java runtime which ships a JavaScript engine (Java 1.7 and 1.8); it will
+ * not work in a Java 1.6 engine (because <em>Rhino</em> in Java 1.6 is missing some JavaScript features needed by
+ * <em>lunr.js</em>).
+ * <p>
+ * The engines are taken from a {@link ScriptEnginePool} which compiles <em>lunr.js</em> only once per engine; each
+ * backend has its own {@linkplain ScriptEnginePool.Scope scope} in one of the pooled engines. Documents are passed to
+ * the script as Java arrays with a single precompiled function call per batch, so no JavaScript source code has to be
+ * generated and parsed for each document.
+ * 
+ * @author zisch
+ */
+final class ScriptBackend implements IndexBackend {
+
+  private final String[] mFieldNames;
+
+  private final ScriptEnginePool.Scope mScope;
+
+  ScriptBackend (final String refName, final Collection<FieldSpec> fields) {
+    this(refName, fields, ScriptEnginePool.getShared());
+  }
+
+  ScriptBackend (final String refName, final Collection<FieldSpec> fields, final ScriptEnginePool pool) {
+    mFieldNames = new String[fields.size()];
+    final int[] fieldBoosts = new int[fields.size()];
+    int i = 0;
+    for (final FieldSpec fs : fields) {
+      mFieldNames[i] = fs.getName();
+      fieldBoosts[i++] = fs.getBoost();
+    }
+    mScope = pool.newScope(refName, mFieldNames, fieldBoosts);
+  }
+
+  /**
+   * Returns the scope of the <em>lunr.js</em> index of this backend.
+   * 
+   * @return the scope
+   */
+  ScriptEnginePool.Scope getScope () {
+    return mScope;
+  }
+
+  public void addDocument (final long id, final Map<?, ?> fields) {
+    addDocuments(Collections.singletonList(new Document(id, fields)));
+  }
+
+  public void addDocuments (final List<Document> batch) {
+    addOrUpdateDocuments(batch, false);
+  }
+
+  public void updateDocument (final long id, final Map<?, ?> fields) {
+    addOrUpdateDocuments(Collections.singletonList(new Document(id, fields)), true);
+  }
+
+  public void removeDocument (final long id) {
+    try {
+      mScope.removeDocuments(new double[] { id });
+    } catch (final ScriptException exc) {
+      throw new IllegalStateException("Failed to remove document '" + id + "': " + exc, exc);
+    }
+  }
+
+  private void addOrUpdateDocuments (final List<Document> batch, final boolean update) {
+    // Marshal the batch into two flat arrays: the ids (as doubles, since JavaScript numbers are doubles) and the field
+    // values (mFieldNames.length values per document, null for missing fields):
+    final int fieldCount = mFieldNames.length;
+    final double[] ids = new double[batch.size()];
+    final String[] values = new String[batch.size() * fieldCount];
+    for (int i = 0; i < ids.length; i++) {
+      final Document doc = batch.get(i);
+      ids[i] = doc.getId();
+      for (final Map.Entry<?, ?> f : doc.getFields().entrySet()) {
+        final int fieldIdx = fieldIndex(f.getKey().toString());
+        final Object v = f.getValue();
+        values[i * fieldCount + fieldIdx] = v == null ? "" : v.toString();
+      }
+    }
+    try {
+      if (update) {
+        mScope.updateDocuments(ids, values);
+      } else {
+        mScope.addDocuments(ids, values);
+      }
+    } catch (final ScriptException exc) {
+      throw new IllegalStateException("Failed to " + (update ? "update" : "add") + " batch of " + ids.length
+              + " documents: " + exc, exc);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The documents are added sequentially: the <em>lunr.js</em> index lives in the script scope of this backend and
+   * cannot be merged with indexes built in other scopes.
+   */
+  public void addDocumentsParallel (final List<Document> documents, final int shardCount, final ForkJoinPool pool) {
+    addDocuments(documents);
+  }
+
+  private int fieldIndex (final String name) {
+    for (int i = 0; i < mFieldNames.length; i++) {
+      if (mFieldNames[i].equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unknown field '" + name + "'.");
+  }
+
+  public String serializeIndex () {
+    try {
+      return mScope.serializeIndex();
+    } catch (final ScriptException exc) {
+      throw new IllegalStateException("Failed to serialize index: " + exc, exc);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The index is walked by a script function which appends the JSON of each property separately; only the
+   * {@code docs} of single token store nodes, the entries of the document store and the arrays are stringified as a
+   * whole.
+   */
+  public void writeIndex (final Appendable out) throws IOException {
+    try {
+      mScope.writeIndex(out);
+    } catch (final ScriptException exc) {
+      if (exc.getCause() instanceof IOException) {
+        throw (IOException) exc.getCause();
+      }
+      throw new IllegalStateException("Failed to write index: " + exc, exc);
+    }
+  }
+}
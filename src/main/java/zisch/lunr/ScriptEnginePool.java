@@ -0,0 +1,453 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+
+/**
+ * Pool of JavaScript {@link ScriptEngine} instances with <em>lunr.js</em> compiled once per engine.
+ * <p>
+ * Each {@link ScriptBackend} gets its own {@link Bindings} scope of one of the pooled engines, into which the compiled
+ * <em>lunr.js</em> library is evaluated. Evaluating a {@link CompiledScript} in a fresh scope is much cheaper than
+ * creating a new engine and parsing and compiling <em>lunr.js</em> again, so only the first index created with an
+ * engine pays the full startup cost.
+ * <p>
+ * Script engines are not thread-safe, so all evaluations are serialized per engine (see
+ * {@link PooledEngine#evalScript(CompiledScript, Bindings)}). Engines are created lazily: each new scope gets a new
+ * engine until the pool has reached its maximum size, so indexes which are used concurrently do not share an engine as
+ * long as there are no more indexes than engines. After that, new scopes are bound to the existing engines in turn
+ * (scopes are never released explicitly, they are simply garbage collected with their index, so the pool cannot tell
+ * how many scopes are still in use per engine).
+ * 
+ * @author zisch
+ */
+final class ScriptEnginePool {
+
+  /**
+   * Scope variable which holds the reference name when the {@linkplain #SUPPORT_SCRIPT support script} is evaluated.
+   */
+  private static final String REF_NAME_VAR = "__refName";
+
+  /**
+   * Scope variable which holds the field names (a Java {@code String[]}) when the {@linkplain #SUPPORT_SCRIPT support
+   * script} is evaluated.
+   */
+  private static final String FIELD_NAMES_VAR = "__fieldNames";
+
+  /**
+   * Scope variable which holds the field boosts (a Java {@code int[]}) when the {@linkplain #SUPPORT_SCRIPT support
+   * script} is evaluated.
+   */
+  private static final String FIELD_BOOSTS_VAR = "__fieldBoosts";
+
+  /**
+   * Scope variable for the document ids (a Java {@code double[]}) passed to {@link #ADD_DOCUMENTS_SCRIPT},
+   * {@link #UPDATE_DOCUMENTS_SCRIPT} and {@link #REMOVE_DOCUMENTS_SCRIPT}.
+   */
+  private static final String IDS_VAR = "__ids";
+
+  /**
+   * Scope variable for the field values (a Java {@code String[]} with one value per document and field, {@code null}
+   * for missing fields) passed to {@link #ADD_DOCUMENTS_SCRIPT} and {@link #UPDATE_DOCUMENTS_SCRIPT}.
+   */
+  private static final String VALUES_VAR = "__values";
+
+  /**
+   * Scope variable for the Java {@link Appendable} passed to {@link #WRITE_INDEX_SCRIPT}.
+   */
+  private static final String OUT_VAR = "__out";
+
+  /**
+   * Creates the {@code index} for the reference name and fields in the scope variables and defines the functions
+   * called by the other scripts.
+   */
+  private static final String SUPPORT_SCRIPT = ""
+          + "var fieldNames = []\n"
+          + "for (var i = 0; i < " + FIELD_NAMES_VAR + ".length; i++) fieldNames.push(String(" + FIELD_NAMES_VAR
+          + "[i]))\n"
+          + "var refName = String(" + REF_NAME_VAR + ")\n"
+          + "var index = lunr(function () {\n"
+          + "  this.ref(refName)\n"
+          + "  for (var i = 0; i < fieldNames.length; i++) {\n"
+          + "    this.field(fieldNames[i], {boost: Number(" + FIELD_BOOSTS_VAR + "[i])})\n"
+          + "  }\n"
+          + "})\n"
+          // Java values are converted to JavaScript numbers and strings explicitly, since script engines may pass them
+          // as wrapped Java objects:
+          + "function addDocuments (ids, values, update) {\n"
+          + "  var fieldCount = fieldNames.length\n"
+          + "  for (var i = 0; i < ids.length; i++) {\n"
+          + "    var doc = {}\n"
+          + "    doc[refName] = Number(ids[i])\n"
+          + "    for (var j = 0; j < fieldCount; j++) {\n"
+          + "      var v = values[i * fieldCount + j]\n"
+          + "      if (v != null) doc[fieldNames[j]] = String(v)\n"
+          + "    }\n"
+          + "    if (update) index.update(doc); else index.add(doc)\n"
+          + "  }\n"
+          + "}\n"
+          + "function removeDocuments (ids) {\n"
+          + "  for (var i = 0; i < ids.length; i++) {\n"
+          + "    var doc = {}\n"
+          + "    doc[refName] = Number(ids[i])\n"
+          + "    index.remove(doc)\n"
+          + "  }\n"
+          + "}\n"
+          // Writes the same output as JSON.stringify(index.toJSON()) incrementally:
+          + "function writeIndex (out) {\n"
+          + "  function write (value, stringifyObject) {\n"
+          + "    if (value != null && typeof value.toJSON === 'function') value = value.toJSON()\n"
+          + "    if (value == null || typeof value !== 'object' || Array.isArray(value) || stringifyObject) {\n"
+          + "      out.append(JSON.stringify(value))\n"
+          + "      return\n"
+          + "    }\n"
+          + "    var keys = Object.keys(value)\n"
+          + "    out.append('{')\n"
+          + "    for (var i = 0; i < keys.length; i++) {\n"
+          + "      if (i > 0) out.append(',')\n"
+          + "      out.append(JSON.stringify(keys[i]) + ':')\n"
+          + "      write(value[keys[i]], keys[i] === 'docs')\n"
+          + "    }\n"
+          + "    out.append('}')\n"
+          + "  }\n"
+          + "  write(index.toJSON(), false)\n"
+          + "}\n";
+
+  private static final String ADD_DOCUMENTS_SCRIPT = "addDocuments(" + IDS_VAR + ", " + VALUES_VAR + ", false)";
+
+  private static final String UPDATE_DOCUMENTS_SCRIPT = "addDocuments(" + IDS_VAR + ", " + VALUES_VAR + ", true)";
+
+  private static final String REMOVE_DOCUMENTS_SCRIPT = "removeDocuments(" + IDS_VAR + ")";
+
+  private static final String WRITE_INDEX_SCRIPT = "writeIndex(" + OUT_VAR + ")";
+
+  private static final String SERIALIZE_INDEX_SCRIPT = "JSON.stringify(index.toJSON(), null)";
+
+  private static final String LUNR_SCRIPT_NAME = "lunr.js";
+
+  private final int mMaxEngines;
+
+  private final List<PooledEngine> mEngines = new ArrayList<PooledEngine>();
+
+  /**
+   * The number of engines which are currently being created (outside of the lock of the pool).
+   */
+  private int mCreatingEngines = 0;
+
+  /**
+   * The index in {@link #mEngines} of the engine which gets the next scope once the pool is full.
+   */
+  private int mNextEngine = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param maxEngines the maximum number of engines in the pool; at least 1
+   */
+  ScriptEnginePool (final int maxEngines) {
+    if (maxEngines < 1) {
+      throw new IllegalArgumentException("maxEngines must be >= 1 but was " + maxEngines);
+    }
+    mMaxEngines = maxEngines;
+  }
+
+  /**
+   * Returns the pool shared by all {@link ScriptBackend} instances, with at most one engine per available processor.
+   * 
+   * @return the shared pool
+   */
+  static ScriptEnginePool getShared () {
+    return SharedPoolHolder.POOL;
+  }
+
+  /**
+   * Creates a new scope with an empty <em>lunr.js</em> index for the specified reference name and fields in one of the
+   * pooled engines.
+   * 
+   * @param refName the name of the reference property
+   * @param fieldNames the field names
+   * @param fieldBoosts the field boosts (in the order of {@code fieldNames})
+   * 
+   * @return the new scope
+   */
+  Scope newScope (final String refName, final String[] fieldNames, final int[] fieldBoosts) {
+    final PooledEngine engine = selectEngine();
+    final Bindings bindings = engine.mEngine.createBindings();
+    bindings.put(REF_NAME_VAR, refName);
+    bindings.put(FIELD_NAMES_VAR, fieldNames);
+    bindings.put(FIELD_BOOSTS_VAR, fieldBoosts);
+    engine.eval(engine.mLunrScript, bindings);
+    engine.eval(engine.mSupportScript, bindings);
+    bindings.remove(REF_NAME_VAR);
+    bindings.remove(FIELD_NAMES_VAR);
+    bindings.remove(FIELD_BOOSTS_VAR);
+    return new Scope(engine, bindings);
+  }
+
+  /**
+   * Creates a new engine if the pool is not full yet, or else returns the existing engines in turn. The engine is
+   * created outside of the lock of the pool, so scopes can be created in other engines meanwhile.
+   */
+  private PooledEngine selectEngine () {
+    synchronized (this) {
+      while (true) {
+        if (mEngines.size() + mCreatingEngines < mMaxEngines) {
+          mCreatingEngines++;
+          break;
+        }
+        if (!mEngines.isEmpty()) {
+          final PooledEngine engine = mEngines.get(mNextEngine % mEngines.size());
+          mNextEngine = (mNextEngine + 1) % mEngines.size();
+          return engine;
+        }
+        // The only engines of the pool are still being created by other threads:
+        try {
+          wait();
+        } catch (final InterruptedException exc) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for a script engine.", exc);
+        }
+      }
+    }
+    PooledEngine engine = null;
+    try {
+      engine = new PooledEngine();
+      return engine;
+    } finally {
+      synchronized (this) {
+        mCreatingEngines--;
+        if (engine != null) {
+          mEngines.add(engine);
+        }
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * A {@link ScriptEngine} of the pool together with the scripts compiled for it.
+   * 
+   * @author zisch
+   */
+  static final class PooledEngine {
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    private final ScriptEngine mEngine;
+
+    private final CompiledScript mLunrScript;
+
+    private final CompiledScript mSupportScript;
+
+    private final CompiledScript mAddDocumentsScript;
+
+    private final CompiledScript mUpdateDocumentsScript;
+
+    private final CompiledScript mRemoveDocumentsScript;
+
+    private final CompiledScript mWriteIndexScript;
+
+    private final CompiledScript mSerializeIndexScript;
+
+    private PooledEngine () {
+      final ScriptEngineManager factory = new ScriptEngineManager();
+      mEngine = factory.getEngineByName("JavaScript");
+      if (mEngine == null) {
+        throw new IllegalStateException("No JavaScript ScriptEngine available in this Java runtime; use the '"
+                + LunrIndex.Backend.NATIVE + "' backend instead.");
+      }
+      if (!(mEngine instanceof Compilable)) {
+        throw new IllegalStateException("The JavaScript ScriptEngine '" + mEngine.getFactory().getEngineName()
+                + "' does not support compiling scripts; use the '" + LunrIndex.Backend.NATIVE
+                + "' backend instead.");
+      }
+      final Compilable compilable = (Compilable) mEngine;
+      mLunrScript = compileLunrScript(compilable);
+      mSupportScript = compile(compilable, "support script", SUPPORT_SCRIPT);
+      mAddDocumentsScript = compile(compilable, "add documents script", ADD_DOCUMENTS_SCRIPT);
+      mUpdateDocumentsScript = compile(compilable, "update documents script", UPDATE_DOCUMENTS_SCRIPT);
+      mRemoveDocumentsScript = compile(compilable, "remove documents script", REMOVE_DOCUMENTS_SCRIPT);
+      mWriteIndexScript = compile(compilable, "write index script", WRITE_INDEX_SCRIPT);
+      mSerializeIndexScript = compile(compilable, "serialize index script", SERIALIZE_INDEX_SCRIPT);
+    }
+
+    /**
+     * Evaluates the specified script of this engine in the specified scope. Only one script is evaluated at a time
+     * per engine.
+     * 
+     * @param script the script to evaluate
+     * @param bindings the scope
+     * 
+     * @return the result of the script
+     * 
+     * @throws ScriptException if thrown by the script
+     */
+    Object evalScript (final CompiledScript script, final Bindings bindings) throws ScriptException {
+      mLock.lock();
+      try {
+        return script.eval(bindings);
+      } finally {
+        mLock.unlock();
+      }
+    }
+
+    private void eval (final CompiledScript script, final Bindings bindings) {
+      try {
+        evalScript(script, bindings);
+      } catch (final ScriptException exc) {
+        throw new IllegalStateException("Failed to initialize lunr index: " + exc, exc);
+      }
+    }
+
+    private static CompiledScript compileLunrScript (final Compilable compilable) {
+      final InputStream is = LunrIndex.class.getResourceAsStream(LUNR_SCRIPT_NAME);
+      if (is == null) {
+        throw new IllegalStateException("Cannot find lunr script '" + LUNR_SCRIPT_NAME + "' in resources of '"
+                + LunrIndex.class.getName() + "'.");
+      }
+      try {
+        final Reader ir = new InputStreamReader(is, "UTF-8");
+        return compilable.compile(ir);
+      } catch (final IOException exc) {
+        throw new IllegalStateException("Failed to load lunr script '" + LUNR_SCRIPT_NAME + "' from resources of '"
+                + LunrIndex.class.getName() + "': " + exc, exc);
+      } catch (final ScriptException exc) {
+        throw new IllegalStateException("Failed to compile lunr script '" + LUNR_SCRIPT_NAME + "' from resources of '"
+                + LunrIndex.class.getName() + "': " + exc, exc);
+      } finally {
+        try {
+          is.close();
+        } catch (final IOException exc) {
+          throw new IllegalStateException("Failed to close input stream from lunr script '" + LUNR_SCRIPT_NAME
+                  + "' in resources of '" + LunrIndex.class.getName() + "': " + exc, exc);
+        }
+      }
+    }
+
+    private static CompiledScript compile (final Compilable compilable, final String label, final String script) {
+      try {
+        return compilable.compile(script);
+      } catch (final ScriptException exc) {
+        throw new IllegalStateException("Failed to compile " + label + " <" + script + ">: " + exc, exc);
+      }
+    }
+  }
+
+  /**
+   * The scope of a single <em>lunr.js</em> index in a {@link PooledEngine}.
+   * 
+   * @author zisch
+   */
+  static final class Scope {
+    private final PooledEngine mEngine;
+
+    private final Bindings mBindings;
+
+    private Scope (final PooledEngine engine, final Bindings bindings) {
+      mEngine = engine;
+      mBindings = bindings;
+    }
+
+    /**
+     * Returns the engine to which this scope is bound.
+     * 
+     * @return the engine
+     */
+    PooledEngine getEngine () {
+      return mEngine;
+    }
+
+    /**
+     * Adds a batch of documents to the index.
+     * 
+     * @param ids the document references
+     * @param values the field values, {@code fieldNames.length} per document
+     * 
+     * @throws ScriptException if thrown by the script
+     */
+    void addDocuments (final double[] ids, final String[] values) throws ScriptException {
+      evalWithDocuments(mEngine.mAddDocumentsScript, ids, values);
+    }
+
+    /**
+     * Updates a batch of documents (see {@code lunr.Index.update}).
+     * 
+     * @param ids the document references
+     * @param values the field values, {@code fieldNames.length} per document
+     * 
+     * @throws ScriptException if thrown by the script
+     */
+    void updateDocuments (final double[] ids, final String[] values) throws ScriptException {
+      evalWithDocuments(mEngine.mUpdateDocumentsScript, ids, values);
+    }
+
+    /**
+     * Removes documents from the index (see {@code lunr.Index.remove}).
+     * 
+     * @param ids the document references
+     * 
+     * @throws ScriptException if thrown by the script
+     */
+    void removeDocuments (final double[] ids) throws ScriptException {
+      evalWithDocuments(mEngine.mRemoveDocumentsScript, ids, null);
+    }
+
+    private void evalWithDocuments (final CompiledScript script, final double[] ids, final String[] values)
+            throws ScriptException {
+      mBindings.put(IDS_VAR, ids);
+      mBindings.put(VALUES_VAR, values);
+      try {
+        mEngine.evalScript(script, mBindings);
+      } finally {
+        mBindings.remove(IDS_VAR);
+        mBindings.remove(VALUES_VAR);
+      }
+    }
+
+    /**
+     * Writes the serialized index incrementally to the specified {@link Appendable}.
+     * 
+     * @param out the {@link Appendable} to write to
+     * 
+     * @throws ScriptException if thrown by the script
+     */
+    void writeIndex (final Appendable out) throws ScriptException {
+      mBindings.put(OUT_VAR, out);
+      try {
+        mEngine.evalScript(mEngine.mWriteIndexScript, mBindings);
+      } finally {
+        mBindings.remove(OUT_VAR);
+      }
+    }
+
+    /**
+     * Returns the serialized index.
+     * 
+     * @return the result of {@code JSON.stringify(index.toJSON())}
+     * 
+     * @throws ScriptException if thrown by the script
+     */
+    String serializeIndex () throws ScriptException {
+      return (String) mEngine.evalScript(mEngine.mSerializeIndexScript, mBindings);
+    }
+  }
+
+  private static final class SharedPoolHolder {
+    static final ScriptEnginePool POOL = new ScriptEnginePool(Runtime.getRuntime().availableProcessors());
+  }
+}
@@ -0,0 +1,698 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import zisch.lunr.LunrIndex.FieldSpec;
+import zisch.lunr.NativeBackend.Term;
+
+
+/**
+ * Immutable, compact snapshot of a {@link NativeBackend} which answers queries like {@code lunr.Index.search}.
+ * <p>
+ * Documents and terms are numbered; the postings of all terms are stored in one {@link IntBuffer} of document numbers
+ * and the document vectors (the term numbers of the tokens of each document with their term frequencies) in one
+ * {@link IntBuffer} and one {@link FloatBuffer}. The term frequencies already contain the {@link FieldSpec#getBoost()
+ * field boosts}. A snapshot created from a {@link NativeBackend} wraps arrays on the heap; a snapshot opened by
+ * {@link IndexFile} uses views of the memory-mapped file, so queries read directly from the mapped pages.
+ * <p>
+ * The snapshot holds everything needed to recreate the {@link NativeBackend} (see {@link #toNativeBackend()}): the
+ * exact term frequencies of all postings (also of postings left behind by removed and re-added documents, whose
+ * references are numbered after the documents of the document store), the token store length and the order of the
+ * token trie.
+ * <p>
+ * The scoring follows <em>lunr.js</em> 0.5.4, including its quirks, so that the results match the results of a search
+ * in the browser (up to the precision of the {@code float} term frequencies):
+ * <ul>
+ * <li>Each query token is expanded to all terms which start with it; terms other than the token itself get a
+ * similarity boost of {@code 1 / ln(max(3, lengthDifference))}.</li>
+ * <li>A document matches if it has a posting for at least one expanded term of every query token (postings left
+ * behind by re-added documents count, too).</li>
+ * <li>The score is the cosine similarity of the query vector and the document vector, both weighted with the
+ * inverse document frequency {@code 1 + ln(tokenStoreLength / postingCount)}. {@code lunr.Vector.insert} never inserts
+ * before the first element of the query vector and {@code lunr.Vector.dot} merges the sorted lists, so only the first
+ * query entry of each term counts, and the terms less than the term of the first entry do not count at all.</li>
+ * <li>Documents with equal scores are ordered by their reference as string.</li>
+ * <li>Documents which match only by stale postings of a previous version and have no tokens now get the score 0
+ * (instead of {@code NaN} in <em>lunr.js</em>).</li>
+ * </ul>
+ * <p>
+ * Searching is thread-safe. Each thread uses its own scratch buffers, so a query allocates hardly more than the
+ * tokens of the query string and the results.
+ * 
+ * @author zisch
+ */
+final class SearchIndex {
+
+  /**
+   * Orders document references like <em>lunr.js</em> orders them in a {@code lunr.SortedSet}: as decimal strings.
+   */
+  private static final Comparator<Long> REF_STRING_ORDER = new Comparator<Long>() {
+    public int compare (final Long o1, final Long o2) {
+      return o1.toString().compareTo(o2.toString());
+    }
+  };
+
+  final String mRefName;
+
+  final FieldSpec[] mFields;
+
+  final long mTokenStoreLength;
+
+  private final int mFieldBoostSum;
+
+  /**
+   * The analyzer of the first field, which also analyzes the queries (like the pipeline of the serialized index does
+   * in the browser).
+   */
+  private final LunrAnalyzer mQueryAnalyzer;
+
+  /**
+   * The number of documents in the document store; the documents {@code 0} to {@code mDocumentCount - 1}.
+   */
+  final int mDocumentCount;
+
+  /**
+   * The number of terms.
+   */
+  final int mTermCount;
+
+  /**
+   * The token of term {@code t} consists of the characters {@code mTokenChars[mTokenStarts[t]]} to
+   * {@code mTokenChars[mTokenStarts[t + 1] - 1]}; the tokens are sorted.
+   */
+  final IntBuffer mTokenStarts;
+
+  final CharBuffer mTokenChars;
+
+  /**
+   * The term numbers in the order of a pre-order traversal of the token trie.
+   */
+  final IntBuffer mTrieOrder;
+
+  /**
+   * The position of each term in {@link #mTrieOrder}.
+   */
+  final IntBuffer mTriePositions;
+
+  /**
+   * The inverse document frequency of each term.
+   */
+  final DoubleBuffer mIdfs;
+
+  /**
+   * The postings of term {@code t} are {@code mPostingDocs[mPostingStarts[t]]} to
+   * {@code mPostingDocs[mPostingStarts[t + 1] - 1]}.
+   */
+  final IntBuffer mPostingStarts;
+
+  final IntBuffer mPostingDocs;
+
+  /**
+   * The term frequencies of the postings (in full precision, for {@link #toNativeBackend()}).
+   */
+  final DoubleBuffer mPostingTfs;
+
+  /**
+   * The document references: those of the document store ordered as strings, followed by the references which only
+   * occur in postings, ordered numerically.
+   */
+  final LongBuffer mRefs;
+
+  /**
+   * The vector of document {@code d} is {@code mDocTerms[mDocStarts[d]]} to {@code mDocTerms[mDocStarts[d + 1] - 1]}
+   * (with the term frequencies in {@link #mDocTfs}).
+   */
+  final IntBuffer mDocStarts;
+
+  final IntBuffer mDocTerms;
+
+  final FloatBuffer mDocTfs;
+
+  final DoubleBuffer mDocMagnitudes;
+
+  private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue () {
+      return new Scratch(mDocumentCount, mTermCount);
+    }
+  };
+
+  /**
+   * Creates the snapshot of the current state of the specified index.
+   * 
+   * @param index the index
+   */
+  SearchIndex (final NativeBackend index) {
+    mRefName = index.getRefName();
+    mFields = index.getFields();
+    mFieldBoostSum = boostSum(mFields);
+    mQueryAnalyzer = queryAnalyzer(mFields);
+    mTokenStoreLength = index.getTokenStoreLength();
+
+    final Term[] terms = index.sortedTerms();
+    mTermCount = terms.length;
+    final int[] tokenStarts = new int[terms.length + 1];
+    final Map<String, Integer> termNumbers = new HashMap<String, Integer>(terms.length * 4 / 3 + 1);
+    int tokenCharCount = 0;
+    for (int t = 0; t < terms.length; t++) {
+      tokenStarts[t] = tokenCharCount;
+      tokenCharCount += terms[t].mToken.length();
+      termNumbers.put(terms[t].mToken, t);
+    }
+    tokenStarts[terms.length] = tokenCharCount;
+    final char[] tokenChars = new char[tokenCharCount];
+    for (int t = 0; t < terms.length; t++) {
+      terms[t].mToken.getChars(0, terms[t].mToken.length(), tokenChars, tokenStarts[t]);
+    }
+    mTokenStarts = IntBuffer.wrap(tokenStarts);
+    mTokenChars = CharBuffer.wrap(tokenChars);
+    final int[] trieOrder = NativeBackend.trieOrder(terms);
+    final int[] triePositions = new int[terms.length];
+    for (int i = 0; i < trieOrder.length; i++) {
+      triePositions[trieOrder[i]] = i;
+    }
+    mTrieOrder = IntBuffer.wrap(trieOrder);
+    mTriePositions = IntBuffer.wrap(triePositions);
+
+    final Map<Long, String[]> documents = index.getDocuments();
+    final Long[] docRefs = documents.keySet().toArray(new Long[documents.size()]);
+    Arrays.sort(docRefs, REF_STRING_ORDER);
+    mDocumentCount = docRefs.length;
+    final Map<Long, Integer> docNumbers = new HashMap<Long, Integer>(docRefs.length * 4 / 3 + 1);
+    for (int d = 0; d < docRefs.length; d++) {
+      docNumbers.put(docRefs[d], d);
+    }
+
+    // Postings; references which are no longer in the document store get the next numbers (lunr.js would fail to
+    // compute the document vector for them, so they never match):
+    final double tokenStoreLength = mTokenStoreLength;
+    final double[] idfs = new double[terms.length];
+    final int[] postingStarts = new int[terms.length + 1];
+    int postingCount = 0;
+    for (final Term term : terms) {
+      postingCount += term.getPostingCount();
+    }
+    final int[] postingDocs = new int[postingCount];
+    final double[] postingTfs = new double[postingCount];
+    final List<Long> postingOnlyRefs = new ArrayList<Long>();
+    int p = 0;
+    for (int t = 0; t < terms.length; t++) {
+      postingStarts[t] = p;
+      final int count = terms[t].getPostingCount();
+      idfs[t] = count > 0 ? 1 + Math.log(tokenStoreLength / count) : 1;
+      for (int i = 0; i < count; i++) {
+        final Long ref = terms[t].getPostingRef(i);
+        Integer d = docNumbers.get(ref);
+        if (d == null) {
+          d = docNumbers.size();
+          docNumbers.put(ref, d);
+          postingOnlyRefs.add(ref);
+        }
+        postingDocs[p] = d;
+        postingTfs[p++] = terms[t].getPostingTf(i);
+      }
+    }
+    postingStarts[terms.length] = p;
+    mIdfs = DoubleBuffer.wrap(idfs);
+    mPostingStarts = IntBuffer.wrap(postingStarts);
+
+    // Renumber the references which only occur in postings in numerical order:
+    final long[] refs = new long[docNumbers.size()];
+    for (int d = 0; d < docRefs.length; d++) {
+      refs[d] = docRefs[d];
+    }
+    final Long[] sortedPostingOnlyRefs = postingOnlyRefs.toArray(new Long[postingOnlyRefs.size()]);
+    Arrays.sort(sortedPostingOnlyRefs);
+    final int[] renumbered = new int[sortedPostingOnlyRefs.length];
+    for (int i = 0; i < sortedPostingOnlyRefs.length; i++) {
+      refs[docRefs.length + i] = sortedPostingOnlyRefs[i];
+      renumbered[docNumbers.get(sortedPostingOnlyRefs[i]) - docRefs.length] = docRefs.length + i;
+    }
+    for (int i = 0; i < postingDocs.length; i++) {
+      if (postingDocs[i] >= docRefs.length) {
+        postingDocs[i] = renumbered[postingDocs[i] - docRefs.length];
+      }
+    }
+    mRefs = LongBuffer.wrap(refs);
+    mPostingDocs = IntBuffer.wrap(postingDocs);
+    mPostingTfs = DoubleBuffer.wrap(postingTfs);
+
+    // Document vectors:
+    final int[] docStarts = new int[docRefs.length + 1];
+    int docTermCount = 0;
+    for (final String[] tokens : documents.values()) {
+      docTermCount += tokens.length;
+    }
+    final int[] docTerms = new int[docTermCount];
+    final float[] docTfs = new float[docTermCount];
+    final double[] docMagnitudes = new double[docRefs.length];
+    int v = 0;
+    for (int d = 0; d < docRefs.length; d++) {
+      docStarts[d] = v;
+      double sumOfSquares = 0;
+      for (final String token : documents.get(docRefs[d])) {
+        final int t = termNumbers.get(token);
+        final int posting = terms[t].findPosting(refs[d]);
+        final double tf = posting >= 0 ? terms[t].getPostingTf(posting) : 0;
+        docTerms[v] = t;
+        docTfs[v++] = (float) tf;
+        sumOfSquares += (tf * idfs[t]) * (tf * idfs[t]);
+      }
+      docMagnitudes[d] = Math.sqrt(sumOfSquares);
+    }
+    docStarts[docRefs.length] = v;
+    mDocStarts = IntBuffer.wrap(docStarts);
+    mDocTerms = IntBuffer.wrap(docTerms);
+    mDocTfs = FloatBuffer.wrap(docTfs);
+    mDocMagnitudes = DoubleBuffer.wrap(docMagnitudes);
+  }
+
+  /**
+   * Constructor for a snapshot read by {@link IndexFile}; the buffers are used as they are, see the fields for their
+   * contents.
+   */
+  SearchIndex (final String refName, final FieldSpec[] fields, final long tokenStoreLength, final int documentCount,
+          final IntBuffer tokenStarts, final CharBuffer tokenChars, final IntBuffer trieOrder,
+          final IntBuffer triePositions, final DoubleBuffer idfs, final IntBuffer postingStarts,
+          final IntBuffer postingDocs, final DoubleBuffer postingTfs, final LongBuffer refs, final IntBuffer docStarts,
+          final IntBuffer docTerms, final FloatBuffer docTfs, final DoubleBuffer docMagnitudes) {
+    mRefName = refName;
+    mFields = fields;
+    mFieldBoostSum = boostSum(fields);
+    mQueryAnalyzer = queryAnalyzer(fields);
+    mTokenStoreLength = tokenStoreLength;
+    mDocumentCount = documentCount;
+    mTermCount = trieOrder.limit();
+    mTokenStarts = tokenStarts;
+    mTokenChars = tokenChars;
+    mTrieOrder = trieOrder;
+    mTriePositions = triePositions;
+    mIdfs = idfs;
+    mPostingStarts = postingStarts;
+    mPostingDocs = postingDocs;
+    mPostingTfs = postingTfs;
+    mRefs = refs;
+    mDocStarts = docStarts;
+    mDocTerms = docTerms;
+    mDocTfs = docTfs;
+    mDocMagnitudes = docMagnitudes;
+  }
+
+  private static LunrAnalyzer queryAnalyzer (final FieldSpec[] fields) {
+    return fields.length > 0 ? fields[0].getAnalyzer() : LunrAnalyzer.ENGLISH;
+  }
+
+  private static int boostSum (final FieldSpec[] fields) {
+    int boostSum = 0;
+    for (final FieldSpec fs : fields) {
+      boostSum += fs.getBoost();
+    }
+    return boostSum;
+  }
+
+  /**
+   * Recreates the index from which this snapshot has been taken. The terms get their position in the token trie as
+   * ordinal, which keeps the order of the trie when documents are added to the recreated index.
+   * 
+   * @return the recreated index
+   */
+  NativeBackend toNativeBackend () {
+    final String[] tokens = new String[mTermCount];
+    final Map<String, Term> terms = new HashMap<String, Term>(mTermCount * 4 / 3 + 1);
+    for (int t = 0; t < mTermCount; t++) {
+      tokens[t] = token(t);
+      final Term term = new Term(tokens[t], mTriePositions.get(t));
+      for (int p = mPostingStarts.get(t); p < mPostingStarts.get(t + 1); p++) {
+        term.putPosting(mRefs.get(mPostingDocs.get(p)), mPostingTfs.get(p));
+      }
+      terms.put(tokens[t], term);
+    }
+    final Map<Long, String[]> documents = new HashMap<Long, String[]>(mDocumentCount * 4 / 3 + 1);
+    for (int d = 0; d < mDocumentCount; d++) {
+      final String[] docTokens = new String[mDocStarts.get(d + 1) - mDocStarts.get(d)];
+      for (int i = 0; i < docTokens.length; i++) {
+        docTokens[i] = tokens[mDocTerms.get(mDocStarts.get(d) + i)];
+      }
+      documents.put(mRefs.get(d), docTokens);
+    }
+    return new NativeBackend(mRefName, mFields.clone(), terms, documents, mTermCount, mTokenStoreLength);
+  }
+
+  /**
+   * @return the number of documents in the snapshot
+   */
+  int getDocumentCount () {
+    return mDocumentCount;
+  }
+
+  /**
+   * Searches the index and returns the best matches, ordered by descending score.
+   * 
+   * @param query the query
+   * @param refs receives the document references of the matches
+   * @param scores receives the scores of the matches; must be at least as long as {@code refs}
+   * 
+   * @return the number of matches written to {@code refs} and {@code scores}; at most {@code refs.length}
+   */
+  int search (final String query, final long[] refs, final double[] scores) {
+    final List<String> tokens = mQueryAnalyzer.analyzeToList(query);
+    final int limit = Math.min(refs.length, mDocumentCount);
+    if (tokens.isEmpty() || limit == 0) {
+      return 0;
+    }
+    final Scratch scratch = mScratch.get();
+    try {
+      return search(scratch, tokens, limit, refs, scores);
+    } finally {
+      scratch.reset();
+    }
+  }
+
+  private int search (final Scratch scratch, final List<String> tokens, final int limit, final long[] refs,
+          final double[] scores) {
+    final double queryTf = 1.0 / tokens.size() * mFields.length * mFieldBoostSum;
+    for (int q = 0; q < tokens.size(); q++) {
+      final String token = tokens.get(q);
+      // The terms starting with the token are a range of the sorted tokens and a range of the trie order:
+      final int lo = lowerBound(token);
+      int hi = lo;
+      int trieStart = Integer.MAX_VALUE;
+      while (hi < mTermCount && startsWith(hi, token)) {
+        trieStart = Math.min(trieStart, mTriePositions.get(hi));
+        hi++;
+      }
+      boolean matched = false;
+      for (int i = trieStart; i < trieStart + (hi - lo); i++) {
+        final int t = mTrieOrder.get(i);
+        final int postingEnd = mPostingStarts.get(t + 1);
+        if (mPostingStarts.get(t) == postingEnd) {
+          continue;
+        }
+        matched = true;
+        double similarityBoost = 1;
+        final int tokenLength = mTokenStarts.get(t + 1) - mTokenStarts.get(t);
+        if (tokenLength != token.length()) {
+          similarityBoost = 1 / Math.log(Math.max(3, tokenLength - token.length()));
+        }
+        scratch.insertQueryTerm(t, queryTf * mIdfs.get(t) * similarityBoost);
+        for (int p = mPostingStarts.get(t); p < postingEnd; p++) {
+          final int d = mPostingDocs.get(p);
+          if (d < mDocumentCount) {
+            scratch.matchDocument(d, q);
+          }
+        }
+      }
+      if (!matched) {
+        return 0;
+      }
+    }
+
+    final double queryMagnitude = Math.sqrt(scratch.mQuerySumOfSquares);
+    final int tokenCount = tokens.size();
+    for (int i = 0; i < scratch.mCandidateCount; i++) {
+      final int d = scratch.mCandidates[i];
+      if (scratch.mMatchCounts[d] == tokenCount) {
+        // Documents without tokens only match by stale postings; lunr.js scores them with NaN:
+        final double magnitude = mDocMagnitudes.get(d);
+        final double score = magnitude > 0 ? dot(scratch, d) / (queryMagnitude * magnitude) : 0;
+        scratch.offer(d, score, limit);
+      }
+    }
+    return scratch.drainHeap(mRefs, refs, scores);
+  }
+
+  /**
+   * Computes the dot product of the query vector and the document vector like {@code lunr.Vector.dot}.
+   */
+  private double dot (final Scratch scratch, final int d) {
+    double dot = 0;
+    final int headTerm = scratch.mQueryHeadTerm;
+    final int end = mDocStarts.get(d + 1);
+    // Document entries less than the first query entry are skipped by the merge (the document vector is sorted):
+    final int k = binarySearch(mDocTerms, mDocStarts.get(d), end, headTerm);
+    for (int j = k >= 0 ? k : -k - 1; j < end; j++) {
+      final int t = mDocTerms.get(j);
+      final double queryValue = t == headTerm ? scratch.mQueryHeadValue : scratch.mQueryValues[t];
+      if (queryValue != 0) {
+        dot += queryValue * (mDocTfs.get(j) * mIdfs.get(t));
+      }
+    }
+    return dot;
+  }
+
+  private static int binarySearch (final IntBuffer buffer, final int from, final int to, final int key) {
+    int lo = from;
+    int hi = to - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int value = buffer.get(mid);
+      if (value < key) {
+        lo = mid + 1;
+      } else if (value > key) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(lo + 1);
+  }
+
+  /**
+   * @return the index of the first term whose token is not less than {@code token}
+   */
+  private int lowerBound (final String token) {
+    int lo = 0;
+    int hi = mTermCount;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (compareToken(mid, token) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Compares the token of term {@code t} with {@code token} like {@link String#compareTo(String)}.
+   */
+  private int compareToken (final int t, final String token) {
+    final int start = mTokenStarts.get(t);
+    final int length = mTokenStarts.get(t + 1) - start;
+    final int n = Math.min(length, token.length());
+    for (int i = 0; i < n; i++) {
+      final char c = mTokenChars.get(start + i);
+      if (c != token.charAt(i)) {
+        return c - token.charAt(i);
+      }
+    }
+    return length - token.length();
+  }
+
+  private boolean startsWith (final int t, final String prefix) {
+    final int start = mTokenStarts.get(t);
+    if (mTokenStarts.get(t + 1) - start < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (mTokenChars.get(start + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String token (final int t) {
+    final int start = mTokenStarts.get(t);
+    final char[] chars = new char[mTokenStarts.get(t + 1) - start];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = mTokenChars.get(start + i);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Per-thread buffers for the query vector, the candidate documents and the top-k heap.
+   */
+  private static final class Scratch {
+    /**
+     * The number of query tokens matched so far per document.
+     */
+    final int[] mMatchCounts;
+
+    /**
+     * The documents which matched the first query token.
+     */
+    final int[] mCandidates;
+
+    int mCandidateCount = 0;
+
+    /**
+     * The term and value of the first query vector entry.
+     */
+    int mQueryHeadTerm = -1;
+
+    double mQueryHeadValue = 0;
+
+    /**
+     * The value of the first query vector entry after the head for each term (all values are positive, so 0 means no
+     * entry).
+     */
+    final double[] mQueryValues;
+
+    /**
+     * The terms with a value in {@link #mQueryValues}.
+     */
+    int[] mQueryTerms = new int[16];
+
+    int mQuerySize = 0;
+
+    double mQuerySumOfSquares = 0;
+
+    int[] mHeapDocs = new int[16];
+
+    double[] mHeapScores = new double[16];
+
+    int mHeapSize = 0;
+
+    Scratch (final int documentCount, final int termCount) {
+      mMatchCounts = new int[documentCount];
+      mCandidates = new int[documentCount];
+      mQueryValues = new double[termCount];
+    }
+
+    void matchDocument (final int d, final int queryTokenIdx) {
+      if (mMatchCounts[d] == queryTokenIdx) {
+        if (queryTokenIdx == 0) {
+          mCandidates[mCandidateCount++] = d;
+        }
+        mMatchCounts[d] = queryTokenIdx + 1;
+      }
+    }
+
+    /**
+     * Inserts an entry into the query vector like {@code lunr.Vector.insert}: before the first element after the head
+     * with a greater term number, or at the end. All elements after the head are therefore sorted, with the entries
+     * of the same term in insertion order; only the first of them can match a document entry in the dot product.
+     */
+    void insertQueryTerm (final int t, final double value) {
+      mQuerySumOfSquares += value * value;
+      if (mQueryHeadTerm < 0) {
+        mQueryHeadTerm = t;
+        mQueryHeadValue = value;
+      } else if (mQueryValues[t] == 0) {
+        if (mQuerySize == mQueryTerms.length) {
+          mQueryTerms = Arrays.copyOf(mQueryTerms, mQuerySize * 2);
+        }
+        mQueryTerms[mQuerySize++] = t;
+        mQueryValues[t] = value;
+      }
+    }
+
+    /**
+     * Offers a match to the bounded min-heap of the best {@code limit} matches; the root is the worst match.
+     */
+    void offer (final int d, final double score, final int limit) {
+      if (mHeapSize < limit) {
+        if (mHeapSize == mHeapDocs.length) {
+          mHeapDocs = Arrays.copyOf(mHeapDocs, Math.min(limit, mHeapSize * 2));
+          mHeapScores = Arrays.copyOf(mHeapScores, mHeapDocs.length);
+        }
+        int i = mHeapSize++;
+        while (i > 0 && isWorse(d, score, mHeapDocs[(i - 1) / 2], mHeapScores[(i - 1) / 2])) {
+          mHeapDocs[i] = mHeapDocs[(i - 1) / 2];
+          mHeapScores[i] = mHeapScores[(i - 1) / 2];
+          i = (i - 1) / 2;
+        }
+        mHeapDocs[i] = d;
+        mHeapScores[i] = score;
+      } else if (isWorse(mHeapDocs[0], mHeapScores[0], d, score)) {
+        siftDown(d, score, mHeapSize);
+      }
+    }
+
+    private void siftDown (final int d, final double score, final int size) {
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && isWorse(mHeapDocs[child + 1], mHeapScores[child + 1], mHeapDocs[child],
+                mHeapScores[child])) {
+          child++;
+        }
+        if (!isWorse(mHeapDocs[child], mHeapScores[child], d, score)) {
+          break;
+        }
+        mHeapDocs[i] = mHeapDocs[child];
+        mHeapScores[i] = mHeapScores[child];
+        i = child;
+      }
+      mHeapDocs[i] = d;
+      mHeapScores[i] = score;
+    }
+
+    /**
+     * Removes all matches from the heap and writes them to {@code refs} and {@code scores}, best first.
+     */
+    int drainHeap (final LongBuffer docRefs, final long[] refs, final double[] scores) {
+      final int count = mHeapSize;
+      for (int i = count - 1; i >= 0; i--) {
+        refs[i] = docRefs.get(mHeapDocs[0]);
+        scores[i] = mHeapScores[0];
+        final int size = --mHeapSize;
+        if (size > 0) {
+          siftDown(mHeapDocs[size], mHeapScores[size], size);
+        }
+      }
+      return count;
+    }
+
+    private static boolean isWorse (final int d, final double score, final int otherD, final double otherScore) {
+      // Documents are numbered in the order of their references as strings:
+      return score < otherScore || (score == otherScore && d > otherD);
+    }
+
+    void reset () {
+      for (int i = 0; i < mCandidateCount; i++) {
+        mMatchCounts[mCandidates[i]] = 0;
+      }
+      mCandidateCount = 0;
+      for (int i = 0; i < mQuerySize; i++) {
+        mQueryValues[mQueryTerms[i]] = 0;
+      }
+      mQuerySize = 0;
+      mQueryHeadTerm = -1;
+      mQueryHeadValue = 0;
+      mQuerySumOfSquares = 0;
+      mHeapSize = 0;
+    }
+  }
+
+  /**
+   * Converts the result of {@link #search(String, long[], double[])} into a list.
+   */
+  static List<LunrIndex.SearchResult> toList (final long[] refs, final double[] scores, final int count) {
+    final List<LunrIndex.SearchResult> results = new ArrayList<LunrIndex.SearchResult>(count);
+    for (int i = 0; i < count; i++) {
+      results.add(new LunrIndex.SearchResult(refs[i], scores[i]));
+    }
+    return results;
+  }
+}
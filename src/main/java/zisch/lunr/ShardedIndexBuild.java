@@ -0,0 +1,68 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import zisch.lunr.LunrIndex.Document;
+
+
+/**
+ * {@link RecursiveTask} which builds the index for a range of documents in shards of {@link NativeBackend} instances.
+ * <p>
+ * The range is split in halves until it holds no more than the shard size. Each shard is built independently with the
+ * global ordinals of its documents; the halves are then merged in document order, so the merged shard is exactly what
+ * adding the documents sequentially would have produced.
+ * 
+ * @author zisch
+ */
+final class ShardedIndexBuild extends RecursiveTask<NativeBackend> {
+  private static final long serialVersionUID = 1L;
+
+  private final NativeBackend mTemplate;
+
+  private final List<Document> mDocuments;
+
+  private final long mFirstOrdinal;
+
+  private final int mShardSize;
+
+  /**
+   * Constructor.
+   * 
+   * @param template the index whose reference name and fields are used for the shards
+   * @param documents the documents to add
+   * @param firstOrdinal the ordinal of the first document in {@code documents}
+   * @param shardSize the maximum number of documents per shard; at least 1
+   */
+  ShardedIndexBuild (final NativeBackend template, final List<Document> documents, final long firstOrdinal,
+          final int shardSize) {
+    mTemplate = template;
+    mDocuments = documents;
+    mFirstOrdinal = firstOrdinal;
+    mShardSize = shardSize;
+  }
+
+  @Override
+  protected NativeBackend compute () {
+    final int size = mDocuments.size();
+    if (size <= mShardSize) {
+      final NativeBackend shard = mTemplate.newShard(mFirstOrdinal);
+      shard.addDocuments(mDocuments);
+      return shard;
+    }
+    // Split at a multiple of the shard size, so that all shards but the last one are full:
+    final int mid = ((size / mShardSize + 1) / 2) * mShardSize;
+    final ShardedIndexBuild head = new ShardedIndexBuild(mTemplate, mDocuments.subList(0, mid), mFirstOrdinal,
+            mShardSize);
+    final ShardedIndexBuild tail = new ShardedIndexBuild(mTemplate, mDocuments.subList(mid, size), mFirstOrdinal
+            + mid, mShardSize);
+    tail.fork();
+    final NativeBackend merged = head.compute();
+    merged.mergeFrom(tail.join());
+    return merged;
+  }
+}
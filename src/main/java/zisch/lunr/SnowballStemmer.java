@@ -0,0 +1,139 @@
+/*
+ * Triggs u Gaeggs.
+ */
+package zisch.lunr;
+
+
+/**
+ * Base class of the stemmers which implement the Snowball algorithms (see
+ * <a href="http://snowball.tartarus.org/">snowball.tartarus.org</a>) on a {@link StringBuilder}.
+ * <p>
+ * The Snowball programs work backwards from the end of the word: {@code among} finds the longest of a list of suffixes
+ * and the region conditions ({@code R1}, {@code R2}, {@code RV}) are checked for the start of the suffix found. Inside
+ * a {@code setlimit} only suffixes which lie completely in the region are considered. The helpers of this class take
+ * the region start as {@code limit} for the latter case.
+ * 
+ * @author zisch
+ */
+abstract class SnowballStemmer implements LanguageAnalyzer.Stemmer {
+
+  /**
+   * @param c a character of the word
+   * 
+   * @return whether the character is a vowel of the language
+   */
+  abstract boolean isVowel (char c);
+
+  /**
+   * Returns the start of the region after the first non-vowel following a vowel, where the vowel is at or after
+   * {@code from}: {@code R1} for {@code from == 0} and {@code R2} for {@code from == R1}.
+   * 
+   * @return the start of the region; the length of the word if there is no such region
+   */
+  final int regionStart (final CharSequence w, final int from) {
+    for (int i = from + 1; i < w.length(); i++) {
+      if (isVowel(w.charAt(i - 1)) && !isVowel(w.charAt(i))) {
+        return i + 1;
+      }
+    }
+    return w.length();
+  }
+
+  /**
+   * @return the index of the first vowel at or after {@code from}, or {@code -1}
+   */
+  final int nextVowel (final CharSequence w, final int from) {
+    for (int i = from; i < w.length(); i++) {
+      if (isVowel(w.charAt(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return whether the character before {@code end} exists, is at or after {@code limit} and is a vowel
+   */
+  final boolean vowelBefore (final CharSequence w, final int end, final int limit) {
+    return end - 1 >= limit && end - 1 >= 0 && isVowel(w.charAt(end - 1));
+  }
+
+  /**
+   * @return whether the character before {@code end} exists, is at or after {@code limit} and is not a vowel
+   */
+  final boolean nonVowelBefore (final CharSequence w, final int end, final int limit) {
+    return end - 1 >= limit && end - 1 >= 0 && !isVowel(w.charAt(end - 1));
+  }
+
+  /**
+   * Finds the longest of the specified suffixes which the word ends with and which starts at or after {@code limit}.
+   * 
+   * @return the suffix, or {@code null} if the word ends with none of the suffixes
+   */
+  static String longestSuffix (final CharSequence w, final String[] suffixes, final int limit) {
+    String result = null;
+    for (final String s : suffixes) {
+      if ((result == null || s.length() > result.length()) && w.length() - s.length() >= limit
+              && endsWith(w, w.length(), s)) {
+        result = s;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return whether the part of the word before {@code end} ends with {@code s}
+   */
+  static boolean endsWith (final CharSequence w, final int end, final String s) {
+    final int start = end - s.length();
+    if (start < 0) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (w.charAt(start + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the start of the suffix {@code s} of the word
+   */
+  static int start (final CharSequence w, final String s) {
+    return w.length() - s.length();
+  }
+
+  /**
+   * @return the character before {@code end}, or {@code 0} at the start of the word
+   */
+  static char charBefore (final CharSequence w, final int end) {
+    return end > 0 ? w.charAt(end - 1) : 0;
+  }
+
+  /**
+   * Replaces the last {@code length} characters of the word.
+   */
+  static void replaceEnd (final StringBuilder w, final int length, final String replacement) {
+    w.setLength(w.length() - length);
+    w.append(replacement);
+  }
+
+  /**
+   * Replaces all occurrences of the character {@code c} by {@code replacement}.
+   */
+  static void replaceAll (final StringBuilder w, final char c, final char replacement) {
+    for (int i = 0; i < w.length(); i++) {
+      if (w.charAt(i) == c) {
+        w.setCharAt(i, replacement);
+      }
+    }
+  }
+
+  /**
+   * Returns whether the string contains the character.
+   */
+  static boolean in (final String chars, final char c) {
+    return chars.indexOf(c) >= 0;
+  }
+}